@@ -0,0 +1,52 @@
+package com.example.controlcenter;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Счётчик идущих передач картинок (одиночный снимок, снимки камер) вместе с их декодированием.
+// Первая начавшаяся передача и последняя закончившаяся сообщаются слушателям - по ним держатся
+// wake lock и работа ConnectionService, ровно пока что-то принимается
+public class ActiveTransfers {
+
+    public interface Listener {
+        // Поток, начавший первую передачу
+        void onTransfersStarted();
+
+        // Поток, закончивший последнюю
+        void onTransfersFinished();
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private int active = 0;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Уведомления - под тем же замком, что и счёт: начало и конец не могут прийти слушателю в обратном порядке
+    public synchronized void begin() {
+        if (active++ == 0) {
+            for (Listener listener : listeners) listener.onTransfersStarted();
+        }
+    }
+
+    // Закончилось count передач (обрыв снимает сразу все недокачанные снимки камер)
+    public synchronized void end(int count) {
+        if (count <= 0 || active == 0) return;
+        active = Math.max(0, active - count);
+        if (active == 0) {
+            for (Listener listener : listeners) listener.onTransfersFinished();
+        }
+    }
+
+    public void end() {
+        end(1);
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized boolean isIdle() {
+        return active == 0;
+    }
+}
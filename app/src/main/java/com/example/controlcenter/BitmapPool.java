@@ -0,0 +1,120 @@
+package com.example.controlcenter;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Пул Bitmap для повторного использования через BitmapFactory.Options.inBitmap.
+// Корзины по объёму выделенной памяти: под новый кадр берётся наименьший подходящий Bitmap,
+// но не больше чем вдвое крупнее нужного, чтобы не держать лишнюю память.
+// Потокобезопасен: берут из пула фоновые декодеры, возвращают - главный поток
+public class BitmapPool {
+
+    private static final String TAG = "BitmapPool";
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // Порядок поступления для вытеснения самых старых
+    private final ArrayDeque<Bitmap> insertionOrder = new ArrayDeque<>();
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    // Статистика для оценки эффекта пула за сессию
+    private int hits = 0;
+    private int misses = 0;
+    private long allocatedBytes = 0;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Bitmap, подходящий для декодирования кадра width x height в config, или null
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int required = bytesFor(width, height, config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(required);
+        while (entry != null && entry.getKey() <= required * 2L) {
+            ArrayDeque<Bitmap> bucket = entry.getValue();
+            Bitmap bitmap = bucket.pollFirst();
+            if (bucket.isEmpty()) buckets.remove(entry.getKey());
+            if (bitmap != null) {
+                insertionOrder.remove(bitmap);
+                currentBytes -= entry.getKey();
+                hits++;
+                return bitmap;
+            }
+            entry = buckets.higherEntry(entry.getKey());
+        }
+        misses++;
+        allocatedBytes += required;
+        return null;
+    }
+
+    // Возвращает кадр, который больше нигде не показывается
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        buckets.computeIfAbsent(size, k -> new ArrayDeque<>()).addLast(bitmap);
+        insertionOrder.addLast(bitmap);
+        currentBytes += size;
+        trimTo(maxBytes);
+    }
+
+    // Bitmap не подошёл в inBitmap (декодер отказался): кадр всё равно выделен заново - считаем промахом
+    public synchronized void putBack(Bitmap bitmap) {
+        hits--;
+        misses++;
+        allocatedBytes += bitmap.getAllocationByteCount();
+        put(bitmap);
+    }
+
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(currentBytes / 2);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): " + stats());
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    private void trimTo(long limit) {
+        while (currentBytes > limit && !insertionOrder.isEmpty()) {
+            Bitmap oldest = insertionOrder.pollFirst();
+            int size = oldest.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            if (bucket != null) {
+                for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+                    if (it.next() == oldest) {
+                        it.remove();
+                        break;
+                    }
+                }
+                if (bucket.isEmpty()) buckets.remove(size);
+            }
+            currentBytes -= size;
+            oldest.recycle();
+        }
+    }
+
+    public synchronized String stats() {
+        return "hits=" + hits + ", misses=" + misses
+                + ", allocated=" + (allocatedBytes / (1024 * 1024)) + " MB"
+                + ", pooled=" + (currentBytes / (1024 * 1024)) + " MB";
+    }
+
+    static int bytesFor(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel = config == Bitmap.Config.RGB_565 ? 2 : (config == Bitmap.Config.ALPHA_8 ? 1 : 4);
+        return width * height * bytesPerPixel;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.controlcenter;
+
+// Неизменяемое состояние снимка одной камеры для UI: запрошен, принимается (с процентом), готов или ошибка.
+// CACHED - последний кадр из дискового кэша, показывается до прихода свежего
+public class CameraCapture {
+
+    public enum State { CACHED, REQUESTED, RECEIVING, DONE, FAILED }
+
+    private final int cameraId;
+    private final State state;
+    private final int progress;
+    private final DecodedImage image;
+    private final String error;
+    private final long capturedAt;
+
+    private CameraCapture(int cameraId, State state, int progress, DecodedImage image, String error, long capturedAt) {
+        this.cameraId = cameraId;
+        this.state = state;
+        this.progress = progress;
+        this.image = image;
+        this.error = error;
+        this.capturedAt = capturedAt;
+    }
+
+    public static CameraCapture cached(int cameraId, DecodedImage image, long capturedAt) {
+        return new CameraCapture(cameraId, State.CACHED, 100, image, null, capturedAt);
+    }
+
+    public static CameraCapture requested(int cameraId) {
+        return new CameraCapture(cameraId, State.REQUESTED, 0, null, null, 0);
+    }
+
+    public static CameraCapture receiving(int cameraId, int progress) {
+        return new CameraCapture(cameraId, State.RECEIVING, progress, null, null, 0);
+    }
+
+    public static CameraCapture done(int cameraId, DecodedImage image) {
+        return new CameraCapture(cameraId, State.DONE, 100, image, null, System.currentTimeMillis());
+    }
+
+    public static CameraCapture failed(int cameraId, String error) {
+        return new CameraCapture(cameraId, State.FAILED, 0, null, error, 0);
+    }
+
+    public int getCameraId() { return cameraId; }
+    public State getState() { return state; }
+    public int getProgress() { return progress; }
+    public DecodedImage getImage() { return image; }
+    public String getError() { return error; }
+    // Время съёмки (мс с эпохи) для CACHED и DONE, иначе 0
+    public long getCapturedAt() { return capturedAt; }
+
+    // Снимок ещё в пути - повторный запрос этой камеры не нужен
+    public boolean isInProgress() {
+        return state == State.REQUESTED || state == State.RECEIVING;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.controlcenter;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Список камер реле по id. Строки ответа на camList копятся на потоке приёма и публикуются
+// одним неизменяемым снимком, когда разобрана вся принятая пачка (MessageRouter.endBatch) -
+// UI получает список целиком, а не перестраивается на каждую строку
+public class CameraDirectory {
+
+    // Неизменяемый список камер в порядке прихода с поиском позиции по id
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(Collections.emptyList());
+
+        private final List<ProtocolMessage.Camera> cameras;
+        private final Map<Integer, Integer> positions;
+
+        Snapshot(List<ProtocolMessage.Camera> cameras) {
+            this.cameras = Collections.unmodifiableList(cameras);
+            this.positions = new HashMap<>(cameras.size() * 2);
+            for (int i = 0; i < cameras.size(); i++) {
+                positions.put(cameras.get(i).id, i);
+            }
+        }
+
+        public int size() {
+            return cameras.size();
+        }
+
+        public ProtocolMessage.Camera get(int position) {
+            return cameras.get(position);
+        }
+
+        // -1, если камеры нет
+        public int indexOf(int cameraId) {
+            Integer position = positions.get(cameraId);
+            return position != null ? position : -1;
+        }
+
+        public boolean contains(int cameraId) {
+            return positions.containsKey(cameraId);
+        }
+
+        public List<ProtocolMessage.Camera> asList() {
+            return cameras;
+        }
+
+        public List<Integer> ids() {
+            return new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    return cameras.get(index).id;
+                }
+
+                @Override
+                public int size() {
+                    return cameras.size();
+                }
+            };
+        }
+    }
+
+    // Только поток приёма; повтор id заменяет описание, но не меняет позицию камеры
+    private final LinkedHashMap<Integer, ProtocolMessage.Camera> cameras = new LinkedHashMap<>();
+    private boolean changed = false;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public void add(ProtocolMessage.Camera camera) {
+        ProtocolMessage.Camera previous = cameras.put(camera.id, camera);
+        if (previous == null || !previous.description.equals(camera.description)) changed = true;
+    }
+
+    // Новый снимок или null, если с прошлой публикации список не изменился
+    public Snapshot publish() {
+        if (!changed) return null;
+        changed = false;
+        snapshot = new Snapshot(new ArrayList<>(cameras.values()));
+        return snapshot;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.controlcenter;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+import android.view.ViewGroup;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.material.button.MaterialButton;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Сетка кнопок камер. Новый снимок списка сравнивается со старым в фоне (DiffUtil), кнопки
+// переиспользуются при прокрутке. Доступность и ход съёмки хранит сам адаптер, а не наблюдатель
+// на каждой кнопке: при их смене перепривязываются только затронутые кнопки (без анимации замены)
+public class CameraGridAdapter extends ListAdapter<ProtocolMessage.Camera, CameraGridAdapter.ButtonHolder> {
+
+    public interface OnCameraClickListener {
+        void onCameraClick(int cameraId);
+    }
+
+    // Долгое нажатие - живой просмотр камеры
+    public interface OnCameraLongClickListener {
+        void onCameraLongClick(int cameraId);
+    }
+
+    static class ButtonHolder extends RecyclerView.ViewHolder {
+        final MaterialButton button;
+
+        ButtonHolder(MaterialButton button) {
+            super(button);
+            this.button = button;
+        }
+    }
+
+    private static final Object PAYLOAD_STATE = new Object();
+    // Зазор между рядами сетки
+    static final int ROW_GAP_PX = 4;
+
+    private static final DiffUtil.ItemCallback<ProtocolMessage.Camera> DIFF = new DiffUtil.ItemCallback<ProtocolMessage.Camera>() {
+        @Override
+        public boolean areItemsTheSame(ProtocolMessage.Camera oldItem, ProtocolMessage.Camera newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(ProtocolMessage.Camera oldItem, ProtocolMessage.Camera newItem) {
+            return oldItem.description.equals(newItem.description);
+        }
+    };
+
+    private final OnCameraClickListener listener;
+    private final OnCameraLongClickListener longClickListener;
+    private final ColorStateList buttonStates;
+    private final Drawable cameraIcon;
+    private final int iconSizePx;
+    private final int buttonHeightPx;
+    // Показанный список: по нему ищутся позиции кнопок, чьё состояние изменилось
+    private CameraDirectory.Snapshot displayed = CameraDirectory.Snapshot.EMPTY;
+    private boolean enabled = false;
+    private Map<Integer, CameraCapture> captures = Collections.emptyMap();
+
+    // Высота кнопки фиксирована: по ней MainActivity ограничивает видимое число рядов
+    public CameraGridAdapter(OnCameraClickListener listener, OnCameraLongClickListener longClickListener,
+                             ColorStateList buttonStates, Drawable cameraIcon, int iconSizePx, int buttonHeightPx) {
+        super(DIFF);
+        this.listener = listener;
+        this.longClickListener = longClickListener;
+        this.buttonStates = buttonStates;
+        this.cameraIcon = cameraIcon;
+        this.iconSizePx = iconSizePx;
+        this.buttonHeightPx = buttonHeightPx;
+        setHasStableIds(true);
+    }
+
+    public void submit(CameraDirectory.Snapshot snapshot) {
+        submitList(snapshot.asList(), () -> displayed = snapshot);
+    }
+
+    // Общий флаг доступности (пир подключён, UI не заблокирован запросом)
+    public void setEnabled(boolean enabled) {
+        if (this.enabled == enabled) return;
+        this.enabled = enabled;
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_STATE);
+    }
+
+    // Перепривязываются только камеры, у которых сменилось состояние снимка
+    public void setCaptures(Map<Integer, CameraCapture> captures) {
+        Map<Integer, CameraCapture> previous = this.captures;
+        this.captures = captures != null ? captures : Collections.emptyMap();
+        Set<Integer> ids = new HashSet<>(previous.keySet());
+        ids.addAll(this.captures.keySet());
+        for (int id : ids) {
+            if (previous.get(id) == this.captures.get(id)) continue;
+            int position = displayed.indexOf(id);
+            if (position >= 0 && position < getItemCount()) notifyItemChanged(position, PAYLOAD_STATE);
+        }
+    }
+
+    @Override
+    public ButtonHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        MaterialButton button = new MaterialButton(parent.getContext());
+        style(button, buttonStates, cameraIcon, iconSizePx);
+        ViewGroup.MarginLayoutParams params = new ViewGroup.MarginLayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, buttonHeightPx);
+        params.setMargins(4, ROW_GAP_PX / 2, 4, ROW_GAP_PX / 2);
+        button.setLayoutParams(params);
+
+        ButtonHolder holder = new ButtonHolder(button);
+        button.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) listener.onCameraClick(getItem(position).id);
+        });
+        button.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) return false;
+            longClickListener.onCameraLongClick(getItem(position).id);
+            return true;
+        });
+        return holder;
+    }
+
+    // Общий вид кнопок камер; им же оформлена кнопка "Все" вне сетки
+    static void style(MaterialButton button, ColorStateList buttonStates, Drawable cameraIcon, int iconSizePx) {
+        button.setTextColor(Color.WHITE);
+        button.setAllCaps(false);
+        button.setTextSize(13);
+        button.setInsetTop(0);
+        button.setInsetBottom(0);
+        button.setPadding(0, 0, 0, 0);
+        button.setMaxLines(1);
+        button.setEllipsize(TextUtils.TruncateAt.END);
+        button.setBackgroundTintList(buttonStates);
+        if (cameraIcon != null) {
+            Drawable iconCopy = cameraIcon.getConstantState().newDrawable().mutate();
+            iconCopy.setTint(Color.WHITE);
+            button.setIcon(iconCopy);
+            button.setIconSize(iconSizePx);
+            button.setIconPadding(8);
+            button.setIconGravity(MaterialButton.ICON_GRAVITY_TEXT_START);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(ButtonHolder holder, int position) {
+        bindState(holder, getItem(position));
+    }
+
+    private void bindState(ButtonHolder holder, ProtocolMessage.Camera camera) {
+        CameraCapture capture = captures.get(camera.id);
+        boolean busy = capture != null && capture.isInProgress();
+        String label = camera.description;
+        if (capture != null && capture.getState() == CameraCapture.State.RECEIVING) {
+            label += " " + capture.getProgress() + "%";
+        } else if (busy) {
+            label += " …";
+        }
+        holder.button.setText(label);
+        holder.button.setEnabled(enabled && !busy);
+        holder.button.setAlpha(enabled && !busy ? 1.0f : 0.7f);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+}
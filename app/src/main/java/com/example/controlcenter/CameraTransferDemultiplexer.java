@@ -0,0 +1,93 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Разбирает чередующиеся куски картинок нескольких камер: у каждой камеры свой автомат приёма
+// со своим буфером, так что передачи не мешают друг другу.
+// Вызывается только из потока приёма, поэтому без синхронизации
+public class CameraTransferDemultiplexer {
+
+    private static final String TAG = "CameraDemux";
+
+    public interface Listener {
+        void onCameraTransferStarted(int cameraId, int length);
+
+        // Процент приёма камеры; вызывается только при изменении значения
+        void onCameraTransferProgress(int cameraId, int percent);
+
+        // Картинка собрана целиком; массивом теперь владеет получатель
+        void onCameraTransferComplete(int cameraId, byte[] data);
+
+        // Недокачанную картинку камеры заменила новая - она не закончится ни complete, ни reset
+        default void onCameraTransferDropped(int cameraId) {
+        }
+    }
+
+    // Автомат приёма одной камеры: RECEIVING -> (массив отдан) -> удалён из таблицы
+    private static class CameraTransfer {
+        final byte[] data;
+        int received;
+        int lastPercent = -1;
+
+        CameraTransfer(int length) {
+            this.data = new byte[length];
+        }
+    }
+
+    private final Listener listener;
+    private final Map<Integer, CameraTransfer> transfers = new HashMap<>();
+
+    public CameraTransferDemultiplexer(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start(int cameraId, int length) {
+        if (transfers.remove(cameraId) != null) {
+            Log.w(TAG, "Камера " + cameraId + ": новая картинка до конца предыдущей, старая отброшена");
+            listener.onCameraTransferDropped(cameraId);
+        }
+        CameraTransfer transfer = new CameraTransfer(length);
+        transfers.put(cameraId, transfer);
+        listener.onCameraTransferStarted(cameraId, length);
+        if (length == 0) complete(cameraId, transfer);
+    }
+
+    public void append(int cameraId, ByteBuffer chunk) {
+        CameraTransfer transfer = transfers.get(cameraId);
+        if (transfer == null) {
+            Log.w(TAG, "Камера " + cameraId + ": кусок без CAM_IMAGE, пропущен");
+            return;
+        }
+        int n = Math.min(chunk.remaining(), transfer.data.length - transfer.received);
+        chunk.get(transfer.data, transfer.received, n);
+        transfer.received += n;
+
+        if (transfer.received == transfer.data.length) {
+            complete(cameraId, transfer);
+            return;
+        }
+        int percent = (int) (transfer.received * 100L / transfer.data.length);
+        if (percent != transfer.lastPercent) {
+            transfer.lastPercent = percent;
+            listener.onCameraTransferProgress(cameraId, percent);
+        }
+    }
+
+    private void complete(int cameraId, CameraTransfer transfer) {
+        transfers.remove(cameraId);
+        listener.onCameraTransferComplete(cameraId, transfer.data);
+    }
+
+    // Обрыв соединения: недокачанные картинки не восстановить
+    public void reset() {
+        transfers.clear();
+    }
+
+    public int getActiveTransfers() {
+        return transfers.size();
+    }
+}
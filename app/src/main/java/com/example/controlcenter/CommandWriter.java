@@ -0,0 +1,216 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Отдельный поток записи команд серверу. Отправители (UI, heartbeat, приём) только кладут строку
+// в неблокирующие очереди; поток записи забирает всё накопившееся и отправляет одной пачкой - один flush.
+// Очередь по приоритетам: TAKE_PHOTO_ и CANCEL_PHOTO_ уходят первыми (между собой - в порядке отправки),
+// служебные PING/camList - последними и не дублируются, пока предыдущий такой же не ушёл.
+// Пока соединения нет, команды копятся в ограниченной очереди (служебные не копятся вовсе)
+// и уходят сразу после рукопожатия нового соединения
+public class CommandWriter {
+
+    private static final String TAG = "CommandWriter";
+    public static final int DEFAULT_CAPACITY = 32;
+
+    public enum Priority { URGENT, NORMAL, HOUSEKEEPING }
+
+    // Получатель пачки; false - запись не удалась (соединение рвётся)
+    public interface Sink {
+        boolean writeBatch(List<String> commands);
+    }
+
+    private final int capacity;
+    @SuppressWarnings("unchecked")
+    private final Queue<String>[] queues = new Queue[Priority.values().length];
+    private final AtomicInteger queued = new AtomicInteger();
+    // Служебные команды, которые уже стоят в очереди - повтор не добавляется
+    private final Set<String> pendingHousekeeping = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+
+    // Текущее соединение; null - связи нет
+    private volatile Connection connection;
+    private volatile boolean running = true;
+
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final AtomicLong commandsWritten = new AtomicLong();
+    private final AtomicLong commandsCoalesced = new AtomicLong();
+    private final AtomicLong commandsDropped = new AtomicLong();
+
+    public CommandWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CommandWriter(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        thread = new Thread(this::writeLoop, "command-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static Priority classify(String command) {
+        // Отмена - в одной очереди со снимком: CANCEL_PHOTO_ перед TAKE_PHOTO_ той же камеры должен дойти
+        // первым, иначе сервер отменит уже новый снимок
+        if (command.startsWith("TAKE_PHOTO_") || command.startsWith(ConnectionManager.CANCEL_PHOTO_COMMAND)) {
+            return Priority.URGENT;
+        }
+        if (command.equals("PING") || command.equals("camList")) return Priority.HOUSEKEEPING;
+        return Priority.NORMAL;
+    }
+
+    // Из любого потока, не блокирует
+    public void send(String command) {
+        Priority priority = classify(command);
+        if (priority == Priority.HOUSEKEEPING) {
+            // Без соединения PING и camList бессмысленны: после рукопожатия их пошлют заново
+            if (connection == null) {
+                commandsDropped.incrementAndGet();
+                return;
+            }
+            if (!pendingHousekeeping.add(command)) {
+                commandsCoalesced.incrementAndGet();
+                return;
+            }
+        }
+        queues[priority.ordinal()].offer(command);
+        if (queued.incrementAndGet() > capacity) dropOldest();
+        LockSupport.unpark(thread);
+    }
+
+    // Переполнение: первыми уходят служебные, затем обычные, срочные - в последнюю очередь
+    private void dropOldest() {
+        for (int i = queues.length - 1; i >= 0; i--) {
+            String dropped = queues[i].poll();
+            if (dropped != null) {
+                queued.decrementAndGet();
+                if (i == Priority.HOUSEKEEPING.ordinal()) pendingHousekeeping.remove(dropped);
+                commandsDropped.incrementAndGet();
+                Log.w(TAG, "Очередь команд переполнена, отброшена: " + dropped);
+                return;
+            }
+        }
+    }
+
+    // Новое соединение: рукопожатие и всё накопленное уходят одной пачкой
+    public void attach(Sink sink, List<String> handshake) {
+        connection = new Connection(sink, handshake);
+        LockSupport.unpark(thread);
+    }
+
+    // Соединение потеряно. Недоотправленное адресовано старому соединению - его снимки уже считаются
+    // неудачными, поэтому очередь очищается; новые команды копятся до attach().
+    // Неудачная попытка переподключения соединения не давала - накопленное за обрыв не трогаем
+    public void detach() {
+        if (connection == null) return;
+        connection = null;
+        for (Queue<String> queue : queues) {
+            String dropped;
+            while ((dropped = queue.poll()) != null) {
+                queued.decrementAndGet();
+                commandsDropped.incrementAndGet();
+            }
+        }
+        pendingHousekeeping.clear();
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        while (running) {
+            Connection target = connection;
+            if (target == null || (target.handshake.get() == null && queued.get() == 0)) {
+                LockSupport.park(this);
+                continue;
+            }
+            batch.clear();
+            // Рукопожатие забирается один раз и только своё: attach() за это время создаёт новое соединение
+            List<String> handshake = target.handshake.getAndSet(null);
+            if (handshake != null) batch.addAll(handshake);
+            int handshakeSize = batch.size();
+            drainTo(batch);
+            if (batch.isEmpty()) continue;
+            if (connection != target) {
+                // Соединение сменилось, пока собиралась пачка: рукопожатие прежнего больше не нужно,
+                // команды возвращаются в очередь и уйдут уже новому
+                requeue(batch.subList(handshakeSize, batch.size()));
+                continue;
+            }
+            if (target.sink.writeBatch(batch)) {
+                batchesWritten.incrementAndGet();
+                commandsWritten.addAndGet(batch.size());
+            } else {
+                Log.w(TAG, "Пачка из " + batch.size() + " команд не отправлена");
+            }
+        }
+    }
+
+    private void drainTo(List<String> batch) {
+        for (int i = 0; i < queues.length; i++) {
+            String command;
+            while ((command = queues[i].poll()) != null) {
+                queued.decrementAndGet();
+                if (i == Priority.HOUSEKEEPING.ordinal()) pendingHousekeeping.remove(command);
+                batch.add(command);
+            }
+        }
+    }
+
+    private void requeue(List<String> commands) {
+        for (String command : commands) {
+            Priority priority = classify(command);
+            if (priority == Priority.HOUSEKEEPING) continue;
+            queues[priority.ordinal()].offer(command);
+            queued.incrementAndGet();
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    public long getCommandsWritten() {
+        return commandsWritten.get();
+    }
+
+    public long getCommandsCoalesced() {
+        return commandsCoalesced.get();
+    }
+
+    public long getCommandsDropped() {
+        return commandsDropped.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        connection = null;
+        LockSupport.unpark(thread);
+    }
+
+    // Получатель пачек и рукопожатие одного соединения
+    private static final class Connection {
+        final Sink sink;
+        final AtomicReference<List<String>> handshake;
+
+        Connection(Sink sink, List<String> handshake) {
+            this.sink = sink;
+            this.handshake = new AtomicReference<>(handshake);
+        }
+    }
+}
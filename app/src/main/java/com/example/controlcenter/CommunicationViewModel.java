@@ -1,198 +1,541 @@
 package com.example.controlcenter;
 
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.graphics.Bitmap;
-import android.util.Log;
+import android.os.IBinder;
+
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
-// ViewModel теперь реализует слушателей ОБОИХ классов: ConnectionManagerListener и ImageProcessorListener
-public class CommunicationViewModel extends ViewModel
-        implements ConnectionManager.ConnectionManagerListener, ImageProcessor.ImageProcessorListener {
+// ViewModel - клиент ConnectionService: сеть и приём картинок живут в сервисе, сюда приходят
+// снимки состояния и результаты, которые переводятся в LiveData
+public class CommunicationViewModel extends ViewModel implements ConnectionService.Client {
 
     private static final String TAG = "CommViewModel";
 
     // --- LiveData для обновления UI ---
-    private final MutableLiveData<String> connectionStatus = new MutableLiveData<>();
-    private final MutableLiveData<String> peerStatus = new MutableLiveData<>();
-    private final MutableLiveData<Bitmap> newImageBitmap = new MutableLiveData<>();
-    private final MutableLiveData<String> statusMessages = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>();
-    private final MutableLiveData<List<String>> cameraDescriptions = new MutableLiveData<>();
-    private final MutableLiveData<List<Integer>> cameraIdsList = new MutableLiveData<>();
-    private final MutableLiveData<Integer> imageLoadProgress = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> isButtonEnabled = new MutableLiveData<>();
-    private final MutableLiveData<Boolean> isProgressIndeterminate = new MutableLiveData<>();
-    private final MutableLiveData<String> imageSizeText = new MutableLiveData<>();
-
-    // --- Экземпляры менеджеров ---
-    private final ConnectionManager connectionManager;
-    private final ImageProcessor imageProcessor;
+    // Связь, загрузка, прогресс и подпись - один снимок, на экран не чаще раза за кадр
+    private final MutableLiveData<UiState> uiState = new MutableLiveData<>(UiState.INITIAL);
+    private final UiStateDispatcher uiStates = new UiStateDispatcher(UiState.INITIAL, FrameScheduler.mainThread(),
+            uiState::setValue);
+    private final MutableLiveData<DecodedImage> newImage = new MutableLiveData<>();
+    // Журнал сообщений: кольцевой буфер, на экран - пачкой раз в кадр; строки не сливаются, как у postValue
+    private final MutableLiveData<StatusLog.Snapshot> statusLogSnapshot = new MutableLiveData<>(StatusLog.Snapshot.EMPTY);
+    private final StatusLog statusLog = new StatusLog(StatusLog.DEFAULT_CAPACITY, FrameScheduler.mainThread(),
+            statusLogSnapshot::setValue);
+    // Список камер целиком, один снимок на пачку строк ответа camList
+    private final MutableLiveData<CameraDirectory.Snapshot> cameras = new MutableLiveData<>(CameraDirectory.Snapshot.EMPTY);
+    // Режим флота: площадки со своими статусами и списками камер
+    private final MutableLiveData<RelayFleet.Snapshot> fleet = new MutableLiveData<>(RelayFleet.Snapshot.EMPTY);
+    private final MutableLiveData<Boolean> debugOverlayVisible = new MutableLiveData<>(false);
+    // Снимки по камерам: вся таблица целиком, чтобы postValue не терял промежуточные результаты
+    private final MutableLiveData<Map<Integer, CameraCapture>> cameraCaptures = new MutableLiveData<>(Collections.emptyMap());
+    private final Map<Integer, CameraCapture> captures = new LinkedHashMap<>();
+    // Сервер без параллельной съёмки: снимки идут по одному, картинка без метки относится к голове очереди
+    private final ArrayDeque<Integer> sequentialCaptures = new ArrayDeque<>();
+    // Время съёмки кадра на экране, если это кадр из кэша; MAX_VALUE - уже показан свежий снимок
+    private long shownCachedAt = 0;
+    // Недавние кадры для мгновенного возврата и ленты миниатюр (новые первыми)
+    private final MutableLiveData<List<FrameMemoryCache.Frame>> historyFrames = new MutableLiveData<>(Collections.emptyList());
+    private final FrameMemoryCache frameHistory;
+    // Камера последнего TAKE_PHOTO_ - к ней относится картинка без метки
+    private volatile int lastRequestedCameraId = -1;
+    // Последнее превью (CAPS:PREVIEW): пока оно на экране, загрузка не закончена, а полный кадр
+    // встаёт на его место без затухания
+    private volatile DecodedImage preview;
+
+    // Живой просмотр: свежий кадр и камера показа (-1 - выключен)
+    private final MutableLiveData<LiveViewPipeline.Frame<Bitmap>> liveFrame = new MutableLiveData<>();
+    private final MutableLiveData<Integer> liveViewCamera = new MutableLiveData<>(-1);
+    private final LiveFrameDecoder liveFrameDecoder = new LiveFrameDecoder();
+    private final LiveViewPipeline<Bitmap> liveView = new LiveViewPipeline<>(liveFrameDecoder, liveFrame::postValue);
+
+    // --- Сервис соединения ---
+    // До привязки вызовы копятся в pendingCalls и уходят сервису по порядку
+    private volatile ConnectionService service;
+    private final List<Consumer<ConnectionService>> pendingCalls = new ArrayList<>();
+    private Context boundContext;
+    // Последний снимок состояния; только из цикла сервиса
+    private ConnectionState lastState = ConnectionState.INITIAL;
+    // Заглушки до привязки - оверлей отладки читает их сразу
+    private final TransferMetrics idleMetrics = new TransferMetrics();
+    private final LinkMonitor idleLinkMonitor = new LinkMonitor();
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            ConnectionService bound = ((ConnectionService.LocalBinder) binder).getService();
+            bound.attach(CommunicationViewModel.this);
+            List<Consumer<ConnectionService>> calls;
+            synchronized (pendingCalls) {
+                service = bound;
+                calls = new ArrayList<>(pendingCalls);
+                pendingCalls.clear();
+            }
+            for (Consumer<ConnectionService> call : calls) call.accept(bound);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Локальный сервис в нашем процессе - сюда попадаем только вместе с гибелью процесса
+            service = null;
+        }
+    };
 
     public CommunicationViewModel() {
-        isLoading.postValue(false);
-        isButtonEnabled.postValue(false);
+        // Восьмая часть кучи: остальное нужно пулу Bitmap, тайлам и буферам приёма
+        frameHistory = new FrameMemoryCache(Runtime.getRuntime().maxMemory() / 8, image -> {
+            if (image != newImage.getValue() && !isHeldByCapture(image)) {
+                recycleToPool(image);
+            }
+        });
+    }
 
-        connectionManager = new ConnectionManager(this);
-        imageProcessor = new ImageProcessor(this);
+    // Привязка к сервису соединения. Контекст приложения: сервис переживает пересоздание Activity
+    public void bindService(Context context) {
+        if (boundContext != null) return;
+        boundContext = context.getApplicationContext();
+        boundContext.bindService(new Intent(boundContext, ConnectionService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    // Сразу, если сервис уже привязан, иначе - после привязки
+    private void withService(Consumer<ConnectionService> call) {
+        ConnectionService bound;
+        synchronized (pendingCalls) {
+            bound = service;
+            if (bound == null) {
+                pendingCalls.add(call);
+                return;
+            }
+        }
+        call.accept(bound);
     }
 
     // --- Геттеры LiveData ---
-    public LiveData<String> getConnectionStatus() { return connectionStatus; }
-    public LiveData<String> getPeerStatus() { return peerStatus; }
-    public LiveData<Bitmap> getNewImageBitmap() { return newImageBitmap; }
-    public LiveData<Integer> getImageLoadProgress() { return imageLoadProgress; }
-    public LiveData<List<String>> getCameraDescriptions() { return cameraDescriptions; }
-    public LiveData<List<Integer>> getCameraIdsList() { return cameraIdsList; }
-    public LiveData<Boolean> getIsLoading() { return isLoading; }
-    public LiveData<Boolean> getIsButtonEnabled() { return isButtonEnabled; }
-    public LiveData<String> getStatusMessages() { return statusMessages; }
-    public LiveData<Boolean> getIsProgressIndeterminate() { return isProgressIndeterminate; }
-    public LiveData<String> getImageSizeText() { return imageSizeText; }
+    public LiveData<UiState> getUiState() { return uiState; }
+    public LiveData<DecodedImage> getNewImage() { return newImage; }
+    public LiveData<CameraDirectory.Snapshot> getCameras() { return cameras; }
+    public LiveData<RelayFleet.Snapshot> getFleet() { return fleet; }
+    public LiveData<StatusLog.Snapshot> getStatusLog() { return statusLogSnapshot; }
+    public LiveData<Boolean> getDebugOverlayVisible() { return debugOverlayVisible; }
+    public LiveData<Map<Integer, CameraCapture>> getCameraCaptures() { return cameraCaptures; }
+    public LiveData<List<FrameMemoryCache.Frame>> getHistoryFrames() { return historyFrames; }
+    public TransferMetrics getMetrics() {
+        ConnectionService bound = service;
+        return bound != null ? bound.getMetrics() : idleMetrics;
+    }
+    public LinkMonitor getLinkMonitor() {
+        ConnectionService bound = service;
+        return bound != null ? bound.getConnectionManager().getLinkMonitor() : idleLinkMonitor;
+    }
+    public LiveData<LiveViewPipeline.Frame<Bitmap>> getLiveFrame() { return liveFrame; }
+    public LiveData<Integer> getLiveViewCamera() { return liveViewCamera; }
+    public LiveViewPipeline<Bitmap> getLiveView() { return liveView; }
 
     // --- Методы UI-взаимодействия ---
     public void startConnection(String ip, int port) {
-        connectionManager.startConnection(ip, port);
+        startConnection(Collections.singletonList(new EndpointRacer.Endpoint(ip, port)));
+    }
+
+    // Сервис подключается один раз; повторные вызовы после пересоздания Activity ничего не меняют
+    public void startConnection(List<EndpointRacer.Endpoint> endpoints) {
+        withService(s -> s.connect(endpoints));
+    }
+
+    // Площадки "имя -> реле"; повторный запуск добавляет только новые
+    public void startFleet(Map<String, EndpointRacer.Endpoint> sites) {
+        withService(s -> s.startFleet(sites));
     }
 
     public void sendCommand(String command) {
-        connectionManager.sendCommand(command);
+        if (command.startsWith("TAKE_PHOTO_")) {
+            int cameraId;
+            try {
+                cameraId = Integer.parseInt(command.substring("TAKE_PHOTO_".length()).trim());
+            } catch (NumberFormatException e) {
+                cameraId = -1;
+            }
+            requestPhoto(cameraId, false);
+            return;
+        }
+        withService(s -> s.sendCommand(command));
     }
 
-    public void lockInterfaceBeforeRequest() {
-        isButtonEnabled.postValue(false);
-        isLoading.postValue(true);
-        isProgressIndeterminate.postValue(true);
-        resetImage();
+    private void requestPhoto(int cameraId, boolean replacePrevious) {
+        lastRequestedCameraId = cameraId;
+        withService(s -> s.requestPhoto(cameraId, replacePrevious));
     }
 
-    public void initWakeLock(android.content.Context c) {
-        imageProcessor.initWakeLock(c);
+    // Снимок по нажатию на камеру. Если сервер умеет отменять снимки, кнопки не блокируются:
+    // новый снимок заменяет недополученный прежний, и тот не докачивается и не декодируется
+    public void takePhoto(int cameraId) {
+        if (isPhotoCancelAvailable() && currentSequentialCapture() == null) {
+            newImage.postValue(null);
+            uiStates.update(UiState::withPhotoRequested);
+            requestPhoto(cameraId, true);
+            return;
+        }
+        lockInterfaceBeforeRequest();
+        requestPhoto(cameraId, false);
     }
 
-    public void decodePendingPhoto() {}
+    // Превью перед полным кадром; действует со следующего рукопожатия
+    public void setPreviewCapture(boolean enabled) {
+        withService(s -> s.getConnectionManager().setPreviewEnabled(enabled));
+    }
 
+    public boolean isPreview(DecodedImage image) {
+        return image != null && image == preview;
+    }
 
-    // =====================================================================
-    // РЕАЛИЗАЦИЯ ИНТЕРФЕЙСА ConnectionManagerListener (Обратные вызовы от сети)
-    // =====================================================================
+    // Сервер подтвердил CAPS:CANCEL
+    public boolean isPhotoCancelAvailable() {
+        ConnectionService bound = service;
+        return bound != null && bound.getConnectionManager().isCancelMode();
+    }
 
-    @Override
-    public void onMessageReceived(String rawMessage) {
-        if (rawMessage == null) return;
+    // Сервер принимает TAKE_PHOTO_ для нескольких камер сразу и чередует их картинки
+    public boolean isParallelCaptureAvailable() {
+        ConnectionService bound = service;
+        return bound != null && bound.getConnectionManager().isMultiCameraMode();
+    }
 
-        final String message = rawMessage.trim();
+    // Сервер подтвердил поток кадров LIVE_FRAME:
+    public boolean isLiveViewAvailable() {
+        ConnectionService bound = service;
+        return bound != null && bound.getConnectionManager().isLiveViewMode();
+    }
 
-        // 1. Игнорируем пустые строки и технические сообщения PING/PONG
-        // Мы делаем сравнение без учета регистра на всякий случай
-        if (message.isEmpty() ||
-                message.equalsIgnoreCase("PING") ||
-                message.equalsIgnoreCase("PONG")) {
-            return;
+    // Живой просмотр камеры; показ другой камеры прекращается, её запоздавшие кадры конвейер отбросит
+    public void startLiveView(int cameraId, int fps) {
+        liveView.start(cameraId, fps);
+        withService(s -> s.getConnectionManager().startLiveView(cameraId, fps));
+        liveViewCamera.setValue(cameraId);
+    }
+
+    public void setLiveViewFps(int fps) {
+        int cameraId = liveView.getCameraId();
+        if (cameraId < 0) return;
+        liveView.setTargetFps(fps);
+        withService(s -> s.getConnectionManager().startLiveView(cameraId, fps));
+    }
+
+    public void stopLiveView() {
+        liveView.stop();
+        withService(s -> s.getConnectionManager().stopLiveView());
+        liveViewCamera.setValue(-1);
+    }
+
+    // UI показал кадр живого просмотра - второй кадр можно декодировать
+    public void onLiveFrameShown(LiveViewPipeline.Frame<Bitmap> frame) {
+        liveView.onFrameShown(frame);
+    }
+
+    // Снимок с нескольких камер. При параллельной съёмке запросы уходят все сразу,
+    // иначе - по очереди, следующий после получения предыдущего
+    public void captureCameras(List<Integer> cameraIds) {
+        if (cameraIds == null || cameraIds.isEmpty()) return;
+        boolean parallel = isParallelCaptureAvailable();
+        List<Integer> toSend = new ArrayList<>();
+        // Очередь последовательной съёмки заменяет одиночный снимок, который ещё идёт
+        boolean replacePrevious = false;
+        synchronized (captures) {
+            for (int id : cameraIds) {
+                CameraCapture current = captures.get(id);
+                if (current != null && current.isInProgress()) continue;
+                updateCapture(CameraCapture.requested(id));
+                toSend.add(id);
+            }
+            if (!parallel && !toSend.isEmpty()) {
+                boolean idle = sequentialCaptures.isEmpty();
+                sequentialCaptures.addAll(toSend);
+                toSend.clear();
+                if (idle) {
+                    lockInterfaceBeforeRequest();
+                    toSend.add(sequentialCaptures.peekFirst());
+                    replacePrevious = true;
+                }
+            }
+        }
+        for (int id : toSend) {
+            requestPhoto(id, replacePrevious);
         }
+    }
 
-        Log.d(TAG, "VM rec: " + (message.length() > 30 ? message.substring(0, 30) + "..." : message));
+    // Вызывать под captures. Заменённый готовый кадр в пул не возвращаем - он может быть ещё на экране
+    private void updateCapture(CameraCapture capture) {
+        captures.put(capture.getCameraId(), capture);
+        cameraCaptures.postValue(Collections.unmodifiableMap(new LinkedHashMap<>(captures)));
+    }
 
-        // 2. Сначала отдаем в ImageProcessor (если это часть картинки)
-        if (imageProcessor.processMessage(message)) {
-            return;
+    private boolean isHeldByCapture(DecodedImage image) {
+        synchronized (captures) {
+            for (CameraCapture capture : captures.values()) {
+                if (capture.getImage() == image) return true;
+            }
         }
+        return false;
+    }
 
-        // 3. Обработка системных статусов сервера
-        if (message.startsWith("SERVER_STATUS:")) {
-            // Эти статусы обрабатываются через onPeerConnected() / onPeerDisconnected()
-            // в ConnectionManager, но если нужно выводить их в лог - можно оставить.
-            // Если НЕ хотите видеть SERVER_STATUS в TextView, добавьте здесь return;
+    // Очередной снимок последовательной съёмки завершён: результат - голове очереди, запрос - следующей камере
+    private void completeSequentialCapture(DecodedImage image, String error) {
+        Integer next;
+        synchronized (captures) {
+            Integer head = sequentialCaptures.pollFirst();
+            if (head == null) return;
+            updateCapture(image != null ? CameraCapture.done(head, image) : CameraCapture.failed(head, error));
+            next = sequentialCaptures.peekFirst();
         }
-        // 4. Обработка списка камер
-        else if (message.contains(" -- ")) {
-            parseCameras(message);
+        if (next != null) requestPhoto(next, false);
+    }
+
+    // После свежего снимка кадры из кэша на экран больше не выводим
+    private void markFreshImageShown() {
+        synchronized (captures) {
+            shownCachedAt = Long.MAX_VALUE;
         }
-        // 5. Все остальное (реальные сообщения) выводим в TextView
-        else {
-            statusMessages.postValue(message);
+    }
+
+    private Integer currentSequentialCapture() {
+        synchronized (captures) {
+            return sequentialCaptures.peekFirst();
         }
     }
 
+    // UI показал превью - замер "до первого изображения"; снимок ещё грузится
+    public void onPreviewShown() {
+        getMetrics().markPreviewShown();
+    }
+
+    // UI сообщает, что кадр показан - закрывает замер "до экрана"
+    public void onImageShown() {
+        getMetrics().markImageShown();
+        frameHistory.setDisplayed(newImage.getValue());
+    }
+
+    // Возврат к недавнему кадру из ленты: тот же Bitmap, без передачи и декодирования
+    public void showHistoryFrame(long frameId) {
+        FrameMemoryCache.Frame frame = frameHistory.get(frameId);
+        if (frame == null) return;
+        newImage.setValue(frame.getImage());
+        String sizeText = "Камера " + frame.getCameraId() + ", "
+                + new java.text.SimpleDateFormat("dd.MM HH:mm:ss", java.util.Locale.getDefault())
+                .format(new java.util.Date(frame.getCapturedAt()));
+        uiStates.update(s -> s.withSizeText(sizeText));
+    }
+
+    // Не вызывать под captures: вытеснение проверяет isHeldByCapture
+    private void rememberFrame(int cameraId, long capturedAt, DecodedImage image) {
+        if (image == null) return;
+        frameHistory.put(cameraId, capturedAt, image);
+        historyFrames.postValue(frameHistory.snapshot());
+    }
 
-    // Реализация всех обязательных методов интерфейса:
-  public void onConnectionStatusChanged(String status) { connectionStatus.postValue(status); }
-  public void onLimitReached() { connectionStatus.postValue("Лимит"); }
+    public void toggleDebugOverlay() {
+        debugOverlayVisible.setValue(!Boolean.TRUE.equals(debugOverlayVisible.getValue()));
+    }
 
-    // ДОБАВЛЕН НЕ ДОСТАЮЩИЙ МЕТОД:
-  public void onPeerStatusChanged(String status) {
-        // Этот метод можно использовать, если ConnectionManager отправляет общий статус пира,
-        // но в нашей текущей реализации ConnectionManager он не вызывается.
-        // Мы используем onPeerConnected/Disconnected вместо него.
+    public void lockInterfaceBeforeRequest() {
+        newImage.postValue(null);
+        uiStates.update(s -> s.withPhotoRequested().withButtonsEnabled(false));
     }
 
+    // Размер области PhotoView, под который декодируются картинки
+    public void setImageTargetSize(int width, int height) {
+        withService(s -> s.getImageProcessor().setTargetSize(width, height));
+        liveFrameDecoder.setTargetSize(width, height);
+    }
 
-    public void onPeerConnected() {
-        peerStatus.postValue("Подключен");
-        isButtonEnabled.postValue(true);
-        sendCommand("camList");
+    // Вызывается UI, когда кадр снят с экрана. Текущий кадр LiveData не трогаем - его ещё покажут после поворота
+    public void recycleImage(DecodedImage image) {
+        if (image != null && image != newImage.getValue() && !isHeldByCapture(image) && !frameHistory.contains(image)) {
+            recycleToPool(image);
+        }
     }
 
+    // Без сервиса пула нет - Bitmap просто уйдёт сборщику
+    private void recycleToPool(DecodedImage image) {
+        ConnectionService bound = service;
+        if (bound != null) bound.getImageProcessor().recycleImage(image);
+    }
 
-    public void onPeerDisconnected() {
-        peerStatus.postValue("Отключен");
-        isButtonEnabled.postValue(false);
+    public void onTrimMemory(int level) {
+        frameHistory.onTrimMemory(level);
+        historyFrames.postValue(frameHistory.snapshot());
+        ConnectionService bound = service;
+        if (bound != null) bound.getImageProcessor().onTrimMemory(level);
     }
 
+    public void decodePendingPhoto() {}
 
-    private void parseCameras(String msg) {
-        try {
-            String[] parts = msg.split(" -- ");
-            if (parts.length == 2) {
-                // Правильный парсинг и trim() для каждого элемента массива
-                int id = Integer.parseInt(parts[0].trim()); // Исправлено обращение к индексу
-                String desc = parts[1].trim();              // Исправлено обращение к индексу
 
-                List<Integer> ids = cameraIdsList.getValue() != null ? cameraIdsList.getValue() : new ArrayList<>();
-                List<String> ds = cameraDescriptions.getValue() != null ? cameraDescriptions.getValue() : new ArrayList<>();
-                if (!ids.contains(id)) {
-                    ids.add(id); ds.add(desc);
-                    cameraIdsList.postValue(new ArrayList<>(ids));
-                    cameraDescriptions.postValue(new ArrayList<>(ds));
+    // =====================================================================
+    // РЕАЛИЗАЦИЯ ИНТЕРФЕЙСА ConnectionService.Client
+    // =====================================================================
+
+    // Снимки приходят слитыми: обрыв узнаём по счётчику, а не по промежуточному "Потеряно"
+    @Override
+    public void onConnectionState(ConnectionState state) {
+        ConnectionState previous = lastState;
+        lastState = state;
+        if (state.connectionsLost > previous.connectionsLost) failPendingCaptures(state.resumingTransfer);
+        boolean peerChanged = state.peerConnected != previous.peerConnected;
+        uiStates.update(s -> {
+            UiState next = s.withConnection(state);
+            return peerChanged ? next.withButtonsEnabled(state.peerConnected) : next;
+        });
+    }
+
+    @Override
+    public void onCameras(CameraDirectory.Snapshot snapshot) {
+        cameras.postValue(snapshot);
+    }
+
+    @Override
+    public void onServerMessage(ProtocolMessage message) {
+        showStatusMessage(message);
+    }
+
+    @Override
+    public void onFleetChanged(RelayFleet.Snapshot snapshot) {
+        fleet.postValue(snapshot);
+    }
+
+    @Override
+    public void onLiveFrameStarted(int cameraId, int sequence, int length) { liveView.onFrameStart(cameraId, sequence, length); }
+    @Override
+    public void onLiveFrameData(ByteBuffer data) { liveView.onFrameData(data); }
+
+    // Обрыв: снимки в пути уже не придут, после переподключения их можно запросить заново.
+    // Исключение - картинка с докачкой: её снимок остаётся в работе до переподключения.
+    // Приём в ImageProcessor сервис уже прервал сам
+    private void failPendingCaptures(boolean resuming) {
+        synchronized (captures) {
+            Integer resumed = resuming ? sequentialCaptures.peekFirst() : null;
+            sequentialCaptures.clear();
+            if (resumed != null) sequentialCaptures.add(resumed);
+            for (CameraCapture capture : new ArrayList<>(captures.values())) {
+                if (capture.isInProgress() && !Integer.valueOf(capture.getCameraId()).equals(resumed)) {
+                    updateCapture(CameraCapture.failed(capture.getCameraId(), "Соединение потеряно"));
                 }
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing cameras", e);
         }
     }
 
 
+    private void showStatusMessage(ProtocolMessage message) {
+        if (DebugLog.PROTOCOL_LINES && DebugLog.sampleLine()) {
+            DebugLog.line(TAG, "VM rec: ", message.line);
+        }
+        log("Сервер: " + message.line);
+    }
+
+    // Строка в журнал на экране; любой поток
+    public void log(String line) {
+        statusLog.add(line);
+    }
+
+
     @Override
     protected void onCleared() {
         super.onCleared();
-        connectionManager.shutdown();
-        imageProcessor.shutdown();
+        liveView.close();
+        frameHistory.clear();
+        // Соединение остаётся у сервиса: без клиентов он закроет его сам, а идущую передачу доведёт до конца
+        ConnectionService bound = service;
+        if (bound != null) bound.detach(this);
+        if (boundContext != null) boundContext.unbindService(serviceConnection);
     }
 
     // =====================================================================
     // РЕАЛИЗАЦИЯ ИНТЕРФЕЙСА ImageProcessorListener
     // =====================================================================
 
-    public void onImageDecoded(Bitmap bitmap) { newImageBitmap.postValue(bitmap); }
-    public void onProgressUpdate(int progress) { imageLoadProgress.postValue(progress); }
-    public void onImageProcessingStart(String sizeText) {
-        isLoading.postValue(true);
-        isProgressIndeterminate.postValue(false);
-        imageSizeText.postValue(sizeText);
+    public void onImageDecoded(DecodedImage image) {
+        Integer sequential = currentSequentialCapture();
+        rememberFrame(sequential != null ? sequential : lastRequestedCameraId, System.currentTimeMillis(), image);
+        markFreshImageShown();
+        newImage.postValue(image);
+        completeSequentialCapture(image, null);
+    }
+    // Превью в историю не попадает - его заменит полный кадр
+    @Override
+    public void onPreviewDecoded(DecodedImage image) {
+        preview = image;
+        newImage.postValue(image);
+    }
+    // ImageProcessor зовёт только при смене процента
+    public void onProgressUpdate(int progress) {
+        uiStates.update(s -> s.withProgress(progress));
+        Integer cameraId = currentSequentialCapture();
+        if (cameraId != null) {
+            synchronized (captures) {
+                updateCapture(CameraCapture.receiving(cameraId, progress));
+            }
+        }
     }
-    public void resetImage() {
-        newImageBitmap.postValue(null);
-        imageSizeText.postValue("");
-        imageLoadProgress.postValue(0);
+    public void onImageProcessingStart(String sizeText) {
+        uiStates.update(s -> s.withTransferStarted(sizeText));
     }
     public void onImageProcessingComplete() {
-        isLoading.postValue(false);
-        isButtonEnabled.postValue(true);
+        // Пока идёт последовательная съёмка, кнопки не отпускаем - иначе результат отнесётся не к той камере
+        boolean buttonsEnabled = currentSequentialCapture() == null;
+        uiStates.update(s -> s.withLoadingFinished(buttonsEnabled));
     }
     public void onError(String message) {
-        statusMessages.postValue(message);
+        log("Сервер: " + message);
+        completeSequentialCapture(null, message);
         onImageProcessingComplete();
     }
+
+    public void onCameraProgress(int cameraId, int percent) {
+        synchronized (captures) {
+            updateCapture(CameraCapture.receiving(cameraId, percent));
+        }
+    }
+    public void onCameraImageDecoded(int cameraId, DecodedImage image) {
+        synchronized (captures) {
+            updateCapture(CameraCapture.done(cameraId, image));
+            shownCachedAt = Long.MAX_VALUE;
+        }
+        rememberFrame(cameraId, System.currentTimeMillis(), image);
+        // На экран - последний пришедший снимок; остальные доступны через getCameraCaptures()
+        newImage.postValue(image);
+    }
+    public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {
+        boolean show;
+        synchronized (captures) {
+            // Свежий снимок этой камеры уже запрошен или пришёл - старый не нужен
+            if (captures.containsKey(cameraId)) return;
+            updateCapture(CameraCapture.cached(cameraId, image, capturedAt));
+            show = capturedAt > shownCachedAt;
+            if (show) shownCachedAt = capturedAt;
+        }
+        rememberFrame(cameraId, capturedAt, image);
+        // На экран - самый свежий из кэшированных, пока не пришёл новый снимок
+        if (show) {
+            newImage.postValue(image);
+            String sizeText = "Из кэша: " + new java.text.SimpleDateFormat("dd.MM HH:mm", java.util.Locale.getDefault())
+                    .format(new java.util.Date(capturedAt));
+            uiStates.update(s -> s.withSizeText(sizeText));
+        }
+    }
+    public void onCameraError(int cameraId, String message) {
+        synchronized (captures) {
+            updateCapture(CameraCapture.failed(cameraId, message));
+        }
+        log("Сервер: " + message);
+    }
 }
@@ -0,0 +1,111 @@
+package com.example.controlcenter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Сжатые сообщения текстового протокола: "Z:<сжато>:<исходно>\n", затем байты deflate.
+// На каждое направление соединения - один Deflater/Inflater на всё время жизни сокета:
+// словарь (окно 32 КБ) общий для всех сообщений, поэтому повторяющиеся SERVER_STATUS:, списки камер
+// и строки Base64 сжимаются ссылками на прошлые. После каждого сообщения SYNC_FLUSH -
+// кадр распаковывается сразу, не дожидаясь следующего.
+// Короче порога сообщение уходит как есть: на PING заголовок и флаш стоят дороже выигрыша
+public class CompressedFrames {
+
+    public static final String HEADER = "Z:";
+    public static final int DEFAULT_THRESHOLD = 256;
+    // Заголовок известен только после сжатия - место под него оставляем перед данными ("Z:" + два int + '\n')
+    private static final int HEADER_ROOM = 32;
+
+    public static class Encoder {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final int threshold;
+        private byte[] frame = new byte[8 * 1024];
+        private int frameOffset;
+        private int frameLength;
+
+        public Encoder(int threshold) {
+            this.threshold = threshold;
+        }
+
+        // Сжимает сообщение в кадр; false - сообщение короче порога, его надо отправить как есть.
+        // force - часть большого сообщения (картинки), которое целиком идёт сжатым, даже короткий хвост
+        public boolean encode(byte[] message, int offset, int length, boolean force) {
+            if (!force && length < threshold) return false;
+            deflater.setInput(message, offset, length);
+            int written = HEADER_ROOM;
+            while (true) {
+                if (written == frame.length) frame = Arrays.copyOf(frame, frame.length * 2);
+                int n = deflater.deflate(frame, written, frame.length - written, Deflater.SYNC_FLUSH);
+                written += n;
+                // Буфер заполнен не до конца - весь вход выдан
+                if (written < frame.length) break;
+            }
+            int compressed = written - HEADER_ROOM;
+            byte[] header = (HEADER + compressed + ":" + length + "\n").getBytes(StandardCharsets.US_ASCII);
+            frameOffset = HEADER_ROOM - header.length;
+            System.arraycopy(header, 0, frame, frameOffset, header.length);
+            frameLength = header.length + compressed;
+            return true;
+        }
+
+        // Кадр после encode(): frame[offset, offset + length)
+        public byte[] getFrame() {
+            return frame;
+        }
+
+        public int getFrameOffset() {
+            return frameOffset;
+        }
+
+        public int getFrameLength() {
+            return frameLength;
+        }
+
+        public void end() {
+            deflater.end();
+        }
+    }
+
+    public static class Decoder {
+        private final Inflater inflater = new Inflater(true);
+
+        public void setInput(byte[] compressed, int offset, int length) {
+            inflater.setInput(compressed, offset, length);
+        }
+
+        // Следующая порция распакованных байт; 0 - вход кончился
+        public int inflate(byte[] out) throws IOException {
+            try {
+                return inflater.inflate(out);
+            } catch (DataFormatException e) {
+                throw new IOException("Повреждённый сжатый кадр", e);
+            }
+        }
+
+        // Целое сообщение известной длины (для приёма строками)
+        public byte[] decode(byte[] compressed, int length, int rawLength) throws IOException {
+            setInput(compressed, 0, length);
+            byte[] out = new byte[rawLength];
+            int produced = 0;
+            while (produced < rawLength) {
+                int n;
+                try {
+                    n = inflater.inflate(out, produced, rawLength - produced);
+                } catch (DataFormatException e) {
+                    throw new IOException("Повреждённый сжатый кадр", e);
+                }
+                if (n == 0) throw new IOException("Сжатый кадр короче заявленного: " + produced + "/" + rawLength);
+                produced += n;
+            }
+            return out;
+        }
+
+        public void end() {
+            inflater.end();
+        }
+    }
+}
@@ -3,6 +3,11 @@ package com.example.controlcenter;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -10,75 +15,405 @@ public class ConnectionManager implements TcpClient.OnMessageReceived {
     private static final String TAG = "ConnectionManager";
 
     // Интерфейс для связи с ViewModel
+    // Прочие сообщения сервера (список камер, текст) слушатель получает через getRouter()
     public interface ConnectionManagerListener {
-        void onMessageReceived(String message);
         void onConnectionStatusChanged(String status);
         void onPeerStatusChanged(String status);
         void onPeerConnected();
         void onPeerDisconnected();
         void onLimitReached();
+        void onTextImageStarted(int expectedChars);
+        void onTextImagePayload(ByteBuffer payload);
+        void onTextImageFinished();
+        void onBinaryImageStarted(int length);
+        void onBinaryImageProgress(int received, int length);
+        void onBinaryImageReceived(byte[] data);
+        void onCameraImageStarted(int cameraId, int length);
+        void onCameraImageChunk(int cameraId, ByteBuffer chunk);
+        // Картинку не получить: обрыв без докачки или сервер отказался её продолжить
+        void onImageTransferFailed(String reason);
+        // Кадр живого просмотра: заголовок и срезы байт, поток приёма
+        void onLiveFrameStarted(int cameraId, int sequence, int length);
+        void onLiveFrameData(ByteBuffer data);
     }
 
+    // Согласование бинарной передачи картинок: запрос после ID:CONTROL и ответ сервера.
+    // Если сервер не ответил CAPS_ACK, остаёмся на текстовом протоколе SIZE:/END123
+    public static final String BINARY_IMAGE_REQUEST = "CAPS:BINARY_IMAGE";
+    public static final String BINARY_IMAGE_ACK = "CAPS_ACK:BINARY_IMAGE";
+    // Параллельная съёмка: сервер помечает картинки номером камеры и может чередовать их куски.
+    // Без подтверждения снимки нескольких камер запрашиваются по очереди
+    public static final String MULTI_CAMERA_REQUEST = "CAPS:MULTI_CAMERA";
+    public static final String MULTI_CAMERA_ACK = "CAPS_ACK:MULTI_CAMERA";
+    // Картинки кусками с CRC32 и докачкой после обрыва (см. ResumableImageReceiver).
+    // Докачанная картинка отдаётся слушателю как обычная бинарная
+    public static final String RESUMABLE_REQUEST = "CAPS:RESUMABLE";
+    public static final String RESUMABLE_ACK = "CAPS_ACK:RESUMABLE";
+    // Сжатие текстового протокола в обе стороны (см. CompressedFrames); короткие команды не сжимаются
+    public static final String COMPRESSION_REQUEST = "CAPS:DEFLATE";
+    public static final String COMPRESSION_ACK = "CAPS_ACK:DEFLATE";
+    // Живой просмотр: LIVE_START:<камера>:<к/с> запускает поток кадров LIVE_FRAME: (повтор меняет частоту),
+    // LIVE_STOP:<камера> останавливает. Без подтверждения кнопка живого просмотра не показывается
+    public static final String LIVE_VIEW_REQUEST = "CAPS:LIVE_VIEW";
+    public static final String LIVE_VIEW_ACK = "CAPS_ACK:LIVE_VIEW";
+    public static final String LIVE_START_COMMAND = "LIVE_START:";
+    public static final String LIVE_STOP_COMMAND = "LIVE_STOP:";
+    // Отмена одиночного снимка: CANCEL_PHOTO_<камера> останавливает самый старый неотправленный снимок камеры,
+    // сервер отвечает PHOTO_CANCELLED:<камера>, когда байтов этого снимка больше не будет.
+    // Без подтверждения прежний снимок дойдёт целиком и будет отброшен на приёме
+    public static final String CANCEL_REQUEST = "CAPS:CANCEL";
+    public static final String CANCEL_ACK = "CAPS_ACK:CANCEL";
+    public static final String CANCEL_PHOTO_COMMAND = "CANCEL_PHOTO_";
+    public static final String PHOTO_CANCELLED = "PHOTO_CANCELLED:";
+    // Превью перед полным кадром: строка PREVIEW:<камера>, за ней маленькая картинка обычным кадром
+    // (BIN_IMAGE:, SIZE:/END123 или RES_IMAGE:), потом полный кадр того же снимка. Запрашивается,
+    // только если включено setPreviewEnabled - превью добавляет к снимку лишние байты
+    public static final String PREVIEW_REQUEST = "CAPS:PREVIEW";
+    public static final String PREVIEW_ACK = "CAPS_ACK:PREVIEW";
+    public static final String PREVIEW_HEADER = "PREVIEW:";
+
     private final ConnectionManagerListener listener;
+    private final TransferMetrics metrics;
     private TcpClient tcpClient;
     private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    // Все команды серверу идут через один поток записи пачками (см. CommandWriter)
+    private final CommandWriter commandWriter = new CommandWriter();
 
-    // Логика переподключения и heartbeat
-    private Handler reconnectHandler = new Handler(Looper.getMainLooper());
-    private static final long RECONNECT_DELAY_MS = 5000;
-    private Handler heartbeatHandler = new Handler(Looper.getMainLooper());
-    private final int HEARTBEAT_INTERVAL = 30000;
-    private String savedIp;
-    private int savedPort;
+    // Логика переподключения и heartbeat - на цикле событий владельца (поток ConnectionService), не на UI
+    private final Handler reconnectHandler;
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    // Начало текущего перерыва связи (System.nanoTime), 0 - связь есть
+    private volatile long outageStartedAt = 0;
+    private final Handler heartbeatHandler;
+    // PING только когда канал затих; мёртвое соединение закрывается без ожидания ошибки чтения
+    private final LinkMonitor linkMonitor = new LinkMonitor();
+    // Реле в порядке предпочтения: победитель последней гонки - первым
+    private volatile List<EndpointRacer.Endpoint> endpoints = Collections.emptyList();
+    private boolean binaryImagesEnabled = true;
+    private volatile boolean binaryImageMode = false;
+    private volatile boolean multiCameraMode = false;
+    private volatile boolean resumableMode = false;
+    private boolean compressionEnabled = true;
+    private volatile boolean compressionMode = false;
+    private volatile boolean liveViewMode = false;
+    private volatile boolean cancelMode = false;
+    private volatile boolean previewEnabled = false;
+    private volatile boolean previewMode = false;
+    // Идущий живой просмотр: после переподключения запрашивается снова; -1 - выключен
+    private volatile int liveViewCamera = -1;
+    private volatile int liveViewFps = 0;
+    private final ResumableImageReceiver resumableReceiver;
+    // Входящие сообщения по типам; свои обработчики ConnectionManager регистрирует первым
+    private final MessageRouter router = new MessageRouter();
 
-    public ConnectionManager(ConnectionManagerListener listener) {
+    // looper - цикл, на котором идут шаги рукопожатия, переподключение и heartbeat
+    public ConnectionManager(ConnectionManagerListener listener, TransferMetrics metrics, Looper looper) {
         this.listener = listener;
+        this.metrics = metrics;
+        this.reconnectHandler = new Handler(looper);
+        this.heartbeatHandler = new Handler(looper);
+        this.resumableReceiver = new ResumableImageReceiver(new ResumableListener(), this::sendCommand, metrics);
+        router.on(ProtocolMessage.Type.PONG, message -> onPong());
+        router.on(ProtocolMessage.Type.CAPS_ACK, this::onCapsAck);
+        router.on(ProtocolMessage.Type.RESUME_FAILED,
+                (ProtocolMessage.ResumeFailed message) -> resumableReceiver.onResumeFailed(message.transferId));
+        router.on(ProtocolMessage.Type.PEER_CONNECTED, message -> listener.onPeerConnected());
+        router.on(ProtocolMessage.Type.PEER_DISCONNECTED, message -> listener.onPeerDisconnected());
+        router.on(ProtocolMessage.Type.CONNECTION_LIMIT, message -> onLimitReached());
+    }
+
+    // Подписка на входящие сообщения; вызывать до подключения
+    public MessageRouter getRouter() {
+        return router;
     }
 
     public void startConnection(String ip, int port) {
-        this.savedIp = ip;
-        this.savedPort = port;
+        startConnection(Collections.singletonList(new EndpointRacer.Endpoint(ip, port)));
+    }
+
+    // Несколько реле: подключаемся к тому, что ответит первым
+    public void startConnection(List<EndpointRacer.Endpoint> endpoints) {
+        this.endpoints = new ArrayList<>(endpoints);
 
         if (tcpClient != null && tcpClient.isConnected()) return;
-        if (tcpClient != null) tcpClient.close();
+        // Прежнее соединение уже отцеплено в connectionLost; команды, отправленные за время обрыва,
+        // остаются в очереди CommandWriter до рукопожатия нового
+        if (tcpClient != null) {
+            tcpClient.close();
+        }
 
         listener.onConnectionStatusChanged("Подключение...");
 
-        tcpClient = new TcpClient(this, ip, port);
+        tcpClient = new TcpClient(this, this.endpoints, true);
         backgroundExecutor.execute(() -> tcpClient.connect());
     }
 
+    // Без соединения команда ждёт следующего (см. политику CommandWriter)
     public void sendCommand(String command) {
-        if (tcpClient != null && tcpClient.isConnected()) {
-            backgroundExecutor.execute(() -> tcpClient.sendMessage(command));
-        }
+        commandWriter.send(command);
+    }
+
+    public CommandWriter getCommandWriter() {
+        return commandWriter;
+    }
+
+    // Оценки RTT и скорости канала: для выбора таймаутов и качества картинок
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
     }
 
     public boolean isConnected() {
         return tcpClient != null && tcpClient.isConnected();
     }
 
+    // Запрашивать ли бинарный режим при следующем рукопожатии
+    public void setBinaryImagesEnabled(boolean enabled) {
+        this.binaryImagesEnabled = enabled;
+    }
+
+    // true, если сервер подтвердил бинарный режим в текущем соединении
+    public boolean isBinaryImageMode() {
+        return binaryImageMode;
+    }
+
+    // true, если сервер подтвердил параллельную съёмку с несколькими камерами
+    public boolean isMultiCameraMode() {
+        return multiCameraMode;
+    }
+
+    // Запрашивать ли сжатие при следующем рукопожатии
+    public void setCompressionEnabled(boolean enabled) {
+        this.compressionEnabled = enabled;
+    }
+
+    // true, если сервер подтвердил сжатие в текущем соединении
+    public boolean isCompressionMode() {
+        return compressionMode;
+    }
+
+    // true, если сервер подтвердил передачу кусками с докачкой
+    public boolean isResumableMode() {
+        return resumableMode;
+    }
+
+    // true, если сервер подтвердил живой просмотр в текущем соединении
+    public boolean isLiveViewMode() {
+        return liveViewMode;
+    }
+
+    // Запуск или смена частоты; показ прежней камеры останавливается явно - сервер может вести несколько потоков
+    public void startLiveView(int cameraId, int fps) {
+        int previous = liveViewCamera;
+        if (previous >= 0 && previous != cameraId) sendCommand(LIVE_STOP_COMMAND + previous);
+        liveViewCamera = cameraId;
+        liveViewFps = fps;
+        sendCommand(LIVE_START_COMMAND + cameraId + ":" + fps);
+    }
+
+    public void stopLiveView() {
+        int previous = liveViewCamera;
+        if (previous < 0) return;
+        liveViewCamera = -1;
+        sendCommand(LIVE_STOP_COMMAND + previous);
+    }
+
+    // Запрашивать ли превью при следующем рукопожатии
+    public void setPreviewEnabled(boolean enabled) {
+        this.previewEnabled = enabled;
+    }
+
+    // true, если сервер подтвердил превью в текущем соединении
+    public boolean isPreviewMode() {
+        return previewMode;
+    }
+
+    // true, если сервер подтвердил отмену снимков
+    public boolean isCancelMode() {
+        return cancelMode;
+    }
+
+    // Сервер без отмены команду не поймёт - прежний снимок просто отбросится на приёме
+    public void cancelPhoto(int cameraId) {
+        if (cancelMode) sendCommand(CANCEL_PHOTO_COMMAND + cameraId);
+    }
+
+    // Недокачанная картинка ждёт переподключения - её не надо считать потерянной
+    public boolean hasResumableTransfer() {
+        return resumableReceiver.hasPendingTransfer();
+    }
+
+    // Снимок отменён: недокачанную картинку не продолжаем ни сейчас, ни после переподключения
+    public void discardResumableTransfer() {
+        resumableReceiver.abort();
+    }
+
     // --- Реализация TcpClient.OnMessageReceived ---
 
     @Override
-    public void messageReceived(String message) {
-        listener.onMessageReceived(message);
+    public void messageReceived(ProtocolMessage message) {
+        router.route(message);
+    }
+
+    @Override
+    public void receiveBatchEnd() {
+        router.endBatch();
+    }
+
+    private void onPong() {
+        long rtt = linkMonitor.onPong(System.nanoTime());
+        if (rtt >= 0) metrics.recordHeartbeatRtt(rtt);
+    }
+
+    private void onCapsAck(ProtocolMessage message) {
+        String ack = message.line;
+        if (ack.startsWith(BINARY_IMAGE_ACK)) {
+            binaryImageMode = true;
+            Log.d(TAG, "Сервер подтвердил бинарную передачу изображений");
+        } else if (ack.startsWith(MULTI_CAMERA_ACK)) {
+            multiCameraMode = true;
+            Log.d(TAG, "Сервер подтвердил параллельную съёмку");
+        } else if (ack.startsWith(COMPRESSION_ACK)) {
+            compressionMode = true;
+            TcpClient client = tcpClient;
+            if (client != null) client.enableCompression(CompressedFrames.DEFAULT_THRESHOLD);
+            Log.d(TAG, "Сервер подтвердил сжатие");
+        } else if (ack.startsWith(LIVE_VIEW_ACK)) {
+            liveViewMode = true;
+            Log.d(TAG, "Сервер подтвердил живой просмотр");
+        } else if (ack.startsWith(CANCEL_ACK)) {
+            cancelMode = true;
+            Log.d(TAG, "Сервер подтвердил отмену снимков");
+        } else if (ack.startsWith(PREVIEW_ACK)) {
+            previewMode = true;
+            Log.d(TAG, "Сервер подтвердил превью снимков");
+        } else if (ack.startsWith(RESUMABLE_ACK)) {
+            resumableMode = true;
+            Log.d(TAG, "Сервер подтвердил докачку");
+            resumableReceiver.onResumeAvailable();
+        } else {
+            Log.d(TAG, "Неизвестное подтверждение: " + ack);
+        }
+    }
+
+    @Override
+    public void textImageStarted(int expectedChars) {
+        listener.onTextImageStarted(expectedChars);
+    }
+
+    @Override
+    public void textImagePayload(ByteBuffer payload) {
+        listener.onTextImagePayload(payload);
+    }
+
+    @Override
+    public void textImageFinished() {
+        listener.onTextImageFinished();
+    }
+
+    @Override
+    public void binaryImageStarted(int length) {
+        listener.onBinaryImageStarted(length);
+    }
+
+    @Override
+    public void binaryImageProgress(int received, int length) {
+        listener.onBinaryImageProgress(received, length);
+    }
+
+    @Override
+    public void binaryImageReceived(byte[] data) {
+        listener.onBinaryImageReceived(data);
+    }
+
+    @Override
+    public void cameraImageStarted(int cameraId, int length) {
+        listener.onCameraImageStarted(cameraId, length);
+    }
+
+    @Override
+    public void cameraImageChunk(int cameraId, ByteBuffer chunk) {
+        listener.onCameraImageChunk(cameraId, chunk);
+    }
+
+    @Override
+    public void resumableImageStarted(int transferId, int length, int chunkSize) {
+        resumableReceiver.onImageStart(transferId, length, chunkSize);
+    }
+
+    @Override
+    public void resumableChunkStarted(int transferId, int offset, int length, long crc) {
+        resumableReceiver.onChunkStart(transferId, offset, length, crc);
+    }
+
+    @Override
+    public void resumableChunkData(ByteBuffer data) {
+        resumableReceiver.onChunkData(data);
+    }
+
+    @Override
+    public void liveFrameStarted(int cameraId, int sequence, int length) {
+        listener.onLiveFrameStarted(cameraId, sequence, length);
+    }
+
+    @Override
+    public void liveFrameData(ByteBuffer data) {
+        listener.onLiveFrameData(data);
+    }
+
+    // Собранная по кускам картинка идёт дальше тем же путём, что BIN_IMAGE:
+    private class ResumableListener implements ResumableImageReceiver.Listener {
+        @Override
+        public void onTransferStarted(int length) {
+            listener.onBinaryImageStarted(length);
+        }
+
+        @Override
+        public void onTransferProgress(int received, int length) {
+            listener.onBinaryImageProgress(received, length);
+        }
+
+        @Override
+        public void onTransferComplete(byte[] data) {
+            listener.onBinaryImageReceived(data);
+        }
+
+        @Override
+        public void onTransferFailed(String reason) {
+            listener.onImageTransferFailed(reason);
+        }
     }
 
     @Override
     public void connectionLost() {
+        metrics.incrementConnectionsLost();
+        commandWriter.detach();
+        resumableReceiver.onConnectionLost();
         listener.onConnectionStatusChanged("Потеряно");
         listener.onPeerDisconnected(); // Сбрасываем статус пира при потере сервера
         stopHeartbeat();
 
         // Логика непрерывного переподключения (без флага shouldAttemptReconnect)
-        Log.d(TAG, "Соединение потеряно. Планирую переподключение через " + RECONNECT_DELAY_MS + "мс.");
-        reconnectHandler.postDelayed(reconnectRunnable, RECONNECT_DELAY_MS);
+        long now = System.nanoTime();
+        if (outageStartedAt == 0) outageStartedAt = now;
+        long delay = reconnectPolicy.nextDelayMs(now);
+        Log.d(TAG, "Соединение потеряно. Планирую переподключение через " + delay + "мс.");
+        reconnectHandler.removeCallbacks(reconnectRunnable);
+        reconnectHandler.postDelayed(reconnectRunnable, delay);
     }
 
     @Override
     public void connectionEstablished() {
         Log.d(TAG, "Шаг 1: Сокет открыт.");
+        reconnectPolicy.onConnected(System.nanoTime());
+        linkMonitor.onConnected(System.nanoTime());
+        preferConnectedEndpoint();
+        binaryImageMode = false;
+        multiCameraMode = false;
+        resumableMode = false;
+        compressionMode = false;
+        liveViewMode = false;
+        cancelMode = false;
+        previewMode = false;
 
         // 1. Убираем крутилку в UI
         reconnectHandler.post(() -> {
@@ -88,14 +423,7 @@ public class ConnectionManager implements TcpClient.OnMessageReceived {
         reconnectHandler.removeCallbacks(reconnectRunnable);
 
         // 2. Отправляем ID (через 200мс)
-        reconnectHandler.postDelayed(() -> {
-            Log.d(TAG, "Шаг 2: Отправка ID:CONTROL");
-            backgroundExecutor.execute(() -> {
-                if (tcpClient != null) {
-                    tcpClient.sendMessage("ID:CONTROL");
-                }
-            });
-        }, 200);
+        reconnectHandler.postDelayed(this::sendHandshake, 200);
 
         // 3. Запрашиваем список камер (только ОДИН раз через 1200мс)
         reconnectHandler.postDelayed(() -> {
@@ -105,18 +433,60 @@ public class ConnectionManager implements TcpClient.OnMessageReceived {
     }
 
 
-    @Override public void peerDisconnected() {
-        listener.onPeerDisconnected();
+    // Шаг 2 рукопожатия: ID:CONTROL и запросы режимов, следом - команды, накопившиеся без соединения
+    void sendHandshake() {
+        Log.d(TAG, "Шаг 2: Отправка ID:CONTROL");
+        TcpClient client = tcpClient;
+        if (client == null) return;
+        // Связь восстановлена, когда пошли команды; отказ по лимиту к этому моменту уже закрыл сокет
+        long outage = outageStartedAt;
+        if (outage != 0 && client.isConnected()) {
+            metrics.recordTimeToReconnect(System.nanoTime() - outage);
+            outageStartedAt = 0;
+        }
+        // Рукопожатие - первым в пачке, за ним команды, накопившиеся без соединения
+        List<String> handshake = new ArrayList<>();
+        handshake.add("ID:CONTROL");
+        if (binaryImagesEnabled) {
+            handshake.add(BINARY_IMAGE_REQUEST);
+        }
+        handshake.add(MULTI_CAMERA_REQUEST);
+        handshake.add(RESUMABLE_REQUEST);
+        if (compressionEnabled) {
+            handshake.add(COMPRESSION_REQUEST);
+        }
+        handshake.add(LIVE_VIEW_REQUEST);
+        handshake.add(CANCEL_REQUEST);
+        if (previewEnabled) {
+            handshake.add(PREVIEW_REQUEST);
+        }
+        // Поток кадров жил только в прежнем соединении - запрашиваем заново
+        int liveCamera = liveViewCamera;
+        if (liveCamera >= 0) {
+            handshake.add(LIVE_START_COMMAND + liveCamera + ":" + liveViewFps);
+        }
+        commandWriter.attach(client::sendMessages, handshake);
     }
 
-    @Override
-    public void limitReached() {
+    private void onLimitReached() {
+        reconnectPolicy.onLimitReached();
         listener.onLimitReached();
         // Ничего не делаем здесь, позволяем connectionLost/TcpClient.close() запустить следующий цикл
         Log.d(TAG, "Получен лимит. Будет предпринята новая попытка.");
     }
 
-    @Override public void peerConnected() { listener.onPeerConnected(); }
+    // Победитель гонки пробуется первым и при следующем переподключении
+    private void preferConnectedEndpoint() {
+        TcpClient client = tcpClient;
+        EndpointRacer.Endpoint winner = client != null ? client.getConnectedEndpoint() : null;
+        List<EndpointRacer.Endpoint> current = endpoints;
+        if (winner == null || current.isEmpty() || current.get(0).equals(winner)) return;
+        List<EndpointRacer.Endpoint> reordered = new ArrayList<>(current);
+        reordered.remove(winner);
+        reordered.add(0, winner);
+        endpoints = reordered;
+    }
+
     public void onPeerStatusChanged(String status) {} // Пустой метод интерфейса
 
     // --- Логика Heartbeat и Reconnect ---
@@ -125,8 +495,21 @@ public class ConnectionManager implements TcpClient.OnMessageReceived {
 
     private Runnable heartbeatRunnable = new Runnable() {
         @Override public void run() {
-            sendCommand("PING");
-            heartbeatHandler.postDelayed(this, HEARTBEAT_INTERVAL);
+            TcpClient client = tcpClient;
+            if (client == null) return;
+            switch (linkMonitor.onTick(System.nanoTime(), client.getBytesReceived())) {
+                case PING:
+                    sendCommand("PING");
+                    break;
+                case DEAD:
+                    // Закрытие сокета прервёт чтение, дальше обычный путь connectionLost
+                    Log.w(TAG, "Нет ответа на PING " + linkMonitor.getPongTimeoutMs() + " мс, соединение считаю потерянным");
+                    client.close();
+                    return;
+                default:
+                    break;
+            }
+            heartbeatHandler.postDelayed(this, LinkMonitor.TICK_MS);
         }
     };
 
@@ -134,13 +517,15 @@ public class ConnectionManager implements TcpClient.OnMessageReceived {
         @Override
         public void run() {
             Log.d(TAG, "Попытка автоматического переподключения...");
-            startConnection(savedIp, savedPort);
+            metrics.incrementReconnects();
+            startConnection(endpoints);
         }
     };
 
     public void shutdown() {
         stopHeartbeat();
         reconnectHandler.removeCallbacksAndMessages(null);
+        commandWriter.shutdown();
         if (tcpClient != null) tcpClient.close();
         if (!backgroundExecutor.isShutdown()) {
             backgroundExecutor.shutdownNow();
@@ -0,0 +1,357 @@
+package com.example.controlcenter;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+// Сетевое ядро вне UI: ConnectionManager с TcpClient, ImageProcessor и список камер живут в привязанном
+// сервисе со своим циклом событий. Шаги рукопожатия, heartbeat и переподключение идут на этом цикле,
+// а не на главном потоке; клиент (CommunicationViewModel) получает слитые снимки ConnectionState.
+// Пока идёт передача картинки, сервис запущен и работает на переднем плане (dataSync): он переживает
+// уход приложения в фон и отвязку клиента и останавливается, когда последняя передача закончилась
+public class ConnectionService extends Service implements ConnectionManager.ConnectionManagerListener {
+
+    private static final String TAG = "ConnectionService";
+    private static final String TRANSFER_CHANNEL_ID = "transfers";
+    private static final int TRANSFER_NOTIFICATION_ID = 1;
+
+    // Снимки и сообщения для UI; сам клиент решает, как перенести их на главный поток
+    public interface Client extends ImageProcessor.ImageProcessorListener {
+        // Цикл сервиса; промежуточные состояния между вызовами могут быть слиты
+        void onConnectionState(ConnectionState state);
+
+        // Поток приёма: список камер изменился
+        void onCameras(CameraDirectory.Snapshot cameras);
+
+        // SERVER_ERROR:, отказ по лимиту и прочий текст сервера - в журнал
+        void onServerMessage(ProtocolMessage message);
+
+        void onLiveFrameStarted(int cameraId, int sequence, int length);
+
+        void onLiveFrameData(ByteBuffer data);
+
+        // Поток флота: сводное состояние площадок изменилось
+        void onFleetChanged(RelayFleet.Snapshot fleet);
+    }
+
+    public class LocalBinder extends Binder {
+        public ConnectionService getService() {
+            return ConnectionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final TransferMetrics metrics = new TransferMetrics();
+    // Строки camList копятся на потоке приёма; переживают смену клиента
+    private final CameraDirectory cameraDirectory = new CameraDirectory();
+    private HandlerThread loopThread;
+    private Handler loop;
+    private ConnectionManager connectionManager;
+    private ImageProcessor imageProcessor;
+    // Слушатель ImageProcessor на всё время жизни сервиса; снимки, готовые без клиента, ждут следующего
+    private final ImageListenerRelay imageListener = new ImageListenerRelay();
+    private volatile Client client;
+    // Режим флота: все площадки на одном потоке; null - не запущен (только главный поток)
+    private RelayFleet fleet;
+    private boolean connectionStarted = false; // только из цикла сервиса
+
+    // Состояние для клиента: меняется из любого потока, уходит не чаще одного раза за проход цикла
+    private final Object stateLock = new Object();
+    private ConnectionState state = ConnectionState.INITIAL;
+    private boolean statePublishPending = false;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        loopThread = new HandlerThread("ConnectionLoop");
+        loopThread.start();
+        loop = new Handler(loopThread.getLooper());
+        getSystemService(NotificationManager.class).createNotificationChannel(
+                new NotificationChannel(TRANSFER_CHANNEL_ID, "Передача снимков", NotificationManager.IMPORTANCE_LOW));
+
+        connectionManager = new ConnectionManager(this, metrics, loopThread.getLooper());
+        imageProcessor = new ImageProcessor(imageListener, metrics);
+        imageProcessor.initWakeLock(this);
+        imageProcessor.getActiveTransfers().addListener(new KeepAlive());
+
+        MessageRouter router = connectionManager.getRouter();
+        router.on(ProtocolMessage.Type.CAMERA, cameraDirectory::add);
+        router.onBatchEnd(this::publishCameras);
+        router.on(ProtocolMessage.Type.SERVER_ERROR, this::forwardServerMessage);
+        router.on(ProtocolMessage.Type.CONNECTION_LIMIT, this::forwardServerMessage);
+        router.on(ProtocolMessage.Type.TEXT, this::forwardServerMessage);
+        router.on(ProtocolMessage.Type.PHOTO_CANCELLED, this::onPhotoCancelled);
+        router.on(ProtocolMessage.Type.PREVIEW,
+                (ProtocolMessage.Preview message) -> imageProcessor.onPreviewAnnounced(message.cameraId));
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    // Android 15+: dataSync на переднем плане ограничен по времени - дальше передача живёт, пока привязаны
+    @Override
+    public void onTimeout(int startId, int fgsType) {
+        Log.w(TAG, "Истёк лимит работы на переднем плане");
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (fleet != null) fleet.close();
+        connectionManager.shutdown();
+        imageProcessor.shutdown();
+        loopThread.quitSafely();
+        super.onDestroy();
+    }
+
+    // Главный поток. Новый клиент сразу получает текущее состояние и список камер -
+    // соединение могло пережить прежнего клиента
+    public void attach(Client client) {
+        this.client = client;
+        imageListener.attach(client);
+        // Открывается один раз; кадры из кэша уходят первому клиенту
+        imageProcessor.openDiskCache(new File(getCacheDir(), "images"));
+        RelayFleet current = fleet;
+        loop.post(() -> {
+            client.onConnectionState(currentState());
+            if (current != null) client.onFleetChanged(current.getSnapshot());
+            CameraDirectory.Snapshot cameras = cameraDirectory.getSnapshot();
+            if (cameras.size() > 0) client.onCameras(cameras);
+        });
+    }
+
+    // События, которые ещё в пути, прежний клиент может получить - его LiveData уже никто не наблюдает.
+    // Готовый снимок ему не отдаётся: он дождётся следующего клиента
+    public void detach(Client client) {
+        if (this.client == client) this.client = null;
+        imageListener.detach(client);
+    }
+
+    // Повторный вызов (пересоздание Activity, новый клиент) не трогает уже идущее соединение
+    public void connect(List<EndpointRacer.Endpoint> endpoints) {
+        List<EndpointRacer.Endpoint> copy = new ArrayList<>(endpoints);
+        loop.post(() -> {
+            if (connectionStarted) return;
+            connectionStarted = true;
+            connectionManager.startConnection(copy);
+        });
+    }
+
+    public void sendCommand(String command) {
+        connectionManager.sendCommand(command);
+    }
+
+    // Одиночный снимок. replacePrevious - прежние недополученные снимки больше не нужны: сервер их
+    // останавливает, пришедшие байты отбрасываются, декодирование пропускается.
+    // Картинки параллельной съёмки помечены камерой и друг друга не заменяют
+    public void requestPhoto(int cameraId, boolean replacePrevious) {
+        if (!connectionManager.isMultiCameraMode()) {
+            if (replacePrevious) {
+                boolean serverCancels = connectionManager.isCancelMode();
+                for (PhotoRequest stale : imageProcessor.cancelPhotoRequests(serverCancels)) {
+                    Log.d(TAG, "Отмена: " + stale);
+                    connectionManager.cancelPhoto(stale.cameraId);
+                }
+            }
+            imageProcessor.onPhotoRequested(cameraId);
+        }
+        metrics.markPhotoRequested();
+        sendCommand("TAKE_PHOTO_" + cameraId);
+    }
+
+    // Главный поток. Площадки добавляются к уже запущенному флоту; основное соединение не затрагивается
+    public void startFleet(Map<String, EndpointRacer.Endpoint> sites) {
+        if (sites.isEmpty()) return;
+        if (fleet == null) {
+            try {
+                fleet = new RelayFleet(this::publishFleet);
+            } catch (IOException e) {
+                Log.e(TAG, "Не удалось запустить режим флота", e);
+                return;
+            }
+            fleet.start();
+        }
+        for (Map.Entry<String, EndpointRacer.Endpoint> site : sites.entrySet()) {
+            fleet.addSite(site.getKey(), site.getValue());
+        }
+    }
+
+    public ConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public ImageProcessor getImageProcessor() {
+        return imageProcessor;
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    // --- Состояние для клиента ---
+
+    private ConnectionState currentState() {
+        synchronized (stateLock) {
+            return state;
+        }
+    }
+
+    // Изменения, пришедшие до публикации, уходят одним снимком
+    private void updateState(UnaryOperator<ConnectionState> change) {
+        synchronized (stateLock) {
+            state = change.apply(state);
+            if (statePublishPending) return;
+            statePublishPending = true;
+        }
+        loop.post(this::publishState);
+    }
+
+    private void publishState() {
+        ConnectionState snapshot;
+        synchronized (stateLock) {
+            snapshot = state;
+            statePublishPending = false;
+        }
+        Client current = client;
+        if (current != null) current.onConnectionState(snapshot);
+    }
+
+    // Поток приёма: строки камер этой пачки уже в справочнике
+    private void publishCameras() {
+        CameraDirectory.Snapshot snapshot = cameraDirectory.publish();
+        Client current = client;
+        if (snapshot != null && current != null) current.onCameras(snapshot);
+    }
+
+    private void publishFleet(RelayFleet.Snapshot snapshot) {
+        Client current = client;
+        if (current != null) current.onFleetChanged(snapshot);
+    }
+
+    // Поток приёма: байтов отменённого снимка больше не будет
+    private void onPhotoCancelled(ProtocolMessage.PhotoCancelled message) {
+        if (imageProcessor.onPhotoCancelled(message.cameraId)) connectionManager.discardResumableTransfer();
+    }
+
+    private void forwardServerMessage(ProtocolMessage message) {
+        Client current = client;
+        if (current != null) current.onServerMessage(message);
+    }
+
+    // --- ConnectionManagerListener ---
+
+    @Override
+    public void onConnectionStatusChanged(String status) {
+        if (!"Потеряно".equals(status)) {
+            updateState(s -> s.withStatus(status));
+            return;
+        }
+        // Снимки в пути уже не придут; картинка с докачкой ждёт переподключения, если её ещё ждут
+        imageProcessor.abortCameraTransfers();
+        imageProcessor.forgetUnstartedPhotoRequests();
+        if (imageProcessor.isReceivingCancelledPhoto()) connectionManager.discardResumableTransfer();
+        boolean resuming = connectionManager.hasResumableTransfer();
+        if (!resuming) imageProcessor.abortImageTransfer("Снимок не получен: соединение потеряно");
+        updateState(s -> s.withConnectionLost(resuming));
+    }
+
+    @Override
+    public void onPeerStatusChanged(String status) {
+    }
+
+    @Override
+    public void onPeerConnected() {
+        updateState(s -> s.withPeerConnected(true));
+        sendCommand("camList");
+    }
+
+    @Override
+    public void onPeerDisconnected() {
+        updateState(s -> s.withPeerConnected(false));
+    }
+
+    @Override
+    public void onLimitReached() {
+        updateState(s -> s.withStatus("Лимит"));
+    }
+
+    @Override public void onTextImageStarted(int expectedChars) { imageProcessor.beginTextImage(expectedChars); }
+    @Override public void onTextImagePayload(ByteBuffer payload) { imageProcessor.appendPayload(payload); }
+    @Override public void onTextImageFinished() { imageProcessor.finishTextImage(); }
+    @Override public void onBinaryImageStarted(int length) { imageProcessor.beginBinaryImage(length); }
+    @Override public void onBinaryImageProgress(int received, int length) { imageProcessor.onBinaryImageProgress(received, length); }
+    @Override public void onBinaryImageReceived(byte[] data) { imageProcessor.processBinaryImage(data); }
+    @Override public void onCameraImageStarted(int cameraId, int length) { imageProcessor.beginCameraImage(cameraId, length); }
+    @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) { imageProcessor.appendCameraChunk(cameraId, chunk); }
+    @Override public void onImageTransferFailed(String reason) { imageProcessor.abortImageTransfer(reason); }
+
+    @Override
+    public void onLiveFrameStarted(int cameraId, int sequence, int length) {
+        Client current = client;
+        if (current != null) current.onLiveFrameStarted(cameraId, sequence, length);
+    }
+
+    @Override
+    public void onLiveFrameData(ByteBuffer data) {
+        Client current = client;
+        if (current != null) current.onLiveFrameData(data);
+    }
+
+    private Notification transferNotification() {
+        return new Notification.Builder(this, TRANSFER_CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle("Приём снимка")
+                .setContentText("Передача продолжится в фоне")
+                .setOngoing(true)
+                .build();
+    }
+
+    // Запущенный сервис не уничтожается вместе с отвязкой клиента, а передний план не даёт системе
+    // остановить его в фоне - передача доходит до конца. Докачка после обрыва счёт не обнуляет,
+    // поэтому сервис остаётся на переднем плане и пока идёт переподключение.
+    // Оба вызова - под замком ActiveTransfers, в порядке начала и конца передач
+    private class KeepAlive implements ActiveTransfers.Listener {
+        @Override
+        public void onTransfersStarted() {
+            try {
+                startForeground(TRANSFER_NOTIFICATION_ID, transferNotification(),
+                        ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+                startService(new Intent(ConnectionService.this, ConnectionService.class));
+            } catch (IllegalStateException e) {
+                // ForegroundServiceStartNotAllowedException: передача началась, когда приложение уже в фоне
+                Log.w(TAG, "Не удалось удержать сервис на время передачи", e);
+            }
+        }
+
+        // stopSelf() без startId: onStartCommand приходит асинхронно и мог ещё не дойти
+        @Override
+        public void onTransfersFinished() {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.controlcenter;
+
+// Неизменяемый снимок состояния связи, который ConnectionService отдаёт UI. Снимки сливаются:
+// между двумя соседними промежуточные состояния могут пропасть, поэтому обрывы не флаг, а счётчик -
+// по нему клиент не пропустит обрыв, даже если соединение уже восстановлено
+public final class ConnectionState {
+
+    public static final ConnectionState INITIAL = new ConnectionState("Подключение...", false, 0, false);
+
+    // "Подключение...", "Установлено", "Потеряно", "Лимит"
+    public final String status;
+    public final boolean peerConnected;
+    public final int connectionsLost;
+    // При последнем обрыве недокачанная картинка осталась ждать докачки
+    public final boolean resumingTransfer;
+
+    private ConnectionState(String status, boolean peerConnected, int connectionsLost, boolean resumingTransfer) {
+        this.status = status;
+        this.peerConnected = peerConnected;
+        this.connectionsLost = connectionsLost;
+        this.resumingTransfer = resumingTransfer;
+    }
+
+    public boolean isEstablished() {
+        return "Установлено".equals(status);
+    }
+
+    public ConnectionState withStatus(String status) {
+        return new ConnectionState(status, peerConnected, connectionsLost, resumingTransfer);
+    }
+
+    public ConnectionState withPeerConnected(boolean peerConnected) {
+        return new ConnectionState(status, peerConnected, connectionsLost, resumingTransfer);
+    }
+
+    // Обрыв сбрасывает и статус пира: без сервера о нём ничего не известно
+    public ConnectionState withConnectionLost(boolean resumingTransfer) {
+        return new ConnectionState("Потеряно", false, connectionsLost + 1, resumingTransfer);
+    }
+
+    @Override
+    public String toString() {
+        return status + (peerConnected ? ", пир подключён" : "") + ", обрывов: " + connectionsLost;
+    }
+}
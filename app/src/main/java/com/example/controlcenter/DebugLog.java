@@ -0,0 +1,26 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Построчный лог протокола. PROTOCOL_LINES - константа времени компиляции:
+// при false компилятор вырезает вызовы целиком вместе со сборкой строки сообщения.
+// При true пишется только каждая SAMPLE_EVERY-я строка, чтобы лог не тормозил приём
+final class DebugLog {
+
+    static final boolean PROTOCOL_LINES = false;
+    private static final int SAMPLE_EVERY = 50;
+    private static final AtomicInteger lineCounter = new AtomicInteger();
+
+    private DebugLog() {
+    }
+
+    static boolean sampleLine() {
+        return lineCounter.incrementAndGet() % SAMPLE_EVERY == 0;
+    }
+
+    static void line(String tag, String prefix, String message) {
+        Log.d(tag, prefix + (message.length() > 80 ? message.substring(0, 80) + "..." : message));
+    }
+}
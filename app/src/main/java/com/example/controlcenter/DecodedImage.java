@@ -0,0 +1,52 @@
+package com.example.controlcenter;
+
+import android.graphics.Bitmap;
+
+// Результат декодирования: уменьшенный под экран Bitmap плюс исходные сжатые байты,
+// из которых при зуме декодируются фрагменты в полном разрешении, и миниатюра для ленты истории
+public class DecodedImage {
+
+    private final Bitmap bitmap;
+    private final Bitmap thumbnail;
+    private final byte[] source;
+    private final int sourceLength;
+    private final int fullWidth;
+    private final int fullHeight;
+    private final int sampleSize;
+
+    public DecodedImage(Bitmap bitmap, byte[] source, int sourceLength, int fullWidth, int fullHeight, int sampleSize) {
+        this(bitmap, null, source, sourceLength, fullWidth, fullHeight, sampleSize);
+    }
+
+    public DecodedImage(Bitmap bitmap, Bitmap thumbnail, byte[] source, int sourceLength,
+                        int fullWidth, int fullHeight, int sampleSize) {
+        this.bitmap = bitmap;
+        this.thumbnail = thumbnail;
+        this.source = source;
+        this.sourceLength = sourceLength;
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.sampleSize = sampleSize;
+    }
+
+    public Bitmap getBitmap() { return bitmap; }
+    public Bitmap getThumbnail() { return thumbnail; }
+    public byte[] getSource() { return source; }
+    public int getSourceLength() { return sourceLength; }
+    public int getFullWidth() { return fullWidth; }
+    public int getFullHeight() { return fullHeight; }
+    public int getSampleSize() { return sampleSize; }
+
+    // Память, которую держит кадр: Bitmap, миниатюра и исходник для тайлов
+    public long getRetainedBytes() {
+        long bytes = source != null ? source.length : 0;
+        if (bitmap != null) bytes += bitmap.getAllocationByteCount();
+        if (thumbnail != null && thumbnail != bitmap) bytes += thumbnail.getAllocationByteCount();
+        return bytes;
+    }
+
+    // Есть ли смысл в тайлах: картинка показана с уменьшением и исходник сохранён
+    public boolean hasDetail() {
+        return sampleSize > 1 && source != null;
+    }
+}
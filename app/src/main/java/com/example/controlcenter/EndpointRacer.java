@@ -0,0 +1,150 @@
+package com.example.controlcenter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Подключение к первому ответившему реле из списка. Первый адрес (последний победитель)
+// пробуется сразу, остальные - с небольшим сдвигом, чтобы без нужды не открывать лишние соединения.
+// Проигравшие сокеты закрываются
+public class EndpointRacer {
+
+    public static final int CONNECT_TIMEOUT_MS = 5000;
+    public static final int STAGGER_MS = 250;
+    // Гонка брошена: опоздавшие победители закрывают свой сокет сами
+    private static final Connection ABANDONED = new Connection(null, null, null);
+
+    // Адрес реле "хост:порт"; имя разрешается уже в потоке подключения
+    public static class Endpoint {
+        public final String host;
+        public final int port;
+
+        public Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public static Endpoint parse(String value) {
+            int colon = value.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Ожидается хост:порт: " + value);
+            return new Endpoint(value.substring(0, colon).trim(), Integer.parseInt(value.substring(colon + 1).trim()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Endpoint)) return false;
+            Endpoint other = (Endpoint) o;
+            return port == other.port && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return host.hashCode() * 31 + port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    // Открытый сокет победителя; channel != null, если подключались через SocketChannel
+    public static class Connection {
+        public final Endpoint endpoint;
+        public final Socket socket;
+        public final SocketChannel channel;
+
+        Connection(Endpoint endpoint, Socket socket, SocketChannel channel) {
+            this.endpoint = endpoint;
+            this.socket = socket;
+            this.channel = channel;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // проигравший сокет никому не нужен
+            }
+        }
+    }
+
+    public static Connection connect(List<Endpoint> endpoints, boolean useChannel) throws IOException {
+        return connect(endpoints, useChannel, CONNECT_TIMEOUT_MS, STAGGER_MS);
+    }
+
+    public static Connection connect(List<Endpoint> endpoints, boolean useChannel, int timeoutMs, int staggerMs) throws IOException {
+        if (endpoints.isEmpty()) throw new IOException("Не задан ни один адрес реле");
+        // Один адрес - без лишних потоков
+        if (endpoints.size() == 1) return open(endpoints.get(0), useChannel, timeoutMs);
+
+        ExecutorService racers = Executors.newFixedThreadPool(endpoints.size(), r -> {
+            Thread t = new Thread(r, "endpoint-racer");
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorCompletionService<Connection> completion = new ExecutorCompletionService<>(racers);
+        AtomicReference<Connection> winner = new AtomicReference<>();
+        CountDownLatch decided = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint endpoint = endpoints.get(i);
+                long startAfter = (long) i * staggerMs;
+                completion.submit(() -> {
+                    // Ждём своей очереди; если кто-то уже подключился, не начинаем вовсе
+                    if (startAfter > 0 && decided.await(startAfter, TimeUnit.MILLISECONDS)) return null;
+                    if (winner.get() != null) return null;
+                    Connection connection = open(endpoint, useChannel, timeoutMs);
+                    if (!winner.compareAndSet(null, connection)) {
+                        connection.close();
+                        return null;
+                    }
+                    decided.countDown();
+                    return connection;
+                });
+            }
+
+            List<String> errors = new ArrayList<>();
+            for (int i = 0; i < endpoints.size(); i++) {
+                try {
+                    Connection connection = completion.take().get();
+                    if (connection != null) return connection;
+                } catch (ExecutionException e) {
+                    errors.add(e.getCause().getMessage());
+                }
+            }
+            throw new IOException("Ни одно реле не ответило: " + errors);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Победитель мог появиться уже после прерывания - он тоже не нужен
+            Connection late = winner.getAndSet(ABANDONED);
+            if (late != null && late != ABANDONED) late.close();
+            throw new IOException("Подключение прервано");
+        } finally {
+            decided.countDown();
+            racers.shutdownNow();
+        }
+    }
+
+    private static Connection open(Endpoint endpoint, boolean useChannel, int timeoutMs) throws IOException {
+        SocketChannel channel = useChannel ? SocketChannel.open() : null;
+        Socket socket = useChannel ? channel.socket() : new Socket();
+        try {
+            socket.connect(new InetSocketAddress(endpoint.host, endpoint.port), timeoutMs);
+            return new Connection(endpoint, socket, channel);
+        } catch (IOException e) {
+            socket.close();
+            throw new IOException(endpoint + ": " + e.getMessage(), e);
+        }
+    }
+}
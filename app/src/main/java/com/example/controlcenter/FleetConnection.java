@@ -0,0 +1,271 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+// Соединение флота с одной площадкой: неблокирующий SocketChannel в общем Selector RelayFleet.
+// Те же шаги, что у ConnectionManager, только без своего потока: рукопожатие, camList при
+// подключении пира, heartbeat по LinkMonitor и переподключение по ReconnectPolicy.
+// Все методы - только из потока флота
+public class FleetConnection {
+
+    private static final String TAG = "FleetConnection";
+
+    // Буфер приёма площадки: во флоте идут статусы, PONG и списки камер, а площадок десятки
+    public static final int RECEIVE_BUFFER_SIZE = 8 * 1024;
+    // Как у ConnectionManager: ID:CONTROL - не сразу после открытия сокета
+    static final long HANDSHAKE_DELAY_MS = 200;
+
+    private final RelayFleet fleet;
+    private final String name;
+    private final EndpointRacer.Endpoint endpoint;
+    private final MessageRouter router = new MessageRouter();
+    // Переживает переподключения: пока площадки нет, показываем прежний список
+    private final CameraDirectory cameras = new CameraDirectory();
+    private final LinkMonitor linkMonitor = new LinkMonitor();
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    // Команды, не ушедшие в сокет целиком; запись продолжится по OP_WRITE
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+
+    // Адрес разрешается один раз (на потоке флота) и сбрасывается после неудачной попытки
+    private InetSocketAddress address;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private FrameScanner scanner;
+    private boolean connected = false;
+    private boolean closed = false;
+
+    private RelayFleet.Timer connectTimeout;
+    private RelayFleet.Timer heartbeat;
+    private RelayFleet.Timer pending;
+
+    private String status = "Подключение...";
+    private boolean peerConnected = false;
+    private long publishedRttMs = -1;
+
+    FleetConnection(RelayFleet fleet, String name, EndpointRacer.Endpoint endpoint) {
+        this.fleet = fleet;
+        this.name = name;
+        this.endpoint = endpoint;
+        router.on(ProtocolMessage.Type.PONG, message -> linkMonitor.onPong(System.nanoTime()));
+        router.on(ProtocolMessage.Type.PEER_CONNECTED, message -> onPeer(true));
+        router.on(ProtocolMessage.Type.PEER_DISCONNECTED, message -> onPeer(false));
+        router.on(ProtocolMessage.Type.CONNECTION_LIMIT, message -> {
+            reconnectPolicy.onLimitReached();
+            setStatus("Лимит");
+        });
+        router.on(ProtocolMessage.Type.CAMERA, cameras::add);
+        router.onBatchEnd(() -> {
+            if (cameras.publish() != null) fleet.markChanged();
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    RelayFleet.Site toSite() {
+        return new RelayFleet.Site(name, endpoint, status, peerConnected, cameras.getSnapshot(),
+                linkMonitor.getSmoothedRttMs());
+    }
+
+    void connect() {
+        if (closed) return;
+        setStatus("Подключение...");
+        try {
+            if (address == null) address = new InetSocketAddress(endpoint.host, endpoint.port);
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(fleet.selector(), 0, this);
+            if (channel.connect(address)) {
+                onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+                connectTimeout = fleet.schedule(EndpointRacer.CONNECT_TIMEOUT_MS,
+                        () -> connectionLost("таймаут подключения"));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Неразрешённый адрес (UnresolvedAddressException) - тоже повод попробовать позже
+            address = null;
+            connectionLost(e.toString());
+        }
+    }
+
+    // Selector сообщил о готовности сокета
+    void onReady(SelectionKey readyKey) {
+        if (readyKey != key) return;
+        try {
+            if (readyKey.isConnectable()) {
+                if (channel.finishConnect()) onConnected();
+                return;
+            }
+            if (readyKey.isReadable()) {
+                if (!scanner.receive(channel)) throw new IOException("Соединение потеряно сервером (получен EOF)");
+                router.endBatch();
+            }
+            if (key == readyKey && readyKey.isValid() && readyKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            // Обрыв уже обработан изнутри разбора (send из onPeer не смог записать) и канал закрыт -
+            // второй connectionLost сдвинул бы ReconnectPolicy ещё раз за тот же обрыв
+            if (readyKey != key) return;
+            // Не подключились - при следующей попытке адрес разрешим заново
+            if (!connected) address = null;
+            connectionLost(e.toString());
+        }
+    }
+
+    void send(String command) {
+        if (!connected) return;
+        outgoing.add(ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.UTF_8)));
+        try {
+            flush();
+        } catch (IOException e) {
+            connectionLost(e.toString());
+        }
+    }
+
+    void close() {
+        closed = true;
+        closeChannel();
+    }
+
+    private void onConnected() {
+        cancel(connectTimeout);
+        connectTimeout = null;
+        connected = true;
+        scanner = new FrameScanner(new Receiver(), RECEIVE_BUFFER_SIZE);
+        key.interestOps(SelectionKey.OP_READ);
+        long now = System.nanoTime();
+        reconnectPolicy.onConnected(now);
+        linkMonitor.onConnected(now);
+        setStatus("Установлено");
+        Log.d(TAG, name + ": подключено к " + endpoint);
+
+        pending = fleet.schedule(HANDSHAKE_DELAY_MS, () -> send("ID:CONTROL"));
+        heartbeat = fleet.schedule(LinkMonitor.TICK_MS, this::heartbeatTick);
+    }
+
+    private void onPeer(boolean peer) {
+        peerConnected = peer;
+        fleet.markChanged();
+        // Как основное соединение: список камер - когда к реле подключён пир
+        if (peer) send("camList");
+    }
+
+    private void heartbeatTick() {
+        if (!connected) return;
+        switch (linkMonitor.onTick(System.nanoTime(), scanner.getBytesReceived())) {
+            case PING:
+                send("PING");
+                break;
+            case DEAD:
+                Log.w(TAG, name + ": нет ответа на PING " + linkMonitor.getPongTimeoutMs() + " мс");
+                connectionLost("нет ответа на PING");
+                return;
+            default:
+                break;
+        }
+        // Отправка PING могла обнаружить обрыв
+        if (!connected) return;
+        heartbeat = fleet.schedule(LinkMonitor.TICK_MS, this::heartbeatTick);
+        // Новый RTT виден в снимке; без изменений снимок не пересобираем
+        long rtt = linkMonitor.getSmoothedRttMs();
+        if (rtt != publishedRttMs) {
+            publishedRttMs = rtt;
+            fleet.markChanged();
+        }
+    }
+
+    private void flush() throws IOException {
+        while (!outgoing.isEmpty()) {
+            ByteBuffer head = outgoing.peek();
+            channel.write(head);
+            if (head.hasRemaining()) break;
+            outgoing.poll();
+        }
+        key.interestOps(outgoing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // После closeChannel() прежний ключ и таймеры уже не сработают, а onReady() с прежним ключом
+    // обрыв не повторяет - второго вызова на один обрыв не будет
+    private void connectionLost(String reason) {
+        closeChannel();
+        setStatus("Потеряно");
+        peerConnected = false;
+        if (closed) return;
+        long delay = reconnectPolicy.nextDelayMs(System.nanoTime());
+        Log.d(TAG, name + ": соединение потеряно (" + reason + "), переподключение через " + delay + " мс");
+        pending = fleet.schedule(delay, this::connect);
+    }
+
+    private void closeChannel() {
+        cancel(connectTimeout);
+        cancel(heartbeat);
+        cancel(pending);
+        connectTimeout = null;
+        heartbeat = null;
+        pending = null;
+        connected = false;
+        outgoing.clear();
+        if (key != null) key.cancel();
+        key = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // сокет уже не нужен
+            }
+        }
+        channel = null;
+        scanner = null;
+    }
+
+    private void setStatus(String status) {
+        if (status.equals(this.status)) return;
+        this.status = status;
+        fleet.markChanged();
+    }
+
+    private static void cancel(RelayFleet.Timer timer) {
+        if (timer != null) timer.cancel();
+    }
+
+    // Флот смотрит только управляющие строки; картинки он не запрашивает, и приходить им неоткуда.
+    // Строки, разобранные после обрыва посреди пачки, относятся к закрытому соединению и пропускаются
+    private class Receiver implements FrameScanner.Listener {
+        @Override
+        public void onControlLine(String line) {
+            if (connected) router.route(MessageParser.parse(line));
+        }
+
+        @Override
+        public void onControlMessage(ProtocolMessage message) {
+            if (connected) router.route(message);
+        }
+
+        @Override public void onTextImageStart(int expectedChars) {}
+        @Override public void onTextImagePayload(ByteBuffer payload) {}
+        @Override public void onTextImageEnd() {}
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.controlcenter;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Недавние декодированные кадры в памяти: вернуться к предыдущему снимку можно мгновенно,
+// без повторной передачи и без новых Bitmap. Объём ограничен долей кучи, вытесняются давно не показанные.
+// Кадр, который сейчас на экране, не вытесняется в пул, пока его не снимут с экрана.
+// Пока кадр в кэше, его Bitmap в BitmapPool не возвращается - вытесненные отдаются через Recycler
+public class FrameMemoryCache {
+
+    private static final String TAG = "FrameMemoryCache";
+
+    public interface Recycler {
+        void recycle(DecodedImage image);
+    }
+
+    public static class Frame {
+        private final long id;
+        private final int cameraId;
+        private final long capturedAt;
+        private final DecodedImage image;
+
+        Frame(long id, int cameraId, long capturedAt, DecodedImage image) {
+            this.id = id;
+            this.cameraId = cameraId;
+            this.capturedAt = capturedAt;
+            this.image = image;
+        }
+
+        public long getId() { return id; }
+        public int getCameraId() { return cameraId; }
+        public long getCapturedAt() { return capturedAt; }
+        public DecodedImage getImage() { return image; }
+    }
+
+    private final long maxBytes;
+    private final Recycler recycler;
+    // Порядок доступа: первый - самый давно показанный
+    private final LinkedHashMap<Long, Frame> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+    private long nextId = 1;
+    private DecodedImage displayed;
+
+    public FrameMemoryCache(long maxBytes, Recycler recycler) {
+        this.maxBytes = maxBytes;
+        this.recycler = recycler;
+    }
+
+    public synchronized Frame put(int cameraId, long capturedAt, DecodedImage image) {
+        Frame frame = new Frame(nextId++, cameraId, capturedAt, image);
+        frames.put(frame.id, frame);
+        currentBytes += image.getRetainedBytes();
+        // Только что пришедший кадр сейчас покажут - вытесняем только старые
+        trimTo(maxBytes, frame);
+        return frame;
+    }
+
+    // Кадр из истории; обновляет его место в LRU
+    public synchronized Frame get(long id) {
+        return frames.get(id);
+    }
+
+    public synchronized boolean contains(DecodedImage image) {
+        for (Frame frame : frames.values()) {
+            if (frame.image == image) return true;
+        }
+        return false;
+    }
+
+    // Какой кадр сейчас на экране: его Bitmap нельзя отдавать в пул даже при вытеснении
+    public synchronized void setDisplayed(DecodedImage image) {
+        displayed = image;
+    }
+
+    // Кадры для ленты истории, новые первыми. Порядок доступа не меняется
+    public synchronized List<Frame> snapshot() {
+        List<Frame> result = new ArrayList<>(frames.values());
+        Collections.sort(result, (a, b) -> Long.compare(b.capturedAt, a.capturedAt));
+        return result;
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimTo(0, null);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimTo(currentBytes / 2, null);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): " + frames.size() + " кадров, " + (currentBytes / 1024) + " КБ");
+    }
+
+    public synchronized void clear() {
+        trimTo(0, null);
+    }
+
+    private void trimTo(long limit, Frame keep) {
+        Iterator<Frame> it = frames.values().iterator();
+        while (currentBytes > limit && it.hasNext()) {
+            Frame eldest = it.next();
+            if (eldest == keep) continue;
+            it.remove();
+            currentBytes -= eldest.image.getRetainedBytes();
+            // Кадр на экране вернётся в пул сам, когда его снимут с экрана
+            if (eldest.image != displayed) recycler.recycle(eldest.image);
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package com.example.controlcenter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Разбор входящего потока прямо в байтах, без BufferedReader и без String на каждую строку.
+// Один переиспользуемый direct ByteBuffer; маркеры SIZE:, END123, BIN_IMAGE: и служебные строки
+// ищутся в байтах, строки Base64 уходят в приёмник картинки срезами буфера.
+// String создаётся только для коротких управляющих строк.
+// Кадры нескольких камер (CAM_IMAGE:/CAM_CHUNK:) могут чередоваться - их сборкой занимается получатель.
+// Куски с контрольной суммой (RES_IMAGE:/RES_CHUNK:) только выделяются из потока, CRC проверяет получатель.
+// Кадры живого просмотра (LIVE_FRAME:) отдаются получателю срезами, как куски RES_CHUNK:.
+// Сжатые кадры (Z:) распаковываются и разбираются этим же автоматом: сжатые и несжатые сообщения -
+// один поток протокола, поэтому SIZE: может прийти как есть, а строки Base64 за ним - кадрами Z:
+public class FrameScanner {
+
+    public interface Listener {
+        // Управляющая строка (SERVER_STATUS:, PONG, список камер и т.д.)
+        void onControlLine(String line);
+
+        // Та же строка, уже разобранная MessageParser прямо из байт буфера
+        default void onControlMessage(ProtocolMessage message) {
+            onControlLine(message.line);
+        }
+
+        void onTextImageStart(int expectedChars);
+
+        // Срез Base64 без перевода строки. Буфер валиден только на время вызова
+        void onTextImagePayload(ByteBuffer payload);
+
+        void onTextImageEnd();
+
+        void onBinaryImageStart(int length);
+
+        void onBinaryImageProgress(int received, int length);
+
+        void onBinaryImageEnd(byte[] data);
+
+        // Начало картинки камеры cameraId в режиме нескольких камер
+        void onCameraImageStart(int cameraId, int length);
+
+        // Очередной кусок CAM_CHUNK:; один кусок может прийти несколькими срезами. Буфер валиден только на время вызова
+        void onCameraImageChunk(int cameraId, ByteBuffer chunk);
+
+        // Докачиваемая картинка: RES_IMAGE:<передача>:<длина>:<размер куска>
+        void onResumableImageStart(int transferId, int length, int chunkSize);
+
+        // RES_CHUNK:<передача>:<смещение>:<длина>:<crc32>; байты куска придут следом через onResumableChunkData
+        void onResumableChunkStart(int transferId, int offset, int length, long crc);
+
+        // Срез текущего куска RES_CHUNK:. Буфер валиден только на время вызова
+        void onResumableChunkData(ByteBuffer data);
+
+        // LIVE_FRAME:<камера>:<номер>:<длина>; байты кадра придут следом через onLiveFrameData.
+        // Живой просмотр нужен не всем слушателям - по умолчанию кадры пропускаются
+        default void onLiveFrameStart(int cameraId, int sequence, int length) {
+        }
+
+        // Срез текущего кадра LIVE_FRAME:. Буфер валиден только на время вызова
+        default void onLiveFrameData(ByteBuffer data) {
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Меньше не имеет смысла: управляющие строки длиннее буфера всё равно собираются в lineBytes
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    // Хвост, который придерживаем у сверхдлинной строки Base64, чтобы не разрезать маркер END123
+    private static final int MARKER_TAIL = 5;
+
+    private static final byte[] SIZE_MARKER = "SIZE:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_MARKER = "END123".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IMAGE_WORD = "IMAGE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_MARKER = TcpClient.BINARY_IMAGE_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CAMERA_IMAGE_MARKER = TcpClient.CAMERA_IMAGE_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CAMERA_CHUNK_MARKER = TcpClient.CAMERA_CHUNK_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESUMABLE_IMAGE_MARKER = TcpClient.RESUMABLE_IMAGE_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESUMABLE_CHUNK_MARKER = TcpClient.RESUMABLE_CHUNK_HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LIVE_FRAME_MARKER = TcpClient.LIVE_FRAME_HEADER.getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] COMPRESSED_MARKER = CompressedFrames.HEADER.getBytes(StandardCharsets.US_ASCII);
+
+    private enum State { LINES, TEXT_IMAGE, BINARY_IMAGE, CAMERA_CHUNK, RESUMABLE_CHUNK, LIVE_FRAME }
+
+    private final Listener listener;
+    // Разбираемые байты: принятые из канала, а на время сжатого кадра - распакованные
+    private ByteBuffer buffer;
+    // Вид на тот же буфер для срезов полезной нагрузки - чтобы не создавать slice() на каждую строку
+    private ByteBuffer payloadView;
+    private final ByteBuffer receiveBuffer;
+    private final ByteBuffer receiveView;
+
+    private State state = State.LINES;
+    // Управляющая строка, не поместившаяся в буфер целиком
+    private byte[] lineBytes = new byte[256];
+    private int lineLength = 0;
+    private boolean lineOverflow = false;
+    // Строка Base64 длиннее буфера: её начало уже отдано как полезная нагрузка
+    private boolean payloadLineContinues = false;
+    // После END123 посреди длинной строки остаток строки до '\n' отбрасывается, как и раньше
+    private boolean skipRestOfLine = false;
+
+    private byte[] binaryData;
+    private int binaryReceived;
+
+    // Текущий кусок CAM_CHUNK: чья камера и сколько байт ещё впереди
+    private int chunkCameraId;
+    private int chunkRemaining;
+    // Поля заголовка RES_IMAGE:/RES_CHUNK: - массив один на весь приём
+    private final long[] headerFields = new long[4];
+
+    // Сжатые кадры: распаковщик живёт всё соединение - словарь у всех кадров общий.
+    // Распакованное разбирается в своём буфере, но тем же автоматом (state и поля выше общие)
+    private CompressedFrames.Decoder decoder;
+    private ByteBuffer inflatedBuffer;
+    private ByteBuffer inflatedView;
+    private byte[] compressedInput;
+    private byte[] inflated;
+    // Сжатых байт текущего кадра ещё впереди; > 0 - принятое из канала идёт в распаковщик, а не в автомат
+    private int compressedRemaining;
+    private long bytesInflated = 0;
+
+    private long bytesReceived = 0;
+
+    public FrameScanner(Listener listener) {
+        this(listener, BUFFER_SIZE);
+    }
+
+    // Свой размер буфера: у соединений флота (RelayFleet) трафик редкий и короткий, а их десятки
+    public FrameScanner(Listener listener, int bufferSize) {
+        this.listener = listener;
+        this.receiveBuffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+        this.receiveView = receiveBuffer.duplicate();
+        receiveBuffer.limit(0);
+        this.buffer = receiveBuffer;
+        this.payloadView = receiveView;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // Сколько байт протокола получено внутри сжатых кадров (после распаковки)
+    public long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    // Одно чтение из канала и разбор всего прочитанного. false - поток закрыт
+    public boolean receive(ReadableByteChannel channel) throws IOException {
+        // Большой бинарный кадр читаем сразу в целевой массив, минуя промежуточный буфер
+        if (state == State.BINARY_IMAGE && compressedRemaining == 0 && !buffer.hasRemaining()) {
+            int n = channel.read(ByteBuffer.wrap(binaryData, binaryReceived, binaryData.length - binaryReceived));
+            if (n < 0) return false;
+            bytesReceived += n;
+            advanceBinary(n);
+            return true;
+        }
+
+        buffer.compact();
+        int n;
+        try {
+            n = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (n < 0) return false;
+        bytesReceived += n;
+        scan();
+        return true;
+    }
+
+    // Байты, уже прочитанные не из канала (распакованный кадр Z:, запись сеанса в тестах):
+    // разбираются так же, как прочитанные из сокета
+    void feed(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            buffer.compact();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, n);
+            buffer.flip();
+            offset += n;
+            length -= n;
+            scan();
+        }
+    }
+
+    private void scan() throws IOException {
+        while (buffer.hasRemaining()) {
+            if (compressedRemaining > 0 && buffer == receiveBuffer) {
+                scanCompressed();
+                continue;
+            }
+            switch (state) {
+                case BINARY_IMAGE:
+                    scanBinary();
+                    break;
+                case CAMERA_CHUNK:
+                    scanCameraChunk();
+                    break;
+                case RESUMABLE_CHUNK:
+                    scanResumableChunk();
+                    break;
+                case LIVE_FRAME:
+                    scanLiveFrame();
+                    break;
+                case TEXT_IMAGE:
+                    if (!scanPayloadLine()) return;
+                    break;
+                default:
+                    if (!scanControlLine()) return;
+                    break;
+            }
+        }
+    }
+
+    private boolean scanControlLine() throws IOException {
+        int start = buffer.position();
+        int end = indexOf(buffer, (byte) '\n', start, buffer.limit());
+        if (skipRestOfLine) {
+            buffer.position(end < 0 ? buffer.limit() : end + 1);
+            skipRestOfLine = end < 0;
+            return end >= 0;
+        }
+        if (end < 0) {
+            // Строка не целиком; если буфер забит до отказа - переносим начало в lineBytes
+            if (start == 0 && buffer.limit() == buffer.capacity()) {
+                appendToLine(start, buffer.limit());
+                lineOverflow = true;
+                buffer.position(buffer.limit());
+            }
+            return false;
+        }
+        buffer.position(end + 1);
+
+        if (lineOverflow) {
+            appendToLine(start, end);
+            lineOverflow = false;
+            dispatchControlLine(lineBytes, lineLength);
+            lineLength = 0;
+            return true;
+        }
+
+        int length = trimCarriageReturn(start, end) - start;
+        if (length == 0) return true;
+
+        // Классификация по байтам: бинарный кадр, начало текстовой картинки или обычная строка
+        if (startsWith(buffer, start, length, BINARY_MARKER)) {
+            int frameLength = parseNumber(buffer, start + BINARY_MARKER.length, start + length);
+            if (frameLength >= 0) {
+                TcpClient.checkFrameLength(TcpClient.BINARY_IMAGE_HEADER, frameLength);
+                startBinary(frameLength);
+                return true;
+            }
+        }
+        if (startsWith(buffer, start, length, CAMERA_CHUNK_MARKER) || startsWith(buffer, start, length, CAMERA_IMAGE_MARKER)) {
+            if (scanCameraHeader(start, length)) return true;
+        }
+        if (startsWith(buffer, start, length, RESUMABLE_CHUNK_MARKER) || startsWith(buffer, start, length, RESUMABLE_IMAGE_MARKER)) {
+            if (scanResumableHeader(start, length)) return true;
+        }
+        if (startsWith(buffer, start, length, LIVE_FRAME_MARKER)) {
+            if (scanLiveFrameHeader(start, length)) return true;
+        }
+        if (isCompressedHeader(start, length)) {
+            if (scanCompressedHeader(start, length)) return true;
+        }
+        int sizeAt = indexOf(buffer, SIZE_MARKER, start, start + length);
+        if (sizeAt >= 0) {
+            int expected = parseNumber(buffer, sizeAt + SIZE_MARKER.length, start + length);
+            if (expected >= 0) {
+                TcpClient.checkFrameLength("SIZE:", StreamingBase64Decoder.estimateDecodedSize(expected));
+                state = State.TEXT_IMAGE;
+                payloadLineContinues = false;
+                listener.onTextImageStart(expected);
+                return true;
+            }
+        }
+
+        lineLength = 0;
+        appendToLine(start, start + length);
+        dispatchControlLine(lineBytes, lineLength);
+        lineLength = 0;
+        return true;
+    }
+
+    private boolean scanPayloadLine() throws IOException {
+        int start = buffer.position();
+        int newline = indexOf(buffer, (byte) '\n', start, buffer.limit());
+        if (newline < 0) {
+            // Строка Base64 длиннее буфера: отдаём всё, кроме хвоста, где может начинаться END123
+            if (start == 0 && buffer.limit() == buffer.capacity()) {
+                int end = buffer.limit() - MARKER_TAIL;
+                int marker = indexOf(buffer, END_MARKER, start, buffer.limit());
+                if (marker >= 0) {
+                    payloadLineContinues = false;
+                    skipRestOfLine = true;
+                    buffer.position(marker + END_MARKER.length);
+                    finishTextImage(start, marker);
+                    return true;
+                }
+                emitPayload(start, end);
+                payloadLineContinues = true;
+                buffer.position(end);
+            }
+            return false;
+        }
+        buffer.position(newline + 1);
+
+        int end = trimCarriageReturn(start, newline);
+        int length = end - start;
+        boolean continuation = payloadLineContinues;
+        payloadLineContinues = false;
+
+        int marker = indexOf(buffer, END_MARKER, start, end);
+        if (marker >= 0) {
+            int dataEnd = marker;
+            if (!continuation && equalsBytes(buffer, start, dataEnd - start, IMAGE_WORD)) {
+                dataEnd = start;
+            }
+            finishTextImage(start, dataEnd);
+            return true;
+        }
+
+        if (length == 0) return true;
+        if (!continuation) {
+            // Служебное слово перед данными
+            if (equalsBytes(buffer, start, length, IMAGE_WORD)) return true;
+            // Продолжение картинки сжатым кадром: его строки разберёт этот же автомат
+            if (isCompressedHeader(start, length) && scanCompressedHeader(start, length)) return true;
+            // ':' не входит в алфавит Base64 - значит, это управляющая строка посреди передачи
+            if (indexOf(buffer, (byte) ':', start, end) >= 0) {
+                lineLength = 0;
+                appendToLine(start, end);
+                dispatchControlLine(lineBytes, lineLength);
+                lineLength = 0;
+                return true;
+            }
+        }
+
+        emitPayload(start, end);
+        return true;
+    }
+
+    private void finishTextImage(int start, int dataEnd) {
+        if (dataEnd > start) emitPayload(start, dataEnd);
+        state = State.LINES;
+        listener.onTextImageEnd();
+    }
+
+    private void emitPayload(int start, int end) {
+        payloadView.limit(end).position(start);
+        listener.onTextImagePayload(payloadView);
+    }
+
+    private void startBinary(int length) {
+        binaryData = new byte[length];
+        binaryReceived = 0;
+        state = State.BINARY_IMAGE;
+        listener.onBinaryImageStart(length);
+        if (length == 0) advanceBinary(0);
+    }
+
+    private void scanBinary() {
+        int n = Math.min(buffer.remaining(), binaryData.length - binaryReceived);
+        buffer.get(binaryData, binaryReceived, n);
+        advanceBinary(n);
+    }
+
+    private void advanceBinary(int n) {
+        binaryReceived += n;
+        listener.onBinaryImageProgress(binaryReceived, binaryData.length);
+        if (binaryReceived == binaryData.length) {
+            byte[] data = binaryData;
+            binaryData = null;
+            state = State.LINES;
+            listener.onBinaryImageEnd(data);
+        }
+    }
+
+    // CAM_IMAGE:<камера>:<длина> или CAM_CHUNK:<камера>:<длина>; false - заголовок не разобрался
+    private boolean scanCameraHeader(int start, int length) throws IOException {
+        boolean chunk = startsWith(buffer, start, length, CAMERA_CHUNK_MARKER);
+        int from = start + (chunk ? CAMERA_CHUNK_MARKER.length : CAMERA_IMAGE_MARKER.length);
+        int end = start + length;
+        int colon = indexOf(buffer, (byte) ':', from, end);
+        if (colon < 0) return false;
+        int cameraId = parseNumber(buffer, from, colon);
+        int frameLength = parseNumber(buffer, colon + 1, end);
+        if (cameraId < 0 || frameLength < 0) return false;
+
+        if (!chunk) {
+            TcpClient.checkFrameLength(TcpClient.CAMERA_IMAGE_HEADER, frameLength);
+            listener.onCameraImageStart(cameraId, frameLength);
+        } else if (frameLength > 0) {
+            chunkCameraId = cameraId;
+            chunkRemaining = frameLength;
+            state = State.CAMERA_CHUNK;
+        }
+        return true;
+    }
+
+    private void scanCameraChunk() {
+        int start = buffer.position();
+        int n = Math.min(buffer.remaining(), chunkRemaining);
+        buffer.position(start + n);
+        chunkRemaining -= n;
+        if (chunkRemaining == 0) state = State.LINES;
+        payloadView.limit(start + n).position(start);
+        listener.onCameraImageChunk(chunkCameraId, payloadView);
+    }
+
+    // RES_IMAGE:<передача>:<длина>:<кусок> или RES_CHUNK:<передача>:<смещение>:<длина>:<crc32>
+    private boolean scanResumableHeader(int start, int length) throws IOException {
+        boolean chunk = startsWith(buffer, start, length, RESUMABLE_CHUNK_MARKER);
+        int from = start + (chunk ? RESUMABLE_CHUNK_MARKER.length : RESUMABLE_IMAGE_MARKER.length);
+        int fields = parseFields(buffer, from, start + length, headerFields);
+        for (int i = 0; i < Math.min(fields, 3); i++) {
+            if (headerFields[i] > Integer.MAX_VALUE) return false;
+        }
+
+        if (!chunk) {
+            if (fields != 3) return false;
+            TcpClient.checkFrameLength(TcpClient.RESUMABLE_IMAGE_HEADER, headerFields[1]);
+            listener.onResumableImageStart((int) headerFields[0], (int) headerFields[1], (int) headerFields[2]);
+            return true;
+        }
+        if (fields != 4) return false;
+        int chunkLength = (int) headerFields[2];
+        listener.onResumableChunkStart((int) headerFields[0], (int) headerFields[1], chunkLength, headerFields[3]);
+        if (chunkLength > 0) {
+            chunkRemaining = chunkLength;
+            state = State.RESUMABLE_CHUNK;
+        }
+        return true;
+    }
+
+    private void scanResumableChunk() {
+        int start = buffer.position();
+        int n = Math.min(buffer.remaining(), chunkRemaining);
+        buffer.position(start + n);
+        chunkRemaining -= n;
+        if (chunkRemaining == 0) state = State.LINES;
+        payloadView.limit(start + n).position(start);
+        listener.onResumableChunkData(payloadView);
+    }
+
+    // LIVE_FRAME:<камера>:<номер>:<длина>
+    private boolean scanLiveFrameHeader(int start, int length) throws IOException {
+        int fields = parseFields(buffer, start + LIVE_FRAME_MARKER.length, start + length, headerFields);
+        if (fields != 3) return false;
+        for (int i = 0; i < fields; i++) {
+            if (headerFields[i] > Integer.MAX_VALUE) return false;
+        }
+        TcpClient.checkFrameLength(TcpClient.LIVE_FRAME_HEADER, headerFields[2]);
+        int frameLength = (int) headerFields[2];
+        listener.onLiveFrameStart((int) headerFields[0], (int) headerFields[1], frameLength);
+        if (frameLength > 0) {
+            chunkRemaining = frameLength;
+            state = State.LIVE_FRAME;
+        }
+        return true;
+    }
+
+    private void scanLiveFrame() {
+        int start = buffer.position();
+        int n = Math.min(buffer.remaining(), chunkRemaining);
+        buffer.position(start + n);
+        chunkRemaining -= n;
+        if (chunkRemaining == 0) state = State.LINES;
+        payloadView.limit(start + n).position(start);
+        listener.onLiveFrameData(payloadView);
+    }
+
+    // Кадры Z: не вкладываются друг в друга: внутри распакованного "Z:" - обычный текст
+    private boolean isCompressedHeader(int start, int length) {
+        return buffer == receiveBuffer && startsWith(buffer, start, length, COMPRESSED_MARKER);
+    }
+
+    // Z:<сжато>:<исходно>; состояние автомата не меняется - кадр продолжает то, что было до него
+    private boolean scanCompressedHeader(int start, int length) throws IOException {
+        int fields = parseFields(buffer, start + COMPRESSED_MARKER.length, start + length, headerFields);
+        if (fields != 2 || headerFields[0] > Integer.MAX_VALUE) return false;
+        TcpClient.checkFrameLength(CompressedFrames.HEADER, Math.max(headerFields[0], headerFields[1]));
+        if (decoder == null) {
+            decoder = new CompressedFrames.Decoder();
+            inflatedBuffer = ByteBuffer.allocate(receiveBuffer.capacity());
+            inflatedView = inflatedBuffer.duplicate();
+            inflatedBuffer.limit(0);
+            compressedInput = new byte[receiveBuffer.capacity()];
+            inflated = new byte[BUFFER_SIZE];
+        }
+        compressedRemaining = (int) headerFields[0];
+        return true;
+    }
+
+    private void scanCompressed() throws IOException {
+        int n = Math.min(buffer.remaining(), compressedRemaining);
+        buffer.get(compressedInput, 0, n);
+        compressedRemaining -= n;
+
+        decoder.setInput(compressedInput, 0, n);
+        buffer = inflatedBuffer;
+        payloadView = inflatedView;
+        try {
+            int produced;
+            while ((produced = decoder.inflate(inflated)) > 0) {
+                bytesInflated += produced;
+                feed(inflated, 0, produced);
+            }
+        } finally {
+            buffer = receiveBuffer;
+            payloadView = receiveView;
+        }
+    }
+
+    private void dispatchControlLine(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+        if (length == 0) return;
+        listener.onControlMessage(MessageParser.parse(bytes, 0, length));
+    }
+
+    private void appendToLine(int start, int end) throws IOException {
+        int count = end - start;
+        TcpClient.checkLineLength((long) lineLength + count);
+        if (lineLength + count > lineBytes.length) {
+            lineBytes = Arrays.copyOf(lineBytes, Math.max(lineBytes.length * 2, lineLength + count));
+        }
+        for (int i = 0; i < count; i++) {
+            lineBytes[lineLength + i] = buffer.get(start + i);
+        }
+        lineLength += count;
+    }
+
+    private int trimCarriageReturn(int start, int end) {
+        return (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+    }
+
+    // --- Поиск в байтах ---
+
+    static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    static int indexOf(ByteBuffer buf, byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        byte first = pattern[0];
+        for (int i = from; i <= last; i++) {
+            if (buf.get(i) != first) continue;
+            int j = 1;
+            while (j < pattern.length && buf.get(i + j) == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+
+    static boolean startsWith(ByteBuffer buf, int start, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(start + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    static boolean equalsBytes(ByteBuffer buf, int start, int length, byte[] word) {
+        return length == word.length && startsWith(buf, start, length, word);
+    }
+
+    // Число после маркера; нецифровые символы пропускаются, как в старом разборе SIZE:
+    static int parseNumber(ByteBuffer buf, int from, int to) {
+        long value = parseLong(buf, from, to);
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+    // То же для чисел шире int (CRC32 без знака); -1 - цифр нет или переполнение
+    static long parseLong(ByteBuffer buf, int from, int to) {
+        long value = 0;
+        boolean any = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (value > (Long.MAX_VALUE - 9) / 10) return -1;
+                value = value * 10 + (b - '0');
+                any = true;
+            }
+        }
+        return any ? value : -1;
+    }
+
+    // Числа через ':'; возвращает, сколько полей разобрано, или -1, если какое-то поле не число
+    static int parseFields(ByteBuffer buf, int from, int to, long[] fields) {
+        int count = 0;
+        while (count < fields.length) {
+            int colon = indexOf(buf, (byte) ':', from, to);
+            long value = parseLong(buf, from, colon < 0 ? to : colon);
+            if (value < 0) return -1;
+            fields[count++] = value;
+            if (colon < 0) return count;
+            from = colon + 1;
+        }
+        // Полей больше, чем ожидалось
+        return -1;
+    }
+}
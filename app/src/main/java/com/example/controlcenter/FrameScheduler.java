@@ -0,0 +1,36 @@
+package com.example.controlcenter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+// Запуск действия на главном потоке к ближайшему кадру (Choreographer). Слияние обновлений между
+// кадрами - на вызывающем: он держит свой флаг "уже запланировано" и планирует один раз.
+// В JVM-тестах подменяется ручным планировщиком
+public interface FrameScheduler {
+
+    // Любой поток
+    void schedule(Runnable action);
+
+    static FrameScheduler mainThread() {
+        return new MainThread();
+    }
+
+    final class MainThread implements FrameScheduler {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void schedule(Runnable action) {
+            // Choreographer привязан к потоку: берём экземпляр главного
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postFrame(action);
+            } else {
+                mainHandler.post(() -> postFrame(action));
+            }
+        }
+
+        private static void postFrame(Runnable action) {
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos -> action.run());
+        }
+    }
+}
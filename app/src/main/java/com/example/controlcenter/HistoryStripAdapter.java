@@ -0,0 +1,90 @@
+package com.example.controlcenter;
+
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+
+// Лента миниатюр недавних кадров. Миниатюры уже готовы в DecodedImage - при прокрутке ничего не декодируется
+public class HistoryStripAdapter extends RecyclerView.Adapter<HistoryStripAdapter.ThumbnailHolder> {
+
+    public interface OnFrameClickListener {
+        void onFrameClick(long frameId);
+    }
+
+    static class ThumbnailHolder extends RecyclerView.ViewHolder {
+        final ImageView image;
+
+        ThumbnailHolder(ImageView image) {
+            super(image);
+            this.image = image;
+        }
+    }
+
+    private final int thumbnailSizePx;
+    private final OnFrameClickListener listener;
+    private List<FrameMemoryCache.Frame> frames = Collections.emptyList();
+    private long selectedId = -1;
+
+    public HistoryStripAdapter(int thumbnailSizePx, OnFrameClickListener listener) {
+        this.thumbnailSizePx = thumbnailSizePx;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public void setFrames(List<FrameMemoryCache.Frame> frames) {
+        this.frames = frames != null ? frames : Collections.emptyList();
+        notifyDataSetChanged();
+    }
+
+    // Подсветка кадра, который сейчас на экране
+    public void setSelected(DecodedImage image) {
+        long id = -1;
+        for (FrameMemoryCache.Frame frame : frames) {
+            if (frame.getImage() == image) {
+                id = frame.getId();
+                break;
+            }
+        }
+        if (id == selectedId) return;
+        selectedId = id;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public ThumbnailHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ImageView image = new ImageView(parent.getContext());
+        ViewGroup.MarginLayoutParams params = new ViewGroup.MarginLayoutParams(thumbnailSizePx, thumbnailSizePx);
+        params.setMargins(4, 0, 4, 0);
+        image.setLayoutParams(params);
+        image.setScaleType(ImageView.ScaleType.CENTER_CROP);
+        return new ThumbnailHolder(image);
+    }
+
+    @Override
+    public void onBindViewHolder(ThumbnailHolder holder, int position) {
+        FrameMemoryCache.Frame frame = frames.get(position);
+        holder.image.setImageBitmap(frame.getImage().getThumbnail());
+        holder.image.setAlpha(frame.getId() == selectedId ? 1.0f : 0.6f);
+        holder.image.setOnClickListener(v -> listener.onFrameClick(frame.getId()));
+    }
+
+    @Override
+    public void onViewRecycled(ThumbnailHolder holder) {
+        // Миниатюра может уйти вместе с вытесненным кадром - ссылку не держим
+        holder.image.setImageBitmap(null);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return frames.get(position).getId();
+    }
+
+    @Override
+    public int getItemCount() {
+        return frames.size();
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.controlcenter;
+
+// Стадия декодирования сжатых байт в кадр. На устройстве - SampledImageDecoder (BitmapFactory),
+// в JVM-тестах и бенчмарках - реализация без Android
+public interface ImageDecoder {
+    // null, если данные не удалось декодировать
+    DecodedImage decode(byte[] data, int length, int targetWidth, int targetHeight);
+}
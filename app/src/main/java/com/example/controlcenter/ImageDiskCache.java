@@ -0,0 +1,226 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Дисковый кэш исходных (сжатых) снимков по камере и времени съёмки.
+// Общий объём ограничен, вытесняются давно не читанные. Индекс - маленький бинарный файл,
+// читается одним FileChannel.read при запуске; сами снимки читаются FileChannel сразу в массив нужного размера.
+// Потокобезопасен; ввод-вывод выполняется в вызывающем потоке, поэтому звать только из фоновых
+public class ImageDiskCache {
+
+    private static final String TAG = "ImageDiskCache";
+    private static final String INDEX_FILE = "index.bin";
+    private static final int INDEX_MAGIC = 0x43434931; // "CCI1"
+    private static final int ENTRY_BYTES = 4 + 8 + 4 + 8;
+
+    public static class Entry {
+        final int cameraId;
+        final long capturedAt;
+        final int length;
+        long lastAccess;
+
+        Entry(int cameraId, long capturedAt, int length, long lastAccess) {
+            this.cameraId = cameraId;
+            this.capturedAt = capturedAt;
+            this.length = length;
+            this.lastAccess = lastAccess;
+        }
+
+        public int getCameraId() { return cameraId; }
+        public long getCapturedAt() { return capturedAt; }
+        public int getLength() { return length; }
+
+        String fileName() {
+            return cameraId + "_" + capturedAt + ".jpg";
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    // Порядок доступа: первый - самый давно читанный
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    public ImageDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Не удалось создать каталог кэша: " + directory);
+        }
+        loadIndex();
+    }
+
+    // Сохраняет снимок. Файл пишется во временный и переименовывается - недописанный снимок в индекс не попадёт
+    public void put(int cameraId, long capturedAt, byte[] data, int length) {
+        if (length <= 0 || length > maxBytes) return;
+        Entry entry = new Entry(cameraId, capturedAt, length, System.currentTimeMillis());
+        File target = new File(directory, entry.fileName());
+        File tmp = new File(directory, entry.fileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.e(TAG, "Не удалось сохранить снимок камеры " + cameraId, e);
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(entry.fileName(), entry);
+            if (previous != null) currentBytes -= previous.length;
+            currentBytes += length;
+            trimTo(maxBytes);
+            writeIndex();
+        }
+    }
+
+    // Байты снимка или null, если файла уже нет
+    public byte[] read(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.fileName()) == null) return null;
+            entry.lastAccess = System.currentTimeMillis();
+        }
+        File file = new File(directory, entry.fileName());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != entry.length) throw new IOException("Размер файла не совпадает с индексом");
+            byte[] data = new byte[entry.length];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Файл обрезан");
+            }
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "Не удалось прочитать " + file, e);
+            remove(entry);
+            return null;
+        }
+    }
+
+    // Самый свежий снимок каждой камеры
+    public synchronized List<Entry> latestPerCamera() {
+        Map<Integer, Entry> latest = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            Entry current = latest.get(entry.cameraId);
+            if (current == null || entry.capturedAt > current.capturedAt) latest.put(entry.cameraId, entry);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized void remove(Entry entry) {
+        Entry removed = entries.remove(entry.fileName());
+        if (removed == null) return;
+        currentBytes -= removed.length;
+        new File(directory, removed.fileName()).delete();
+        writeIndex();
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+        writeIndex();
+    }
+
+    private void trimTo(long limit) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (currentBytes > limit && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            currentBytes -= eldest.length;
+            if (!new File(directory, eldest.fileName()).delete()) {
+                Log.w(TAG, "Не удалось удалить " + eldest.fileName());
+            }
+        }
+    }
+
+    // --- Индекс: magic, число записей, затем записи в порядке LRU ---
+
+    private void loadIndex() {
+        File index = new File(directory, INDEX_FILE);
+        if (index.isFile()) {
+            try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                if (buffer.remaining() < 8 || buffer.getInt() != INDEX_MAGIC) throw new IOException("Неизвестный формат индекса");
+                int count = buffer.getInt();
+                for (int i = 0; i < count && buffer.remaining() >= ENTRY_BYTES; i++) {
+                    Entry entry = new Entry(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getLong());
+                    // Файл могли удалить вместе с кэшем приложения - такие записи выбрасываем
+                    File file = new File(directory, entry.fileName());
+                    if (file.length() != entry.length) continue;
+                    entries.put(entry.fileName(), entry);
+                    currentBytes += entry.length;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Индекс кэша повреждён, начинаем заново", e);
+                entries.clear();
+                currentBytes = 0;
+            }
+        }
+        deleteOrphans();
+        trimTo(maxBytes);
+        Log.d(TAG, "Кэш снимков: " + entries.size() + " шт., " + (currentBytes / 1024) + " КБ");
+    }
+
+    // Файлы без записи в индексе (например, после сбоя между записью снимка и индекса)
+    private void deleteOrphans() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(INDEX_FILE) && !entries.containsKey(name)) file.delete();
+        }
+    }
+
+    private void writeIndex() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + entries.size() * ENTRY_BYTES);
+        buffer.putInt(INDEX_MAGIC).putInt(entries.size());
+        for (Entry entry : entries.values()) {
+            buffer.putInt(entry.cameraId).putLong(entry.capturedAt).putInt(entry.length).putLong(entry.lastAccess);
+        }
+        buffer.flip();
+
+        File index = new File(directory, INDEX_FILE);
+        File tmp = new File(directory, INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Не удалось записать индекс кэша", e);
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.e(TAG, "Не удалось заменить индекс кэша", e);
+        }
+    }
+}
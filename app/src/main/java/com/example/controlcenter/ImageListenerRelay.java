@@ -0,0 +1,125 @@
+package com.example.controlcenter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Постоянный слушатель ImageProcessor в ConnectionService: события уходят текущему клиенту.
+// Между отвязкой прежнего клиента и привязкой нового прогресс отбрасывается, а последние
+// готовые снимки (одиночный, по камерам и из дискового кэша) ждут нового клиента
+public class ImageListenerRelay implements ImageProcessor.ImageProcessorListener {
+
+    private ImageProcessor.ImageProcessorListener target;
+    // Недоставленные результаты; только под this
+    private DecodedImage pendingImage;
+    private final Map<Integer, DecodedImage> pendingCameraImages = new LinkedHashMap<>();
+    private final Map<Integer, CachedImage> pendingCachedImages = new LinkedHashMap<>();
+
+    private static class CachedImage {
+        final long capturedAt;
+        final DecodedImage image;
+
+        CachedImage(long capturedAt, DecodedImage image) {
+            this.capturedAt = capturedAt;
+            this.image = image;
+        }
+    }
+
+    // Новый клиент сразу получает то, что было готово без него
+    public synchronized void attach(ImageProcessor.ImageProcessorListener listener) {
+        target = listener;
+        for (Map.Entry<Integer, CachedImage> cached : pendingCachedImages.entrySet()) {
+            listener.onCachedImageDecoded(cached.getKey(), cached.getValue().capturedAt, cached.getValue().image);
+        }
+        pendingCachedImages.clear();
+        for (Map.Entry<Integer, DecodedImage> camera : pendingCameraImages.entrySet()) {
+            listener.onCameraImageDecoded(camera.getKey(), camera.getValue());
+        }
+        pendingCameraImages.clear();
+        if (pendingImage != null) {
+            listener.onImageDecoded(pendingImage);
+            pendingImage = null;
+        }
+    }
+
+    // После возврата готовые снимки прежнему клиенту больше не достаются
+    public synchronized void detach(ImageProcessor.ImageProcessorListener listener) {
+        if (target == listener) target = null;
+    }
+
+    private synchronized ImageProcessor.ImageProcessorListener target() {
+        return target;
+    }
+
+    // Результаты доставляются под замком: attach() не может вклиниться между проверкой и вызовом
+
+    @Override
+    public synchronized void onImageDecoded(DecodedImage image) {
+        if (target != null) {
+            target.onImageDecoded(image);
+        } else {
+            pendingImage = image;
+        }
+    }
+
+    @Override
+    public synchronized void onCameraImageDecoded(int cameraId, DecodedImage image) {
+        if (target != null) {
+            target.onCameraImageDecoded(cameraId, image);
+        } else {
+            pendingCameraImages.put(cameraId, image);
+        }
+    }
+
+    @Override
+    public synchronized void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {
+        if (target != null) {
+            target.onCachedImageDecoded(cameraId, capturedAt, image);
+        } else {
+            pendingCachedImages.put(cameraId, new CachedImage(capturedAt, image));
+        }
+    }
+
+    // Прогресс, начало и конец передачи, ошибки и превью имеют смысл только для того, кто смотрит сейчас
+
+    @Override
+    public void onProgressUpdate(int progress) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onProgressUpdate(progress);
+    }
+
+    @Override
+    public void onImageProcessingStart(String sizeText) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onImageProcessingStart(sizeText);
+    }
+
+    @Override
+    public void onImageProcessingComplete() {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onImageProcessingComplete();
+    }
+
+    @Override
+    public void onError(String message) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onError(message);
+    }
+
+    @Override
+    public void onCameraProgress(int cameraId, int percent) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onCameraProgress(cameraId, percent);
+    }
+
+    @Override
+    public void onCameraError(int cameraId, String message) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onCameraError(cameraId, message);
+    }
+
+    @Override
+    public void onPreviewDecoded(DecodedImage preview) {
+        ImageProcessor.ImageProcessorListener current = target();
+        if (current != null) current.onPreviewDecoded(preview);
+    }
+}
@@ -1,30 +1,83 @@
 package com.example.controlcenter;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.PowerManager;
-import android.util.Base64;
 import android.util.Log;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ImageProcessor {
 
     private static final String TAG = "ImageProcessor";
     private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
-    private PowerManager.WakeLock wakeLock;
+    // Снимки нескольких камер декодируются параллельно; одиночный кадр - по-прежнему на backgroundExecutor
+    private static final int CAMERA_DECODE_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private final ExecutorService cameraDecodePool = Executors.newFixedThreadPool(CAMERA_DECODE_THREADS);
+    private final CameraTransferDemultiplexer cameraDemultiplexer =
+            new CameraTransferDemultiplexer(new CameraTransferListener());
+    // Идущие передачи с декодированием: одиночный снимок и по одной на камеру. Wake lock держится,
+    // пока их больше нуля - ни раньше, ни дольше
+    private final ActiveTransfers activeTransfers = new ActiveTransfers();
+    // Принимаемая картинка без метки камеры уже посчитана в activeTransfers. С концом приёма счёт
+    // уходит вместе с байтами в задачу декодирования - следующая картинка считается отдельно
+    private final AtomicBoolean imageTransferCounted = new AtomicBoolean();
+    private volatile PowerManager.WakeLock wakeLock;
 
     private boolean receivingImageMode = false;
-    private StringBuffer base64ImageBuffer = new StringBuffer();
+    // Картинка без метки камеры принимается (от SIZE:/BIN_IMAGE: до начала декодирования)
+    private volatile boolean imageTransferActive = false;
+    // Base64 декодируется построчно по мере приёма, без промежуточного StringBuffer
+    private final StreamingBase64Decoder base64Decoder = new StreamingBase64Decoder();
     private int expectedImageSizeChars = 0;
     private int currentReceivedChars = 0;
-
-    private final ImageProcessorListener listener;
+    // Последний отданный процент: listener узнаёт только о смене видимого значения, а не о каждой строке
+    private int reportedProgress = -1;
+
+    // Размер PhotoView, под который уменьшается картинка при декодировании (0 - ещё неизвестен)
+    private volatile int targetWidth = 0;
+    private volatile int targetHeight = 0;
+
+    // Кадры, которые больше не показываются, возвращаются сюда и переиспользуются через inBitmap
+    private final BitmapPool bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+    private final ImageDecoder imageDecoder;
+
+    // Исходные байты снимков сохраняются на диск, чтобы при следующем запуске сразу показать последний кадр
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    // Открытие кэша и запись снимков идут по очереди на одном потоке: снимок, декодированный
+    // раньше, чем кэш открылся, ждёт открытия, а не теряется
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private volatile ImageDiskCache diskCache;
+    // Пишется только из главного потока; false - кэш не открывали, снимки на диск не пишутся
+    private volatile boolean diskCacheOpened = false;
+    // Камера последнего TAKE_PHOTO_: картинка без метки камеры (SIZE:/BIN_IMAGE:) относится к ней
+    private volatile int requestedCameraId = -1;
+    // Запросы одиночных снимков в порядке отправки, до конца декодирования. Картинка без метки
+    // относится к первому, чья картинка ещё не начиналась; отменённые ждут здесь конца своих байтов
+    private final ArrayDeque<PhotoRequest> photoRequests = new ArrayDeque<>();
+    // Запрос принимаемой картинки; null - картинка пришла без запроса и показывается как раньше
+    private volatile PhotoRequest receivingRequest;
+    // Пришёл PREVIEW: - следующая картинка без метки будет превью
+    private volatile boolean previewExpected = false;
+    // Принимается превью: полный кадр того же запроса придёт следующей картинкой
+    private volatile boolean receivingPreview = false;
+
+    // Меняется, когда к ConnectionService подключается новый клиент
+    private volatile ImageProcessorListener listener;
+    private final TransferMetrics metrics;
 
     // Интерфейс для обратной связи с ViewModel
     public interface ImageProcessorListener {
-        void onImageDecoded(Bitmap bitmap);
+        void onImageDecoded(DecodedImage image);
 
         void onProgressUpdate(int progress);
 
@@ -33,124 +86,544 @@ public class ImageProcessor {
         void onImageProcessingComplete();
 
         void onError(String message);
+
+        // Параллельная съёмка: прогресс и результат по каждой камере отдельно
+        void onCameraProgress(int cameraId, int percent);
+
+        void onCameraImageDecoded(int cameraId, DecodedImage image);
+
+        void onCameraError(int cameraId, String message);
+
+        // Последний сохранённый на диске снимок камеры, показывается до прихода свежего
+        void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image);
+
+        // Превью снимка (CAPS:PREVIEW): показать сразу, полный кадр придёт следом через onImageDecoded.
+        // Превью нужно не всем слушателям - по умолчанию пропускается
+        default void onPreviewDecoded(DecodedImage preview) {
+        }
     }
 
     public ImageProcessor(ImageProcessorListener listener) {
+        this(listener, new TransferMetrics());
+    }
+
+    public ImageProcessor(ImageProcessorListener listener, TransferMetrics metrics) {
         this.listener = listener;
+        this.metrics = metrics;
+        this.imageDecoder = new SampledImageDecoder(bitmapPool);
+        activeTransfers.addListener(new WakeLockHolder());
     }
 
-    public void initWakeLock(android.content.Context context) {
-        if (wakeLock == null) {
-            PowerManager pm = (PowerManager) context.getSystemService(android.content.Context.POWER_SERVICE);
-            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "MyApp::TransferLock");
-        }
+    // Для JVM-тестов и бенчмарков: стадия декодирования без BitmapFactory
+    public ImageProcessor(ImageProcessorListener listener, TransferMetrics metrics, ImageDecoder imageDecoder) {
+        this.listener = listener;
+        this.metrics = metrics;
+        this.imageDecoder = imageDecoder;
+        activeTransfers.addListener(new WakeLockHolder());
     }
 
-    // Основной метод для обработки входящих строк
-    public boolean processMessage(String message) {
-        if (message == null || message.isEmpty()) return false;
+    public void setListener(ImageProcessorListener listener) {
+        this.listener = listener;
+    }
 
-        // 1. Обработка начала передачи
-        if (message.contains("SIZE:") && !receivingImageMode) {
-            try {
-                String sizePart = message.substring(message.indexOf(":") + 1).trim();
-                // На всякий случай убираем нецифровые символы, если они приклеились
-                sizePart = sizePart.replaceAll("[^0-9]", "");
+    // Счётчик идущих передач: по нему ConnectionService живёт, пока снимок не принят
+    public ActiveTransfers getActiveTransfers() {
+        return activeTransfers;
+    }
 
-                expectedImageSizeChars = Integer.parseInt(sizePart);
-                currentReceivedChars = 0;
-                base64ImageBuffer.setLength(0);
+    public void setTargetSize(int width, int height) {
+        this.targetWidth = width;
+        this.targetHeight = height;
+    }
 
-                acquireWakeLock();
-                receivingImageMode = true;
+    public PhotoRequest onPhotoRequested(int cameraId) {
+        requestedCameraId = cameraId;
+        PhotoRequest request = new PhotoRequest(cameraId);
+        synchronized (photoRequests) {
+            photoRequests.add(request);
+        }
+        return request;
+    }
 
-                int sizeInKb = (int) ((expectedImageSizeChars * 0.75) / 1024);
-                listener.onImageProcessingStart("Размер: ~" + sizeInKb + " КБ");
-                return true;
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing size: " + message, e);
-                return false;
+    // Новый снимок заменяет прежние. Возвращает отменённые запросы, чью картинку сервер ещё может не дослать.
+    // serverCancels = false (сервер не умеет отменять, ответа не будет): запрос, картинка которого ещё
+    // не начиналась, просто забывается - иначе, если сервер её так и не пришлёт, он заберёт чужую
+    public List<PhotoRequest> cancelPhotoRequests(boolean serverCancels) {
+        List<PhotoRequest> pending = new ArrayList<>();
+        synchronized (photoRequests) {
+            Iterator<PhotoRequest> it = photoRequests.iterator();
+            while (it.hasNext()) {
+                PhotoRequest request = it.next();
+                if (request.isCancelled()) continue;
+                if (!request.imageStarted && !request.previewStarted && !serverCancels) {
+                    it.remove();
+                    continue;
+                }
+                request.cancel();
+                if (!request.imageReceived) pending.add(request);
             }
         }
+        return pending;
+    }
 
-        // 2. Обработка данных внутри режима приема
-        if (receivingImageMode) {
-            // Проверяем, не содержит ли эта строка маркер конца
-            if (message.contains("END123")) {
-                // Отрезаем "END123" и всё, что после него, забираем только данные до маркера
-                String dataBeforeEnd = message.substring(0, message.indexOf("END123"));
-                if (!dataBeforeEnd.isEmpty() && !dataBeforeEnd.equals("IMAGE")) {
-                    base64ImageBuffer.append(dataBeforeEnd);
+    // PHOTO_CANCELLED:<камера> - по самому старому отменённому запросу камеры больше ничего не придёт.
+    // true - его картинка принималась: приём сброшен, недокачанное продолжать не нужно
+    public boolean onPhotoCancelled(int cameraId) {
+        PhotoRequest cancelled = null;
+        synchronized (photoRequests) {
+            for (PhotoRequest request : photoRequests) {
+                if (request.cameraId == cameraId && request.isCancelled() && !request.imageReceived) {
+                    cancelled = request;
+                    break;
                 }
-
-                Log.d(TAG, ">>> Маркер END123 найден. Итого символов: " + base64ImageBuffer.length());
-                decodeReceivedImageAsync();
-                return true;
             }
+            // Картинка успела прийти целиком раньше ответа - её отбросил приём
+            if (cancelled == null) return false;
+            photoRequests.remove(cancelled);
+        }
+        if (!imageTransferActive || receivingRequest != cancelled) return false;
+        Log.d(TAG, "Сервер остановил " + cancelled + " посреди передачи");
+        resetImageReceive();
+        cleanup(false);
+        return true;
+    }
 
-            // Пропускаем служебное слово, если оно пришло отдельной строкой
-            if (message.equals("IMAGE")) return true;
+    // Соединение потеряно: снимки, которые ещё не начали передаваться, сервер уже не пришлёт
+    public void forgetUnstartedPhotoRequests() {
+        previewExpected = false;
+        synchronized (photoRequests) {
+            photoRequests.removeIf(request -> !request.imageStarted);
+        }
+    }
 
-            // Добавляем строку в буфер
-            base64ImageBuffer.append(message);
-            currentReceivedChars += message.length();
+    // Поток приёма: PREVIEW:<камера> - следующая картинка без метки будет превью снимка
+    public void onPreviewAnnounced(int cameraId) {
+        Log.d(TAG, "Превью снимка камеры " + cameraId);
+        previewExpected = true;
+    }
 
-            // Обновляем прогресс
-            if (expectedImageSizeChars > 0) {
-                int p = (int) ((currentReceivedChars * 100.0) / expectedImageSizeChars);
-                listener.onProgressUpdate(Math.min(p, 99));
+    // Принимается картинка отменённого снимка - докачивать её после обрыва незачем
+    public boolean isReceivingCancelledPhoto() {
+        PhotoRequest request = receivingRequest;
+        return imageTransferActive && request != null && request.isCancelled();
+    }
+
+    // Открывает дисковый кэш в фоне и декодирует из него последний кадр каждой камеры
+    public void openDiskCache(File directory) {
+        if (diskCacheOpened) return;
+        diskExecutor.execute(() -> {
+            ImageDiskCache cache = new ImageDiskCache(directory, DISK_CACHE_BYTES);
+            diskCache = cache;
+            for (ImageDiskCache.Entry entry : cache.latestPerCamera()) {
+                cameraDecodePool.execute(() -> decodeCachedImage(cache, entry));
             }
-            return true;
+        });
+        // Только после постановки открытия в очередь: запись, увидевшая флаг, встанет за ним
+        diskCacheOpened = true;
+    }
+
+    private void decodeCachedImage(ImageDiskCache cache, ImageDiskCache.Entry entry) {
+        byte[] data = cache.read(entry);
+        if (data == null) return;
+        try {
+            DecodedImage image = imageDecoder.decode(data, data.length, targetWidth, targetHeight);
+            if (image != null) {
+                listener.onCachedImageDecoded(entry.getCameraId(), entry.getCapturedAt(), image);
+            } else {
+                // Битый файл в кэше не нужен
+                cache.remove(entry);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Не удалось декодировать снимок из кэша", e);
+        }
+    }
+
+    // Сохраняем уже после показа кадра и не на потоке декодирования, чтобы запись на диск не задерживала
+    // ни этот кадр, ни следующий. Массив после декодирования никто не меняет - копия не нужна
+    private void storeInDiskCache(int cameraId, byte[] data, int length) {
+        if (!diskCacheOpened || cameraId < 0) return;
+        long capturedAt = System.currentTimeMillis();
+        try {
+            diskExecutor.execute(() -> {
+                ImageDiskCache cache = diskCache;
+                if (cache != null) cache.put(cameraId, capturedAt, data, length);
+            });
+        } catch (RejectedExecutionException e) {
+            // shutdown(): декодирование успело закончиться после остановки, сохранять уже некуда
+        }
+    }
+
+    public void initWakeLock(android.content.Context context) {
+        if (wakeLock == null) {
+            PowerManager pm = (PowerManager) context.getSystemService(android.content.Context.POWER_SERVICE);
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "MyApp::TransferLock");
         }
+    }
 
-        return false;
+    // Байтовый путь (FrameScanner): маркеры уже найдены в TcpClient, сюда приходят только данные
+    public void beginTextImage(int expectedChars) {
+        expectedImageSizeChars = expectedChars;
+        currentReceivedChars = 0;
+        base64Decoder.reset(expectedImageSizeChars);
+
+        startRequestImage();
+        receivingImageMode = true;
+        imageTransferActive = true;
+        if (isReceivingCancelledPhoto()) return;
+        beginImageTransfer();
+        if (receivingPreview) return;
+        metrics.markTransferStarted();
+
+        int sizeInKb = (int) ((expectedImageSizeChars * 0.75) / 1024);
+        listener.onImageProcessingStart("Размер: ~" + sizeInKb + " КБ");
+    }
+
+    // Байты отменённого снимка не декодируются из Base64 - только отсчитываются
+    public void appendPayload(ByteBuffer payload) {
+        if (!receivingImageMode) return;
+        currentReceivedChars += payload.remaining();
+        if (isReceivingCancelledPhoto()) return;
+        base64Decoder.feed(payload);
+        updateTextProgress();
+    }
+
+    public void finishTextImage() {
+        if (!receivingImageMode) return;
+        if (dropCancelledImage()) return;
+        base64Decoder.finish();
+        if (receivingPreview) {
+            int length = base64Decoder.size();
+            finishPreview(length > 0 ? base64Decoder.detach() : null, length);
+            return;
+        }
+        metrics.markTransferFinished(currentReceivedChars);
+
+        Log.d(TAG, ">>> Маркер END123 найден. Итого символов: " + currentReceivedChars
+                + ", байт: " + base64Decoder.size());
+        decodeReceivedImageAsync();
+    }
+
+    private void updateTextProgress() {
+        if (expectedImageSizeChars > 0 && !receivingPreview) {
+            int p = (int) ((currentReceivedChars * 100.0) / expectedImageSizeChars);
+            reportProgress(Math.min(p, 99));
+        }
+    }
+
+    private void reportProgress(int progress) {
+        if (progress == reportedProgress) return;
+        reportedProgress = progress;
+        listener.onProgressUpdate(progress);
     }
 
 
     private void decodeReceivedImageAsync() {
-        if (base64ImageBuffer.length() == 0) {
+        // Режим приёма завершён сразу: байты уже готовы, следующий SIZE: можно принимать во время декодирования
+        receivingImageMode = false;
+        imageTransferActive = false;
+
+        PhotoRequest request = finishRequestImage();
+        final int decodedLength = base64Decoder.size();
+        if (decodedLength == 0) {
+            finishRequest(request);
             cleanup();
             return;
         }
+        // Забираем массив у декодера без копирования - им теперь владеет задача декодирования
+        final byte[] decoded = base64Decoder.detach();
+        decodeAsync(request, decoded, decodedLength, imageTransferCounted.getAndSet(false));
+    }
+
+    // Бинарный режим: заголовок BIN_IMAGE: уже разобран в TcpClient, байты JPEG приходят как есть
+    public void beginBinaryImage(int lengthBytes) {
+        startRequestImage();
+        imageTransferActive = true;
+        if (isReceivingCancelledPhoto()) return;
+        beginImageTransfer();
+        if (receivingPreview) return;
+        metrics.markTransferStarted();
+        listener.onImageProcessingStart("Размер: ~" + (lengthBytes / 1024) + " КБ");
+    }
+
+    public void onBinaryImageProgress(int receivedBytes, int totalBytes) {
+        if (totalBytes > 0 && !isReceivingCancelledPhoto() && !receivingPreview) {
+            int p = (int) ((receivedBytes * 100.0) / totalBytes);
+            reportProgress(Math.min(p, 99));
+        }
+    }
 
+    public void processBinaryImage(byte[] data) {
+        if (dropCancelledImage()) return;
+        if (receivingPreview) {
+            finishPreview(data, data != null ? data.length : 0);
+            return;
+        }
+        imageTransferActive = false;
+        PhotoRequest request = finishRequestImage();
+        if (data == null || data.length == 0) {
+            finishRequest(request);
+            cleanup();
+            return;
+        }
+        metrics.markTransferFinished(data.length);
+        decodeAsync(request, data, data.length, imageTransferCounted.getAndSet(false));
+    }
+
+    // Снимок могли отменить, пока задача ждала в очереди или декодировала: тогда кадр не показывается.
+    // counted - передача посчитана в activeTransfers; её конец - конец этой задачи
+    private void decodeAsync(final PhotoRequest request, final byte[] decoded, final int decodedLength,
+                             final boolean counted) {
+        final int cameraId = request != null ? request.cameraId : requestedCameraId;
         backgroundExecutor.execute(() -> {
+            if (request != null && request.isCancelled()) {
+                Log.d(TAG, "Декодирование пропущено: " + request + " отменён");
+                finishRequest(request);
+                endTransfer(counted, false);
+                return;
+            }
+            boolean cancelled = false;
             try {
-                byte[] decoded = Base64.decode(base64ImageBuffer.toString(), Base64.DEFAULT);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(decoded, 0, decoded.length);
-
-                if (bitmap != null) {
-                    listener.onImageDecoded(bitmap);
+                long decodeStart = System.nanoTime();
+                DecodedImage image = imageDecoder.decode(decoded, decodedLength, targetWidth, targetHeight);
+                metrics.recordDecode(System.nanoTime() - decodeStart);
+                // Запрос снимается до доставки: следующий снимок очереди может уйти прямо из слушателя
+                finishRequest(request);
+                cancelled = request != null && request.isCancelled();
+
+                if (cancelled) {
+                    if (image != null) bitmapPool.put(image.getBitmap());
+                } else if (image != null) {
+                    Log.d(TAG, "Декодировано " + image.getFullWidth() + "x" + image.getFullHeight()
+                            + " с inSampleSize=" + image.getSampleSize() + "; пул: " + bitmapPool.stats());
+                    listener.onImageDecoded(image);
+                    storeInDiskCache(cameraId, decoded, decodedLength);
                 } else {
                     listener.onError("Не удалось декодировать изображение.");
                 }
 
             } catch (Exception e) {
                 Log.e(TAG, "Критическая ошибка при декодировании: ", e);
+                finishRequest(request);
                 listener.onError("Ошибка декодирования: " + e.getMessage());
             } finally {
-                cleanup();
+                endTransfer(counted, !cancelled);
             }
         });
     }
 
-    private void cleanup() {
-        base64ImageBuffer.setLength(0);
+    // Превью принято. Загрузка для UI продолжается, а передача в activeTransfers закрывается:
+    // полный кадр откроет свою, а не пришедший не продержит wake lock до таймаута
+    private void finishPreview(byte[] data, int length) {
+        PhotoRequest request = receivingRequest;
+        resetImageReceive();
+        cleanup(false);
+        if (data == null || length == 0) return;
+        // Тот же поток, что и у полного кадра: превью не может обогнать его и встать поверх
+        backgroundExecutor.execute(() -> {
+            if (request != null && request.isCancelled()) return;
+            try {
+                DecodedImage image = imageDecoder.decode(data, length, targetWidth, targetHeight);
+                // Без превью снимок всё равно придёт - ошибку UI не показываем
+                if (image == null) return;
+                if (request != null && request.isCancelled()) {
+                    bitmapPool.put(image.getBitmap());
+                    return;
+                }
+                listener.onPreviewDecoded(image);
+            } catch (Exception e) {
+                Log.w(TAG, "Не удалось декодировать превью", e);
+            }
+        });
+    }
+
+    // Картинка оборвалась и докачана не будет: сбрасываем приём, иначе UI так и ждёт её конца.
+    // Об отменённом снимке UI не сообщаем - он уже ждёт следующий
+    public void abortImageTransfer(String reason) {
+        if (!imageTransferActive) return;
+        boolean cancelled = isReceivingCancelledPhoto();
+        finishRequest(receivingRequest);
+        resetImageReceive();
+        if (!cancelled) listener.onError(reason);
+        cleanup(!cancelled);
+    }
+
+    // Картинка отменённого снимка пришла целиком: байты отбрасываются, декодирования нет
+    private boolean dropCancelledImage() {
+        if (!isReceivingCancelledPhoto()) return false;
+        Log.d(TAG, "Отброшена картинка: " + receivingRequest + " отменён");
+        finishRequest(receivingRequest);
+        resetImageReceive();
+        cleanup(false);
+        return true;
+    }
+
+    private void resetImageReceive() {
+        imageTransferActive = false;
         receivingImageMode = false;
-        releaseWakeLock();
-        listener.onImageProcessingComplete();
+        receivingRequest = null;
+        receivingPreview = false;
+        base64Decoder.reset(0);
+    }
+
+    // Начало картинки без метки; повтор заголовка той же картинки (SIZE: без END123) - тот же запрос
+    // Превью не занимает запрос: полный кадр следом достанется тому же запросу
+    private void startRequestImage() {
+        if (imageTransferActive) return;
+        boolean preview = previewExpected;
+        previewExpected = false;
+        PhotoRequest next = null;
+        synchronized (photoRequests) {
+            for (PhotoRequest request : photoRequests) {
+                if (!request.imageStarted) {
+                    if (preview) {
+                        request.previewStarted = true;
+                    } else {
+                        request.imageStarted = true;
+                    }
+                    next = request;
+                    break;
+                }
+            }
+        }
+        receivingRequest = next;
+        receivingPreview = preview;
+    }
+
+    // Байты картинки приняты; запрос остаётся в очереди до конца декодирования
+    private PhotoRequest finishRequestImage() {
+        PhotoRequest request = receivingRequest;
+        receivingRequest = null;
+        if (request != null) {
+            synchronized (photoRequests) {
+                request.imageReceived = true;
+            }
+        }
+        return request;
+    }
+
+    private void finishRequest(PhotoRequest request) {
+        if (request == null) return;
+        synchronized (photoRequests) {
+            photoRequests.remove(request);
+        }
+    }
+
+    // Режим нескольких камер: куски разных камер приходят вперемешку, каждая собирается отдельно
+    public void beginCameraImage(int cameraId, int lengthBytes) {
+        cameraDemultiplexer.start(cameraId, lengthBytes);
+    }
+
+    public void appendCameraChunk(int cameraId, ByteBuffer chunk) {
+        cameraDemultiplexer.append(cameraId, chunk);
+    }
+
+    // Соединение потеряно: недокачанные снимки камер уже не придут
+    public void abortCameraTransfers() {
+        int aborted = cameraDemultiplexer.getActiveTransfers();
+        cameraDemultiplexer.reset();
+        activeTransfers.end(aborted);
     }
 
-    private void acquireWakeLock() {
-        if (wakeLock != null && !wakeLock.isHeld()) wakeLock.acquire(10 * 60 * 1000L);
+    private class CameraTransferListener implements CameraTransferDemultiplexer.Listener {
+        @Override
+        public void onCameraTransferStarted(int cameraId, int length) {
+            activeTransfers.begin();
+            listener.onCameraProgress(cameraId, 0);
+        }
+
+        @Override
+        public void onCameraTransferProgress(int cameraId, int percent) {
+            listener.onCameraProgress(cameraId, Math.min(percent, 99));
+        }
+
+        @Override
+        public void onCameraTransferComplete(int cameraId, byte[] data) {
+            decodeCameraImageAsync(cameraId, data);
+        }
+
+        @Override
+        public void onCameraTransferDropped(int cameraId) {
+            activeTransfers.end();
+        }
     }
 
-    private void releaseWakeLock() {
-        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+    private void decodeCameraImageAsync(final int cameraId, final byte[] data) {
+        cameraDecodePool.execute(() -> {
+            try {
+                long decodeStart = System.nanoTime();
+                DecodedImage image = data.length == 0 ? null
+                        : imageDecoder.decode(data, data.length, targetWidth, targetHeight);
+                metrics.recordDecode(System.nanoTime() - decodeStart);
+
+                if (image != null) {
+                    listener.onCameraImageDecoded(cameraId, image);
+                    storeInDiskCache(cameraId, data, data.length);
+                } else {
+                    listener.onCameraError(cameraId, "Камера " + cameraId + ": не удалось декодировать изображение.");
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Ошибка декодирования снимка камеры " + cameraId, e);
+                listener.onCameraError(cameraId, "Камера " + cameraId + ": ошибка декодирования: " + e.getMessage());
+            } finally {
+                activeTransfers.end();
+            }
+        });
+    }
+
+    // Кадр ушёл с экрана - его память пойдёт под следующий
+    public void recycleImage(DecodedImage image) {
+        if (image != null) bitmapPool.put(image.getBitmap());
+    }
+
+    public void onTrimMemory(int level) {
+        bitmapPool.onTrimMemory(level);
+    }
+
+    private void cleanup() {
+        cleanup(true);
+    }
+
+    // Приём картинки закончился без декодирования.
+    // notify = false - картинка отменённого снимка: UI ждёт уже другой и загрузку не заканчивает
+    private void cleanup(boolean notify) {
+        endTransfer(imageTransferCounted.getAndSet(false), notify);
+    }
+
+    // Каждая посчитанная передача снимается ровно одним end(): декодирование прежнего снимка
+    // может закончиться посреди приёма следующего и не должно снять его счёт
+    private void endTransfer(boolean counted, boolean notify) {
+        if (counted) activeTransfers.end();
+        if (notify) listener.onImageProcessingComplete();
+    }
+
+    // Повторный SIZE: без END123 не считается второй передачей
+    private void beginImageTransfer() {
+        reportedProgress = -1;
+        if (imageTransferCounted.compareAndSet(false, true)) activeTransfers.begin();
+    }
+
+    // Таймаут - только страховка: освобождает последняя закончившаяся передача
+    private class WakeLockHolder implements ActiveTransfers.Listener {
+        @Override
+        public void onTransfersStarted() {
+            PowerManager.WakeLock lock = wakeLock;
+            if (lock != null && !lock.isHeld()) lock.acquire(10 * 60 * 1000L);
+        }
+
+        @Override
+        public void onTransfersFinished() {
+            PowerManager.WakeLock lock = wakeLock;
+            if (lock != null && lock.isHeld()) lock.release();
+        }
     }
 
     public void shutdown() {
         if (!backgroundExecutor.isShutdown()) {
             backgroundExecutor.shutdownNow();
         }
+        cameraDecodePool.shutdownNow();
+        // Запись уже принятых снимков дописывается
+        diskExecutor.shutdown();
+        bitmapPool.clear();
     }
 }
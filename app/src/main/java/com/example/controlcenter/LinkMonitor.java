@@ -0,0 +1,149 @@
+package com.example.controlcenter;
+
+// Оценка канала по heartbeat и входящему трафику. Пока данные идут, PING не нужен - связь и так жива;
+// канал замолчал - PING уходит через несколько секунд, а без ответа и без трафика соединение
+// признаётся мёртвым, не дожидаясь ошибки чтения.
+// RTT сглаживается как в TCP (RFC 6298), скорость - скользящее среднее по секундам, когда данные шли.
+// Время - System.nanoTime, передаётся снаружи ради тестов; вызовы из одного потока (heartbeat),
+// геттеры - из любого
+public class LinkMonitor {
+
+    // Как часто вызывать onTick
+    public static final long TICK_MS = 1000;
+    // Столько тишины - и отправляем PING
+    public static final long QUIET_PING_MS = 5000;
+    // Ожидание PONG: по оценке RTT, но в этих пределах
+    public static final long MIN_PONG_TIMEOUT_MS = 3000;
+    public static final long MAX_PONG_TIMEOUT_MS = 10_000;
+    public static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+
+    public enum Action { NONE, PING, DEAD }
+
+    public enum Quality { GOOD, FAIR, POOR, DOWN }
+
+    private static final long NANOS_PER_MS = 1_000_000;
+
+    private long lastBytes;
+    private long lastTickAt;
+    private long lastTrafficAt;
+    // Отправка PING без ответа (nanoTime), 0 - не ждём
+    private long pingSentAt;
+    private boolean dead;
+
+    private volatile long smoothedRttMs = -1;
+    private volatile long rttVarianceMs;
+    private volatile long throughputBytesPerSecond = -1;
+
+    // Новое соединение: счётчик байт начинается с нуля, оценки RTT и скорости остаются от прошлого
+    public synchronized void onConnected(long nowNanos) {
+        lastBytes = 0;
+        lastTickAt = nowNanos;
+        lastTrafficAt = nowNanos;
+        pingSentAt = 0;
+        dead = false;
+    }
+
+    // Раз в TICK_MS с общим числом принятых соединением байт: что делать с heartbeat
+    public synchronized Action onTick(long nowNanos, long bytesReceived) {
+        if (dead) return Action.NONE;
+        long bytes = bytesReceived - lastBytes;
+        long elapsed = nowNanos - lastTickAt;
+        lastBytes = bytesReceived;
+        lastTickAt = nowNanos;
+
+        if (bytes > 0) {
+            lastTrafficAt = nowNanos;
+            // Любые данные доказывают, что канал жив, - ответа на PING можно не ждать
+            pingSentAt = 0;
+            // Скорость меряем только по заметным порциям: одиночный PONG или статус её не покажут
+            if (elapsed > 0 && bytes >= MIN_THROUGHPUT_SAMPLE_BYTES) recordThroughput(bytes * 1_000_000_000L / elapsed);
+            return Action.NONE;
+        }
+
+        if (pingSentAt != 0) {
+            if (nowNanos - pingSentAt < getPongTimeoutMs() * NANOS_PER_MS) return Action.NONE;
+            dead = true;
+            return Action.DEAD;
+        }
+        if (nowNanos - lastTrafficAt >= QUIET_PING_MS * NANOS_PER_MS) {
+            pingSentAt = nowNanos;
+            return Action.PING;
+        }
+        return Action.NONE;
+    }
+
+    // Пришёл PONG; возвращает RTT в нс или -1, если PING от нас не ждали ответа
+    public synchronized long onPong(long nowNanos) {
+        lastTrafficAt = nowNanos;
+        if (pingSentAt == 0) return -1;
+        long rtt = nowNanos - pingSentAt;
+        pingSentAt = 0;
+        recordRtt(rtt / NANOS_PER_MS);
+        return rtt;
+    }
+
+    private void recordRtt(long rttMs) {
+        if (smoothedRttMs < 0) {
+            smoothedRttMs = rttMs;
+            rttVarianceMs = rttMs / 2;
+        } else {
+            rttVarianceMs = (3 * rttVarianceMs + Math.abs(smoothedRttMs - rttMs)) / 4;
+            smoothedRttMs = (7 * smoothedRttMs + rttMs) / 8;
+        }
+    }
+
+    private void recordThroughput(long bytesPerSecond) {
+        long current = throughputBytesPerSecond;
+        throughputBytesPerSecond = current < 0 ? bytesPerSecond : (3 * current + bytesPerSecond) / 4;
+    }
+
+    // Сглаженный RTT, мс; -1 - ещё не измерен
+    public long getSmoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    public long getRttVarianceMs() {
+        return rttVarianceMs;
+    }
+
+    // Скорость приёма, пока данные шли, байт/с; -1 - ещё не измерена
+    public long getThroughputBytesPerSecond() {
+        return throughputBytesPerSecond;
+    }
+
+    // Сколько ждать ответа сервера: RTT + 4 разброса, как RTO в TCP
+    public long getResponseTimeoutMs() {
+        long srtt = smoothedRttMs;
+        if (srtt < 0) return MAX_PONG_TIMEOUT_MS;
+        return srtt + 4 * rttVarianceMs;
+    }
+
+    public long getPongTimeoutMs() {
+        return Math.max(MIN_PONG_TIMEOUT_MS, Math.min(MAX_PONG_TIMEOUT_MS, getResponseTimeoutMs()));
+    }
+
+    // Оценка времени передачи bytes байт с учётом RTT; -1, если скорость ещё не измерена
+    public long estimateTransferMs(long bytes) {
+        long throughput = throughputBytesPerSecond;
+        if (throughput <= 0) return -1;
+        return Math.max(smoothedRttMs, 0) + bytes * 1000 / throughput;
+    }
+
+    public synchronized Quality getQuality() {
+        if (dead) return Quality.DOWN;
+        long srtt = smoothedRttMs;
+        if (pingSentAt != 0 && lastTickAt - pingSentAt > MIN_PONG_TIMEOUT_MS * NANOS_PER_MS) return Quality.POOR;
+        if (srtt < 0 || srtt <= 150) return Quality.GOOD;
+        if (srtt <= 600) return Quality.FAIR;
+        return Quality.POOR;
+    }
+
+    // Строка для отладочного оверлея
+    public String format() {
+        long srtt = smoothedRttMs;
+        long throughput = throughputBytesPerSecond;
+        return "Канал: " + getQuality()
+                + ", RTT " + (srtt < 0 ? "-" : srtt + "±" + rttVarianceMs + " мс")
+                + ", скорость " + (throughput < 0 ? "-" : throughput / 1024 + " КБ/с");
+    }
+}
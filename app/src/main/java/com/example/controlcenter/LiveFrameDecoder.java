@@ -0,0 +1,49 @@
+package com.example.controlcenter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+// Декодер кадров живого просмотра: под размер экрана и прямо в Bitmap, который сейчас не на экране
+// (inBitmap) - при постоянном размере кадров поток не выделяет новых Bitmap
+public class LiveFrameDecoder implements LiveViewPipeline.Decoder<Bitmap> {
+
+    private final BitmapFactory.Options bounds = new BitmapFactory.Options();
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+
+    public LiveFrameDecoder() {
+        bounds.inJustDecodeBounds = true;
+        options.inMutable = true;
+    }
+
+    public void setTargetSize(int width, int height) {
+        this.targetWidth = width;
+        this.targetHeight = height;
+    }
+
+    // Только поток декодирования конвейера - Options общие
+    @Override
+    public Bitmap decode(byte[] data, int length, Bitmap reuse) {
+        BitmapFactory.decodeByteArray(data, 0, length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+
+        options.inSampleSize = SampledImageDecoder.calculateSampleSize(bounds.outWidth, bounds.outHeight,
+                targetWidth, targetHeight);
+        options.inPreferredConfig = SampledImageDecoder.configFor(bounds.outMimeType);
+        Bitmap bitmap = null;
+        if (reuse != null && reuse.isMutable() && !reuse.isRecycled()) {
+            options.inBitmap = reuse;
+            try {
+                bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+            } catch (IllegalArgumentException e) {
+                // Кадр вырос и не помещается в прежний Bitmap - декодируем в новый
+            }
+            options.inBitmap = null;
+        }
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        return bitmap;
+    }
+}
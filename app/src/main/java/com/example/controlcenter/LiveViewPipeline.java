@@ -0,0 +1,368 @@
+package com.example.controlcenter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+// Живой просмотр одной камеры: поток кадров LIVE_FRAME: от сервера до экрана.
+// Поток приёма собирает кадр в свой буфер и кладёт в ящик на одно место - необработанный прежний
+// кадр при этом выбрасывается, декодер всегда берёт самый свежий. Декодирование - в отдельном потоке,
+// попеременно в два кадра (двойная буферизация): пока один на экране, второй заполняется.
+// Пока экран не подтвердил предыдущий кадр (onFrameShown), декодер ждёт, а новые кадры вытесняют
+// друг друга в ящике - отставание декодера или отрисовки превращается в пропуски, а не в очередь
+public class LiveViewPipeline<F> {
+
+    public interface Decoder<F> {
+        // Декодирует data[0, length); reuse - кадр, который сейчас не на экране, его можно перезаписать
+        // (null в начале показа). Возвращает reuse или новый кадр; null - кадр битый
+        F decode(byte[] data, int length, F reuse);
+    }
+
+    public interface Renderer<F> {
+        // Поток декодирования. Показав кадр, UI вызывает onFrameShown(frame)
+        void render(Frame<F> frame);
+    }
+
+    // Один из двух кадров показа; содержимое меняется только пока кадр не на экране
+    public static final class Frame<F> {
+        private final int slot;
+        private F image;
+        private int cameraId;
+        private int sequence;
+        private long receivedAt;
+
+        Frame(int slot) {
+            this.slot = slot;
+        }
+
+        public F getImage() {
+            return image;
+        }
+
+        public int getCameraId() {
+            return cameraId;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+    }
+
+    // Принятый, но ещё не декодированный кадр; буферы переиспользуются
+    private static final class Packet {
+        byte[] data = new byte[64 * 1024];
+        int length;
+        int cameraId;
+        int sequence;
+        long receivedAt;
+        long session;
+    }
+
+    // По скольким последним показанным кадрам считается достигнутая частота
+    private static final int FPS_WINDOW = 16;
+
+    private final Decoder<F> decoder;
+    private final Renderer<F> renderer;
+    private final Object lock = new Object();
+
+    // Под lock: текущий показ. Смена камеры или остановка начинают новую сессию -
+    // кадры прежней, ещё идущие по конвейеру, выбрасываются
+    private long session = 0;
+    private boolean active = false;
+    private int cameraId = -1;
+    private int targetFps = 0;
+    private boolean closed = false;
+    private Thread decodeThread;
+    // Ящик на одно место и свободные буферы: всего буферов три - приём, ящик, декодер
+    private Packet pending;
+    private final ArrayDeque<Packet> freePackets = new ArrayDeque<>();
+    // Два кадра показа; posted - отдан на экран и ещё не подтверждён, front - на экране
+    private Frame<F>[] slots = newSlots();
+    private int posted = -1;
+    private int front = -1;
+
+    // Только поток приёма: собираемый кадр
+    private Packet receiving = new Packet();
+    private boolean accepting = false;
+    private int receivedBytes = 0;
+
+    // Статистика текущей сессии, под lock
+    private long framesReceived = 0;
+    private long framesDropped = 0;
+    private long framesShown = 0;
+    private long decodeFailures = 0;
+    private final long[] shownAt = new long[FPS_WINDOW];
+    // От заголовка кадра до подтверждения показа, и время декодирования; мс
+    private final LatencyHistogram latencyMs = new LatencyHistogram();
+    private final LatencyHistogram decodeMs = new LatencyHistogram();
+
+    public LiveViewPipeline(Decoder<F> decoder, Renderer<F> renderer) {
+        this.decoder = decoder;
+        this.renderer = renderer;
+        freePackets.add(new Packet());
+        freePackets.add(new Packet());
+    }
+
+    // Начать показ камеры; идущий показ другой камеры прекращается
+    public void start(int cameraId, int targetFps) {
+        synchronized (lock) {
+            if (closed) return;
+            newSession();
+            this.active = true;
+            this.cameraId = cameraId;
+            this.targetFps = targetFps;
+            resetStats();
+            if (decodeThread == null) {
+                decodeThread = new Thread(this::decodeLoop, "LiveViewDecoder");
+                decodeThread.setDaemon(true);
+                decodeThread.start();
+            }
+        }
+    }
+
+    // Частоту выдерживает сервер (LIVE_START:), здесь она только для статистики
+    public void setTargetFps(int targetFps) {
+        synchronized (lock) {
+            this.targetFps = targetFps;
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            newSession();
+            active = false;
+            cameraId = -1;
+        }
+    }
+
+    // Останавливает поток декодирования; после close() конвейер не запускается
+    public void close() {
+        synchronized (lock) {
+            stop();
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isActive() {
+        synchronized (lock) {
+            return active;
+        }
+    }
+
+    // -1, если показ остановлен
+    public int getCameraId() {
+        synchronized (lock) {
+            return cameraId;
+        }
+    }
+
+    public int getTargetFps() {
+        synchronized (lock) {
+            return targetFps;
+        }
+    }
+
+    private void newSession() {
+        session++;
+        if (pending != null) {
+            freePackets.add(pending);
+            pending = null;
+        }
+        // Новые кадры показа: прежние ещё может держать экран, их нельзя отдавать декодеру
+        slots = newSlots();
+        posted = -1;
+        front = -1;
+        lock.notifyAll();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> Frame<F>[] newSlots() {
+        return new Frame[] { new Frame<F>(0), new Frame<F>(1) };
+    }
+
+    // --- Поток приёма ---
+
+    // LIVE_FRAME:<камера>:<номер>:<длина>; кадры не той камеры пропускаются
+    public void onFrameStart(int cameraId, int sequence, int length) {
+        synchronized (lock) {
+            accepting = active && cameraId == this.cameraId && length > 0;
+            receiving.session = session;
+        }
+        if (!accepting) return;
+        if (receiving.data.length < length) receiving.data = new byte[length + length / 4];
+        receiving.length = length;
+        receiving.cameraId = cameraId;
+        receiving.sequence = sequence;
+        receiving.receivedAt = System.nanoTime();
+        receivedBytes = 0;
+    }
+
+    // Срез текущего кадра; буфер валиден только на время вызова
+    public void onFrameData(ByteBuffer data) {
+        if (!accepting) return;
+        int n = Math.min(data.remaining(), receiving.length - receivedBytes);
+        data.get(receiving.data, receivedBytes, n);
+        receivedBytes += n;
+        if (receivedBytes == receiving.length) {
+            accepting = false;
+            deliver();
+        }
+    }
+
+    // Собранный кадр - в ящик; прежний, если декодер его не забрал, становится буфером приёма
+    private void deliver() {
+        synchronized (lock) {
+            if (receiving.session != session) return;
+            framesReceived++;
+            Packet replaced = pending;
+            pending = receiving;
+            if (replaced != null) {
+                framesDropped++;
+                receiving = replaced;
+            } else {
+                receiving = freePackets.poll();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // --- Поток декодирования ---
+
+    private void decodeLoop() {
+        while (true) {
+            Packet packet;
+            Frame<F> target;
+            synchronized (lock) {
+                // Пока кадр на пути к экрану, второй трогать нельзя - ждём подтверждения показа
+                while (!closed && (pending == null || posted >= 0)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                packet = pending;
+                pending = null;
+                target = slots[front == 0 ? 1 : 0];
+            }
+
+            long started = System.nanoTime();
+            F image = decoder.decode(packet.data, packet.length, target.image);
+            long decodeNanos = System.nanoTime() - started;
+
+            synchronized (lock) {
+                freePackets.add(packet);
+                if (packet.session != session) continue;
+                decodeMs.record(decodeNanos / 1_000_000);
+                if (image == null) {
+                    decodeFailures++;
+                    continue;
+                }
+                target.image = image;
+                target.cameraId = packet.cameraId;
+                target.sequence = packet.sequence;
+                target.receivedAt = packet.receivedAt;
+                posted = target.slot;
+            }
+            renderer.render(target);
+        }
+    }
+
+    // --- UI ---
+
+    // Кадр на экране: прежний освобождается для декодера. Кадры прошлых сессий игнорируются
+    public void onFrameShown(Frame<F> frame) {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            if (frame.slot != posted || slots[frame.slot] != frame) return;
+            front = posted;
+            posted = -1;
+            shownAt[(int) (framesShown % FPS_WINDOW)] = now;
+            framesShown++;
+            latencyMs.record((now - frame.receivedAt) / 1_000_000);
+            lock.notifyAll();
+        }
+    }
+
+    // Кадр текущего показа: отданный до смены камеры или остановки показывать уже не надо
+    public boolean isCurrent(Frame<F> frame) {
+        synchronized (lock) {
+            return slots[frame.slot] == frame;
+        }
+    }
+
+    // --- Статистика текущей сессии ---
+
+    public long getFramesReceived() {
+        synchronized (lock) {
+            return framesReceived;
+        }
+    }
+
+    // Приняты целиком, но вытеснены более свежими до декодирования
+    public long getFramesDropped() {
+        synchronized (lock) {
+            return framesDropped;
+        }
+    }
+
+    public long getFramesShown() {
+        synchronized (lock) {
+            return framesShown;
+        }
+    }
+
+    public long getDecodeFailures() {
+        synchronized (lock) {
+            return decodeFailures;
+        }
+    }
+
+    // Показанных кадров в секунду по последним FPS_WINDOW; 0, если показ стоит дольше секунды
+    public double getAchievedFps() {
+        synchronized (lock) {
+            return achievedFps(System.nanoTime());
+        }
+    }
+
+    private double achievedFps(long now) {
+        int count = (int) Math.min(framesShown, FPS_WINDOW);
+        if (count < 2) return 0;
+        long newest = shownAt[(int) ((framesShown - 1) % FPS_WINDOW)];
+        long oldest = shownAt[(int) ((framesShown - count) % FPS_WINDOW)];
+        if (now - newest > 1_000_000_000L || newest == oldest) return 0;
+        return (count - 1) * 1_000_000_000.0 / (newest - oldest);
+    }
+
+    public LatencyHistogram getLatencyMs() {
+        return latencyMs;
+    }
+
+    public LatencyHistogram getDecodeMs() {
+        return decodeMs;
+    }
+
+    private void resetStats() {
+        framesReceived = 0;
+        framesDropped = 0;
+        framesShown = 0;
+        decodeFailures = 0;
+        latencyMs.reset();
+        decodeMs.reset();
+    }
+
+    // Для оверлея отладки
+    public String format() {
+        synchronized (lock) {
+            if (!active) return "Живой просмотр: выкл";
+            return String.format(Locale.US, "Живой просмотр: камера %d, %.1f/%d к/с", cameraId,
+                    achievedFps(System.nanoTime()), targetFps)
+                    + "\nКадры: принято " + framesReceived + ", показано " + framesShown
+                    + ", пропущено " + framesDropped + ", битых " + decodeFailures
+                    + "\nЗадержка: " + latencyMs.summary(" мс")
+                    + "\nДекодирование: " + decodeMs.summary(" мс");
+        }
+    }
+}
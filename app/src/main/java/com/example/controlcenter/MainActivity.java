@@ -1,37 +1,64 @@
 package com.example.controlcenter;
 
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
-import android.widget.Button;
-import android.widget.LinearLayout;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
-import android.widget.ScrollView;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.github.chrisbanes.photoview.PhotoView;
+import com.google.android.material.button.MaterialButton;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
     private CommunicationViewModel viewModel;
-    private TextView statusTextView;
+    private RecyclerView statusLogView;
+    private LinearLayoutManager statusLogLayout;
+    private StatusLogAdapter statusLogAdapter;
     private TextView connectionStatusTextView;
     private TextView peerStatusTextView;
-    private PhotoView imageView;
-    private ScrollView scrollView;
+    private TextView fleetStatusTextView;
+    private TiledPhotoView imageView;
     private TextView imageSizeTextView;
     private ProgressBar progressBarImage;
     private ProgressBar progressBarConnect;
-    private LinearLayout cameraButtonsContainer;
+    private RecyclerView cameraGrid;
+    private GridLayoutManager cameraGridLayout;
+    private CameraGridAdapter cameraAdapter;
+    private MaterialButton captureAllButton;
+    private TextView debugOverlay;
+    private RecyclerView historyStrip;
+    private HistoryStripAdapter historyAdapter;
+    private ImageView liveView;
+    private View liveViewBar;
+    private TextView liveViewInfo;
+    // Последний показанный снимок UiState: виджеты обновляются только по разнице
+    private UiState shownUiState;
+    private MaterialButton liveFpsButton;
+    private static final long DEBUG_OVERLAY_REFRESH_MS = 1000;
+    // Больше рядов сетка камер не занимает - дальше прокрутка, место остаётся снимку
+    private static final int MAX_VISIBLE_CAMERA_ROWS = 3;
+    private static final int MIN_CAMERA_BUTTON_WIDTH_DP = 110;
+    private static final int CAMERA_BUTTON_HEIGHT_DP = 44;
+    // Частоты живого просмотра по кнопке на панели; первая - при запуске
+    private static final int[] LIVE_FPS_STEPS = {10, 15, 25, 5};
+    private static final long LIVE_INFO_REFRESH_MS = 500;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,26 +66,78 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         // Инициализация UI
-        statusTextView = findViewById(R.id.statusTextView);
+        statusLogView = findViewById(R.id.statusLogView);
         connectionStatusTextView = findViewById(R.id.connectionStatusTextView);
         peerStatusTextView = findViewById(R.id.peerStatusTextView);
-        scrollView = findViewById(R.id.scrollView);
+        fleetStatusTextView = findViewById(R.id.fleetStatusTextView);
         imageView = findViewById(R.id.imageView);
         imageSizeTextView = findViewById(R.id.imageSizeTextView);
         progressBarImage = findViewById(R.id.progressBarImage);
         progressBarConnect = findViewById(R.id.progressBarConnect);
-        cameraButtonsContainer = findViewById(R.id.cameraButtonsContainer);
+        cameraGrid = findViewById(R.id.cameraGrid);
+        captureAllButton = findViewById(R.id.captureAllButton);
+        debugOverlay = findViewById(R.id.debugOverlay);
+        historyStrip = findViewById(R.id.historyStrip);
+        liveView = findViewById(R.id.liveView);
+        liveViewBar = findViewById(R.id.liveViewBar);
+        liveViewInfo = findViewById(R.id.liveViewInfo);
+        liveFpsButton = findViewById(R.id.liveFpsButton);
 
         progressBarImage.setMax(100);
 
         // MVVM
         viewModel = new ViewModelProvider(this).get(CommunicationViewModel.class);
-        viewModel.initWakeLock(getApplicationContext());
+        viewModel.bindService(this);
+        initStatusLog();
+        initHistoryStrip();
+        initCameraGrid();
+        initLiveView();
         observeViewModel();
+        imageView.setOnImageReleasedListener(viewModel::recycleImage);
 
-        if (viewModel.getConnectionStatus().getValue() == null) {
-            viewModel.startConnection("5.35.102.58", 8080);
+        // Долгое нажатие на статус включает отладочный оверлей с метриками передачи
+        connectionStatusTextView.setOnLongClickListener(v -> {
+            viewModel.toggleDebugOverlay();
+            return true;
+        });
+
+        // Картинки декодируются под размер области просмотра (сам PhotoView до показа имеет размер 0)
+        ((View) imageView.getParent()).addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+                viewModel.setImageTargetSize(right - left, bottom - top));
+
+        // Уже идущее соединение сервис не перезапускает
+        viewModel.setPreviewCapture(getResources().getBoolean(R.bool.preview_capture));
+        viewModel.startConnection(relayEndpoints());
+        viewModel.startFleet(relaySites());
+    }
+
+    // Основное реле из конфигурации, за ним запасные
+    private List<EndpointRacer.Endpoint> relayEndpoints() {
+        List<EndpointRacer.Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(new EndpointRacer.Endpoint(getString(R.string.relay_host), getResources().getInteger(R.integer.relay_port)));
+        for (String fallback : getResources().getStringArray(R.array.relay_fallback_endpoints)) {
+            try {
+                endpoints.add(EndpointRacer.Endpoint.parse(fallback));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Пропущен некорректный адрес реле: " + fallback);
+            }
         }
+        return endpoints;
+    }
+
+    // Площадки режима флота "имя=хост:порт"; пустой список - режим выключен
+    private Map<String, EndpointRacer.Endpoint> relaySites() {
+        Map<String, EndpointRacer.Endpoint> sites = new LinkedHashMap<>();
+        for (String site : getResources().getStringArray(R.array.relay_sites)) {
+            int equals = site.indexOf('=');
+            try {
+                if (equals <= 0) throw new IllegalArgumentException("Ожидается имя=хост:порт");
+                sites.put(site.substring(0, equals).trim(), EndpointRacer.Endpoint.parse(site.substring(equals + 1)));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Пропущена некорректная площадка: " + site);
+            }
+        }
+        return sites;
     }
 
     @Override
@@ -66,138 +145,296 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
         viewModel.decodePendingPhoto();
 
-        Bitmap currentBitmap = viewModel.getNewImageBitmap().getValue();
-        if (currentBitmap != null) {
-            imageView.setImageBitmap(currentBitmap);
+        DecodedImage currentImage = viewModel.getNewImage().getValue();
+        if (currentImage != null) {
+            imageView.setImage(currentImage);
             imageView.setVisibility(View.VISIBLE);
-            imageSizeTextView.setVisibility(View.VISIBLE);
-            showLoading(false);
+            // Превью: полный кадр ещё грузится
+            if (!viewModel.isPreview(currentImage)) {
+                imageSizeTextView.setVisibility(View.VISIBLE);
+                showLoading(false);
+            }
         }
     }
 
     private void observeViewModel() {
-        // Статус сервера
-        viewModel.getConnectionStatus().observe(this, status -> {
-            connectionStatusTextView.setText("Статус: " + status);
-            if ("Установлено".equals(status)) {
-                connectionStatusTextView.setTextColor(ContextCompat.getColor(this, android.R.color.holo_green_dark));
-                progressBarConnect.setVisibility(View.GONE);
-            } else {
-                connectionStatusTextView.setTextColor(Color.RED);
-                progressBarConnect.setVisibility(View.VISIBLE);
+        // Связь, загрузка, прогресс и подпись - один снимок за кадр; трогаем только изменившиеся виджеты
+        viewModel.getUiState().observe(this, this::showUiState);
+
+        // Режим флота: одна строка на все площадки
+        viewModel.getFleet().observe(this, fleet -> {
+            if (fleet.size() == 0) {
+                fleetStatusTextView.setVisibility(View.GONE);
+                return;
             }
+            fleetStatusTextView.setVisibility(View.VISIBLE);
+            fleetStatusTextView.setText("Площадки " + fleet.getConnectedCount() + "/" + fleet.size()
+                    + ", камер " + fleet.getCameraCount() + ": " + fleet.format());
         });
 
-        // Статус Пира
-        viewModel.getPeerStatus().observe(this, status -> {
-            peerStatusTextView.setText("Удаленный клиент: " + status);
-            if ("Подключен".equals(status)) {
-                peerStatusTextView.setTextColor(ContextCompat.getColor(this, android.R.color.holo_blue_dark));
-            } else {
-                peerStatusTextView.setTextColor(Color.parseColor("#FFA500"));
-            }
-        });
-
-        // Динамические кнопки камер
-        viewModel.getCameraDescriptions().observe(this, descriptions -> {
-            updateCameraButtons(descriptions, viewModel.getCameraIdsList().getValue());
-        });
+        // Сетка камер: один снимок списка на ответ camList, кнопки обновляются по разнице
+        viewModel.getCameras().observe(this, this::showCameras);
 
         // Работа с изображением
-        viewModel.getNewImageBitmap().observe(this, bitmap -> {
-            if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-                imageView.setAlpha(0f);
-                imageView.setVisibility(View.VISIBLE);
-                imageView.animate().alpha(1f).setDuration(500).start();
+        viewModel.getNewImage().observe(this, image -> {
+            if (image != null) {
+                boolean replacesPreview = viewModel.isPreview(imageView.getImage());
+                imageView.setImage(image);
+                if (replacesPreview) {
+                    // Кадр встаёт на место превью сразу, без затухания
+                    imageView.animate().cancel();
+                    imageView.setAlpha(1f);
+                    imageView.setVisibility(View.VISIBLE);
+                } else {
+                    imageView.setAlpha(0f);
+                    imageView.setVisibility(View.VISIBLE);
+                    imageView.animate().alpha(1f).setDuration(500).start();
+                }
+                if (viewModel.isPreview(image)) {
+                    viewModel.onPreviewShown();
+                    return;
+                }
                 imageSizeTextView.setVisibility(View.VISIBLE);
                 showLoading(false);
+                viewModel.onImageShown();
+                historyAdapter.setSelected(image);
             } else {
                 imageView.animate().alpha(0f).setDuration(200).withEndAction(() -> {
                     imageView.setVisibility(View.GONE);
-                    imageView.setImageDrawable(null);
+                    imageView.setImage(null);
                 });
                 imageSizeTextView.setVisibility(View.GONE);
             }
         });
 
-        viewModel.getImageLoadProgress().observe(this, progress -> progressBarImage.setProgress(progress));
+        viewModel.getHistoryFrames().observe(this, frames -> {
+            historyAdapter.setFrames(frames);
+            historyAdapter.setSelected(viewModel.getNewImage().getValue());
+            historyStrip.setVisibility(frames.isEmpty() ? View.GONE : View.VISIBLE);
+        });
 
-        viewModel.getImageSizeText().observe(this, sizeText -> {
-            if (sizeText != null && !sizeText.isEmpty()) {
-                imageSizeTextView.setText(sizeText);
-                imageSizeTextView.setVisibility(View.VISIBLE); // Показываем полоску, если есть текст
-            } else {
-                imageSizeTextView.setVisibility(View.GONE);
-            }
+        viewModel.getCameraCaptures().observe(this, captures -> refreshCameraButtons());
+
+        viewModel.getDebugOverlayVisible().observe(this, visible -> {
+            debugOverlay.removeCallbacks(debugOverlayRefresh);
+            debugOverlay.setVisibility(visible ? View.VISIBLE : View.GONE);
+            if (visible) debugOverlayRefresh.run();
         });
 
-        viewModel.getIsLoading().observe(this, this::showLoading);
+        viewModel.getLiveViewCamera().observe(this, this::showLiveView);
 
-        viewModel.getIsProgressIndeterminate().observe(this, isInd -> progressBarImage.setIndeterminate(isInd));
+        // Кадр живого просмотра: сразу на экран и подтверждение - декодер может заполнять второй
+        viewModel.getLiveFrame().observe(this, frame -> {
+            if (frame == null || !viewModel.getLiveView().isCurrent(frame)) return;
+            liveView.setImageBitmap(frame.getImage());
+            viewModel.onLiveFrameShown(frame);
+        });
 
-        viewModel.getStatusMessages().observe(this, message -> {
-            statusTextView.append("\nСервер: " + message);
-            scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
+        // Журнал: пачка строк за кадр. Внизу списка - следуем за новыми строками, иначе оператор читает старые
+        viewModel.getStatusLog().observe(this, log -> {
+            boolean following = !statusLogView.canScrollVertically(1);
+            statusLogAdapter.submit(log);
+            if (following && log.size() > 0) statusLogLayout.scrollToPosition(log.size() - 1);
         });
     }
 
-    private void updateCameraButtons(List<String> descriptions, List<Integer> ids) {
-        if (descriptions == null || ids == null || descriptions.size() != ids.size()) return;
+    private void initStatusLog() {
+        statusLogAdapter = new StatusLogAdapter((int) (8 * getResources().getDisplayMetrics().density));
+        statusLogLayout = new LinearLayoutManager(this);
+        statusLogLayout.setStackFromEnd(true);
+        statusLogView.setLayoutManager(statusLogLayout);
+        statusLogView.setItemAnimator(null);
+        statusLogView.setAdapter(statusLogAdapter);
+    }
 
-        cameraButtonsContainer.removeAllViews();
+    // Горизонтальная лента миниатюр: нажатие возвращает кадр на экран без нового запроса
+    private void initHistoryStrip() {
+        int thumbnailSize = (int) (56 * getResources().getDisplayMetrics().density);
+        historyAdapter = new HistoryStripAdapter(thumbnailSize, viewModel::showHistoryFrame);
+        historyStrip.setLayoutManager(new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false));
+        historyStrip.setHasFixedSize(true);
+        historyStrip.setItemAnimator(null);
+        historyStrip.setAdapter(historyAdapter);
+    }
 
+    private void initCameraGrid() {
+        float density = getResources().getDisplayMetrics().density;
         int colorActive = ContextCompat.getColor(this, R.color.bottom_sheet_background);
         int colorDisabled = Color.parseColor("#888888");
-
         android.content.res.ColorStateList buttonStates = new android.content.res.ColorStateList(
                 new int[][]{new int[]{-android.R.attr.state_enabled}, new int[]{android.R.attr.state_enabled}},
                 new int[]{colorDisabled, colorActive}
         );
-
         android.graphics.drawable.Drawable cameraIcon = ContextCompat.getDrawable(this, android.R.drawable.ic_menu_camera);
+        int iconSize = (int) (18 * density);
+
+        cameraAdapter = new CameraGridAdapter(this::onCameraClick, this::onCameraLongClick, buttonStates, cameraIcon,
+                iconSize, (int) (CAMERA_BUTTON_HEIGHT_DP * density));
+        cameraGridLayout = new GridLayoutManager(this, 1);
+        cameraGrid.setLayoutManager(cameraGridLayout);
+        cameraGrid.setItemAnimator(null);
+        cameraGrid.setAdapter(cameraAdapter);
+
+        // Снимок со всех камер разом (или по очереди, если сервер не умеет параллельно)
+        CameraGridAdapter.style(captureAllButton, buttonStates, cameraIcon, iconSize);
+        captureAllButton.setOnClickListener(v ->
+                viewModel.captureCameras(new ArrayList<>(viewModel.getCameras().getValue().ids())));
+    }
+
+    private void onCameraClick(int id) {
+        if (viewModel.isParallelCaptureAvailable()) {
+            viewModel.captureCameras(Collections.singletonList(id));
+        } else {
+            viewModel.takePhoto(id);
+        }
+    }
 
-        for (int i = 0; i < descriptions.size(); i++) {
-            String desc = descriptions.get(i);
-            int id = ids.get(i);
-
-            com.google.android.material.button.MaterialButton btn = new com.google.android.material.button.MaterialButton(this);
-            btn.setText(desc);
-            btn.setTextColor(Color.WHITE);
-            btn.setAllCaps(false);
-            btn.setTextSize(13);
-            btn.setInsetTop(0);
-            btn.setInsetBottom(0);
-            btn.setPadding(0, 0, 0, 0);
-            btn.setMaxLines(1);
-            btn.setEllipsize(android.text.TextUtils.TruncateAt.END);
-            btn.setBackgroundTintList(buttonStates);
-
-            if (cameraIcon != null) {
-                android.graphics.drawable.Drawable iconCopy = cameraIcon.getConstantState().newDrawable().mutate();
-                iconCopy.setTint(Color.WHITE);
-                int iconSize = (int) (18 * getResources().getDisplayMetrics().density);
-                btn.setIcon(iconCopy);
-                btn.setIconSize(iconSize);
-                btn.setIconPadding(8);
-                btn.setIconGravity(com.google.android.material.button.MaterialButton.ICON_GRAVITY_TEXT_START);
+    // Живой просмотр; на другой камере - переключение, прежний поток останавливается
+    private void onCameraLongClick(int id) {
+        if (!viewModel.isLiveViewAvailable()) {
+            viewModel.log("Сервер не поддерживает живой просмотр");
+            return;
+        }
+        LiveViewPipeline<android.graphics.Bitmap> live = viewModel.getLiveView();
+        viewModel.startLiveView(id, live.isActive() ? live.getTargetFps() : LIVE_FPS_STEPS[0]);
+    }
+
+    private void initLiveView() {
+        findViewById(R.id.liveStopButton).setOnClickListener(v -> viewModel.stopLiveView());
+        liveFpsButton.setOnClickListener(v -> {
+            int current = viewModel.getLiveView().getTargetFps();
+            int next = LIVE_FPS_STEPS[0];
+            for (int i = 0; i < LIVE_FPS_STEPS.length; i++) {
+                if (LIVE_FPS_STEPS[i] == current) next = LIVE_FPS_STEPS[(i + 1) % LIVE_FPS_STEPS.length];
             }
+            viewModel.setLiveViewFps(next);
+            liveFpsButton.setText(next + " к/с");
+        });
+    }
 
-            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(0, LinearLayout.LayoutParams.WRAP_CONTENT, 1.0f);
-            params.setMargins(4, 0, 4, 0);
-            btn.setLayoutParams(params);
+    private void showLiveView(int cameraId) {
+        liveViewInfo.removeCallbacks(liveInfoRefresh);
+        boolean active = cameraId >= 0;
+        liveView.setVisibility(active ? View.VISIBLE : View.GONE);
+        liveViewBar.setVisibility(active ? View.VISIBLE : View.GONE);
+        if (active) {
+            liveFpsButton.setText(viewModel.getLiveView().getTargetFps() + " к/с");
+            liveInfoRefresh.run();
+        } else {
+            liveView.setImageDrawable(null);
+        }
+    }
 
-            btn.setOnClickListener(v -> {
-                viewModel.lockInterfaceBeforeRequest();
-                viewModel.sendCommand("TAKE_PHOTO_" + id);
-            });
+    private final Runnable liveInfoRefresh = new Runnable() {
+        @Override
+        public void run() {
+            LiveViewPipeline<android.graphics.Bitmap> live = viewModel.getLiveView();
+            liveViewInfo.setText(String.format(Locale.getDefault(), "Камера %d: %.1f к/с, пропущено %d",
+                    live.getCameraId(), live.getAchievedFps(), live.getFramesDropped()));
+            liveViewInfo.postDelayed(this, LIVE_INFO_REFRESH_MS);
+        }
+    };
+
+    private void showCameras(CameraDirectory.Snapshot cameras) {
+        // Несколько камер - в один ряд, как раньше; много - столбцы по ширине экрана
+        float density = getResources().getDisplayMetrics().density;
+        int maxColumns = Math.max(1, (int) (getResources().getDisplayMetrics().widthPixels / density) / MIN_CAMERA_BUTTON_WIDTH_DP);
+        int columns = Math.max(1, Math.min(cameras.size(), maxColumns));
+        cameraGridLayout.setSpanCount(columns);
+
+        int rows = (cameras.size() + columns - 1) / columns;
+        int rowHeight = (int) (CAMERA_BUTTON_HEIGHT_DP * density) + CameraGridAdapter.ROW_GAP_PX;
+        android.view.ViewGroup.LayoutParams params = cameraGrid.getLayoutParams();
+        int height = rows > MAX_VISIBLE_CAMERA_ROWS
+                ? MAX_VISIBLE_CAMERA_ROWS * rowHeight + cameraGrid.getPaddingTop()
+                : android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
+        if (params.height != height) {
+            params.height = height;
+            cameraGrid.setLayoutParams(params);
+        }
+
+        cameraAdapter.submit(cameras);
+        captureAllButton.setVisibility(cameras.size() > 1 ? View.VISIBLE : View.GONE);
+    }
+
+    // Доступность и подписи кнопок: общий флаг плюс состояние снимка каждой камеры
+    private void refreshCameraButtons() {
+        boolean enabled = viewModel.getUiState().getValue().buttonsEnabled;
+        Map<Integer, CameraCapture> captures = viewModel.getCameraCaptures().getValue();
+        cameraAdapter.setEnabled(enabled);
+        cameraAdapter.setCaptures(captures);
+
+        boolean anyInProgress = false;
+        if (captures != null) {
+            for (CameraCapture capture : captures.values()) {
+                anyInProgress |= capture.isInProgress();
+            }
+        }
+        captureAllButton.setEnabled(enabled && !anyInProgress);
+        captureAllButton.setAlpha(enabled && !anyInProgress ? 1.0f : 0.7f);
+    }
 
-            viewModel.getIsButtonEnabled().observe(this, isEnabled -> {
-                btn.setEnabled(isEnabled);
-                btn.setAlpha(isEnabled ? 1.0f : 0.7f);
-            });
+    // Оверлей обновляется раз в секунду и только пока он виден
+    private final Runnable debugOverlayRefresh = new Runnable() {
+        @Override
+        public void run() {
+            String text = viewModel.getMetrics().format() + "\n" + viewModel.getLinkMonitor().format();
+            if (viewModel.getLiveView().isActive()) text += "\n" + viewModel.getLiveView().format();
+            debugOverlay.setText(text);
+            debugOverlay.postDelayed(this, DEBUG_OVERLAY_REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onDestroy() {
+        debugOverlay.removeCallbacks(debugOverlayRefresh);
+        liveViewInfo.removeCallbacks(liveInfoRefresh);
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        viewModel.onTrimMemory(level);
+    }
+
+    private void showUiState(UiState state) {
+        UiState previous = shownUiState;
+        shownUiState = state;
+        if (previous == null || state.connection != previous.connection) showConnection(state.connection);
+        if (previous == null || state.buttonsEnabled != previous.buttonsEnabled) refreshCameraButtons();
+        if (previous == null || state.progressIndeterminate != previous.progressIndeterminate) {
+            progressBarImage.setIndeterminate(state.progressIndeterminate);
+        }
+        if (previous == null || state.progress != previous.progress) progressBarImage.setProgress(state.progress);
+        // Загрузка прячет подпись - подпись, пришедшая тем же снимком, показывается после
+        if (previous == null || state.loading != previous.loading) showLoading(state.loading);
+        if (previous == null || !state.sizeText.equals(previous.sizeText)) {
+            if (!state.sizeText.isEmpty()) {
+                imageSizeTextView.setText(state.sizeText);
+                imageSizeTextView.setVisibility(View.VISIBLE); // Показываем полоску, если есть текст
+            } else {
+                imageSizeTextView.setVisibility(View.GONE);
+            }
+        }
+    }
+
+    // Статус сервера и пира
+    private void showConnection(ConnectionState state) {
+        connectionStatusTextView.setText("Статус: " + state.status);
+        if (state.isEstablished()) {
+            connectionStatusTextView.setTextColor(ContextCompat.getColor(this, android.R.color.holo_green_dark));
+            progressBarConnect.setVisibility(View.GONE);
+        } else {
+            connectionStatusTextView.setTextColor(Color.RED);
+            progressBarConnect.setVisibility(View.VISIBLE);
+        }
 
-            cameraButtonsContainer.addView(btn);
+        peerStatusTextView.setText("Удаленный клиент: " + (state.peerConnected ? "Подключен" : "Отключен"));
+        if (state.peerConnected) {
+            peerStatusTextView.setTextColor(ContextCompat.getColor(this, android.R.color.holo_blue_dark));
+        } else {
+            peerStatusTextView.setTextColor(Color.parseColor("#FFA500"));
         }
     }
 
@@ -0,0 +1,168 @@
+package com.example.controlcenter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Классификация управляющей строки прямо в байтах. Префиксы протокола заранее разложены
+// по первому байту, поэтому строка сравнивается только с правилами своей буквы, один раз.
+// String создаётся, только если у сообщения есть текст; PING, PONG и статусы пира - общие экземпляры
+public final class MessageParser {
+
+    private interface Factory {
+        // b[start, end) - строка без крайних пробелов, from - первый байт после префикса
+        ProtocolMessage create(byte[] b, int start, int from, int end);
+    }
+
+    private static final class Rule {
+        final byte[] prefix;
+        // true - строка должна совпасть с префиксом целиком
+        final boolean exact;
+        final Factory factory;
+
+        Rule(String prefix, boolean exact, Factory factory) {
+            this.prefix = prefix.getBytes(StandardCharsets.US_ASCII);
+            this.exact = exact;
+            this.factory = factory;
+        }
+    }
+
+    private static final byte[] SIZE_MARKER = "SIZE:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CAMERA_SEPARATOR = " -- ".getBytes(StandardCharsets.US_ASCII);
+
+    // Правила по первому байту; внутри буквы - от длинного префикса к короткому
+    private static final Rule[][] RULES = new Rule[128][];
+
+    static {
+        add(new Rule("PING", true, (b, s, f, e) -> ProtocolMessage.PING));
+        add(new Rule("PONG", true, (b, s, f, e) -> ProtocolMessage.PONG));
+        add(new Rule("SERVER_STATUS: PEER_CONNECTED", false, (b, s, f, e) -> ProtocolMessage.PEER_CONNECTED));
+        add(new Rule("SERVER_STATUS: PEER_DISCONNECTED", false, (b, s, f, e) -> ProtocolMessage.PEER_DISCONNECTED));
+        add(new Rule("SERVER_STATUS:", false, (b, s, f, e) -> new ProtocolMessage(ProtocolMessage.Type.SERVER_STATUS, text(b, s, e))));
+        add(new Rule("SERVER_ERROR: CONNECTION_LIMIT_REACHED", false, (b, s, f, e) -> ProtocolMessage.CONNECTION_LIMIT));
+        add(new Rule("SERVER_ERROR:", false, (b, s, f, e) -> new ProtocolMessage(ProtocolMessage.Type.SERVER_ERROR, text(b, s, e))));
+        add(new Rule("CAPS_ACK:", false, (b, s, f, e) -> new ProtocolMessage(ProtocolMessage.Type.CAPS_ACK, text(b, s, e))));
+        add(new Rule(ResumableImageReceiver.RESUME_FAILED, false, (b, s, f, e) -> {
+            int transferId = parseNumber(b, f, e, false);
+            return transferId < 0 ? textMessage(b, s, e) : new ProtocolMessage.ResumeFailed(text(b, s, e), transferId);
+        }));
+        add(new Rule(ConnectionManager.PHOTO_CANCELLED, false, (b, s, f, e) -> {
+            int cameraId = parseNumber(b, f, e, false);
+            return cameraId < 0 ? textMessage(b, s, e) : new ProtocolMessage.PhotoCancelled(text(b, s, e), cameraId);
+        }));
+        add(new Rule(ConnectionManager.PREVIEW_HEADER, false, (b, s, f, e) -> {
+            int cameraId = parseNumber(b, f, e, false);
+            return cameraId < 0 ? textMessage(b, s, e) : new ProtocolMessage.Preview(text(b, s, e), cameraId);
+        }));
+        add(new Rule("SIZE:", false, MessageParser::imageSize));
+    }
+
+    private MessageParser() {
+    }
+
+    private static void add(Rule rule) {
+        int first = rule.prefix[0];
+        Rule[] current = RULES[first];
+        Rule[] grown = new Rule[current == null ? 1 : current.length + 1];
+        if (current != null) System.arraycopy(current, 0, grown, 0, current.length);
+        grown[grown.length - 1] = rule;
+        // Длинные префиксы раньше коротких: SERVER_STATUS: PEER_CONNECTED прежде SERVER_STATUS:
+        Arrays.sort(grown, (a, b) -> b.prefix.length - a.prefix.length);
+        RULES[first] = grown;
+    }
+
+    public static ProtocolMessage parse(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    public static ProtocolMessage parse(byte[] b, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (b[start] & 0xff) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+        if (start == end) return new ProtocolMessage(ProtocolMessage.Type.TEXT, "");
+
+        int first = b[start];
+        Rule[] rules = first >= 0 ? RULES[first] : null;
+        if (rules != null) {
+            for (Rule rule : rules) {
+                if (!matches(b, start, end, rule)) continue;
+                return rule.factory.create(b, start, start + rule.prefix.length, end);
+            }
+        }
+
+        // Строка камеры: "<номер> -- <описание>"
+        if (first >= '0' && first <= '9') {
+            int separator = indexOf(b, CAMERA_SEPARATOR, start, end);
+            if (separator >= 0) {
+                int id = parseNumber(b, start, trimEnd(b, start, separator), false);
+                if (id >= 0) {
+                    int description = separator + CAMERA_SEPARATOR.length;
+                    while (description < end && (b[description] & 0xff) <= ' ') description++;
+                    return new ProtocolMessage.Camera(text(b, start, end), id, text(b, description, end));
+                }
+            }
+        }
+        // SIZE: не в начале строки тоже начинает картинку - так его всегда понимал приём
+        int size = indexOf(b, SIZE_MARKER, start, end);
+        if (size >= 0) return imageSize(b, start, size + SIZE_MARKER.length, end);
+        return textMessage(b, start, end);
+    }
+
+    private static ProtocolMessage imageSize(byte[] b, int start, int from, int end) {
+        // Нецифровые символы, прилипшие к числу, пропускаются
+        int chars = parseNumber(b, from, end, true);
+        return chars < 0 ? textMessage(b, start, end) : new ProtocolMessage.ImageSize(text(b, start, end), chars);
+    }
+
+    private static boolean matches(byte[] b, int start, int end, Rule rule) {
+        int length = rule.prefix.length;
+        if (rule.exact ? end - start != length : end - start < length) return false;
+        for (int i = 1; i < length; i++) {
+            if (b[start + i] != rule.prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static ProtocolMessage textMessage(byte[] b, int start, int end) {
+        return new ProtocolMessage(ProtocolMessage.Type.TEXT, text(b, start, end));
+    }
+
+    private static String text(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // Десятичное число в b[from, end); skipJunk - игнорировать нецифровые символы. -1, если цифр нет
+    private static int parseNumber(byte[] b, int from, int end, boolean skipJunk) {
+        long value = 0;
+        int digits = 0;
+        for (int i = from; i < end; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (value > Integer.MAX_VALUE) return -1;
+                digits++;
+            } else if (!skipJunk && !(c == ' ' && digits == 0)) {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : (int) value;
+    }
+
+    private static int trimEnd(byte[] b, int start, int end) {
+        while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+        return end;
+    }
+
+    private static int indexOf(byte[] b, byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        byte first = pattern[0];
+        for (int i = from; i <= last; i++) {
+            if (b[i] != first) continue;
+            int j = 1;
+            while (j < pattern.length && b[i + j] == pattern[j]) j++;
+            if (j == pattern.length) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.controlcenter;
+
+import java.util.Arrays;
+
+// Раздача разобранных сообщений обработчикам по типу: массив по ordinal, без цепочек startsWith.
+// Обработчики регистрируются заранее (до подключения) и вызываются в порядке регистрации
+// в потоке приёма. Сообщения типа, на который никто не подписан, молча пропускаются
+public class MessageRouter {
+
+    public interface Handler<T extends ProtocolMessage> {
+        void handle(T message);
+    }
+
+    private static final Handler<?>[] NONE = new Handler<?>[0];
+
+    private volatile Handler<?>[][] handlers = new Handler<?>[ProtocolMessage.Type.values().length][];
+    private volatile Runnable[] batchEndHandlers = new Runnable[0];
+
+    public MessageRouter() {
+        Arrays.fill(handlers, NONE);
+    }
+
+    // T - класс сообщений этого типа: ProtocolMessage.Camera для CAMERA, ResumeFailed для RESUME_FAILED,
+    // ImageSize для IMAGE_SIZE, PhotoCancelled для PHOTO_CANCELLED, Preview для PREVIEW,
+    // для остальных - сам ProtocolMessage
+    public synchronized <T extends ProtocolMessage> void on(ProtocolMessage.Type type, Handler<T> handler) {
+        Handler<?>[][] updated = handlers.clone();
+        Handler<?>[] current = updated[type.ordinal()];
+        Handler<?>[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = handler;
+        updated[type.ordinal()] = grown;
+        handlers = updated;
+    }
+
+    // Вызывается, когда принятая пачка байт разобрана целиком и поток приёма снова ждёт сеть:
+    // здесь публикуется то, что копилось по сообщениям (например, список камер)
+    public synchronized void onBatchEnd(Runnable handler) {
+        Runnable[] grown = Arrays.copyOf(batchEndHandlers, batchEndHandlers.length + 1);
+        grown[batchEndHandlers.length] = handler;
+        batchEndHandlers = grown;
+    }
+
+    public void endBatch() {
+        for (Runnable handler : batchEndHandlers) {
+            handler.run();
+        }
+    }
+
+    // true, если сообщение кто-то обработал
+    @SuppressWarnings("unchecked")
+    public boolean route(ProtocolMessage message) {
+        Handler<?>[] forType = handlers[message.type.ordinal()];
+        for (Handler<?> handler : forType) {
+            ((Handler<ProtocolMessage>) handler).handle(message);
+        }
+        return forType.length > 0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.controlcenter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Запрос одиночного снимка (TAKE_PHOTO_), картинка которого придёт без метки камеры.
+// Новый снимок отменяет прежние: по отменённому запросу сервер перестаёт слать байты (CANCEL_PHOTO_),
+// уже пришедшие отбрасываются, а декодирование пропускается или его результат не показывается
+public final class PhotoRequest {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    public final int id;
+    public final int cameraId;
+    private volatile boolean cancelled = false;
+
+    // Только под замком очереди запросов ImageProcessor
+    boolean imageStarted = false;
+    // Пришло превью: полный кадр сервер пришлёт следом, запрос уже не забыть молча
+    boolean previewStarted = false;
+    boolean imageReceived = false;
+
+    PhotoRequest(int cameraId) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.cameraId = cameraId;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public String toString() {
+        return "снимок " + id + " (камера " + cameraId + ")";
+    }
+}
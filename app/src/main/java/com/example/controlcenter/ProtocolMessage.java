@@ -0,0 +1,102 @@
+package com.example.controlcenter;
+
+// Управляющая строка протокола, разобранная один раз (MessageParser). Дальше её тип не выясняют
+// заново: MessageRouter отдаёт сообщение обработчикам, зарегистрированным на этот тип.
+// Сообщения без полей (PING, PONG, статусы пира, лимит) - общие экземпляры, без String на каждую строку
+public class ProtocolMessage {
+
+    public enum Type {
+        PING,
+        PONG,
+        PEER_CONNECTED,
+        PEER_DISCONNECTED,
+        // SERVER_ERROR: CONNECTION_LIMIT_REACHED
+        CONNECTION_LIMIT,
+        // Прочие SERVER_STATUS: и SERVER_ERROR:
+        SERVER_STATUS,
+        SERVER_ERROR,
+        // CAPS_ACK:<возможность>
+        CAPS_ACK,
+        RESUME_FAILED,
+        // PHOTO_CANCELLED:<камера> - по отменённому снимку сервер больше ничего не пришлёт
+        PHOTO_CANCELLED,
+        // PREVIEW:<камера> - следующая картинка без метки - превью снимка, полный кадр придёт за ней
+        PREVIEW,
+        // Строка списка камер "<номер> -- <описание>"
+        CAMERA,
+        // SIZE:<символов Base64> - начало текстовой картинки
+        IMAGE_SIZE,
+        // Всё остальное - текст для журнала
+        TEXT
+    }
+
+    public static final ProtocolMessage PING = new ProtocolMessage(Type.PING, "PING");
+    public static final ProtocolMessage PONG = new ProtocolMessage(Type.PONG, "PONG");
+    public static final ProtocolMessage PEER_CONNECTED = new ProtocolMessage(Type.PEER_CONNECTED, "SERVER_STATUS: PEER_CONNECTED");
+    public static final ProtocolMessage PEER_DISCONNECTED = new ProtocolMessage(Type.PEER_DISCONNECTED, "SERVER_STATUS: PEER_DISCONNECTED");
+    public static final ProtocolMessage CONNECTION_LIMIT = new ProtocolMessage(Type.CONNECTION_LIMIT, "SERVER_ERROR: CONNECTION_LIMIT_REACHED");
+
+    public final Type type;
+    // Строка без \r и крайних пробелов; у общих экземпляров - каноническая
+    public final String line;
+
+    public ProtocolMessage(Type type, String line) {
+        this.type = type;
+        this.line = line;
+    }
+
+    @Override
+    public String toString() {
+        return type + ": " + line;
+    }
+
+    // RESUME_FAILED:<передача>
+    public static final class ResumeFailed extends ProtocolMessage {
+        public final int transferId;
+
+        public ResumeFailed(String line, int transferId) {
+            super(Type.RESUME_FAILED, line);
+            this.transferId = transferId;
+        }
+    }
+
+    // PHOTO_CANCELLED:<камера>
+    public static final class PhotoCancelled extends ProtocolMessage {
+        public final int cameraId;
+
+        public PhotoCancelled(String line, int cameraId) {
+            super(Type.PHOTO_CANCELLED, line);
+            this.cameraId = cameraId;
+        }
+    }
+
+    // PREVIEW:<камера>
+    public static final class Preview extends ProtocolMessage {
+        public final int cameraId;
+
+        public Preview(String line, int cameraId) {
+            super(Type.PREVIEW, line);
+            this.cameraId = cameraId;
+        }
+    }
+
+    public static final class Camera extends ProtocolMessage {
+        public final int id;
+        public final String description;
+
+        public Camera(String line, int id, String description) {
+            super(Type.CAMERA, line);
+            this.id = id;
+            this.description = description;
+        }
+    }
+
+    public static final class ImageSize extends ProtocolMessage {
+        public final int chars;
+
+        public ImageSize(String line, int chars) {
+            super(Type.IMAGE_SIZE, line);
+            this.chars = chars;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.controlcenter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Читатель сокета, который умеет и текстовые строки, и сырые байты из одного потока.
+// BufferedReader для этого не годится: он забирает байты в свой буфер и перекодирует их в char.
+// Состояние незаконченной строки хранится в полях, поэтому SocketTimeoutException ничего не теряет.
+public class ProtocolReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final int maxLineBytes;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    private long bytesReceived = 0;
+
+    public ProtocolReader(InputStream in) {
+        this(in, Integer.MAX_VALUE);
+    }
+
+    // maxLineBytes - предел строки без '\n'; длиннее - IOException, поток дальше не разобрать
+    public ProtocolReader(InputStream in, int maxLineBytes) {
+        this.in = in;
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    // Сколько байт прочитано из потока
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // Есть ли уже принятые, но ещё не прочитанные байты - следующее чтение не пойдёт в сеть
+    public boolean hasBufferedData() {
+        return position < limit;
+    }
+
+    // Возвращает строку без \r\n или null, если поток закрыт
+    public String readLine() throws IOException {
+        while (true) {
+            if (position == limit) {
+                int n = in.read(buffer, 0, buffer.length);
+                if (n < 0) {
+                    if (lineLength == 0) return null;
+                    return takeLine();
+                }
+                bytesReceived += n;
+                position = 0;
+                limit = n;
+            }
+
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            appendToLine(start, position - start);
+
+            if (position < limit) {
+                position++; // пропускаем '\n'
+                return takeLine();
+            }
+        }
+    }
+
+    // Читает до len сырых байт: сначала из буфера, затем (для больших кадров) напрямую из сокета
+    public int read(byte[] dst, int offset, int len) throws IOException {
+        if (len == 0) return 0;
+        int available = limit - position;
+        if (available > 0) {
+            int n = Math.min(available, len);
+            System.arraycopy(buffer, position, dst, offset, n);
+            position += n;
+            return n;
+        }
+        int n = in.read(dst, offset, len);
+        if (n > 0) bytesReceived += n;
+        return n;
+    }
+
+    private void appendToLine(int start, int count) throws IOException {
+        if (count == 0) return;
+        if ((long) lineLength + count > maxLineBytes) {
+            throw new IOException("Строка без перевода длиннее " + maxLineBytes + " байт");
+        }
+        if (lineLength + count > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + count));
+        }
+        System.arraycopy(buffer, start, lineBuffer, lineLength, count);
+        lineLength += count;
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') length--;
+        String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        lineLength = 0;
+        return line;
+    }
+}
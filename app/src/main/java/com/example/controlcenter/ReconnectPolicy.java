@@ -0,0 +1,71 @@
+package com.example.controlcenter;
+
+import java.util.Random;
+
+// Задержки переподключения. Обрыв соединения, которое успело поработать, - повтор почти сразу;
+// неудачные попытки подряд - экспоненциальная задержка со случайным разбросом, чтобы клиенты
+// после перезапуска реле не ломились все в одну и ту же секунду.
+// Отказ по лимиту клиентов (SERVER_ERROR: CONNECTION_LIMIT_REACHED) - отдельная длинная пауза.
+// Время - System.nanoTime, передаётся снаружи ради тестов
+public class ReconnectPolicy {
+
+    public static final long BASE_DELAY_MS = 500;
+    public static final long MAX_DELAY_MS = 30_000;
+    public static final long LIMIT_COOLDOWN_MS = 60_000;
+    // Разброс «немедленной» попытки: после перезапуска реле рвутся все соединения сразу
+    public static final long IMMEDIATE_JITTER_MS = 250;
+    // Соединение, прожившее столько, считается рабочим, и его обрыв не растит задержку
+    public static final long STABLE_CONNECTION_MS = 10_000;
+
+    private final Random random;
+    // Неудачных попыток подряд
+    private int failures = 0;
+    private boolean limitReached = false;
+    // Когда установлено текущее соединение, 0 - соединения нет
+    private long connectedAt = 0;
+
+    public ReconnectPolicy() {
+        this(new Random());
+    }
+
+    public ReconnectPolicy(Random random) {
+        this.random = random;
+    }
+
+    public synchronized void onConnected(long nowNanos) {
+        connectedAt = nowNanos;
+    }
+
+    // Сервер отказал по лимиту; следующая задержка будет длинной
+    public synchronized void onLimitReached() {
+        limitReached = true;
+    }
+
+    // Соединение потеряно или не установилось: через сколько мс пробовать снова
+    public synchronized long nextDelayMs(long nowNanos) {
+        boolean stable = connectedAt != 0 && nowNanos - connectedAt >= STABLE_CONNECTION_MS * 1_000_000;
+        connectedAt = 0;
+
+        if (limitReached) {
+            limitReached = false;
+            failures++;
+            return LIMIT_COOLDOWN_MS + jitter(LIMIT_COOLDOWN_MS / 2);
+        }
+        if (stable) {
+            failures = 0;
+            return jitter(IMMEDIATE_JITTER_MS);
+        }
+        failures++;
+        // Половина задержки фиксирована, вторая половина случайна: задержка растёт, но клиенты расходятся
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(failures - 1, 16));
+        return delay / 2 + jitter(delay / 2);
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    private long jitter(long bound) {
+        return bound <= 0 ? 0 : (long) (random.nextDouble() * bound);
+    }
+}
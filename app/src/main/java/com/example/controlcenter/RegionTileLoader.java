@@ -0,0 +1,165 @@
+package com.example.controlcenter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Декодирование видимых фрагментов исходной картинки в полном разрешении при зуме.
+// Тайлы декодируются по запросу через BitmapRegionDecoder и хранятся в LRU-кэше с лимитом по байтам,
+// так что память на одно фото ограничена независимо от разрешения сенсора
+public class RegionTileLoader {
+
+    private static final String TAG = "RegionTileLoader";
+    // Сторона тайла в пикселях уже декодированного Bitmap
+    public static final int TILE_SIZE = 512;
+    private static final int MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    public interface Listener {
+        // Вызывается в главном потоке, когда готов тайл из текущей видимой области
+        void onTileLoaded();
+    }
+
+    public static class Tile {
+        public final Rect region; // в пикселях исходника
+        public final Bitmap bitmap;
+
+        Tile(Rect region, Bitmap bitmap) {
+            this.region = region;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final DecodedImage image;
+    private final Bitmap.Config config;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final LruCache<Long, Tile> cache;
+
+    // Доступны только из главного потока
+    private final Set<Long> pending = new HashSet<>();
+    private final List<Tile> visibleTiles = new ArrayList<>();
+    // Читается фоновым потоком, чтобы не декодировать тайлы, ушедшие из кадра
+    private final Set<Long> wanted = ConcurrentHashMap.newKeySet();
+
+    private BitmapRegionDecoder decoder; // создаётся лениво в фоновом потоке
+    private volatile boolean released = false;
+
+    public RegionTileLoader(DecodedImage image, Bitmap.Config config, Listener listener) {
+        this.image = image;
+        this.config = config;
+        this.listener = listener;
+        int maxBytes = (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        this.cache = new LruCache<Long, Tile>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Tile tile) {
+                return tile.bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    // Новая видимая область (в пикселях исходника) и нужный inSampleSize. Только главный поток
+    public void update(int sampleSize, Rect visible) {
+        visibleTiles.clear();
+        wanted.clear();
+        if (released || sampleSize <= 0 || visible == null || visible.width() <= 0 || visible.height() <= 0) return;
+
+        int span = TILE_SIZE * sampleSize;
+        int firstCol = visible.left / span;
+        int lastCol = (visible.right - 1) / span;
+        int firstRow = visible.top / span;
+        int lastRow = (visible.bottom - 1) / span;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                long key = keyOf(sampleSize, row, col);
+                wanted.add(key);
+                Tile tile = cache.get(key);
+                if (tile != null) {
+                    visibleTiles.add(tile);
+                } else if (pending.add(key)) {
+                    submit(key, sampleSize, row, col);
+                }
+            }
+        }
+    }
+
+    public List<Tile> getVisibleTiles() {
+        return visibleTiles;
+    }
+
+    private void submit(long key, int sampleSize, int row, int col) {
+        int span = TILE_SIZE * sampleSize;
+        Rect region = new Rect(col * span, row * span,
+                Math.min(image.getFullWidth(), (col + 1) * span),
+                Math.min(image.getFullHeight(), (row + 1) * span));
+
+        executor.execute(() -> {
+            Bitmap bitmap = null;
+            if (!released && wanted.contains(key)) {
+                bitmap = decodeRegion(region, sampleSize);
+            }
+            final Bitmap result = bitmap;
+            mainHandler.post(() -> onTileDecoded(key, region, result));
+        });
+    }
+
+    private Bitmap decodeRegion(Rect region, int sampleSize) {
+        try {
+            if (decoder == null) {
+                decoder = BitmapRegionDecoder.newInstance(image.getSource(), 0, image.getSourceLength());
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            return decoder.decodeRegion(region, options);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Не удалось декодировать фрагмент " + region.left + "," + region.top, e);
+            return null;
+        }
+    }
+
+    private void onTileDecoded(long key, Rect region, Bitmap bitmap) {
+        pending.remove(key);
+        if (released || bitmap == null) return;
+
+        Tile tile = new Tile(region, bitmap);
+        cache.put(key, tile);
+        if (wanted.contains(key)) {
+            visibleTiles.add(tile);
+            listener.onTileLoaded();
+        }
+    }
+
+    private static long keyOf(int sampleSize, int row, int col) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | col;
+    }
+
+    public void release() {
+        released = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        visibleTiles.clear();
+        wanted.clear();
+        pending.clear();
+        cache.evictAll();
+        // Освобождаем нативный декодер в его же потоке, после уже начатых задач
+        executor.execute(() -> {
+            if (decoder != null) decoder.recycle();
+        });
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Режим флота: по соединению на площадку (реле), все - на одном потоке с одним Selector.
+// У каждой площадки своё рукопожатие, heartbeat (LinkMonitor) и переподключение (ReconnectPolicy),
+// но нет ни своего потока, ни executor'а: таймеры живут в очереди цикла, а сокеты неблокирующие.
+// Списки камер площадок сводятся в один снимок по имени площадки; снимок уходит слушателю
+// не чаще одного раза за проход цикла. Один поток и небольшой буфер приёма на площадку -
+// что за одной площадкой следить, что за тридцатью.
+// Картинки флот не принимает: снимки по-прежнему идут через основное соединение (ConnectionManager)
+public class RelayFleet implements AutoCloseable {
+
+    private static final String TAG = "RelayFleet";
+
+    public interface Listener {
+        // Поток флота; промежуточные изменения между вызовами слиты
+        void onFleetChanged(Snapshot snapshot);
+    }
+
+    // Состояние одной площадки на момент снимка
+    public static final class Site {
+        public final String name;
+        public final EndpointRacer.Endpoint endpoint;
+        // "Подключение...", "Установлено", "Потеряно", "Лимит"
+        public final String status;
+        public final boolean peerConnected;
+        public final CameraDirectory.Snapshot cameras;
+        // -1 - ещё не измерен
+        public final long rttMs;
+
+        Site(String name, EndpointRacer.Endpoint endpoint, String status, boolean peerConnected,
+             CameraDirectory.Snapshot cameras, long rttMs) {
+            this.name = name;
+            this.endpoint = endpoint;
+            this.status = status;
+            this.peerConnected = peerConnected;
+            this.cameras = cameras;
+            this.rttMs = rttMs;
+        }
+
+        public boolean isEstablished() {
+            return "Установлено".equals(status);
+        }
+    }
+
+    // Неизменяемое сводное состояние флота: площадки в порядке добавления
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(Collections.emptyList());
+
+        private final List<Site> sites;
+        private final Map<String, Site> byName;
+
+        Snapshot(List<Site> sites) {
+            this.sites = Collections.unmodifiableList(sites);
+            this.byName = new LinkedHashMap<>(sites.size() * 2);
+            for (Site site : sites) byName.put(site.name, site);
+        }
+
+        public List<Site> getSites() {
+            return sites;
+        }
+
+        public Site get(String name) {
+            return byName.get(name);
+        }
+
+        public int size() {
+            return sites.size();
+        }
+
+        public int getConnectedCount() {
+            int count = 0;
+            for (Site site : sites) {
+                if (site.isEstablished()) count++;
+            }
+            return count;
+        }
+
+        public int getCameraCount() {
+            int count = 0;
+            for (Site site : sites) count += site.cameras.size();
+            return count;
+        }
+
+        // Строка для статуса и отладочного оверлея: "Склад: 4 кам., Офис: Потеряно"
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            for (Site site : sites) {
+                if (sb.length() > 0) sb.append(", ");
+                sb.append(site.name).append(": ");
+                if (site.isEstablished()) {
+                    sb.append(site.cameras.size()).append(" кам.");
+                    if (site.rttMs >= 0) sb.append(" ").append(site.rttMs).append(" мс");
+                } else {
+                    sb.append(site.status);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // Отложенное действие цикла (heartbeat, переподключение, таймаут подключения)
+    final class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable action;
+        private boolean cancelled = false;
+
+        Timer(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+
+        // Только поток флота
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    private final Listener listener;
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running = false;
+    // Задачи из других потоков (добавление площадки, команды); Selector будится на каждую
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Только поток флота
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final List<FleetConnection> connections = new ArrayList<>();
+    private boolean changed = false;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public RelayFleet(Listener listener) throws IOException {
+        this.listener = listener;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::loop, "RelayFleet");
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread.start();
+    }
+
+    // Площадка подключается сразу, если флот уже запущен, иначе - с запуском. Имена уникальны
+    public void addSite(String name, EndpointRacer.Endpoint endpoint) {
+        execute(() -> {
+            if (find(name) != null) return;
+            FleetConnection connection = new FleetConnection(this, name, endpoint);
+            connections.add(connection);
+            connection.connect();
+        });
+    }
+
+    public void removeSite(String name) {
+        execute(() -> {
+            FleetConnection connection = find(name);
+            if (connection == null) return;
+            connections.remove(connection);
+            connection.close();
+            markChanged();
+        });
+    }
+
+    // Без соединения с площадкой команда отбрасывается: camList флот повторяет сам после переподключения
+    public void send(String site, String command) {
+        execute(() -> {
+            FleetConnection connection = find(site);
+            if (connection != null) connection.send(command);
+        });
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != thread && thread.isAlive()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // --- Для FleetConnection, только поток флота ---
+
+    Selector selector() {
+        return selector;
+    }
+
+    Timer schedule(long delayMs, Runnable action) {
+        Timer timer = new Timer(System.nanoTime() + delayMs * 1_000_000, action);
+        timers.add(timer);
+        return timer;
+    }
+
+    void markChanged() {
+        changed = true;
+    }
+
+    // --- Цикл ---
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private FleetConnection find(String name) {
+        for (FleetConnection connection : connections) {
+            if (connection.getName().equals(name)) return connection;
+        }
+        return null;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                runTasks();
+                long timeout = runDueTimers();
+                publishIfChanged();
+
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((FleetConnection) key.attachment()).onReady(key);
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Цикл флота остановлен", e);
+        } finally {
+            for (FleetConnection connection : connections) connection.close();
+            connections.clear();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // цикл уже остановлен
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    // Выполняет наступившие таймеры; возвращает, сколько мс можно ждать сеть (0 - без ограничения)
+    private long runDueTimers() {
+        long now = System.nanoTime();
+        Timer next;
+        while ((next = timers.peek()) != null) {
+            if (next.cancelled) {
+                timers.poll();
+                continue;
+            }
+            if (next.deadline > now) {
+                return Math.max(1, (next.deadline - now + 999_999) / 1_000_000);
+            }
+            timers.poll();
+            next.action.run();
+            now = System.nanoTime();
+        }
+        return 0;
+    }
+
+    private void publishIfChanged() {
+        if (!changed) return;
+        changed = false;
+        List<Site> sites = new ArrayList<>(connections.size());
+        for (FleetConnection connection : connections) sites.add(connection.toSite());
+        Snapshot published = new Snapshot(sites);
+        snapshot = published;
+        listener.onFleetChanged(published);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.controlcenter;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+// Приём картинки пронумерованными кусками с CRC32 (RES_IMAGE:/RES_CHUNK:).
+// Битый кусок перезапрашивается один (RESEND:), остальные продолжают идти.
+// После обрыва состояние сохраняется: в новом соединении приём продолжается с конца принятого (RESUME:),
+// а дыры перед ним (битые куски, чей перезапрос не успел исполниться) перезапрашиваются так же поштучно.
+// Живёт дольше TcpClient - его держит ConnectionManager между переподключениями
+public class ResumableImageReceiver {
+
+    private static final String TAG = "ResumableReceiver";
+
+    // Команды серверу: перезапрос куска, продолжение после переподключения, передача завершена
+    public static final String RESEND_COMMAND = "RESEND:";
+    public static final String RESUME_COMMAND = "RESUME:";
+    public static final String DONE_COMMAND = "RES_DONE:";
+    // Ответ сервера, если передачу продолжить нельзя (например, сервер перезапущен)
+    public static final String RESUME_FAILED = "RESUME_FAILED:";
+
+    public interface Listener {
+        // Новая передача; при продолжении после обрыва не вызывается
+        void onTransferStarted(int length);
+
+        void onTransferProgress(int received, int length);
+
+        void onTransferComplete(byte[] data);
+
+        void onTransferFailed(String reason);
+    }
+
+    public interface CommandSender {
+        void send(String command);
+    }
+
+    private final Listener listener;
+    private final CommandSender sender;
+    private final TransferMetrics metrics;
+    private final CRC32 crc = new CRC32();
+
+    // Текущая передача; data == null - передачи нет
+    private int transferId = -1;
+    private byte[] data;
+    private int chunkSize;
+    private BitSet chunksDone;
+    private int receivedBytes;
+
+    // Кусок, байты которого сейчас идут; неактивный (чужой, повтор, кривой заголовок) пропускается
+    private boolean chunkActive;
+    private int chunkOffset;
+    private int chunkLength;
+    private int chunkWritten;
+    private long chunkCrc;
+
+    public ResumableImageReceiver(Listener listener, CommandSender sender, TransferMetrics metrics) {
+        this.listener = listener;
+        this.sender = sender;
+        this.metrics = metrics;
+    }
+
+    public synchronized void onImageStart(int id, int length, int chunkSize) {
+        if (data != null && id == transferId && length == data.length && chunkSize == this.chunkSize) {
+            Log.d(TAG, "Передача " + id + " продолжается: принято " + receivedBytes + "/" + length);
+            chunkActive = false;
+            return;
+        }
+        if (data != null) Log.w(TAG, "Передача " + transferId + " брошена ради новой " + id);
+        if (chunkSize <= 0) {
+            reset();
+            listener.onTransferFailed("Некорректный заголовок передачи: кусок " + chunkSize);
+            return;
+        }
+        transferId = id;
+        data = new byte[length];
+        this.chunkSize = chunkSize;
+        chunksDone = new BitSet((length + chunkSize - 1) / chunkSize);
+        receivedBytes = 0;
+        chunkActive = false;
+        listener.onTransferStarted(length);
+        if (length == 0) complete();
+    }
+
+    public synchronized void onChunkStart(int id, int offset, int length, long expectedCrc) {
+        chunkActive = data != null && id == transferId
+                && offset % chunkSize == 0 && offset < data.length
+                && length == Math.min(chunkSize, data.length - offset)
+                && !chunksDone.get(offset / chunkSize);
+        chunkOffset = offset;
+        chunkLength = length;
+        chunkWritten = 0;
+        chunkCrc = expectedCrc;
+        crc.reset();
+    }
+
+    public synchronized void onChunkData(ByteBuffer slice) {
+        if (!chunkActive) return;
+        int n = Math.min(slice.remaining(), chunkLength - chunkWritten);
+        int at = chunkOffset + chunkWritten;
+        slice.get(data, at, n);
+        crc.update(data, at, n);
+        chunkWritten += n;
+        if (chunkWritten == chunkLength) finishChunk();
+    }
+
+    private void finishChunk() {
+        chunkActive = false;
+        if (crc.getValue() != chunkCrc) {
+            // Остальные куски не ждут: перезапрашиваем только этот
+            Log.w(TAG, "Кусок " + chunkOffset + " передачи " + transferId + " повреждён, перезапрос");
+            metrics.incrementChunksRetransmitted();
+            sender.send(RESEND_COMMAND + transferId + ":" + chunkOffset);
+            return;
+        }
+        chunksDone.set(chunkOffset / chunkSize);
+        receivedBytes += chunkLength;
+        listener.onTransferProgress(receivedBytes, data.length);
+        if (receivedBytes == data.length) complete();
+    }
+
+    private void complete() {
+        byte[] result = data;
+        int id = transferId;
+        reset();
+        sender.send(DONE_COMMAND + id);
+        listener.onTransferComplete(result);
+    }
+
+    // Новое соединение подтвердило докачку: просим продолжить недоделанную передачу
+    public synchronized void onResumeAvailable() {
+        if (data == null) return;
+        int end = chunksDone.length();
+        for (int i = chunksDone.nextClearBit(0); i < end; i = chunksDone.nextClearBit(i + 1)) {
+            sender.send(RESEND_COMMAND + transferId + ":" + ((long) i * chunkSize));
+        }
+        int offset = getResumeOffset();
+        Log.d(TAG, "Продолжаем передачу " + transferId + " с " + offset + "/" + data.length);
+        metrics.incrementTransfersResumed();
+        sender.send(RESUME_COMMAND + transferId + ":" + offset);
+    }
+
+    public synchronized void onResumeFailed(int id) {
+        if (data == null || id != transferId) return;
+        reset();
+        listener.onTransferFailed("Сервер не может продолжить передачу снимка");
+    }
+
+    // Недописанный кусок при обрыве не засчитывается - его пришлют заново
+    public synchronized void onConnectionLost() {
+        chunkActive = false;
+    }
+
+    public synchronized boolean hasPendingTransfer() {
+        return data != null;
+    }
+
+    // Конец последнего принятого куска: дальше не приходило ничего
+    public synchronized int getResumeOffset() {
+        if (data == null) return 0;
+        return (int) Math.min((long) chunksDone.length() * chunkSize, data.length);
+    }
+
+    public synchronized void abort() {
+        reset();
+    }
+
+    private void reset() {
+        transferId = -1;
+        data = null;
+        chunksDone = null;
+        receivedBytes = 0;
+        chunkActive = false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.controlcenter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+// Декодирование под размер экрана: сначала читаем только размеры картинки,
+// затем декодируем с inSampleSize, при котором она ещё заполняет PhotoView без растяжения
+public class SampledImageDecoder implements ImageDecoder {
+
+    // Если размер PhotoView ещё не известен (не было layout), ограничиваем большую сторону этим значением
+    private static final int FALLBACK_MAX_DIMENSION = 2048;
+    // Большая сторона миниатюры для ленты истории
+    static final int THUMBNAIL_MAX_DIMENSION = 160;
+
+    private final BitmapPool pool;
+
+    public SampledImageDecoder(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public DecodedImage decode(byte[] data, int length, int targetWidth, int targetHeight) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateSampleSize(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        options.inPreferredConfig = configFor(bounds.outMimeType);
+        options.inMutable = true;
+
+        Bitmap bitmap = null;
+        if (pool != null) {
+            int width = (bounds.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (bounds.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = pool.get(width, height, options.inPreferredConfig);
+            if (options.inBitmap != null) {
+                try {
+                    bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+                } catch (IllegalArgumentException e) {
+                    // Декодер не смог переиспользовать Bitmap - возвращаем его и декодируем в новый
+                    pool.putBack(options.inBitmap);
+                }
+                options.inBitmap = null;
+            }
+        }
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        if (bitmap == null) return null;
+        return new DecodedImage(bitmap, createThumbnail(bitmap), data, length,
+                bounds.outWidth, bounds.outHeight, options.inSampleSize);
+    }
+
+    // Миниатюра из уже уменьшенного кадра - дешевле, чем второй проход декодера
+    static Bitmap createThumbnail(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= 0 || height <= 0) return null;
+        float scale = (float) THUMBNAIL_MAX_DIMENSION / Math.max(width, height);
+        // Кадр и так крошечный - миниатюрой служит он сам
+        if (scale >= 1f) return bitmap;
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
+    }
+
+    // Наибольшая степень двойки, при которой картинка, вписанная в target (fitCenter), не растягивается
+    public static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            targetWidth = FALLBACK_MAX_DIMENSION;
+            targetHeight = FALLBACK_MAX_DIMENSION;
+        }
+        double fit = Math.min((double) targetWidth / width, (double) targetHeight / height);
+        int sampleSize = 1;
+        while (sampleSize * 2 * fit <= 1.0) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // JPEG не бывает прозрачным - RGB_565 вдвое экономнее ARGB_8888
+    public static Bitmap.Config configFor(String mimeType) {
+        return "image/jpeg".equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.controlcenter;
+
+// Журнал сообщений на экране: кольцевой буфер на фиксированное число строк - сколько бы ни длилась
+// смена, старые строки вытесняются. Строки добавляются из любого потока и не теряются по дороге,
+// как при слиянии postValue; на экран они уходят пачкой, не чаще одного раза за кадр
+public class StatusLog {
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    public interface Listener {
+        // Поток FrameScheduler (главный); строки между вызовами уже в снимке
+        void onLogChanged(Snapshot snapshot);
+    }
+
+    public static final class Entry {
+        // Сквозной номер строки с начала журнала - по нему список отличает новые строки от вытесненных
+        public final long index;
+        public final long time;
+        public final String text;
+
+        Entry(long index, long time, String text) {
+            this.index = index;
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+    // Неизменяемое содержимое журнала: от старой строки к новой
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new Entry[0], 0);
+
+        private final Entry[] entries;
+        private final long firstIndex;
+
+        Snapshot(Entry[] entries, long firstIndex) {
+            this.entries = entries;
+            this.firstIndex = firstIndex;
+        }
+
+        public int size() {
+            return entries.length;
+        }
+
+        public Entry get(int position) {
+            return entries[position];
+        }
+
+        // Номер самой старой строки в снимке
+        public long getFirstIndex() {
+            return firstIndex;
+        }
+
+        // Номер, который получит следующая строка
+        public long getEndIndex() {
+            return firstIndex + entries.length;
+        }
+    }
+
+    private final Entry[] ring;
+    private final FrameScheduler scheduler;
+    private final Listener listener;
+    // Только под this
+    private int head = 0; // самая старая строка
+    private int size = 0;
+    private long nextIndex = 0;
+    private boolean publishPending = false;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public StatusLog(int capacity, FrameScheduler scheduler, Listener listener) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity " + capacity);
+        this.ring = new Entry[capacity];
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    // Любой поток. Полный буфер вытесняет самую старую строку
+    public void add(String text) {
+        long time = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = new Entry(nextIndex++, time, text);
+            if (size < ring.length) {
+                ring[(head + size) % ring.length] = entry;
+                size++;
+            } else {
+                ring[head] = entry;
+                head = (head + 1) % ring.length;
+            }
+            if (publishPending) return;
+            publishPending = true;
+        }
+        scheduler.schedule(this::publish);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    private void publish() {
+        Snapshot published;
+        synchronized (this) {
+            publishPending = false;
+            Entry[] entries = new Entry[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = ring[(head + i) % ring.length];
+            }
+            published = new Snapshot(entries, nextIndex - size);
+        }
+        snapshot = published;
+        listener.onLogChanged(published);
+    }
+}
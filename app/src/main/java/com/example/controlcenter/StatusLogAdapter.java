@@ -0,0 +1,74 @@
+package com.example.controlcenter;
+
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Журнал сообщений списком: на экране только видимые строки, новая пачка - вставка снизу и
+// удаление вытесненных сверху, без перекладки всего текста
+public class StatusLogAdapter extends RecyclerView.Adapter<StatusLogAdapter.LineHolder> {
+
+    static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        LineHolder(TextView text) {
+            super(text);
+            this.text = text;
+        }
+    }
+
+    private final int paddingPx;
+    // Только главный поток
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+    private StatusLog.Snapshot log = StatusLog.Snapshot.EMPTY;
+
+    public StatusLogAdapter(int paddingPx) {
+        this.paddingPx = paddingPx;
+        setHasStableIds(true);
+    }
+
+    // Разница с прежним снимком по сквозным номерам строк
+    public void submit(StatusLog.Snapshot next) {
+        StatusLog.Snapshot previous = log;
+        log = next;
+        long removed = next.getFirstIndex() - previous.getFirstIndex();
+        long added = next.getEndIndex() - previous.getEndIndex();
+        if (removed >= previous.size() || added > next.size()) {
+            notifyDataSetChanged();
+            return;
+        }
+        if (removed > 0) notifyItemRangeRemoved(0, (int) removed);
+        if (added > 0) notifyItemRangeInserted(next.size() - (int) added, (int) added);
+    }
+
+    @Override
+    public LineHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        TextView text = new TextView(parent.getContext());
+        text.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        text.setPadding(paddingPx, 0, paddingPx, 0);
+        return new LineHolder(text);
+    }
+
+    @Override
+    public void onBindViewHolder(LineHolder holder, int position) {
+        StatusLog.Entry entry = log.get(position);
+        date.setTime(entry.time);
+        holder.text.setText(timeFormat.format(date) + "  " + entry.text);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return log.get(position).index;
+    }
+
+    @Override
+    public int getItemCount() {
+        return log.size();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.controlcenter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Строки потокового приёма (ProtocolReader) в те же события, что даёт FrameScanner:
+// управляющие строки разбирает MessageParser, строки Base64 текстовой картинки уходят
+// в приёмник без разбора. Бинарные и сжатые кадры читает сам TcpClient
+public class StreamLineScanner {
+
+    private static final String END_MARKER = "END123";
+    private static final String IMAGE_WORD = "IMAGE";
+
+    private final FrameScanner.Listener listener;
+    private boolean receivingTextImage = false;
+    // Строка Base64 копируется сюда побайтно - без getBytes() на каждую строку
+    private byte[] payload = new byte[4096];
+    private ByteBuffer payloadView = ByteBuffer.wrap(payload);
+
+    public StreamLineScanner(FrameScanner.Listener listener) {
+        this.listener = listener;
+    }
+
+    // IOException - заголовок картинки с недопустимой длиной, поток дальше не разобрать
+    public void line(String line) throws IOException {
+        if (receivingTextImage) {
+            payloadLine(line);
+            return;
+        }
+        ProtocolMessage message = MessageParser.parse(line);
+        if (message.type == ProtocolMessage.Type.IMAGE_SIZE) {
+            int chars = ((ProtocolMessage.ImageSize) message).chars;
+            TcpClient.checkFrameLength("SIZE:", StreamingBase64Decoder.estimateDecodedSize(chars));
+            receivingTextImage = true;
+            listener.onTextImageStart(chars);
+            return;
+        }
+        listener.onControlMessage(message);
+    }
+
+    private void payloadLine(String line) {
+        int marker = line.indexOf(END_MARKER);
+        if (marker >= 0) {
+            if (marker > 0 && !line.startsWith(IMAGE_WORD + END_MARKER)) emitPayload(line, marker);
+            receivingTextImage = false;
+            listener.onTextImageEnd();
+            return;
+        }
+        if (line.isEmpty() || line.equals(IMAGE_WORD)) return;
+        // ':' не входит в алфавит Base64 - значит, это управляющая строка посреди передачи
+        if (line.indexOf(':') >= 0) {
+            listener.onControlMessage(MessageParser.parse(line));
+            return;
+        }
+        emitPayload(line, line.length());
+    }
+
+    private void emitPayload(String line, int length) {
+        if (length > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, length));
+            payloadView = ByteBuffer.wrap(payload);
+        }
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) line.charAt(i);
+        }
+        payloadView.limit(length).position(0);
+        listener.onTextImagePayload(payloadView);
+    }
+}
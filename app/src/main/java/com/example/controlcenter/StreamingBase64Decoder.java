@@ -0,0 +1,140 @@
+package com.example.controlcenter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Потоковый Base64-декодер: каждая строка сразу превращается в байты,
+// незавершённая четвёрка символов переносится на следующую строку.
+// Результат пишется в растущий byte[], размер которого оценивается заранее по заголовку SIZE:.
+public class StreamingBase64Decoder {
+
+    private static final int INVALID = -1;
+    private static final int PADDING = -2;
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+        // URL-safe вариант алфавита принимаем на всякий случай
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+        DECODE_TABLE['='] = PADDING;
+    }
+
+    private byte[] output;
+    private int size = 0;
+
+    // Перенос между строками: накопленные биты и число символов в текущей четвёрке
+    private int pendingBits = 0;
+    private int pendingChars = 0;
+
+    public StreamingBase64Decoder() {
+        this.output = new byte[MIN_CAPACITY];
+    }
+
+    // Готовит декодер к новой картинке. expectedChars - значение из заголовка SIZE: (0, если неизвестно)
+    public void reset(int expectedChars) {
+        int capacity = Math.max(MIN_CAPACITY, estimateDecodedSize(expectedChars));
+        if (output == null || output.length < capacity) {
+            output = new byte[capacity];
+        }
+        size = 0;
+        pendingBits = 0;
+        pendingChars = 0;
+    }
+
+    public static int estimateDecodedSize(int base64Chars) {
+        if (base64Chars <= 0) return 0;
+        return (int) Math.min(Integer.MAX_VALUE - 8, (base64Chars / 4L) * 3 + 3);
+    }
+
+    public void feed(CharSequence chars) {
+        feed(chars, 0, chars.length());
+    }
+
+    // Декодирует фрагмент. Переводы строк, пробелы и прочий мусор пропускаются, как в Base64.DEFAULT
+    public void feed(CharSequence chars, int start, int end) {
+        ensureCapacity(size + ((end - start + pendingChars) / 4) * 3 + 3);
+        for (int i = start; i < end; i++) {
+            accept(chars.charAt(i));
+        }
+    }
+
+    // Байтовый вариант для приёма прямо из буфера сокета, без промежуточной String.
+    // Позиция буфера не меняется
+    public void feed(ByteBuffer bytes) {
+        int start = bytes.position();
+        int end = bytes.limit();
+        ensureCapacity(size + ((end - start + pendingChars) / 4) * 3 + 3);
+        for (int i = start; i < end; i++) {
+            accept((char) (bytes.get(i) & 0xFF));
+        }
+    }
+
+    // Завершает поток: дописывает хвост без '=' (если сервер прислал данные без паддинга)
+    public void finish() {
+        flushPending();
+    }
+
+    private void accept(char c) {
+        int value = c < 128 ? DECODE_TABLE[c] : INVALID;
+        if (value == INVALID) return;
+        if (value == PADDING) {
+            flushPending();
+            return;
+        }
+
+        pendingBits = (pendingBits << 6) | value;
+        if (++pendingChars == 4) {
+            output[size++] = (byte) (pendingBits >> 16);
+            output[size++] = (byte) (pendingBits >> 8);
+            output[size++] = (byte) pendingBits;
+            pendingBits = 0;
+            pendingChars = 0;
+        }
+    }
+
+    private void flushPending() {
+        if (pendingChars == 2) {
+            ensureCapacity(size + 1);
+            output[size++] = (byte) (pendingBits >> 4);
+        } else if (pendingChars == 3) {
+            ensureCapacity(size + 2);
+            output[size++] = (byte) (pendingBits >> 10);
+            output[size++] = (byte) (pendingBits >> 2);
+        }
+        pendingBits = 0;
+        pendingChars = 0;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= output.length) return;
+        int grown = output.length + (output.length >> 1);
+        output = Arrays.copyOf(output, Math.max(grown, required));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Внутренний массив без копирования; валидны первые size() байт
+    public byte[] array() {
+        return output;
+    }
+
+    // Отдаёт накопленный массив новому владельцу (например, задаче декодирования).
+    // Декодер после этого выделит новый буфер при следующем reset()
+    public byte[] detach() {
+        byte[] result = output;
+        output = null;
+        size = 0;
+        pendingBits = 0;
+        pendingChars = 0;
+        return result;
+    }
+}
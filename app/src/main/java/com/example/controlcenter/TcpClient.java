@@ -2,34 +2,87 @@ package com.example.controlcenter;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.InetSocketAddress;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class TcpClient implements Runnable {
 
     private static final String TAG = "TcpClient";
-    private final String SERVER_IP;
-    private final int SERVER_PORT;
+    // Заголовок бинарного кадра: "BIN_IMAGE:<длина>\n", затем ровно <длина> байт JPEG
+    public static final String BINARY_IMAGE_HEADER = "BIN_IMAGE:";
+    // Режим нескольких камер: CAM_IMAGE:<камера>:<длина>, затем куски CAM_CHUNK:<камера>:<n> + n байт,
+    // куски разных камер чередуются. Разбирается только приёмом через SocketChannel
+    public static final String CAMERA_IMAGE_HEADER = "CAM_IMAGE:";
+    public static final String CAMERA_CHUNK_HEADER = "CAM_CHUNK:";
+    // Докачиваемая картинка: RES_IMAGE:<передача>:<длина>:<размер куска>, затем
+    // RES_CHUNK:<передача>:<смещение>:<n>:<crc32> + n байт. Тоже только через SocketChannel
+    public static final String RESUMABLE_IMAGE_HEADER = "RES_IMAGE:";
+    public static final String RESUMABLE_CHUNK_HEADER = "RES_CHUNK:";
+    // Кадр живого просмотра: LIVE_FRAME:<камера>:<номер>:<n> + n байт JPEG. Тоже только через SocketChannel
+    public static final String LIVE_FRAME_HEADER = "LIVE_FRAME:";
+    private static final int BINARY_CHUNK_SIZE = 64 * 1024;
+    // Предел длины из заголовка кадра (BIN_IMAGE:, CAM_IMAGE:, RES_IMAGE:, LIVE_FRAME:, Z:, SIZE:).
+    // Под заявленную длину сразу выделяется массив - битый или чужой заголовок до 2 ГБ уронил бы
+    // поток приёма OutOfMemoryError. Больше предела - ошибка протокола, соединение закрывается
+    public static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    // Предел управляющей строки: без '\n' она копится в памяти целиком, и собеседник, не шлющий
+    // перевод строки, выбрал бы всю кучу. Строки Base64 текстовой картинки приходят с переносами
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+    // Реле в порядке предпочтения; подключаемся к первому ответившему (см. EndpointRacer)
+    private final List<EndpointRacer.Endpoint> endpoints;
+    private volatile EndpointRacer.Endpoint connectedEndpoint;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
     private Socket socket;
-    private PrintWriter output;
-    private BufferedReader input;
+    private SocketChannel channel;
+    // true - приём через SocketChannel и FrameScanner; false - прежний потоковый приём (для сравнения)
+    private final boolean channelReceiver;
+    // Пачка команд копится в буфере и уходит в сокет одним flush
+    private OutputStream output;
+    private boolean outputFailed = false;
+    // Сжатие исходящих сообщений после CAPS_ACK:DEFLATE; null - без сжатия.
+    // Входящие кадры Z: распаковываются на обоих путях приёма всегда, поэтому приём включать не нужно
+    private CompressedFrames.Encoder encoder;
+    private CompressedFrames.Decoder streamDecoder;
+    private ProtocolReader input;
+    private StreamLineScanner lineScanner;
     private OnMessageReceived messageListener = null;
     private volatile boolean running = false;
+    // Принято байт этим соединением; читается heartbeat из другого потока
+    private volatile long bytesReceived = 0;
     private boolean connected = false;
 
     public TcpClient(OnMessageReceived listener, String ip, int port) {
+        this(listener, ip, port, true);
+    }
+
+    public TcpClient(OnMessageReceived listener, String ip, int port, boolean channelReceiver) {
+        this(listener, Collections.singletonList(new EndpointRacer.Endpoint(ip, port)), channelReceiver);
+    }
+
+    public TcpClient(OnMessageReceived listener, List<EndpointRacer.Endpoint> endpoints, boolean channelReceiver) {
         this.messageListener = listener;
-        this.SERVER_IP = ip;
-        this.SERVER_PORT = port;
+        this.endpoints = endpoints;
+        this.channelReceiver = channelReceiver;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // Реле, к которому удалось подключиться; null до подключения
+    public EndpointRacer.Endpoint getConnectedEndpoint() {
+        return connectedEndpoint;
     }
 
     public boolean isConnected() {
@@ -46,56 +99,31 @@ public class TcpClient implements Runnable {
     @Override
     public void run() {
         try {
-            socket = new Socket();
-            socket.connect(new InetSocketAddress(SERVER_IP, SERVER_PORT), 5000);
+            EndpointRacer.Connection connection = EndpointRacer.connect(endpoints, channelReceiver);
+            channel = connection.channel;
+            socket = connection.socket;
+            connectedEndpoint = connection.endpoint;
+            // close() мог случиться, пока шла гонка: такой клиент уже никому не нужен, молча закрываемся
+            if (!running) return;
 
             socket.setKeepAlive(true);
-            socket.setSoTimeout(5000);
+            if (!channelReceiver) {
+                socket.setSoTimeout(5000);
+            }
+
+            // Потоки создаём до уведомления, чтобы рукопожатие могло сразу писать в сокет
+            output = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
 
             connected = true;
-            Log.d(TAG, "Подключено к серверу: " + SERVER_IP + ":" + SERVER_PORT);
+            Log.d(TAG, "Подключено к серверу: " + connectedEndpoint);
             if (messageListener != null) {
                 messageListener.connectionEstablished();
             }
 
-            output = new PrintWriter(socket.getOutputStream(), true);
-            input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            while (running) {
-                String message = null;
-                try {
-                    message = input.readLine();
-                } catch (SocketTimeoutException e) {
-                    continue;
-                }
-
-                if (message == null) {
-                    throw new IOException("Соединение потеряно сервером (получен EOF)");
-                }
-
-                if (message.trim().isEmpty()) {
-                    continue;
-                }
-
-                // ВНИМАНИЕ: Исправленная логика уведомлений
-                if (messageListener != null) {
-                    Log.d(TAG, "DEBUG: Read line from socket: " + message);
-
-                    // Сначала вызываем специфические события интерфейса
-                    if (message.startsWith("SERVER_STATUS: PEER_CONNECTED")) {
-                        messageListener.peerConnected();
-                    } else if (message.startsWith("SERVER_STATUS: PEER_DISCONNECTED")) {
-                        messageListener.peerDisconnected();
-                    } else if (message.startsWith("SERVER_ERROR: CONNECTION_LIMIT_REACHED")) {
-                        Log.w(TAG, "Сервер отклонил подключение: лимит клиентов.");
-                        messageListener.limitReached();
-                        //break; // Только здесь выходим из цикла
-                    }
-
-                    // ЗАТЕМ ОБЯЗАТЕЛЬНО отправляем всё сообщение в messageReceived
-                    // Именно этот метод слушает ваша ViewModel для обновления статусов
-                    messageListener.messageReceived(message);
-                }
+            if (channelReceiver) {
+                receiveFromChannel();
+            } else {
+                receiveFromStream();
             }
 
         } catch (SocketTimeoutException e) {
@@ -115,13 +143,267 @@ public class TcpClient implements Runnable {
         }
     }
 
-    public synchronized void sendMessage(String message) {
-        if (output != null && !output.checkError()) {
-            output.println(message);
+    // Блокирующее чтение канала без SO_TIMEOUT: close() прерывает его AsynchronousCloseException
+    private void receiveFromChannel() throws IOException {
+        FrameScanner scanner = new FrameScanner(new ScannerListener());
+        while (running) {
+            if (!scanner.receive(channel)) {
+                throw new IOException("Соединение потеряно сервером (получен EOF)");
+            }
+            bytesReceived = scanner.getBytesReceived();
+            if (messageListener != null) messageListener.receiveBatchEnd();
+        }
+    }
+
+    private void receiveFromStream() throws IOException {
+        input = new ProtocolReader(socket.getInputStream(), MAX_LINE_BYTES);
+        lineScanner = new StreamLineScanner(new ScannerListener());
+        while (running) {
+            String message = null;
+            try {
+                message = input.readLine();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+
+            if (message == null) {
+                throw new IOException("Соединение потеряно сервером (получен EOF)");
+            }
+            bytesReceived = input.getBytesReceived();
+
+            if (message.startsWith(BINARY_IMAGE_HEADER)) {
+                // Бинарный кадр: сразу за заголовком идут сырые байты, строкой их читать нельзя
+                receiveBinaryImage(message);
+            } else if (message.startsWith(CompressedFrames.HEADER)) {
+                receiveCompressed(message);
+            } else if (!message.isEmpty()) {
+                lineScanner.line(message);
+            }
+
+            // Буфер разобран - дальше чтение будет ждать сеть
+            if (!input.hasBufferedData() && messageListener != null) messageListener.receiveBatchEnd();
+        }
+    }
+
+    // Сжатый кадр на пути со строками: распаковываем целиком и разбираем построчно.
+    // Бинарные кадры сервер не сжимает, поэтому внутри только текст
+    private void receiveCompressed(String header) throws IOException {
+        String[] fields = header.substring(CompressedFrames.HEADER.length()).split(":");
+        int length;
+        int rawLength;
+        try {
+            length = Integer.parseInt(fields[0].trim());
+            rawLength = Integer.parseInt(fields[1].trim());
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Некорректный заголовок сжатого кадра: " + header);
+        }
+        if (length < 0 || rawLength < 0) {
+            throw new IOException("Некорректный заголовок сжатого кадра: " + header);
+        }
+        checkFrameLength(CompressedFrames.HEADER, Math.max(length, rawLength));
+
+        byte[] compressed = new byte[length];
+        int received = 0;
+        while (received < length) {
+            if (!running) throw new IOException("Приём сжатого кадра прерван");
+            int n;
+            try {
+                n = input.read(compressed, received, length - received);
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            if (n < 0) throw new IOException("Соединение потеряно посреди сжатого кадра");
+            received += n;
+            bytesReceived = input.getBytesReceived();
+        }
+
+        if (streamDecoder == null) streamDecoder = new CompressedFrames.Decoder();
+        String text = new String(streamDecoder.decode(compressed, length, rawLength), StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            String line = text.substring(start, end);
+            if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+            if (!line.isEmpty()) lineScanner.line(line);
+            start = end + 1;
+        }
+    }
+
+    // Для обоих путей приёма: заявленная длина кадра не больше MAX_FRAME_BYTES
+    static void checkFrameLength(String header, long length) throws IOException {
+        if (length > MAX_FRAME_BYTES) {
+            throw new IOException("Кадр " + header + " слишком длинный: " + length + " байт");
+        }
+    }
+
+    // Для обоих путей приёма: незаконченная строка не длиннее MAX_LINE_BYTES
+    static void checkLineLength(long length) throws IOException {
+        if (length > MAX_LINE_BYTES) {
+            throw new IOException("Строка без перевода длиннее " + MAX_LINE_BYTES + " байт");
+        }
+    }
+
+    // Строка уже разобрана (FrameScanner или StreamLineScanner), тип дальше не выясняется
+    private void dispatchMessage(ProtocolMessage message) {
+        if (messageListener == null) return;
+        if (message.type == ProtocolMessage.Type.TEXT && message.line.isEmpty()) return;
+        if (DebugLog.PROTOCOL_LINES && DebugLog.sampleLine()) {
+            DebugLog.line(TAG, "DEBUG: Read line from socket: ", message.line);
+        }
+        if (message.type == ProtocolMessage.Type.CONNECTION_LIMIT) {
+            Log.w(TAG, "Сервер отклонил подключение: лимит клиентов.");
+        }
+        messageListener.messageReceived(message);
+    }
+
+    // Переводит события FrameScanner в вызовы OnMessageReceived
+    private class ScannerListener implements FrameScanner.Listener {
+        @Override
+        public void onControlLine(String line) {
+            dispatchMessage(MessageParser.parse(line));
+        }
+
+        @Override
+        public void onControlMessage(ProtocolMessage message) {
+            dispatchMessage(message);
+        }
+
+        @Override
+        public void onTextImageStart(int expectedChars) {
+            if (messageListener != null) messageListener.textImageStarted(expectedChars);
+        }
+
+        @Override
+        public void onTextImagePayload(ByteBuffer payload) {
+            if (messageListener != null) messageListener.textImagePayload(payload);
+        }
+
+        @Override
+        public void onTextImageEnd() {
+            if (messageListener != null) messageListener.textImageFinished();
+        }
+
+        @Override
+        public void onBinaryImageStart(int length) {
+            Log.d(TAG, "Бинарный кадр: " + length + " байт");
+            if (messageListener != null) messageListener.binaryImageStarted(length);
+        }
+
+        @Override
+        public void onBinaryImageProgress(int received, int length) {
+            if (messageListener != null) messageListener.binaryImageProgress(received, length);
+        }
+
+        @Override
+        public void onBinaryImageEnd(byte[] data) {
+            if (messageListener != null) messageListener.binaryImageReceived(data);
+        }
+
+        @Override
+        public void onCameraImageStart(int cameraId, int length) {
+            if (messageListener != null) messageListener.cameraImageStarted(cameraId, length);
+        }
+
+        @Override
+        public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {
+            if (messageListener != null) messageListener.cameraImageChunk(cameraId, chunk);
+        }
+
+        @Override
+        public void onResumableImageStart(int transferId, int length, int chunkSize) {
+            if (messageListener != null) messageListener.resumableImageStarted(transferId, length, chunkSize);
+        }
+
+        @Override
+        public void onResumableChunkStart(int transferId, int offset, int length, long crc) {
+            if (messageListener != null) messageListener.resumableChunkStarted(transferId, offset, length, crc);
+        }
+
+        @Override
+        public void onResumableChunkData(ByteBuffer data) {
+            if (messageListener != null) messageListener.resumableChunkData(data);
+        }
+
+        @Override
+        public void onLiveFrameStart(int cameraId, int sequence, int length) {
+            if (messageListener != null) messageListener.liveFrameStarted(cameraId, sequence, length);
+        }
+
+        @Override
+        public void onLiveFrameData(ByteBuffer data) {
+            if (messageListener != null) messageListener.liveFrameData(data);
+        }
+    }
+
+    private void receiveBinaryImage(String header) throws IOException {
+        int length;
+        try {
+            length = Integer.parseInt(header.substring(BINARY_IMAGE_HEADER.length()).trim());
+        } catch (NumberFormatException e) {
+            // Без длины невозможно найти конец кадра - поток рассинхронизирован
+            throw new IOException("Некорректный заголовок бинарного кадра: " + header);
+        }
+        if (length < 0) {
+            throw new IOException("Некорректный заголовок бинарного кадра: " + header);
+        }
+        checkFrameLength(BINARY_IMAGE_HEADER, length);
+
+        Log.d(TAG, "Бинарный кадр: " + length + " байт");
+        byte[] data = new byte[length];
+        if (messageListener != null) messageListener.binaryImageStarted(length);
+
+        int received = 0;
+        while (received < length) {
+            if (!running) throw new IOException("Приём бинарного кадра прерван");
+            int n;
+            try {
+                n = input.read(data, received, Math.min(BINARY_CHUNK_SIZE, length - received));
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            if (n < 0) {
+                throw new IOException("Соединение потеряно посреди бинарного кадра (" + received + "/" + length + ")");
+            }
+            received += n;
+            bytesReceived = input.getBytesReceived();
+            if (messageListener != null) messageListener.binaryImageProgress(received, length);
+        }
+
+        if (messageListener != null) messageListener.binaryImageReceived(data);
+    }
+
+    public void sendMessage(String message) {
+        sendMessages(Collections.singletonList(message));
+    }
+
+    // Все сообщения пачки пишутся в буфер, flush - один на пачку. false - запись не удалась
+    public synchronized boolean sendMessages(List<String> messages) {
+        if (output == null || outputFailed) return false;
+        try {
+            for (String message : messages) {
+                byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+                if (encoder != null && encoder.encode(bytes, 0, bytes.length, false)) {
+                    output.write(encoder.getFrame(), encoder.getFrameOffset(), encoder.getFrameLength());
+                } else {
+                    output.write(bytes);
+                }
+            }
             output.flush();
+            return true;
+        } catch (IOException e) {
+            // Дальше писать бессмысленно; обрыв заметит поток приёма
+            outputFailed = true;
+            Log.e(TAG, "Ошибка отправки сообщений", e);
+            return false;
         }
     }
 
+    // Сервер подтвердил сжатие: длинные сообщения дальше уходят кадрами Z:
+    public synchronized void enableCompression(int threshold) {
+        if (encoder == null) encoder = new CompressedFrames.Encoder(threshold);
+    }
+
     public void close() {
         running = false;
         connected = false;
@@ -133,22 +415,58 @@ public class TcpClient implements Runnable {
                 Log.e(TAG, "Ошибка при закрытии сокета: ", e);
             }
         }
+        // После закрытия сокета: зависшая отправка уже вышла с ошибкой и отпустила монитор
+        synchronized (this) {
+            if (encoder != null) {
+                encoder.end();
+                encoder = null;
+            }
+        }
         if (!executorService.isShutdown()) {
             executorService.shutdownNow();
         }
     }
 
     public interface OnMessageReceived {
-        void messageReceived(String message);
+        // Разобранная управляющая строка; статусы пира и лимит - тоже здесь, по типу сообщения
+        void messageReceived(ProtocolMessage message);
 
         void connectionLost();
 
         void connectionEstablished();
 
-        void peerDisconnected();
+        // Всё принятое к этому моменту разобрано, поток приёма снова ждёт сеть
+        default void receiveBatchEnd() {
+        }
+
+        // Текстовая картинка, разобранная FrameScanner: SIZE:, срезы Base64 без String, END123
+        void textImageStarted(int expectedChars);
+
+        void textImagePayload(ByteBuffer payload);
+
+        void textImageFinished();
+
+        void binaryImageStarted(int length);
+
+        void binaryImageProgress(int received, int length);
+
+        void binaryImageReceived(byte[] data);
+
+        void cameraImageStarted(int cameraId, int length);
+
+        // Срез куска картинки камеры; валиден только на время вызова
+        void cameraImageChunk(int cameraId, ByteBuffer chunk);
+
+        void resumableImageStarted(int transferId, int length, int chunkSize);
+
+        void resumableChunkStarted(int transferId, int offset, int length, long crc);
+
+        // Срез текущего куска; валиден только на время вызова
+        void resumableChunkData(ByteBuffer data);
 
-        void limitReached();
+        void liveFrameStarted(int cameraId, int sequence, int length);
 
-        void peerConnected();
+        // Срез текущего кадра живого просмотра; валиден только на время вызова
+        void liveFrameData(ByteBuffer data);
     }
 }
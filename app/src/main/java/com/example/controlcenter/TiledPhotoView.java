@@ -0,0 +1,150 @@
+package com.example.controlcenter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+
+import com.github.chrisbanes.photoview.PhotoView;
+
+// PhotoView, который показывает уменьшенный Bitmap, а при зуме дорисовывает поверх
+// видимые тайлы из исходника в полном разрешении (через RegionTileLoader)
+public class TiledPhotoView extends PhotoView implements RegionTileLoader.Listener {
+
+    // Сообщает владельцу, что кадр снят с экрана и его Bitmap можно переиспользовать
+    public interface OnImageReleasedListener {
+        void onImageReleased(DecodedImage image);
+    }
+
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect visibleRegion = new Rect();
+    private final RectF tileRect = new RectF();
+
+    private DecodedImage image;
+    private RegionTileLoader tileLoader;
+    private boolean tilesActive = false;
+    private OnImageReleasedListener releasedListener;
+
+    public TiledPhotoView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TiledPhotoView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public TiledPhotoView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        setOnMatrixChangeListener(this::updateTiles);
+    }
+
+    public void setOnImageReleasedListener(OnImageReleasedListener listener) {
+        this.releasedListener = listener;
+    }
+
+    public DecodedImage getImage() {
+        return image;
+    }
+
+    public void setImage(DecodedImage newImage) {
+        if (newImage == image) return;
+        releaseTiles();
+        DecodedImage previous = image;
+        image = newImage;
+        if (image == null) {
+            setImageDrawable(null);
+            notifyReleased(previous);
+            return;
+        }
+        if (image.hasDetail()) {
+            tileLoader = new RegionTileLoader(image, image.getBitmap().getConfig(), this);
+            // Даём приблизить до пикселя исходника
+            setMaximumScale(Math.max(getMaximumScale(), image.getSampleSize() * 2f));
+        }
+        setImageBitmap(image.getBitmap());
+        notifyReleased(previous);
+    }
+
+    private void notifyReleased(DecodedImage previous) {
+        if (previous != null && releasedListener != null) {
+            releasedListener.onImageReleased(previous);
+        }
+    }
+
+    private void updateTiles(RectF displayRect) {
+        if (tileLoader == null || displayRect == null) return;
+
+        // Пикселей экрана на пиксель исходника
+        float scale = displayRect.width() / image.getFullWidth();
+        // Пока уменьшенный Bitmap не растягивается, тайлы не нужны
+        if (scale * image.getSampleSize() <= 1f) {
+            if (tilesActive) {
+                tilesActive = false;
+                tileLoader.update(0, null);
+                invalidate();
+            }
+            return;
+        }
+
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        visibleRegion.set(
+                clamp((int) (-displayRect.left / scale), image.getFullWidth()),
+                clamp((int) (-displayRect.top / scale), image.getFullHeight()),
+                clamp((int) Math.ceil((getWidth() - displayRect.left) / scale), image.getFullWidth()),
+                clamp((int) Math.ceil((getHeight() - displayRect.top) / scale), image.getFullHeight()));
+        tilesActive = true;
+        tileLoader.update(sampleSize, visibleRegion);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    @Override
+    public void onTileLoaded() {
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (!tilesActive || tileLoader == null) return;
+
+        RectF displayRect = getDisplayRect();
+        if (displayRect == null) return;
+        float scale = displayRect.width() / image.getFullWidth();
+        for (RegionTileLoader.Tile tile : tileLoader.getVisibleTiles()) {
+            tileRect.set(displayRect.left + tile.region.left * scale,
+                    displayRect.top + tile.region.top * scale,
+                    displayRect.left + tile.region.right * scale,
+                    displayRect.top + tile.region.bottom * scale);
+            canvas.drawBitmap(tile.bitmap, null, tileRect, tilePaint);
+        }
+    }
+
+    private void releaseTiles() {
+        tilesActive = false;
+        if (tileLoader != null) {
+            tileLoader.release();
+            tileLoader = null;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseTiles();
+        image = null;
+        super.onDetachedFromWindow();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.controlcenter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Телеметрия конвейера передачи: фазы одного снимка, пропускная способность,
+// переподключения и RTT heartbeat. Запись - без аллокаций, из любого потока
+public class TransferMetrics {
+
+    // Фазы снимка, мс
+    private final LatencyHistogram requestToSizeMs = new LatencyHistogram();
+    private final LatencyHistogram receiveMs = new LatencyHistogram();
+    private final LatencyHistogram throughputKbps = new LatencyHistogram();
+    private final LatencyHistogram decodeMs = new LatencyHistogram();
+    private final LatencyHistogram decodedToScreenMs = new LatencyHistogram();
+    private final LatencyHistogram requestToScreenMs = new LatencyHistogram();
+    // До первого изображения на экране: превью, а без него - сам кадр
+    private final LatencyHistogram requestToFirstPixelMs = new LatencyHistogram();
+    // Соединение
+    private final LatencyHistogram heartbeatRttMs = new LatencyHistogram();
+    // От обрыва до рукопожатия с новым соединением, включая все неудачные попытки
+    private final LatencyHistogram timeToReconnectMs = new LatencyHistogram();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong connectionsLost = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    // Докачка: перезапрошенные битые куски и продолженные после обрыва передачи
+    private final AtomicLong chunksRetransmitted = new AtomicLong();
+    private final AtomicLong transfersResumed = new AtomicLong();
+
+    // Метки времени текущего снимка (System.nanoTime, 0 - фаза не началась)
+    private volatile long photoRequestedAt = 0;
+    private volatile long transferStartedAt = 0;
+    private volatile long decodedAt = 0;
+    private volatile boolean firstPixelShown = false;
+
+    public void markPhotoRequested() {
+        photoRequestedAt = System.nanoTime();
+        transferStartedAt = 0;
+        decodedAt = 0;
+        firstPixelShown = false;
+    }
+
+    public void markTransferStarted() {
+        long now = System.nanoTime();
+        transferStartedAt = now;
+        if (photoRequestedAt != 0) requestToSizeMs.record(millisBetween(photoRequestedAt, now));
+    }
+
+    public void markTransferFinished(long bytes) {
+        long started = transferStartedAt;
+        if (started == 0) return;
+        long nanos = System.nanoTime() - started;
+        receiveMs.record(nanos / 1_000_000);
+        bytesReceived.addAndGet(bytes);
+        if (nanos > 0) throughputKbps.record(bytes * 1_000_000_000L / nanos / 1024);
+    }
+
+    public void recordDecode(long nanos) {
+        decodeMs.record(nanos / 1_000_000);
+        decodedAt = System.nanoTime();
+    }
+
+    // Превью на экране; полный кадр ещё идёт, замер снимка не закрывается
+    public void markPreviewShown() {
+        long requested = photoRequestedAt;
+        if (requested == 0 || firstPixelShown) return;
+        firstPixelShown = true;
+        requestToFirstPixelMs.record(millisBetween(requested, System.nanoTime()));
+    }
+
+    public void markImageShown() {
+        long now = System.nanoTime();
+        if (decodedAt != 0) decodedToScreenMs.record(millisBetween(decodedAt, now));
+        if (photoRequestedAt != 0) {
+            requestToScreenMs.record(millisBetween(photoRequestedAt, now));
+            if (!firstPixelShown) requestToFirstPixelMs.record(millisBetween(photoRequestedAt, now));
+        }
+        decodedAt = 0;
+        photoRequestedAt = 0;
+    }
+
+    public void recordHeartbeatRtt(long nanos) {
+        heartbeatRttMs.record(nanos / 1_000_000);
+    }
+
+    public void recordTimeToReconnect(long nanos) {
+        timeToReconnectMs.record(nanos / 1_000_000);
+    }
+
+    public void incrementReconnects() {
+        reconnects.incrementAndGet();
+    }
+
+    public void incrementConnectionsLost() {
+        connectionsLost.incrementAndGet();
+    }
+
+    public void incrementChunksRetransmitted() {
+        chunksRetransmitted.incrementAndGet();
+    }
+
+    public void incrementTransfersResumed() {
+        transfersResumed.incrementAndGet();
+    }
+
+    public LatencyHistogram getRequestToSize() { return requestToSizeMs; }
+    public LatencyHistogram getReceive() { return receiveMs; }
+    public LatencyHistogram getThroughputKbps() { return throughputKbps; }
+    public LatencyHistogram getDecode() { return decodeMs; }
+    public LatencyHistogram getDecodedToScreen() { return decodedToScreenMs; }
+    public LatencyHistogram getRequestToScreen() { return requestToScreenMs; }
+    public LatencyHistogram getRequestToFirstPixel() { return requestToFirstPixelMs; }
+    public LatencyHistogram getHeartbeatRtt() { return heartbeatRttMs; }
+    public LatencyHistogram getTimeToReconnect() { return timeToReconnectMs; }
+    public long getReconnects() { return reconnects.get(); }
+    public long getConnectionsLost() { return connectionsLost.get(); }
+    public long getBytesReceived() { return bytesReceived.get(); }
+    public long getChunksRetransmitted() { return chunksRetransmitted.get(); }
+    public long getTransfersResumed() { return transfersResumed.get(); }
+
+    private static long millisBetween(long fromNanos, long toNanos) {
+        return (toNanos - fromNanos) / 1_000_000;
+    }
+
+    // Текст для отладочного оверлея; строится только по запросу UI
+    public String format() {
+        return "TAKE_PHOTO→SIZE: " + requestToSizeMs.summary(" мс")
+                + "\nПриём: " + receiveMs.summary(" мс")
+                + "\nСкорость: " + throughputKbps.summary(" КБ/с")
+                + "\nДекодирование: " + decodeMs.summary(" мс")
+                + "\nДо экрана: " + decodedToScreenMs.summary(" мс")
+                + "\nЗапрос→первое изображение: " + requestToFirstPixelMs.summary(" мс")
+                + "\nЗапрос→полный кадр: " + requestToScreenMs.summary(" мс")
+                + "\nRTT: " + heartbeatRttMs.summary(" мс")
+                + "\nВосстановление связи: " + timeToReconnectMs.summary(" мс")
+                + "\nПереподключений: " + reconnects.get() + ", обрывов: " + connectionsLost.get()
+                + ", принято: " + (bytesReceived.get() / 1024) + " КБ"
+                + "\nДокачек: " + transfersResumed.get() + ", перезапрошено кусков: " + chunksRetransmitted.get();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.controlcenter;
+
+import java.util.Objects;
+
+// Неизменяемый снимок того, что показывает главный экран: связь, пир, загрузка, прогресс и размер.
+// Поля меняются вместе одним снимком - экран не видит полусостояний вроде "загрузка уже идёт,
+// а прогресс ещё от прошлого снимка". with* без изменений возвращает тот же объект
+public final class UiState {
+
+    public static final UiState INITIAL = new UiState(ConnectionState.INITIAL, false, false, 0, "", false);
+
+    public final ConnectionState connection;
+    public final boolean loading;
+    // Снимок запрошен, но размер картинки ещё неизвестен
+    public final boolean progressIndeterminate;
+    // 0..99; 100 не показывается - после приёма ещё идёт декодирование
+    public final int progress;
+    // Подпись под картинкой; пустая - подпись скрыта
+    public final String sizeText;
+    public final boolean buttonsEnabled;
+
+    private UiState(ConnectionState connection, boolean loading, boolean progressIndeterminate,
+                    int progress, String sizeText, boolean buttonsEnabled) {
+        this.connection = connection;
+        this.loading = loading;
+        this.progressIndeterminate = progressIndeterminate;
+        this.progress = progress;
+        this.sizeText = sizeText;
+        this.buttonsEnabled = buttonsEnabled;
+    }
+
+    public UiState withConnection(ConnectionState connection) {
+        if (connection == this.connection) return this;
+        return new UiState(connection, loading, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    public UiState withButtonsEnabled(boolean buttonsEnabled) {
+        if (buttonsEnabled == this.buttonsEnabled) return this;
+        return new UiState(connection, loading, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    public UiState withProgress(int progress) {
+        if (progress == this.progress) return this;
+        return new UiState(connection, loading, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    public UiState withSizeText(String sizeText) {
+        if (Objects.equals(sizeText, this.sizeText)) return this;
+        return new UiState(connection, loading, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    // Снимок запрошен: прежний прогресс и подпись сброшены, размер ждём от сервера
+    public UiState withPhotoRequested() {
+        return with(true, true, 0, "", buttonsEnabled);
+    }
+
+    // Пришёл заголовок картинки: прогресс становится определённым
+    public UiState withTransferStarted(String sizeText) {
+        return with(true, false, progress, sizeText, buttonsEnabled);
+    }
+
+    public UiState withLoadingFinished(boolean buttonsEnabled) {
+        return with(false, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    private UiState with(boolean loading, boolean progressIndeterminate, int progress, String sizeText, boolean buttonsEnabled) {
+        if (loading == this.loading && progressIndeterminate == this.progressIndeterminate && progress == this.progress
+                && Objects.equals(sizeText, this.sizeText) && buttonsEnabled == this.buttonsEnabled) {
+            return this;
+        }
+        return new UiState(connection, loading, progressIndeterminate, progress, sizeText, buttonsEnabled);
+    }
+
+    @Override
+    public String toString() {
+        return connection + (loading ? ", загрузка " + (progressIndeterminate ? "..." : progress + "%") : "")
+                + (buttonsEnabled ? "" : ", кнопки заблокированы");
+    }
+}
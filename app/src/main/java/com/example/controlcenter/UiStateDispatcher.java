@@ -0,0 +1,53 @@
+package com.example.controlcenter;
+
+import java.util.function.UnaryOperator;
+
+// Единственный владелец UiState. Обновления приходят из любых потоков (сеть, декодирование, UI)
+// и сразу применяются к текущему снимку, а на экран уходит только последний из них - не чаще
+// одного раза за кадр. Вместо тысяч postValue за снимок - не больше одного снимка на кадр
+public class UiStateDispatcher {
+
+    public interface Listener {
+        // Поток FrameScheduler (главный)
+        void onUiState(UiState state);
+    }
+
+    private final FrameScheduler scheduler;
+    private final Listener listener;
+    // Только под this
+    private UiState state;
+    private boolean publishPending = false;
+
+    public UiStateDispatcher(UiState initial, FrameScheduler scheduler, Listener listener) {
+        this.state = initial;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    // Любой поток. Функция применяется под блокировкой, поэтому видит результат предыдущих
+    // обновлений и должна быть быстрой; вернула тот же снимок - кадр не планируется
+    public void update(UnaryOperator<UiState> change) {
+        synchronized (this) {
+            UiState next = change.apply(state);
+            if (next == state) return;
+            state = next;
+            if (publishPending) return;
+            publishPending = true;
+        }
+        scheduler.schedule(this::publish);
+    }
+
+    // Текущий снимок, включая ещё не показанные изменения
+    public synchronized UiState getState() {
+        return state;
+    }
+
+    private void publish() {
+        UiState next;
+        synchronized (this) {
+            publishPending = false;
+            next = state;
+        }
+        listener.onUiState(next);
+    }
+}
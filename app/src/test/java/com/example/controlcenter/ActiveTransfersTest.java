@@ -0,0 +1,228 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Счётчик передач, по которому держатся wake lock и ConnectionService: начало и конец
+// сообщаются ровно по разу на период занятости и не приходят в обратном порядке
+public class ActiveTransfersTest {
+
+    @Test
+    public void overlappingTransfersNotifyOncePerBusyPeriod() {
+        ActiveTransfers transfers = new ActiveTransfers();
+        List<String> events = new CopyOnWriteArrayList<>();
+        transfers.addListener(recorder(events));
+
+        transfers.begin();
+        transfers.begin();
+        transfers.end();
+        assertFalse(transfers.isIdle());
+        transfers.end();
+        assertTrue(transfers.isIdle());
+        // Лишний конец (повторный обрыв) не уводит счёт в минус и не шлёт второе уведомление
+        transfers.end();
+        transfers.end(3);
+
+        transfers.begin();
+        transfers.begin();
+        transfers.begin();
+        // Обрыв снимает все недокачанные снимки камер разом
+        transfers.end(3);
+
+        assertEquals(List.of("start", "finish", "start", "finish"), events);
+        assertEquals(0, transfers.getActive());
+    }
+
+    @Test
+    public void concurrentTransfersKeepEventsAlternating() throws Exception {
+        ActiveTransfers transfers = new ActiveTransfers();
+        List<String> events = new CopyOnWriteArrayList<>();
+        transfers.addListener(recorder(events));
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(8);
+        try {
+            for (int t = 0; t < 8; t++) {
+                pool.execute(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        transfers.begin();
+                        transfers.end();
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(transfers.isIdle());
+        assertFalse(events.isEmpty());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("event " + i, i % 2 == 0 ? "start" : "finish", events.get(i));
+        }
+    }
+
+    @Test
+    public void imageProcessorCountsTransfersUntilDecoded() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(32 * 1024, 640, 480, 1);
+        CountDownLatch finished = new CountDownLatch(2);
+        CountDownLatch decoded = new CountDownLatch(2);
+        ImageProcessor processor = new ImageProcessor(new DecodeListener(decoded), new TransferMetrics(), new JpegHeaderDecoder());
+        List<String> events = new CopyOnWriteArrayList<>();
+        processor.getActiveTransfers().addListener(recorder(events));
+        processor.getActiveTransfers().addListener(new ActiveTransfers.Listener() {
+            @Override public void onTransfersStarted() {}
+            @Override public void onTransfersFinished() { finished.countDown(); }
+        });
+        try {
+            // Одиночный снимок: занят от заголовка до конца декодирования
+            processor.beginBinaryImage(jpeg.length);
+            assertEquals(1, processor.getActiveTransfers().getActive());
+            processor.processBinaryImage(jpeg);
+
+            // Две камеры вперемешку; вторую оборвало соединение
+            assertTrue(waitIdle(processor));
+            processor.beginCameraImage(1, jpeg.length);
+            processor.beginCameraImage(2, jpeg.length);
+            processor.appendCameraChunk(2, ByteBuffer.wrap(jpeg, 0, 1024));
+            processor.appendCameraChunk(1, ByteBuffer.wrap(jpeg));
+            processor.abortCameraTransfers();
+
+            assertTrue(decoded.await(5, TimeUnit.SECONDS));
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertTrue(processor.getActiveTransfers().isIdle());
+            assertEquals(List.of("start", "finish", "start", "finish"), events);
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void replacedCameraTransferEndsItsCount() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(32 * 1024, 640, 480, 1);
+        CountDownLatch decoded = new CountDownLatch(1);
+        ImageProcessor processor = new ImageProcessor(new DecodeListener(decoded), new TransferMetrics(), new JpegHeaderDecoder());
+        try {
+            // Камера начала картинку заново, не докачав прежнюю
+            processor.beginCameraImage(1, jpeg.length);
+            processor.appendCameraChunk(1, ByteBuffer.wrap(jpeg, 0, 1024));
+            processor.beginCameraImage(1, jpeg.length);
+            assertEquals(1, processor.getActiveTransfers().getActive());
+            processor.appendCameraChunk(1, ByteBuffer.wrap(jpeg));
+
+            assertTrue(decoded.await(5, TimeUnit.SECONDS));
+            assertTrue(waitIdle(processor));
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void backToBackPhotosAreCountedSeparately() throws Exception {
+        byte[] first = SessionRecording.fakeJpeg(32 * 1024, 640, 480, 1);
+        byte[] second = SessionRecording.fakeJpeg(32 * 1024, 800, 600, 2);
+        CountDownLatch decoded = new CountDownLatch(2);
+        CountDownLatch firstGate = new CountDownLatch(1);
+        CountDownLatch secondGate = new CountDownLatch(1);
+        GatedDecoder decoder = new GatedDecoder(firstGate, secondGate);
+        DecodeListener listener = new DecodeListener(decoded);
+        ImageProcessor processor = new ImageProcessor(listener, new TransferMetrics(), decoder);
+        ActiveTransfers transfers = processor.getActiveTransfers();
+        try {
+            processor.beginBinaryImage(first.length);
+            processor.processBinaryImage(first);
+            assertTrue("first decode", decoder.started.await(5, TimeUnit.SECONDS));
+            // Следующий снимок принимается, пока первый ещё декодируется
+            processor.beginBinaryImage(second.length);
+            assertEquals(2, transfers.getActive());
+
+            firstGate.countDown();
+            assertTrue("first complete", listener.completed.await(5, TimeUnit.SECONDS));
+            assertEquals(1, transfers.getActive());
+
+            processor.processBinaryImage(second);
+            assertTrue("second decode", decoder.allStarted.await(5, TimeUnit.SECONDS));
+            // Второй ещё декодируется - wake lock и сервис держатся
+            assertFalse(transfers.isIdle());
+            secondGate.countDown();
+            assertTrue(decoded.await(5, TimeUnit.SECONDS));
+            assertTrue(waitIdle(processor));
+        } finally {
+            firstGate.countDown();
+            secondGate.countDown();
+            processor.shutdown();
+        }
+    }
+
+    private static ActiveTransfers.Listener recorder(List<String> events) {
+        return new ActiveTransfers.Listener() {
+            @Override public void onTransfersStarted() { events.add("start"); }
+            @Override public void onTransfersFinished() { events.add("finish"); }
+        };
+    }
+
+    private static boolean waitIdle(ImageProcessor processor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!processor.getActiveTransfers().isIdle()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static class DecodeListener implements ImageProcessor.ImageProcessorListener {
+        final CountDownLatch completed = new CountDownLatch(1);
+        private final CountDownLatch decoded;
+
+        DecodeListener(CountDownLatch decoded) {
+            this.decoded = decoded;
+        }
+
+        @Override public void onImageDecoded(DecodedImage image) { decoded.countDown(); }
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) { decoded.countDown(); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+        @Override public void onProgressUpdate(int progress) {}
+        @Override public void onImageProcessingStart(String sizeText) {}
+        @Override public void onImageProcessingComplete() { completed.countDown(); }
+        @Override public void onError(String message) { fail(message); }
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraError(int cameraId, String message) { fail(message); }
+    }
+
+    // Каждый вызов ждёт своего затвора: декодирование снимков отпускается тестом по одному
+    private static class GatedDecoder extends JpegHeaderDecoder {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch allStarted;
+        private final CountDownLatch[] gates;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        GatedDecoder(CountDownLatch... gates) {
+            this.gates = gates;
+            this.allStarted = new CountDownLatch(gates.length);
+        }
+
+        @Override
+        public DecodedImage decode(byte[] data, int length, int targetWidth, int targetHeight) {
+            int call = calls.getAndIncrement();
+            started.countDown();
+            allStarted.countDown();
+            try {
+                if (call < gates.length) gates[call].await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.decode(data, length, targetWidth, targetHeight);
+        }
+    }
+}
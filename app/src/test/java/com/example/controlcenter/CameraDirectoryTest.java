@@ -0,0 +1,126 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// Список камер: строки ответа camList собираются по id и публикуются одним снимком на пачку приёма
+public class CameraDirectoryTest {
+
+    @Test
+    public void linesArePublishedAsOneSnapshot() {
+        CameraDirectory directory = new CameraDirectory();
+        assertNull("nothing to publish", directory.publish());
+
+        directory.add(camera(5, "Вход"));
+        directory.add(camera(2, "Склад"));
+        directory.add(camera(9, "Двор"));
+        assertEquals("not visible before publish", 0, directory.getSnapshot().size());
+
+        CameraDirectory.Snapshot snapshot = directory.publish();
+        assertEquals(3, snapshot.size());
+        assertEquals(List.of(5, 2, 9), snapshot.ids());
+        assertEquals(1, snapshot.indexOf(2));
+        assertEquals(-1, snapshot.indexOf(7));
+        assertTrue(snapshot.contains(9));
+        assertSame(snapshot, directory.getSnapshot());
+    }
+
+    @Test
+    public void repeatedListingChangesNothingUnlessDescriptionDiffers() {
+        CameraDirectory directory = new CameraDirectory();
+        directory.add(camera(1, "Вход"));
+        directory.add(camera(2, "Склад"));
+        CameraDirectory.Snapshot first = directory.publish();
+
+        // Повторный camList (после переподключения) с тем же списком - без нового снимка
+        directory.add(camera(1, "Вход"));
+        directory.add(camera(2, "Склад"));
+        assertNull(directory.publish());
+
+        directory.add(camera(2, "Склад, ворота 2"));
+        directory.add(camera(3, "Двор"));
+        CameraDirectory.Snapshot second = directory.publish();
+        assertEquals(List.of(1, 2, 3), second.ids());
+        assertEquals("Склад, ворота 2", second.get(1).description);
+        // Прежний снимок не меняется - его мог ещё показывать UI
+        assertEquals(2, first.size());
+        assertEquals("Склад", first.get(1).description);
+    }
+
+    @Test
+    public void largeListingFromSessionBecomesSingleSnapshot() throws Exception {
+        int cameras = 250;
+        byte[] session = new SessionRecording().handshake().cameraList(cameras).heartbeats(2).toByteArray();
+
+        CameraDirectory directory = new CameraDirectory();
+        List<CameraDirectory.Snapshot> published = new ArrayList<>();
+        MessageRouter router = new MessageRouter();
+        router.on(ProtocolMessage.Type.CAMERA, directory::add);
+        router.onBatchEnd(() -> {
+            CameraDirectory.Snapshot snapshot = directory.publish();
+            if (snapshot != null) published.add(snapshot);
+        });
+
+        // Как TcpClient: после каждого чтения канала - конец пачки
+        FrameScanner scanner = new FrameScanner(new RouterListener(router));
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session, 64 * 1024));
+        while (scanner.receive(channel)) {
+            router.endBatch();
+        }
+
+        assertEquals(1, published.size());
+        CameraDirectory.Snapshot snapshot = published.get(0);
+        assertEquals(cameras, snapshot.size());
+        assertEquals(cameras - 1, snapshot.indexOf(cameras - 1));
+        assertEquals("Camera 137", snapshot.get(snapshot.indexOf(137)).description);
+    }
+
+    @Test
+    public void ingestionStaysLinearForLargeInstallations() {
+        int cameras = 20_000;
+        CameraDirectory directory = new CameraDirectory();
+        long start = System.nanoTime();
+        for (int i = 0; i < cameras; i++) {
+            directory.add(camera(i, "Camera " + i));
+        }
+        CameraDirectory.Snapshot snapshot = directory.publish();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(cameras, snapshot.size());
+        assertEquals(12_345, snapshot.indexOf(12_345));
+        // Прежний разбор копировал оба списка на каждую строку: 20 000 строк - сотни миллионов копий
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+
+    private static ProtocolMessage.Camera camera(int id, String description) {
+        return (ProtocolMessage.Camera) MessageParser.parse(id + " -- " + description);
+    }
+
+    private static class RouterListener implements FrameScanner.Listener {
+        private final MessageRouter router;
+
+        RouterListener(MessageRouter router) {
+            this.router = router;
+        }
+
+        @Override public void onControlMessage(ProtocolMessage message) { router.route(message); }
+        @Override public void onControlLine(String line) { router.route(MessageParser.parse(line)); }
+        @Override public void onTextImageStart(int expectedChars) {}
+        @Override public void onTextImagePayload(ByteBuffer payload) {}
+        @Override public void onTextImageEnd() {}
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
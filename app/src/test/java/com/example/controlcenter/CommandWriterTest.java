@@ -0,0 +1,249 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Поток записи команд: пачки с одним flush, приоритет TAKE_PHOTO_, склейка служебных,
+// ограниченная очередь без соединения, которая переживает неудачные попытки переподключения
+public class CommandWriterTest {
+
+    @Test
+    public void urgentFirstAndHousekeepingCoalesced() throws Exception {
+        CommandWriter writer = new CommandWriter();
+        BlockingSink sink = new BlockingSink();
+        try {
+            writer.attach(sink, List.of("ID:CONTROL"));
+            // Первая пачка (рукопожатие) повисла в записи - остальное копится
+            assertEquals(List.of("ID:CONTROL"), sink.batches.poll(5, TimeUnit.SECONDS));
+
+            writer.send("PING");
+            writer.send("camList");
+            writer.send("RES_DONE:1");
+            writer.send("PING");
+            writer.send("camList");
+            writer.send("TAKE_PHOTO_1");
+            assertEquals(2, writer.getCommandsCoalesced());
+
+            sink.release.countDown();
+            assertEquals(List.of("TAKE_PHOTO_1", "RES_DONE:1", "PING", "camList"), sink.batches.poll(5, TimeUnit.SECONDS));
+
+            // PING ушёл - следующий снова отправляется
+            writer.send("PING");
+            assertEquals(List.of("PING"), sink.batches.poll(5, TimeUnit.SECONDS));
+            // Счётчики растут после возврата из writeBatch
+            long deadline = System.currentTimeMillis() + 5000;
+            while (writer.getBatchesWritten() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(3, writer.getBatchesWritten());
+            assertEquals(6, writer.getCommandsWritten());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void boundedQueueWhileLinkIsDown() throws Exception {
+        CommandWriter writer = new CommandWriter(3);
+        BlockingSink sink = new BlockingSink();
+        sink.release.countDown();
+        try {
+            // Служебные без соединения не копятся
+            writer.send("PING");
+            writer.send("RES_DONE:1");
+            writer.send("TAKE_PHOTO_0");
+            writer.send("RES_DONE:2");
+            writer.send("TAKE_PHOTO_1");
+            // Переполнение вытесняет самые старые обычные, срочные остаются
+            writer.send("TAKE_PHOTO_2");
+            assertEquals(3, writer.getQueued());
+            assertEquals(3, writer.getCommandsDropped());
+
+            writer.attach(sink, List.of("ID:CONTROL", ConnectionManager.RESUMABLE_REQUEST));
+            assertEquals(Arrays.asList("ID:CONTROL", ConnectionManager.RESUMABLE_REQUEST,
+                    "TAKE_PHOTO_0", "TAKE_PHOTO_1", "TAKE_PHOTO_2"), sink.batches.poll(5, TimeUnit.SECONDS));
+            assertEquals(0, writer.getQueued());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void detachDropsCommandsForLostConnection() throws Exception {
+        CommandWriter writer = new CommandWriter();
+        BlockingSink sink = new BlockingSink();
+        try {
+            writer.attach(sink, List.of("ID:CONTROL"));
+            assertNotNull(sink.batches.poll(5, TimeUnit.SECONDS));
+            writer.send("TAKE_PHOTO_0");
+            writer.send("camList");
+
+            writer.detach();
+            assertEquals(0, writer.getQueued());
+            sink.release.countDown();
+            writer.send("TAKE_PHOTO_1");
+
+            writer.attach(sink, List.of("ID:CONTROL"));
+            assertEquals(List.of("ID:CONTROL", "TAKE_PHOTO_1"), sink.batches.poll(5, TimeUnit.SECONDS));
+            // camList склеен не навсегда: после detach его можно послать снова
+            writer.send("camList");
+            assertEquals(List.of("camList"), sink.batches.poll(5, TimeUnit.SECONDS));
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void reattachSendsNewHandshakeOnlyToNewConnection() throws Exception {
+        CommandWriter writer = new CommandWriter();
+        BlockingSink lost = new BlockingSink();
+        BlockingSink current = new BlockingSink();
+        current.release.countDown();
+        try {
+            writer.attach(lost, List.of("ID:CONTROL", "CAPS:OLD"));
+            assertEquals(List.of("ID:CONTROL", "CAPS:OLD"), lost.batches.poll(5, TimeUnit.SECONDS));
+
+            // Пока поток записи висит на старом соединении, оно рвётся и поднимается новое
+            writer.detach();
+            writer.attach(current, List.of("ID:CONTROL", "CAPS:NEW"));
+            writer.send("TAKE_PHOTO_1");
+            lost.release.countDown();
+
+            assertEquals(List.of("ID:CONTROL", "CAPS:NEW", "TAKE_PHOTO_1"), current.batches.poll(5, TimeUnit.SECONDS));
+            assertNull(lost.batches.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void photoRequestedDuringOutageFollowsReconnectHandshake() throws Exception {
+        TransferMetrics metrics = new TransferMetrics();
+        ConnectionManager connectionManager = new ConnectionManager(new SilentConnectionListener(), metrics, null);
+        try (ServerSocket relay = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // Снимок запрошен без связи, первая попытка переподключения неудачна
+            connectionManager.sendCommand("TAKE_PHOTO_0");
+            connectionManager.startConnection("127.0.0.1", closedPort());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.getConnectionsLost() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, metrics.getConnectionsLost());
+            assertEquals(1, connectionManager.getCommandWriter().getQueued());
+
+            // Следующая попытка, как reconnectRunnable, доходит до реле
+            connectionManager.startConnection("127.0.0.1", relay.getLocalPort());
+            try (Socket server = relay.accept()) {
+                server.setSoTimeout(5000);
+                while (!connectionManager.isConnected() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertTrue(connectionManager.isConnected());
+                // Шаг рукопожатия напрямую: в локальных тестах Handler отложенное не выполняет
+                connectionManager.sendHandshake();
+
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+                List<String> before = new ArrayList<>();
+                String line;
+                while (!(line = reader.readLine()).equals("TAKE_PHOTO_0")) {
+                    before.add(line);
+                }
+                assertEquals("ID:CONTROL", before.get(0));
+                assertTrue(before.toString(), before.contains(ConnectionManager.CANCEL_REQUEST));
+            }
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSendersReachServerInBatches() throws Exception {
+        int threads = 4;
+        int perThread = 500;
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config())) {
+            RecordingTcpListener listener = new RecordingTcpListener(false);
+            TcpClient client = new TcpClient(listener, server.getHost(), server.getPort());
+            listener.client = client;
+            CommandWriter writer = new CommandWriter(threads * perThread);
+            try {
+                client.connect();
+                assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+                int before = server.getCommandsReceived();
+                writer.attach(client::sendMessages, List.of());
+
+                List<Thread> senders = new ArrayList<>();
+                CountDownLatch start = new CountDownLatch(1);
+                for (int t = 0; t < threads; t++) {
+                    int base = t * perThread;
+                    Thread sender = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < perThread; i++) {
+                            writer.send(ResumableImageReceiver.DONE_COMMAND + (base + i));
+                        }
+                    });
+                    sender.start();
+                    senders.add(sender);
+                }
+                start.countDown();
+                for (Thread sender : senders) sender.join();
+
+                long deadline = System.currentTimeMillis() + 5000;
+                while (server.getCommandsReceived() - before < threads * perThread && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(threads * perThread, server.getCommandsReceived() - before);
+                assertEquals(threads * perThread, writer.getCommandsWritten());
+                assertEquals(0, writer.getCommandsDropped());
+                assertTrue(writer.getCommandsWritten() + " commands in " + writer.getBatchesWritten() + " batches",
+                        writer.getBatchesWritten() < writer.getCommandsWritten());
+            } finally {
+                writer.shutdown();
+                client.close();
+            }
+        }
+    }
+
+    // Порт, на котором никто не слушает: подключение будет отвергнуто сразу
+    private static int closedPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Записывает пачки; первая запись ждёт release, чтобы за ней накопилась очередь
+    private static class BlockingSink implements CommandWriter.Sink {
+        final BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean writeBatch(List<String> commands) {
+            batches.add(new ArrayList<>(commands));
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
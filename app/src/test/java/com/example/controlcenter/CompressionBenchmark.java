@@ -0,0 +1,105 @@
+package com.example.controlcenter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.*;
+
+// Сжатие протокола против обычного режима: байты по проводу, цена сжатия на стороне реле
+// и разбора с распаковкой на стороне клиента. Управляющая сессия выигрывает за счёт общего словаря
+// (повторные списки камер и статусы), текстовая картинка - за счёт избыточности Base64
+public class CompressionBenchmark {
+
+    private static final int SEGMENT = 16 * 1024;
+    private static final int CAMERAS = 32;
+    private static final int LIST_REFRESHES = 50;
+
+    @Before
+    public void onlyOnRequest() {
+        MicroBenchmark.assumeRequested();
+    }
+
+    @Test
+    public void controlSession() throws Exception {
+        compare("control session", recording -> {
+            recording.handshake();
+            for (int i = 0; i < LIST_REFRESHES; i++) {
+                recording.cameraList(CAMERAS).heartbeats(4).line("SERVER_STATUS: PEER_CONNECTED");
+            }
+        }, LIST_REFRESHES * (CAMERAS + 5) + 1);
+    }
+
+    @Test
+    public void textImage() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(1024 * 1024, 4000, 3000, 1);
+        compare("1 MB text image", recording -> recording.handshake().textImage(jpeg).heartbeats(2), 4);
+    }
+
+    private interface Script {
+        void record(SessionRecording recording);
+    }
+
+    private static void compare(String name, Script script, int expectedLines) throws Exception {
+        byte[] plain = record(script, false);
+        byte[] compressed = record(script, true);
+        System.out.printf("%s: plain %d B, compressed %d B (%.1f%%)%n",
+                name, plain.length, compressed.length, 100.0 * compressed.length / plain.length);
+        assertTrue(name + ": " + compressed.length + " >= " + plain.length, compressed.length < plain.length);
+
+        // Цена на стороне отправителя: сборка потока, со сжатием - через Deflater
+        MicroBenchmark.run(name + " encode (plain)", () -> record(script, false).length);
+        MicroBenchmark.run(name + " encode (deflate)", () -> record(script, true).length);
+
+        // Цена на стороне клиента: FrameScanner с распаковкой. Пропускная способность - по исходным байтам
+        CountingListener listener = new CountingListener();
+        MicroBenchmark.run(name + " scan (plain)", () -> {
+            listener.lines = 0;
+            replay(plain, listener);
+            assertEquals(expectedLines, listener.lines);
+            return plain.length;
+        });
+        MicroBenchmark.run(name + " scan (inflate)", () -> {
+            listener.lines = 0;
+            replay(compressed, listener);
+            assertEquals(expectedLines, listener.lines);
+            return plain.length;
+        });
+    }
+
+    private static byte[] record(Script script, boolean compressed) {
+        SessionRecording recording = new SessionRecording();
+        if (compressed) recording.compressed(CompressedFrames.DEFAULT_THRESHOLD);
+        script.record(recording);
+        return recording.toByteArray();
+    }
+
+    private static void replay(byte[] session, FrameScanner.Listener listener) throws Exception {
+        FrameScanner scanner = new FrameScanner(listener);
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session, SEGMENT));
+        while (scanner.receive(channel)) {
+            // до конца записи
+        }
+    }
+
+    // Картинка считается одной строкой: важно, что разбор сошёлся, а не её содержимое
+    private static class CountingListener implements FrameScanner.Listener {
+        int lines;
+
+        @Override public void onControlLine(String line) { lines++; }
+        @Override public void onTextImageStart(int expectedChars) {}
+        @Override public void onTextImagePayload(ByteBuffer payload) {}
+        @Override public void onTextImageEnd() { lines++; }
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Нагрузочные и soak-тесты сетевого стека против LoopbackRelayServer: сотни циклов
+// подключение - снимок - обрыв, деградация сети и служебные сообщения реле.
+// Длинный прогон: ./gradlew testDebugUnitTest -Pbenchmark=full
+public class ConnectionSoakTest {
+
+    private static final int SOAK_CYCLES = MicroBenchmark.FULL ? 500 : 60;
+    private static final int SOAK_IMAGE_SIZE = 512 * 1024;
+    // Допустимый рост кучи после всех циклов: утечка буфера на цикл его заметно превысит
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+    private static final int MAX_THREAD_GROWTH = 4;
+
+    @Test
+    public void captureAndReconnectCycles_keepThroughputAndMemory() throws Exception {
+        byte[] image = SessionRecording.fakeJpeg(SOAK_IMAGE_SIZE, 4000, 3000, 7);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config()
+                .image(image).supportsBinary(true))) {
+            // Прогрев: JIT и пулы потоков, чтобы не считать их утечкой
+            for (int i = 0; i < 5; i++) {
+                runCycle(server, image, i % 2 == 0);
+            }
+            long heapBefore = usedHeapAfterGc();
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            LatencyHistogram firstHalf = new LatencyHistogram();
+            LatencyHistogram secondHalf = new LatencyHistogram();
+            for (int i = 0; i < SOAK_CYCLES; i++) {
+                long micros = runCycle(server, image, i % 2 == 0);
+                (i < SOAK_CYCLES / 2 ? firstHalf : secondHalf).record(micros);
+            }
+
+            waitForClientsToDrain(server);
+            long heapGrowth = usedHeapAfterGc() - heapBefore;
+            int threadGrowth = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+            assertTrue("heap grew by " + heapGrowth, heapGrowth < MAX_HEAP_GROWTH);
+            assertTrue("threads grew by " + threadGrowth, threadGrowth <= MAX_THREAD_GROWTH);
+            // Деградация к концу прогона: медиана второй половины не хуже первой в разы
+            assertTrue("throughput regressed: " + firstHalf.summary(" us") + " -> " + secondHalf.summary(" us"),
+                    secondHalf.getPercentile(50) <= Math.max(firstHalf.getPercentile(50) * 3, 20_000));
+        }
+    }
+
+    @Test
+    public void throttledTransferWithLatencyAndStalls_completes() throws Exception {
+        byte[] image = SessionRecording.fakeJpeg(256 * 1024, 2000, 1500, 3);
+        long bandwidth = 2L * 1024 * 1024;
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config()
+                .image(image).bandwidth(bandwidth).latency(20).stall(64 * 1024, 50))) {
+            RecordingTcpListener listener = new RecordingTcpListener(false);
+            TcpClient client = connect(server, listener);
+            try {
+                long start = System.nanoTime();
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("image", listener.imageDone.await(30, TimeUnit.SECONDS));
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+                assertArrayEquals(image, listener.data);
+                // Текстовый режим: Base64 на треть длиннее, плюс задержка ответа и хотя бы пара подвисаний
+                long minimumMs = image.length * 4L / 3 * 1000 / bandwidth + 20 + 2 * 50;
+                assertTrue("transfer took " + elapsedMs + " ms, expected at least " + minimumMs,
+                        elapsedMs >= minimumMs * 8 / 10);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void forcedDisconnectMidImage_reportsLossAndRecovers() throws Exception {
+        byte[] image = SessionRecording.fakeJpeg(1024 * 1024, 4000, 3000, 5);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config()
+                .image(image).supportsBinary(true).disconnectAfterImageBytes(100 * 1024))) {
+            RecordingTcpListener broken = new RecordingTcpListener(true);
+            TcpClient client = connect(server, broken);
+            try {
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("connection lost", broken.connectionLost.await(5, TimeUnit.SECONDS));
+                assertEquals("incomplete image must not be delivered", 1, broken.imageDone.getCount());
+            } finally {
+                client.close();
+            }
+
+            server.setDisconnectAfterImageBytes(-1);
+            RecordingTcpListener recovered = new RecordingTcpListener(true);
+            client = connect(server, recovered);
+            try {
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("image after reconnect", recovered.imageDone.await(10, TimeUnit.SECONDS));
+                assertArrayEquals(image, recovered.data);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void connectionLimit_isReported() throws Exception {
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config().maxClients(1))) {
+            RecordingTcpListener first = new RecordingTcpListener(false);
+            TcpClient firstClient = connect(server, first);
+            RecordingTcpListener second = new RecordingTcpListener(false);
+            TcpClient secondClient = new TcpClient(second, server.getHost(), server.getPort());
+            second.client = secondClient;
+            try {
+                secondClient.connect();
+                assertTrue("limit", second.limitReached.await(5, TimeUnit.SECONDS));
+                assertTrue("limited client is dropped", second.connectionLost.await(5, TimeUnit.SECONDS));
+                assertTrue(firstClient.isConnected());
+            } finally {
+                secondClient.close();
+                firstClient.close();
+            }
+        }
+    }
+
+    @Test
+    public void peerStatus_isBroadcast() throws Exception {
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config().peerConnected(false))) {
+            RecordingTcpListener listener = new RecordingTcpListener(false);
+            TcpClient client = connect(server, listener);
+            try {
+                assertEquals("no peer yet", 1, listener.peerConnected.getCount());
+                server.setPeerConnected(true);
+                assertTrue("peer connected", listener.peerConnected.await(5, TimeUnit.SECONDS));
+                server.setPeerConnected(false);
+                assertTrue("peer disconnected", listener.peerDisconnected.await(5, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    // Один цикл: подключение, снимок, обрыв с той или другой стороны. Возвращает время снимка в мкс
+    private static long runCycle(LoopbackRelayServer server, byte[] image, boolean serverDrops) throws Exception {
+        RecordingTcpListener listener = new RecordingTcpListener(true);
+        TcpClient client = connect(server, listener);
+        try {
+            long start = System.nanoTime();
+            client.sendMessage("TAKE_PHOTO_0");
+            assertTrue("image", listener.imageDone.await(10, TimeUnit.SECONDS));
+            long micros = (System.nanoTime() - start) / 1000;
+            assertEquals(image.length, listener.data.length);
+            assertTrue(Arrays.equals(image, listener.data));
+
+            if (serverDrops) {
+                server.disconnectAll();
+                assertTrue("connection lost", listener.connectionLost.await(5, TimeUnit.SECONDS));
+            }
+            return micros;
+        } finally {
+            client.close();
+        }
+    }
+
+    private static TcpClient connect(LoopbackRelayServer server, RecordingTcpListener listener) throws InterruptedException {
+        TcpClient client = new TcpClient(listener, server.getHost(), server.getPort());
+        listener.client = client;
+        client.connect();
+        assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+        return client;
+    }
+
+    private static void waitForClientsToDrain(LoopbackRelayServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getActiveClients() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
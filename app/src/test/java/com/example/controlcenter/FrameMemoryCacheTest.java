@@ -0,0 +1,102 @@
+package com.example.controlcenter;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameMemoryCacheTest {
+
+    private static final int FRAME_BYTES = 100_000;
+
+    private final List<DecodedImage> recycled = new ArrayList<>();
+
+    @Test
+    public void evictsLeastRecentlyShownFrames() {
+        FrameMemoryCache cache = new FrameMemoryCache(3 * FRAME_BYTES, recycled::add);
+        FrameMemoryCache.Frame first = cache.put(0, 1000, frame());
+        FrameMemoryCache.Frame second = cache.put(1, 2000, frame());
+        cache.put(2, 3000, frame());
+
+        // К первому кадру вернулись - вытеснен должен быть второй
+        assertSame(first, cache.get(first.getId()));
+        cache.put(3, 4000, frame());
+
+        assertEquals(3, cache.size());
+        assertEquals(3L * FRAME_BYTES, cache.getCurrentBytes());
+        assertNull(cache.get(second.getId()));
+        assertEquals(List.of(second.getImage()), recycled);
+        assertFalse(cache.contains(second.getImage()));
+        assertTrue(cache.contains(first.getImage()));
+    }
+
+    @Test
+    public void displayedFrameIsNotRecycled() {
+        FrameMemoryCache cache = new FrameMemoryCache(2 * FRAME_BYTES, recycled::add);
+        FrameMemoryCache.Frame shown = cache.put(0, 1000, frame());
+        cache.setDisplayed(shown.getImage());
+        cache.put(1, 2000, frame());
+        cache.put(2, 3000, frame());
+
+        // Из истории ушёл, но Bitmap всё ещё на экране - в пул его вернёт UI
+        assertNull(cache.get(shown.getId()));
+        assertTrue(recycled.isEmpty());
+    }
+
+    @Test
+    public void newestFrameSurvivesEvenWhenOverBudget() {
+        FrameMemoryCache cache = new FrameMemoryCache(FRAME_BYTES / 2, recycled::add);
+        FrameMemoryCache.Frame old = cache.put(0, 1000, frame());
+        FrameMemoryCache.Frame fresh = cache.put(0, 2000, frame());
+
+        assertEquals(1, cache.size());
+        assertSame(fresh, cache.get(fresh.getId()));
+        assertEquals(List.of(old.getImage()), recycled);
+    }
+
+    @Test
+    public void trimMemoryShrinksHistory() {
+        FrameMemoryCache cache = new FrameMemoryCache(10L * FRAME_BYTES, recycled::add);
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, 1000 + i, frame());
+        }
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(4, cache.size());
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(2, cache.size());
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+        assertEquals(4, recycled.size());
+    }
+
+    @Test
+    public void snapshotIsNewestFirstAndKeepsAccessOrder() {
+        FrameMemoryCache cache = new FrameMemoryCache(10L * FRAME_BYTES, recycled::add);
+        FrameMemoryCache.Frame middle = cache.put(1, 2000, frame());
+        FrameMemoryCache.Frame oldest = cache.put(0, 1000, frame());
+        FrameMemoryCache.Frame newest = cache.put(2, 3000, frame());
+
+        List<FrameMemoryCache.Frame> snapshot = cache.snapshot();
+        assertEquals(List.of(newest, middle, oldest), snapshot);
+
+        // Просмотр ленты не трогает LRU: первым по-прежнему вытесняется middle
+        FrameMemoryCache small = new FrameMemoryCache(2L * FRAME_BYTES, recycled::add);
+        FrameMemoryCache.Frame a = small.put(0, 1000, frame());
+        small.put(1, 2000, frame());
+        small.snapshot();
+        small.put(2, 3000, frame());
+        assertNull(small.get(a.getId()));
+    }
+
+    private static DecodedImage frame() {
+        return new DecodedImage(null, new byte[FRAME_BYTES], FRAME_BYTES, 4000, 3000, 8);
+    }
+}
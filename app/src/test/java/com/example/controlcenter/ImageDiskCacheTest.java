@@ -0,0 +1,179 @@
+package com.example.controlcenter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ImageDiskCacheTest {
+
+    private static final int IMAGE_SIZE = 100_000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("image-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void storedImagesSurviveReopen() {
+        byte[] first = SessionRecording.fakeJpeg(IMAGE_SIZE, 4000, 3000, 1);
+        byte[] second = SessionRecording.fakeJpeg(IMAGE_SIZE, 4000, 3000, 2);
+        byte[] otherCamera = SessionRecording.fakeJpeg(IMAGE_SIZE, 640, 480, 3);
+
+        ImageDiskCache cache = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        cache.put(0, 1000, first, first.length);
+        cache.put(0, 2000, second, second.length);
+        cache.put(1, 1500, otherCamera, otherCamera.length);
+
+        ImageDiskCache reopened = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        assertEquals(3, reopened.size());
+        assertEquals(3L * IMAGE_SIZE, reopened.getCurrentBytes());
+
+        List<ImageDiskCache.Entry> latest = reopened.latestPerCamera();
+        assertEquals(2, latest.size());
+        for (ImageDiskCache.Entry entry : latest) {
+            if (entry.getCameraId() == 0) {
+                assertEquals(2000, entry.getCapturedAt());
+                assertArrayEquals(second, reopened.read(entry));
+            } else {
+                assertEquals(1500, entry.getCapturedAt());
+                assertArrayEquals(otherCamera, reopened.read(entry));
+            }
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyReadWhenOverCap() {
+        ImageDiskCache cache = new ImageDiskCache(directory, 3 * IMAGE_SIZE);
+        for (int camera = 0; camera < 3; camera++) {
+            cache.put(camera, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, camera), IMAGE_SIZE);
+        }
+        // Камеру 0 только что смотрели - вытесняться должна камера 1
+        ImageDiskCache.Entry camera0 = find(cache, 0);
+        assertNotNull(cache.read(camera0));
+
+        cache.put(3, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, 3), IMAGE_SIZE);
+
+        assertEquals(3, cache.size());
+        assertNotNull(find(cache, 0));
+        assertNull(find(cache, 1));
+        assertNotNull(find(cache, 2));
+        assertNotNull(find(cache, 3));
+        // На диске только три снимка и индекс
+        assertEquals(4, directory.list().length);
+
+        // Порядок вытеснения сохраняется в индексе
+        ImageDiskCache reopened = new ImageDiskCache(directory, 3 * IMAGE_SIZE);
+        reopened.put(4, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, 4), IMAGE_SIZE);
+        assertNull(find(reopened, 2));
+        assertNotNull(find(reopened, 0));
+    }
+
+    @Test
+    public void dropsEntriesWhoseFilesDisappeared() throws IOException {
+        ImageDiskCache cache = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        cache.put(0, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, 0), IMAGE_SIZE);
+        cache.put(1, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, 1), IMAGE_SIZE);
+        assertTrue(new File(directory, "0_1000.jpg").delete());
+        // Мусор от прерванной записи
+        Files.write(new File(directory, "2_1000.jpg.tmp").toPath(), new byte[10]);
+
+        ImageDiskCache reopened = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        assertEquals(1, reopened.size());
+        assertNull(find(reopened, 0));
+        assertFalse(new File(directory, "2_1000.jpg.tmp").exists());
+    }
+
+    @Test
+    public void corruptIndexStartsEmpty() throws IOException {
+        ImageDiskCache cache = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        cache.put(0, 1000, SessionRecording.fakeJpeg(IMAGE_SIZE, 100, 100, 0), IMAGE_SIZE);
+        Files.write(new File(directory, "index.bin").toPath(), new byte[]{1, 2, 3});
+
+        ImageDiskCache reopened = new ImageDiskCache(directory, 10 * IMAGE_SIZE);
+        assertEquals(0, reopened.size());
+        assertEquals(0, reopened.getCurrentBytes());
+    }
+
+    @Test
+    public void imageProcessorStoresAndRestoresLastFrame() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(IMAGE_SIZE, 1920, 1080, 9);
+
+        CacheListener listener = new CacheListener();
+        ImageProcessor processor = new ImageProcessor(listener, new TransferMetrics(), new JpegHeaderDecoder());
+        try {
+            // Кэш открывается в фоне; снимок, пришедший сразу, ждёт открытия и всё равно сохраняется
+            processor.openDiskCache(directory);
+            processor.onPhotoRequested(5);
+            processor.beginBinaryImage(jpeg.length);
+            processor.processBinaryImage(jpeg);
+            assertTrue(listener.decoded.await(5, TimeUnit.SECONDS));
+            // Запись на диск идёт после показа кадра - ждём индекс, он пишется последним
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!new File(directory, "index.bin").exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            processor.shutdown();
+        }
+
+        CacheListener restored = new CacheListener();
+        ImageProcessor next = new ImageProcessor(restored, new TransferMetrics(), new JpegHeaderDecoder());
+        try {
+            next.openDiskCache(directory);
+            assertTrue("cached frame", restored.cached.await(5, TimeUnit.SECONDS));
+            assertEquals(5, restored.cachedCameraId);
+            assertEquals(1920, restored.cachedImage.getFullWidth());
+            assertArrayEquals(jpeg, restored.cachedImage.getSource());
+        } finally {
+            next.shutdown();
+        }
+    }
+
+    private static ImageDiskCache.Entry find(ImageDiskCache cache, int cameraId) {
+        for (ImageDiskCache.Entry entry : cache.latestPerCamera()) {
+            if (entry.getCameraId() == cameraId) return entry;
+        }
+        return null;
+    }
+
+    private static class CacheListener implements ImageProcessor.ImageProcessorListener {
+        final CountDownLatch decoded = new CountDownLatch(1);
+        final CountDownLatch cached = new CountDownLatch(1);
+        volatile int cachedCameraId = -1;
+        volatile DecodedImage cachedImage;
+
+        @Override public void onImageDecoded(DecodedImage image) { decoded.countDown(); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {
+            cachedCameraId = cameraId;
+            cachedImage = image;
+            cached.countDown();
+        }
+        @Override public void onProgressUpdate(int progress) {}
+        @Override public void onImageProcessingStart(String sizeText) {}
+        @Override public void onImageProcessingComplete() {}
+        @Override public void onError(String message) { fail(message); }
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) {}
+        @Override public void onCameraError(int cameraId, String message) {}
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// Слушатель ImageProcessor в ConnectionService: снимок, готовый между клиентами, не теряется
+public class ImageListenerRelayTest {
+
+    @Test
+    public void resultsReadyWithoutClientGoToNextClient() {
+        ImageListenerRelay relay = new ImageListenerRelay();
+        Client old = new Client();
+        relay.attach(old);
+        relay.onProgressUpdate(50);
+        relay.detach(old);
+
+        // Пересоздание Activity: прежний клиент уже отвязан, новый ещё не привязан
+        DecodedImage photo = image();
+        DecodedImage camera = image();
+        relay.onProgressUpdate(90);
+        relay.onImageDecoded(photo);
+        relay.onCameraImageDecoded(2, image());
+        relay.onCameraImageDecoded(2, camera);
+        relay.onImageProcessingComplete();
+        assertEquals(List.of("progress 50"), old.events);
+
+        Client current = new Client();
+        relay.attach(current);
+        assertEquals(List.of("camera 2", "image"), current.events);
+        assertSame(photo, current.images.get(1));
+        assertSame(camera, current.images.get(0));
+
+        // Отданное второй раз не приходит, дальше события идут напрямую
+        relay.attach(current);
+        relay.onProgressUpdate(10);
+        assertEquals(List.of("camera 2", "image", "progress 10"), current.events);
+    }
+
+    @Test
+    public void detachOfStaleClientKeepsCurrent() {
+        ImageListenerRelay relay = new ImageListenerRelay();
+        Client old = new Client();
+        Client current = new Client();
+        relay.attach(old);
+        relay.attach(current);
+        // onCleared прежней ViewModel пришёл после привязки новой
+        relay.detach(old);
+        relay.onImageDecoded(image());
+        assertTrue(old.events.isEmpty());
+        assertEquals(List.of("image"), current.events);
+    }
+
+    private static DecodedImage image() {
+        return new DecodedImage(null, new byte[0], 0, 1, 1, 1);
+    }
+
+    private static class Client implements ImageProcessor.ImageProcessorListener {
+        final List<String> events = new ArrayList<>();
+        final List<DecodedImage> images = new ArrayList<>();
+
+        @Override public void onImageDecoded(DecodedImage image) { events.add("image"); images.add(image); }
+        @Override public void onProgressUpdate(int progress) { events.add("progress " + progress); }
+        @Override public void onImageProcessingStart(String sizeText) { events.add("start"); }
+        @Override public void onImageProcessingComplete() { events.add("complete"); }
+        @Override public void onError(String message) { events.add("error"); }
+        @Override public void onCameraProgress(int cameraId, int percent) { events.add("camera progress " + cameraId); }
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) { events.add("camera " + cameraId); images.add(image); }
+        @Override public void onCameraError(int cameraId, String message) { events.add("camera error " + cameraId); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) { events.add("cached " + cameraId); }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Сравнение текстового (Base64) и бинарного режимов передачи через LoopbackRelayServer
+public class ImageTransferModeTest {
+
+    private static final int IMAGE_SIZE = 8 * 1024 * 1024;
+
+    @Test
+    public void textMode_whenServerDoesNotSupportBinary() throws Exception {
+        byte[] image = randomImage();
+        try (LoopbackRelayServer server = new LoopbackRelayServer(image, false)) {
+            TransferResult result = transfer(server);
+            assertFalse(result.binaryNegotiated);
+            assertArrayEquals(image, result.data);
+            // Base64: на треть больше байт по проводу
+            assertWire("text", result, server, IMAGE_SIZE * 4L / 3, IMAGE_SIZE * 3L / 2);
+        }
+    }
+
+    @Test
+    public void binaryMode_whenServerAcknowledges() throws Exception {
+        byte[] image = randomImage();
+        try (LoopbackRelayServer server = new LoopbackRelayServer(image, true)) {
+            TransferResult result = transfer(server);
+            assertTrue(result.binaryNegotiated);
+            assertArrayEquals(image, result.data);
+            assertWire("binary", result, server, IMAGE_SIZE, IMAGE_SIZE + 64 * 1024);
+        }
+    }
+
+    private static byte[] randomImage() {
+        byte[] image = new byte[IMAGE_SIZE];
+        new Random(42).nextBytes(image);
+        return image;
+    }
+
+    private static void assertWire(String mode, TransferResult result, LoopbackRelayServer server, long min, long max) {
+        double seconds = result.nanos / 1e9;
+        String report = String.format("%s mode: %d bytes on wire, %.1f ms, %.1f MB/s",
+                mode, server.getBytesSent(), result.nanos / 1e6, IMAGE_SIZE / seconds / (1024 * 1024));
+        assertTrue(report, server.getBytesSent() >= min && server.getBytesSent() <= max);
+    }
+
+    private static TransferResult transfer(LoopbackRelayServer server) throws Exception {
+        RecordingTcpListener listener = new RecordingTcpListener(true);
+        TcpClient client = new TcpClient(listener, server.getHost(), server.getPort());
+        listener.client = client;
+        try {
+            client.connect();
+            assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            client.sendMessage("TAKE_PHOTO_0");
+            assertTrue("image", listener.imageDone.await(30, TimeUnit.SECONDS));
+
+            TransferResult result = new TransferResult();
+            result.nanos = System.nanoTime() - start;
+            result.data = listener.data;
+            result.binaryNegotiated = listener.binaryNegotiated;
+            return result;
+        } finally {
+            client.close();
+        }
+    }
+
+    private static class TransferResult {
+        byte[] data;
+        long nanos;
+        boolean binaryNegotiated;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.controlcenter;
+
+// Стадия декодирования для JVM: читает размеры из маркера SOF и проверяет EOI,
+// не создавая Bitmap. Позволяет прогонять ImageProcessor без устройства
+public class JpegHeaderDecoder implements ImageDecoder {
+
+    @Override
+    public DecodedImage decode(byte[] data, int length, int targetWidth, int targetHeight) {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) return null;
+        if ((data[length - 2] & 0xFF) != 0xFF || (data[length - 1] & 0xFF) != 0xD9) return null;
+
+        for (int i = 2; i + 8 < length; i++) {
+            if ((data[i] & 0xFF) != 0xFF) continue;
+            int marker = data[i + 1] & 0xFF;
+            // SOF0 (baseline) или SOF2 (progressive)
+            if (marker == 0xC0 || marker == 0xC2) {
+                int height = ((data[i + 5] & 0xFF) << 8) | (data[i + 6] & 0xFF);
+                int width = ((data[i + 7] & 0xFF) << 8) | (data[i + 8] & 0xFF);
+                int sampleSize = SampledImageDecoder.calculateSampleSize(width, height, targetWidth, targetHeight);
+                return new DecodedImage(null, data, length, width, height, sampleSize);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+// Адаптивный heartbeat: PING только в тишине, обнаружение мёртвого канала, оценки RTT и скорости
+public class LinkMonitorTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void noPingWhileDataFlows() {
+        LinkMonitor monitor = new LinkMonitor();
+        monitor.onConnected(0);
+        long bytes = 0;
+        for (long t = 1000; t <= 60_000; t += LinkMonitor.TICK_MS) {
+            bytes += 64 * 1024;
+            assertEquals(LinkMonitor.Action.NONE, monitor.onTick(t * MS, bytes));
+        }
+        // 64 КБ в секунду
+        assertEquals(64 * 1024, monitor.getThroughputBytesPerSecond());
+        // RTT ещё не измерен - оценка по одной скорости
+        assertEquals(100 * 1000 / 64, monitor.estimateTransferMs(100 * 1024));
+    }
+
+    @Test
+    public void quietLinkIsPingedAndDeclaredDeadWithoutPong() {
+        LinkMonitor monitor = new LinkMonitor();
+        monitor.onConnected(0);
+        long t = 0;
+        LinkMonitor.Action action;
+        do {
+            t += LinkMonitor.TICK_MS;
+            action = monitor.onTick(t * MS, 0);
+        } while (action == LinkMonitor.Action.NONE);
+        assertEquals(LinkMonitor.Action.PING, action);
+        assertEquals(LinkMonitor.QUIET_PING_MS, t);
+
+        long pingAt = t;
+        do {
+            t += LinkMonitor.TICK_MS;
+            action = monitor.onTick(t * MS, 0);
+        } while (action == LinkMonitor.Action.NONE);
+        assertEquals(LinkMonitor.Action.DEAD, action);
+        // Без измеренного RTT - самое длинное ожидание, но всё равно секунды, а не таймаут чтения
+        assertEquals(LinkMonitor.MAX_PONG_TIMEOUT_MS, t - pingAt);
+        assertEquals(LinkMonitor.Quality.DOWN, monitor.getQuality());
+    }
+
+    @Test
+    public void pongUpdatesRttAndShortensTimeout() {
+        LinkMonitor monitor = new LinkMonitor();
+        monitor.onConnected(0);
+        long t = 0;
+        for (int i = 0; i < 20; i++) {
+            LinkMonitor.Action action;
+            do {
+                t += LinkMonitor.TICK_MS;
+                action = monitor.onTick(t * MS, 0);
+            } while (action == LinkMonitor.Action.NONE);
+            assertEquals(LinkMonitor.Action.PING, action);
+            assertEquals(40 * MS, monitor.onPong(t * MS + 40 * MS));
+        }
+        assertEquals(40, monitor.getSmoothedRttMs());
+        assertEquals(LinkMonitor.Quality.GOOD, monitor.getQuality());
+        assertEquals(LinkMonitor.MIN_PONG_TIMEOUT_MS, monitor.getPongTimeoutMs());
+        // Неожиданный PONG не портит оценку
+        assertEquals(-1, monitor.onPong(t * MS + 100 * MS));
+    }
+
+    @Test
+    public void trafficAfterPingCountsAsAnswer() {
+        LinkMonitor monitor = new LinkMonitor();
+        monitor.onConnected(0);
+        long t = 0;
+        while (monitor.onTick((t += LinkMonitor.TICK_MS) * MS, 0) != LinkMonitor.Action.PING) {
+            // ждём PING
+        }
+        // PONG задержался за большой картинкой, но данные идут - канал жив
+        for (int i = 1; i <= 30; i++) {
+            assertEquals(LinkMonitor.Action.NONE, monitor.onTick((t += LinkMonitor.TICK_MS) * MS, i * 1024L));
+        }
+    }
+
+    @Test
+    public void slowRttDegradesQuality() {
+        LinkMonitor monitor = new LinkMonitor();
+        monitor.onConnected(0);
+        long t = 0;
+        for (int i = 0; i < 20; i++) {
+            while (monitor.onTick((t += LinkMonitor.TICK_MS) * MS, 0) != LinkMonitor.Action.PING) {
+                // ждём PING
+            }
+            monitor.onPong(t * MS + 900 * MS);
+        }
+        assertEquals(LinkMonitor.Quality.POOR, monitor.getQuality());
+        assertTrue(monitor.getPongTimeoutMs() >= 900);
+    }
+}
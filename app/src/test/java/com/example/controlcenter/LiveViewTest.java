@@ -0,0 +1,292 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+// Живой просмотр: кадры LIVE_FRAME: из потока, пропуск устаревших при отстающем декодере или экране,
+// двойная буферизация и переключение камеры без чужих кадров на экране
+public class LiveViewTest {
+
+    @Test
+    public void scanner_extractsLiveFramesBetweenControlLines() throws Exception {
+        ByteArrayOutputStream session = new ByteArrayOutputStream();
+        session.write("SERVER_STATUS: PEER_CONNECTED\n".getBytes(StandardCharsets.US_ASCII));
+        for (int sequence = 0; sequence < 5; sequence++) {
+            byte[] frame = frame(3, sequence, 3000 + sequence);
+            session.write((TcpClient.LIVE_FRAME_HEADER + "3:" + sequence + ":" + frame.length + "\n").getBytes(StandardCharsets.US_ASCII));
+            session.write(frame);
+        }
+        session.write("PONG\n".getBytes(StandardCharsets.US_ASCII));
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        List<Image> frames = new CopyOnWriteArrayList<>();
+        FrameScanner scanner = new FrameScanner(new FrameScanner.Listener() {
+            private ByteArrayOutputStream current;
+            private int expected;
+
+            @Override public void onControlLine(String line) { lines.add(line); }
+            @Override public void onTextImageStart(int expectedChars) {}
+            @Override public void onTextImagePayload(ByteBuffer payload) {}
+            @Override public void onTextImageEnd() {}
+            @Override public void onBinaryImageStart(int length) {}
+            @Override public void onBinaryImageProgress(int received, int length) {}
+            @Override public void onBinaryImageEnd(byte[] data) {}
+            @Override public void onCameraImageStart(int cameraId, int length) {}
+            @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+            @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+            @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+            @Override public void onResumableChunkData(ByteBuffer data) {}
+
+            @Override
+            public void onLiveFrameStart(int cameraId, int sequence, int length) {
+                current = new ByteArrayOutputStream();
+                expected = length;
+            }
+
+            @Override
+            public void onLiveFrameData(ByteBuffer data) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                current.write(bytes, 0, bytes.length);
+                if (current.size() == expected) {
+                    frames.add(new ImageDecoder(0).decode(current.toByteArray(), expected, null));
+                }
+            }
+        });
+
+        // Сегменты некратны кадрам - заголовки и данные режутся в произвольных местах
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session.toByteArray(), 1000));
+        while (scanner.receive(channel)) {
+        }
+
+        assertEquals(List.of("SERVER_STATUS: PEER_CONNECTED", "PONG"), lines);
+        assertEquals(5, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(3, frames.get(i).cameraId);
+            assertEquals(i, frames.get(i).sequence);
+        }
+    }
+
+    @Test
+    public void slowDecoder_dropsStaleFramesAndEndsOnNewest() throws Exception {
+        int frames = 200;
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        List<Integer> shown = new CopyOnWriteArrayList<>();
+        AtomicReference<LiveViewPipeline<Image>> ref = new AtomicReference<>();
+        LiveViewPipeline<Image> pipeline = new LiveViewPipeline<>(new ImageDecoder(5), frame -> ui.execute(() -> {
+            shown.add(frame.getSequence());
+            ref.get().onFrameShown(frame);
+        }));
+        ref.set(pipeline);
+        try {
+            pipeline.start(1, 30);
+            // Поток приёма быстрее декодера: кадр примерно раз в 0.5 мс
+            for (int sequence = 0; sequence < frames; sequence++) {
+                feed(pipeline, 1, sequence, frame(1, sequence, 4096), 1500);
+                Thread.sleep(0, 500_000);
+            }
+            waitUntil(() -> !shown.isEmpty() && shown.get(shown.size() - 1) == frames - 1);
+
+            assertEquals(frames, pipeline.getFramesReceived());
+            assertTrue("dropped " + pipeline.getFramesDropped() + ": " + pipeline.format(),
+                    pipeline.getFramesDropped() > frames / 2);
+            assertEquals("every frame shown or dropped", frames, pipeline.getFramesShown() + pipeline.getFramesDropped());
+            for (int i = 1; i < shown.size(); i++) {
+                assertTrue("order " + shown, shown.get(i) > shown.get(i - 1));
+            }
+        } finally {
+            pipeline.close();
+            ui.shutdownNow();
+        }
+    }
+
+    @Test
+    public void slowRenderer_neverDecodesIntoDisplayedFrame() throws Exception {
+        int frames = 100;
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        AtomicReference<Image> onScreen = new AtomicReference<>();
+        AtomicInteger overwritten = new AtomicInteger();
+        AtomicReference<LiveViewPipeline<Image>> ref = new AtomicReference<>();
+        ImageDecoder decoder = new ImageDecoder(0) {
+            @Override
+            public Image decode(byte[] data, int length, Image reuse) {
+                if (reuse != null && reuse == onScreen.get()) overwritten.incrementAndGet();
+                return super.decode(data, length, reuse);
+            }
+        };
+        LiveViewPipeline<Image> pipeline = new LiveViewPipeline<>(decoder, frame -> ui.execute(() -> {
+            // Отрисовка медленнее потока кадров
+            sleep(8);
+            onScreen.set(frame.getImage());
+            ref.get().onFrameShown(frame);
+        }));
+        ref.set(pipeline);
+        try {
+            pipeline.start(2, 60);
+            for (int sequence = 0; sequence < frames; sequence++) {
+                feed(pipeline, 2, sequence, frame(2, sequence, 2048), 2048);
+                Thread.sleep(1);
+            }
+            waitUntil(() -> onScreen.get() != null && onScreen.get().sequence == frames - 1);
+
+            assertEquals(0, overwritten.get());
+            assertEquals("two frames in rotation", 2, decoder.allocations.get());
+            assertTrue("dropped " + pipeline.getFramesDropped(), pipeline.getFramesDropped() > 0);
+        } finally {
+            pipeline.close();
+            ui.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loopback_switchingCameraShowsOnlyNewCamera() throws Exception {
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .supportsBinary(true).supportsLiveView(true).liveFrameSize(20_000);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            List<Image> shown = new CopyOnWriteArrayList<>();
+            AtomicInteger mismatched = new AtomicInteger();
+            AtomicReference<LiveViewPipeline<Image>> ref = new AtomicReference<>();
+            LiveViewPipeline<Image> pipeline = new LiveViewPipeline<>(new ImageDecoder(0), frame -> {
+                // Как MainActivity: кадр, отданный до смены камеры, не показывается
+                if (!ref.get().isCurrent(frame)) return;
+                // Заголовок и содержимое кадра должны быть от одной камеры
+                if (frame.getCameraId() != frame.getImage().cameraId) mismatched.incrementAndGet();
+                Image copy = new Image();
+                copy.cameraId = frame.getImage().cameraId;
+                copy.sequence = frame.getImage().sequence;
+                shown.add(copy);
+                ref.get().onFrameShown(frame);
+            });
+            ref.set(pipeline);
+
+            RecordingTcpListener listener = new RecordingTcpListener(true);
+            listener.liveView = pipeline;
+            TcpClient client = new TcpClient(listener, server.getHost(), server.getPort());
+            listener.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+                assertTrue(listener.liveViewNegotiated);
+
+                pipeline.start(0, 50);
+                client.sendMessage(ConnectionManager.LIVE_START_COMMAND + "0:50");
+                waitUntil(() -> shown.size() >= 5);
+
+                // Переключение: конвейер - до команд серверу, запоздавшие кадры камеры 0 ещё в пути
+                pipeline.start(1, 50);
+                client.sendMessage(ConnectionManager.LIVE_STOP_COMMAND + "0");
+                client.sendMessage(ConnectionManager.LIVE_START_COMMAND + "1:50");
+                waitUntil(() -> countCamera(shown, 1) >= 5);
+
+                int switchedAt = 0;
+                while (shown.get(switchedAt).cameraId != 1) switchedAt++;
+                List<Image> afterSwitch = shown.subList(switchedAt, shown.size());
+                assertEquals("camera 0 after switch", 0, countCamera(afterSwitch, 0));
+                assertEquals(0, mismatched.get());
+                for (int i = 1; i < afterSwitch.size(); i++) {
+                    assertTrue(afterSwitch.get(i).sequence > afterSwitch.get(i - 1).sequence);
+                }
+
+                // Остановка: кадры, дошедшие после неё, на экран не попадают
+                pipeline.stop();
+                client.sendMessage(ConnectionManager.LIVE_STOP_COMMAND + "1");
+                Thread.sleep(50);
+                int stoppedAt = shown.size();
+                Thread.sleep(200);
+                assertEquals(stoppedAt, shown.size());
+                assertFalse(pipeline.isActive());
+            } finally {
+                client.close();
+                pipeline.close();
+            }
+        }
+    }
+
+    // Камера и номер в первых восьми байтах, как у LoopbackRelayServer
+    private static byte[] frame(int cameraId, int sequence, int size) {
+        byte[] frame = new byte[size];
+        ByteBuffer.wrap(frame).putInt(cameraId).putInt(sequence);
+        return frame;
+    }
+
+    // Как поток приёма: заголовок, затем кадр срезами
+    private static void feed(LiveViewPipeline<?> pipeline, int cameraId, int sequence, byte[] frame, int slice) {
+        pipeline.onFrameStart(cameraId, sequence, frame.length);
+        for (int offset = 0; offset < frame.length; offset += slice) {
+            pipeline.onFrameData(ByteBuffer.wrap(frame, offset, Math.min(slice, frame.length - offset)));
+        }
+    }
+
+    private static int countCamera(List<Image> frames, int cameraId) {
+        int count = 0;
+        for (Image image : frames) {
+            if (image.cameraId == cameraId) count++;
+        }
+        return count;
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.met()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Вместо Bitmap: номер камеры и кадра из содержимого
+    static class Image {
+        int cameraId;
+        int sequence;
+    }
+
+    // Декодирует в reuse, если он есть; задержка имитирует BitmapFactory
+    static class ImageDecoder implements LiveViewPipeline.Decoder<Image> {
+        final AtomicInteger allocations = new AtomicInteger();
+        private final long delayMs;
+
+        ImageDecoder(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public Image decode(byte[] data, int length, Image reuse) {
+            if (length < 8) return null;
+            sleep(delayMs);
+            Image image = reuse;
+            if (image == null) {
+                image = new Image();
+                allocations.incrementAndGet();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            image.cameraId = buffer.getInt();
+            image.sequence = buffer.getInt();
+            return image;
+        }
+    }
+}
@@ -0,0 +1,837 @@
+package com.example.controlcenter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Локальная замена реле вместе с камерой-пиром: говорит тем же протоколом, что TcpClient и ConnectionManager
+// (ID:CONTROL, SERVER_STATUS, SERVER_ERROR, camList, TAKE_PHOTO_, PING/PONG, CAPS:BINARY_IMAGE, CAPS:MULTI_CAMERA,
+// CAPS:RESUMABLE с RESEND:/RESUME:/RES_DONE:, CAPS:DEFLATE со сжатыми кадрами Z: в обе стороны,
+// CAPS:LIVE_VIEW с потоком LIVE_FRAME: по LIVE_START:/LIVE_STOP:, CAPS:CANCEL с CANCEL_PHOTO_/PHOTO_CANCELLED:,
+// CAPS:PREVIEW с PREVIEW: и маленькой картинкой перед полным кадром).
+// Умеет ограничивать полосу, добавлять задержку, подвисать посреди передачи, портить куски и рвать соединение -
+// для нагрузочных и soak-тестов. Можно запустить отдельно: main(port, imageKb, kbps)
+public class LoopbackRelayServer implements AutoCloseable {
+
+    private static final int BASE64_LINE_LENGTH = 76;
+    // Размер куска при чередовании картинок нескольких камер
+    private static final int CAMERA_CHUNK_SIZE = 16 * 1024;
+
+    // Параметры симуляции; все задержки в миллисекундах
+    public static class Config {
+        byte[] image = new byte[0];
+        final Map<Integer, byte[]> cameraImages = new HashMap<>();
+        int cameras = 2;
+        boolean supportsBinary = false;
+        boolean supportsMultiCamera = false;
+        boolean supportsResumable = false;
+        boolean supportsCompression = false;
+        boolean supportsLiveView = false;
+        boolean supportsCancel = false;
+        byte[] preview = null;            // превью перед каждым одиночным снимком; null - CAPS:PREVIEW не поддержан
+        int liveFrameSize = 8 * 1024;
+        int compressionThreshold = CompressedFrames.DEFAULT_THRESHOLD;
+        int resumableChunkSize = 32 * 1024;
+        int corruptEveryChunk = 0;        // портить каждый n-й кусок RES_CHUNK:, 0 - не портить
+        long captureDelayMs = 0;          // сколько камера снимает кадр до начала передачи
+        boolean peerConnected = true;
+        int maxClients = Integer.MAX_VALUE;
+        long bandwidthBytesPerSecond = 0; // 0 - без ограничения
+        long latencyMs = 0;               // перед каждым ответом
+        long stallEveryBytes = 0;         // 0 - без подвисаний
+        long stallMs = 0;
+        long disconnectAfterImageBytes = -1; // рвать соединение посреди картинки, -1 - не рвать
+        int port = 0;
+
+        public Config image(byte[] image) { this.image = image; return this; }
+        public Config cameraImage(int cameraId, byte[] image) { this.cameraImages.put(cameraId, image); return this; }
+        public Config cameras(int cameras) { this.cameras = cameras; return this; }
+        public Config supportsBinary(boolean supports) { this.supportsBinary = supports; return this; }
+        public Config supportsMultiCamera(boolean supports) { this.supportsMultiCamera = supports; return this; }
+        public Config supportsResumable(boolean supports) { this.supportsResumable = supports; return this; }
+        public Config supportsCompression(boolean supports) { this.supportsCompression = supports; return this; }
+        public Config supportsLiveView(boolean supports) { this.supportsLiveView = supports; return this; }
+        public Config supportsCancel(boolean supports) { this.supportsCancel = supports; return this; }
+        public Config preview(byte[] preview) { this.preview = preview; return this; }
+        public Config liveFrameSize(int bytes) { this.liveFrameSize = bytes; return this; }
+        public Config compressionThreshold(int bytes) { this.compressionThreshold = bytes; return this; }
+        public Config resumableChunkSize(int bytes) { this.resumableChunkSize = bytes; return this; }
+        public Config corruptEveryChunk(int n) { this.corruptEveryChunk = n; return this; }
+        public Config captureDelay(long ms) { this.captureDelayMs = ms; return this; }
+        public Config peerConnected(boolean connected) { this.peerConnected = connected; return this; }
+        public Config maxClients(int maxClients) { this.maxClients = maxClients; return this; }
+        public Config bandwidth(long bytesPerSecond) { this.bandwidthBytesPerSecond = bytesPerSecond; return this; }
+        public Config latency(long ms) { this.latencyMs = ms; return this; }
+        public Config stall(long everyBytes, long ms) { this.stallEveryBytes = everyBytes; this.stallMs = ms; return this; }
+        public Config disconnectAfterImageBytes(long bytes) { this.disconnectAfterImageBytes = bytes; return this; }
+        public Config port(int port) { this.port = port; return this; }
+    }
+
+    private final Config config;
+    private final ServerSocket serverSocket;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger connectionsAccepted = new AtomicInteger();
+    private final AtomicInteger photosServed = new AtomicInteger();
+    // Докачиваемые передачи живут дольше соединения клиента - до RES_DONE:
+    private final Map<Integer, byte[]> resumableTransfers = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTransferId = new AtomicInteger(1);
+    private final AtomicLong resumableChunksSent = new AtomicLong();
+    private final AtomicInteger chunksCorrupted = new AtomicInteger();
+    private final AtomicInteger chunksResent = new AtomicInteger();
+    private final AtomicInteger transfersResumed = new AtomicInteger();
+    private final AtomicInteger compressedFramesReceived = new AtomicInteger();
+    private final AtomicInteger commandsReceived = new AtomicInteger();
+    private final AtomicInteger liveFramesSent = new AtomicInteger();
+    private final AtomicInteger photosCancelled = new AtomicInteger();
+    private final AtomicInteger previewsSent = new AtomicInteger();
+    private volatile boolean peerConnected;
+    private volatile long disconnectAfterImageBytes;
+    private volatile boolean running = true;
+
+    public LoopbackRelayServer(byte[] image, boolean supportsBinary) throws IOException {
+        this(new Config().image(image).supportsBinary(supportsBinary));
+    }
+
+    public LoopbackRelayServer(Config config) throws IOException {
+        this.config = config;
+        this.peerConnected = config.peerConnected;
+        this.disconnectAfterImageBytes = config.disconnectAfterImageBytes;
+        this.serverSocket = new ServerSocket(config.port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptLoop, "loopback-relay");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Сколько байт ушло клиентам, включая заголовки
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getConnectionsAccepted() {
+        return connectionsAccepted.get();
+    }
+
+    public int getPhotosServed() {
+        return photosServed.get();
+    }
+
+    public int getActiveClients() {
+        return clients.size();
+    }
+
+    public int getChunksCorrupted() {
+        return chunksCorrupted.get();
+    }
+
+    public int getChunksResent() {
+        return chunksResent.get();
+    }
+
+    public int getTransfersResumed() {
+        return transfersResumed.get();
+    }
+
+    // Сколько команд (непустых строк, в том числе из сжатых кадров) пришло от клиентов
+    public int getCommandsReceived() {
+        return commandsReceived.get();
+    }
+
+    // Сколько сжатых кадров пришло от клиентов
+    public int getCompressedFramesReceived() {
+        return compressedFramesReceived.get();
+    }
+
+    public int getLiveFramesSent() {
+        return liveFramesSent.get();
+    }
+
+    // Снимки, остановленные по CANCEL_PHOTO_ до конца передачи
+    public int getPhotosCancelled() {
+        return photosCancelled.get();
+    }
+
+    public int getPreviewsSent() {
+        return previewsSent.get();
+    }
+
+    public int getPendingTransfers() {
+        return resumableTransfers.size();
+    }
+
+    // Как после перезапуска сервера: продолжить старые передачи уже нельзя
+    public void forgetTransfers() {
+        resumableTransfers.clear();
+    }
+
+    // Камера-пир подключилась/отключилась от реле - рассылаем SERVER_STATUS всем клиентам
+    public void setPeerConnected(boolean connected) {
+        peerConnected = connected;
+        String status = connected ? "SERVER_STATUS: PEER_CONNECTED" : "SERVER_STATUS: PEER_DISCONNECTED";
+        for (Client client : clients) {
+            client.sendQuietly(status);
+        }
+    }
+
+    // Меняет точку обрыва на лету (-1 - не рвать)
+    public void setDisconnectAfterImageBytes(long bytes) {
+        disconnectAfterImageBytes = bytes;
+    }
+
+    // Принудительно рвёт все текущие соединения
+    public void disconnectAll() {
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionsAccepted.incrementAndGet();
+                Thread t = new Thread(() -> serve(socket), "loopback-client");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Client client;
+        try {
+            client = new Client(socket);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            if (clients.size() >= config.maxClients) {
+                client.send("SERVER_ERROR: CONNECTION_LIMIT_REACHED");
+                return;
+            }
+            clients.add(client);
+
+            ProtocolReader in = new ProtocolReader(socket.getInputStream());
+            CompressedFrames.Decoder decoder = new CompressedFrames.Decoder();
+            try {
+                String line;
+                while (running && (line = in.readLine()) != null) {
+                    if (line.startsWith(CompressedFrames.HEADER)) {
+                        // Кадр может содержать несколько команд - разбираем построчно
+                        for (String inner : readCompressed(in, decoder, line).split("\n")) {
+                            handle(client, inner.trim());
+                        }
+                    } else {
+                        handle(client, line.trim());
+                    }
+                }
+            } finally {
+                decoder.end();
+            }
+        } catch (IOException ignored) {
+            // клиент отключился или соединение разорвано симуляцией
+        } finally {
+            clients.remove(client);
+            client.close();
+        }
+    }
+
+    // Z:<сжато>:<исходно>, затем сжатые байты
+    private String readCompressed(ProtocolReader in, CompressedFrames.Decoder decoder, String header) throws IOException {
+        long[] args = parseArgs(header.substring(CompressedFrames.HEADER.length()));
+        if (args[0] < 0 || args[1] < 0) throw new IOException("Некорректный заголовок сжатого кадра: " + header);
+        byte[] compressed = new byte[(int) args[0]];
+        int read = 0;
+        while (read < compressed.length) {
+            int n = in.read(compressed, read, compressed.length - read);
+            if (n < 0) throw new IOException("Соединение закрыто посреди сжатого кадра");
+            read += n;
+        }
+        compressedFramesReceived.incrementAndGet();
+        return new String(decoder.decode(compressed, compressed.length, (int) args[1]), StandardCharsets.UTF_8);
+    }
+
+    private void handle(Client client, String line) throws IOException {
+        if (line.isEmpty()) return;
+        commandsReceived.incrementAndGet();
+        delay(config.latencyMs);
+
+        if (line.equals("ID:CONTROL")) {
+            if (peerConnected) client.send("SERVER_STATUS: PEER_CONNECTED");
+        } else if (line.equals(ConnectionManager.BINARY_IMAGE_REQUEST)) {
+            // Старый сервер просто молчит на незнакомую команду
+            if (config.supportsBinary) {
+                client.binaryMode = true;
+                client.send(ConnectionManager.BINARY_IMAGE_ACK);
+            }
+        } else if (line.equals(ConnectionManager.MULTI_CAMERA_REQUEST)) {
+            if (config.supportsMultiCamera) {
+                client.multiCamera = true;
+                client.send(ConnectionManager.MULTI_CAMERA_ACK);
+            }
+        } else if (line.equals(ConnectionManager.RESUMABLE_REQUEST)) {
+            if (config.supportsResumable) {
+                client.resumable = true;
+                client.send(ConnectionManager.RESUMABLE_ACK);
+            }
+        } else if (line.equals(ConnectionManager.COMPRESSION_REQUEST)) {
+            // Подтверждение уходит несжатым, всё после него - уже с порогом
+            if (config.supportsCompression) {
+                client.send(ConnectionManager.COMPRESSION_ACK);
+                client.enableCompression(config.compressionThreshold);
+            }
+        } else if (line.equals(ConnectionManager.LIVE_VIEW_REQUEST)) {
+            if (config.supportsLiveView) {
+                client.send(ConnectionManager.LIVE_VIEW_ACK);
+            }
+        } else if (line.equals(ConnectionManager.CANCEL_REQUEST)) {
+            if (config.supportsCancel) {
+                client.cancellable = true;
+                client.send(ConnectionManager.CANCEL_ACK);
+            }
+        } else if (line.equals(ConnectionManager.PREVIEW_REQUEST)) {
+            if (config.preview != null) {
+                client.preview = true;
+                client.send(ConnectionManager.PREVIEW_ACK);
+            }
+        } else if (line.startsWith(ConnectionManager.CANCEL_PHOTO_COMMAND) && config.supportsCancel) {
+            client.cancelPhoto(parseCameraId(line.substring(ConnectionManager.CANCEL_PHOTO_COMMAND.length())));
+        } else if (line.startsWith(ConnectionManager.LIVE_START_COMMAND) && config.supportsLiveView) {
+            long[] args = parseArgs(line.substring(ConnectionManager.LIVE_START_COMMAND.length()));
+            client.startLive((int) args[0], (int) args[1]);
+        } else if (line.startsWith(ConnectionManager.LIVE_STOP_COMMAND)) {
+            client.stopLive(parseCameraId(line.substring(ConnectionManager.LIVE_STOP_COMMAND.length())));
+        } else if (line.startsWith(ResumableImageReceiver.RESEND_COMMAND)) {
+            long[] args = parseArgs(line.substring(ResumableImageReceiver.RESEND_COMMAND.length()));
+            byte[] image = resumableTransfers.get((int) args[0]);
+            if (image != null) {
+                chunksResent.incrementAndGet();
+                client.sendResumableChunk((int) args[0], image, (int) args[1], false);
+            }
+        } else if (line.startsWith(ResumableImageReceiver.RESUME_COMMAND)) {
+            long[] args = parseArgs(line.substring(ResumableImageReceiver.RESUME_COMMAND.length()));
+            byte[] image = resumableTransfers.get((int) args[0]);
+            if (image == null) {
+                client.send(ResumableImageReceiver.RESUME_FAILED + args[0]);
+            } else {
+                transfersResumed.incrementAndGet();
+                int from = (int) args[1] / config.resumableChunkSize * config.resumableChunkSize;
+                client.sendResumableImage((int) args[0], image, from);
+            }
+        } else if (line.startsWith(ResumableImageReceiver.DONE_COMMAND)) {
+            long[] args = parseArgs(line.substring(ResumableImageReceiver.DONE_COMMAND.length()));
+            if (resumableTransfers.remove((int) args[0]) != null) photosServed.incrementAndGet();
+        } else if (line.equals("PING")) {
+            client.send("PONG");
+        } else if (line.equals("camList")) {
+            // Одним сообщением: при сжатии список уходит одним кадром
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < config.cameras; i++) {
+                if (i > 0) list.append('\n');
+                list.append(i).append(" -- Loopback camera ").append(i);
+            }
+            client.send(list.toString());
+        } else if (line.startsWith("TAKE_PHOTO_") && peerConnected) {
+            int cameraId = parseCameraId(line.substring("TAKE_PHOTO_".length()));
+            byte[] image = config.cameraImages.getOrDefault(cameraId, config.image);
+            if (client.multiCamera) {
+                // Камеры снимают одновременно, картинки уходят вперемешку из отдельного потока
+                client.enqueueCameraImage(cameraId, image);
+            } else if (client.cancellable) {
+                // Снимки по одному из отдельного потока: CANCEL_PHOTO_ читается и посреди передачи
+                client.enqueuePhoto(cameraId, image);
+            } else if (client.resumable) {
+                // Снимок засчитывается по RES_DONE:, когда клиент собрал его целиком
+                delay(config.captureDelayMs);
+                client.sendPreview(cameraId);
+                int transferId = nextTransferId.getAndIncrement();
+                resumableTransfers.put(transferId, image);
+                client.sendResumableImage(transferId, image, 0);
+            } else {
+                delay(config.captureDelayMs);
+                client.sendPreview(cameraId);
+                client.sendImage(image);
+                photosServed.incrementAndGet();
+            }
+        }
+    }
+
+    private static int parseCameraId(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // "3:65536" -> {3, 65536}; недостающие поля - нули
+    private static long[] parseArgs(String text) {
+        String[] parts = text.trim().split(":");
+        long[] args = new long[2];
+        for (int i = 0; i < Math.min(parts.length, args.length); i++) {
+            try {
+                args[i] = Long.parseLong(parts[i].trim());
+            } catch (NumberFormatException e) {
+                args[i] = -1;
+            }
+        }
+        return args;
+    }
+
+    private static void delay(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Client {
+        private final Socket socket;
+        private final OutputStream out;
+        volatile boolean binaryMode = false;
+        volatile boolean multiCamera = false;
+        volatile boolean resumable = false;
+        volatile boolean cancellable = false;
+        volatile boolean preview = false;
+        // Сжатие исходящих сообщений после CAPS:DEFLATE; бинарные кадры не сжимаются - JPEG не ужать
+        private CompressedFrames.Encoder encoder;
+        // Картинки камер в очереди на чередующуюся отправку; поток отправки создаётся при первом снимке
+        private final List<CameraJob> cameraJobs = new ArrayList<>();
+        private Thread cameraSender;
+        // Одиночные снимки после CAPS:CANCEL, по порядку запросов; поток отправки создаётся при первом снимке
+        private final ArrayDeque<PhotoJob> photoJobs = new ArrayDeque<>();
+        private Thread photoSender;
+        // Живой просмотр: камера (-1 - выключен) и частота; поток отправки создаётся при первом LIVE_START:
+        private volatile int liveCamera = -1;
+        private volatile int liveFps = 10;
+        private Thread liveSender;
+        private long sentSinceStall = 0;
+        private long windowStart = System.nanoTime();
+        private long windowBytes = 0;
+        // Сколько байт текущей картинки уже ушло - для обрыва посреди передачи
+        private long imageSent = 0;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        synchronized void send(String line) throws IOException {
+            writeText((line + "\n").getBytes(StandardCharsets.UTF_8), false, false);
+            out.flush();
+        }
+
+        synchronized void enableCompression(int threshold) {
+            if (encoder == null) encoder = new CompressedFrames.Encoder(threshold);
+        }
+
+        // Текст протокола: сжатым кадром, если сжатие включено и сообщение не короче порога (или force)
+        private void writeText(byte[] bytes, boolean imagePayload, boolean force) throws IOException {
+            if (encoder != null && encoder.encode(bytes, 0, bytes.length, force)) {
+                write(Arrays.copyOfRange(encoder.getFrame(), encoder.getFrameOffset(),
+                        encoder.getFrameOffset() + encoder.getFrameLength()), imagePayload);
+            } else {
+                write(bytes, imagePayload);
+            }
+        }
+
+        void sendQuietly(String line) {
+            try {
+                send(line);
+            } catch (IOException ignored) {
+                close();
+            }
+        }
+
+        synchronized void sendImage(byte[] image) throws IOException {
+            imageSent = 0;
+            if (binaryMode) {
+                write((TcpClient.BINARY_IMAGE_HEADER + image.length + "\n").getBytes(StandardCharsets.UTF_8), false);
+                write(image, true);
+            } else {
+                // Заголовок короче порога сжатия и уходит как есть; строки Base64 при сжатии - кадрами Z:
+                // по ~60 КБ исходного текста, хвост тоже
+                String base64 = Base64.getEncoder().encodeToString(image);
+                writeText(("SIZE:" + base64.length() + "\nIMAGE\n").getBytes(StandardCharsets.US_ASCII), false, false);
+                StringBuilder chunk = new StringBuilder(64 * 1024);
+                for (int i = 0; i < base64.length(); i += BASE64_LINE_LENGTH) {
+                    chunk.append(base64, i, Math.min(base64.length(), i + BASE64_LINE_LENGTH)).append('\n');
+                    if (chunk.length() >= 60 * 1024) {
+                        writeText(chunk.toString().getBytes(StandardCharsets.US_ASCII), true, true);
+                        chunk.setLength(0);
+                    }
+                }
+                chunk.append("END123\n");
+                writeText(chunk.toString().getBytes(StandardCharsets.US_ASCII), true, true);
+            }
+            out.flush();
+        }
+
+        // Превью - обычной картинкой после строки PREVIEW:, полный кадр отправляет вызывающий
+        synchronized void sendPreview(int cameraId) throws IOException {
+            if (!preview) return;
+            send(ConnectionManager.PREVIEW_HEADER + cameraId);
+            sendImage(config.preview);
+            previewsSent.incrementAndGet();
+        }
+
+        // Заголовок и куски начиная с from; обрыв по disconnectAfterImageBytes считается от начала этой отправки
+        synchronized void sendResumableImage(int transferId, byte[] image, int from) throws IOException {
+            imageSent = 0;
+            write((TcpClient.RESUMABLE_IMAGE_HEADER + transferId + ":" + image.length + ":" + config.resumableChunkSize + "\n")
+                    .getBytes(StandardCharsets.US_ASCII), false);
+            for (int offset = from; offset < image.length; offset += config.resumableChunkSize) {
+                sendResumableChunk(transferId, image, offset, true);
+            }
+            out.flush();
+        }
+
+        // Перезапрошенный кусок (mayCorrupt = false) уходит целым, иначе тест может не сойтись никогда
+        synchronized void sendResumableChunk(int transferId, byte[] image, int offset, boolean mayCorrupt) throws IOException {
+            if (offset < 0 || offset >= image.length) return;
+            int n = Math.min(config.resumableChunkSize, image.length - offset);
+            CRC32 crc = new CRC32();
+            crc.update(image, offset, n);
+            write((TcpClient.RESUMABLE_CHUNK_HEADER + transferId + ":" + offset + ":" + n + ":" + crc.getValue() + "\n")
+                    .getBytes(StandardCharsets.US_ASCII), false);
+            byte[] chunk = Arrays.copyOfRange(image, offset, offset + n);
+            long sent = resumableChunksSent.incrementAndGet();
+            if (mayCorrupt && config.corruptEveryChunk > 0 && sent % config.corruptEveryChunk == 0) {
+                chunk[n / 2] ^= 0x5A;
+                chunksCorrupted.incrementAndGet();
+            }
+            write(chunk, true);
+            if (!mayCorrupt) out.flush();
+        }
+
+        void enqueueCameraImage(int cameraId, byte[] image) {
+            synchronized (cameraJobs) {
+                cameraJobs.add(new CameraJob(cameraId, image, System.currentTimeMillis() + config.captureDelayMs));
+                cameraJobs.notifyAll();
+                if (cameraSender == null) {
+                    cameraSender = new Thread(this::sendCameraImages, "loopback-camera-sender");
+                    cameraSender.setDaemon(true);
+                    cameraSender.start();
+                }
+            }
+        }
+
+        void enqueuePhoto(int cameraId, byte[] image) {
+            synchronized (photoJobs) {
+                photoJobs.add(new PhotoJob(cameraId, image, System.currentTimeMillis() + config.captureDelayMs));
+                photoJobs.notifyAll();
+                if (photoSender == null) {
+                    photoSender = new Thread(this::sendPhotos, "loopback-photo-sender");
+                    photoSender.setDaemon(true);
+                    photoSender.start();
+                }
+            }
+        }
+
+        // Самый старый неотменённый снимок камеры: не начатый снимается сразу, идущий - на границе куска
+        // (ответит поток отправки). Снимка нет - уже ушёл или не снимался: ответ сразу, байтов больше не будет
+        void cancelPhoto(int cameraId) throws IOException {
+            synchronized (photoJobs) {
+                for (PhotoJob job : photoJobs) {
+                    if (job.cameraId != cameraId || job.cancelled) continue;
+                    job.cancelled = true;
+                    if (job.started) return;
+                    photoJobs.remove(job);
+                    photoJobs.notifyAll();
+                    photosCancelled.incrementAndGet();
+                    break;
+                }
+            }
+            send(ConnectionManager.PHOTO_CANCELLED + cameraId);
+        }
+
+        private void sendPhotos() {
+            try {
+                while (!socket.isClosed()) {
+                    PhotoJob job = takePhotoJob();
+                    if (job == null) continue;
+                    boolean stopped = false;
+                    sendPreview(job.cameraId);
+                    if (resumable) {
+                        stopped = sendCancellableImage(job);
+                    } else {
+                        // BIN_IMAGE:/SIZE: посреди не оборвать - отмена успевает только до начала
+                        sendImage(job.image);
+                        photosServed.incrementAndGet();
+                    }
+                    synchronized (photoJobs) {
+                        photoJobs.remove(job);
+                    }
+                    if (stopped) {
+                        photosCancelled.incrementAndGet();
+                        send(ConnectionManager.PHOTO_CANCELLED + job.cameraId);
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+                close();
+            }
+        }
+
+        // Голова очереди, когда камера её сняла; null - соединение закрыто
+        private PhotoJob takePhotoJob() throws InterruptedException {
+            synchronized (photoJobs) {
+                while (!socket.isClosed()) {
+                    PhotoJob head = photoJobs.peekFirst();
+                    long now = System.currentTimeMillis();
+                    if (head != null && head.readyAt <= now) {
+                        head.started = true;
+                        return head;
+                    }
+                    photoJobs.wait(head == null ? 100 : Math.max(1, head.readyAt - now));
+                }
+                return null;
+            }
+        }
+
+        // Куски с докачкой; между кусками проверяется отмена. true - передача остановлена
+        private boolean sendCancellableImage(PhotoJob job) throws IOException {
+            int transferId = nextTransferId.getAndIncrement();
+            resumableTransfers.put(transferId, job.image);
+            synchronized (this) {
+                imageSent = 0;
+                write((TcpClient.RESUMABLE_IMAGE_HEADER + transferId + ":" + job.image.length + ":" + config.resumableChunkSize + "\n")
+                        .getBytes(StandardCharsets.US_ASCII), false);
+            }
+            for (int offset = 0; offset < job.image.length; offset += config.resumableChunkSize) {
+                if (job.cancelled) {
+                    resumableTransfers.remove(transferId);
+                    return true;
+                }
+                synchronized (this) {
+                    sendResumableChunk(transferId, job.image, offset, true);
+                    out.flush();
+                }
+            }
+            synchronized (this) {
+                out.flush();
+            }
+            return false;
+        }
+
+        synchronized void startLive(int cameraId, int fps) {
+            liveFps = Math.max(1, fps);
+            liveCamera = cameraId;
+            if (liveSender == null) {
+                liveSender = new Thread(this::sendLiveFrames, "loopback-live-sender");
+                liveSender.setDaemon(true);
+                liveSender.start();
+            }
+        }
+
+        void stopLive(int cameraId) {
+            if (liveCamera == cameraId) liveCamera = -1;
+        }
+
+        // Кадр: номер камеры и кадра в первых восьми байтах, дальше заполнитель; частоту держит сервер
+        private void sendLiveFrames() {
+            int sequence = 0;
+            try {
+                while (!socket.isClosed()) {
+                    int cameraId = liveCamera;
+                    if (cameraId >= 0) {
+                        byte[] frame = new byte[Math.max(8, config.liveFrameSize)];
+                        ByteBuffer.wrap(frame).putInt(cameraId).putInt(sequence);
+                        synchronized (this) {
+                            write((TcpClient.LIVE_FRAME_HEADER + cameraId + ":" + sequence + ":" + frame.length + "\n")
+                                    .getBytes(StandardCharsets.US_ASCII), false);
+                            write(frame, false);
+                            out.flush();
+                        }
+                        sequence++;
+                        liveFramesSent.incrementAndGet();
+                    }
+                    Thread.sleep(1000 / liveFps);
+                }
+            } catch (IOException | InterruptedException ignored) {
+                close();
+            }
+        }
+
+        // По куску от каждой готовой камеры по кругу, пока очередь не опустеет
+        private void sendCameraImages() {
+            try {
+                while (!socket.isClosed()) {
+                    List<CameraJob> ready = takeReadyJobs();
+                    for (CameraJob job : ready) {
+                        synchronized (this) {
+                            if (job.offset == 0 && !job.started) {
+                                job.started = true;
+                                write((TcpClient.CAMERA_IMAGE_HEADER + job.cameraId + ":" + job.image.length + "\n")
+                                        .getBytes(StandardCharsets.US_ASCII), false);
+                            }
+                            int n = Math.min(CAMERA_CHUNK_SIZE, job.image.length - job.offset);
+                            if (n > 0) {
+                                write((TcpClient.CAMERA_CHUNK_HEADER + job.cameraId + ":" + n + "\n")
+                                        .getBytes(StandardCharsets.US_ASCII), false);
+                                byte[] chunk = new byte[n];
+                                System.arraycopy(job.image, job.offset, chunk, 0, n);
+                                write(chunk, true);
+                                job.offset += n;
+                            }
+                            out.flush();
+                        }
+                        if (job.offset == job.image.length) {
+                            synchronized (cameraJobs) {
+                                cameraJobs.remove(job);
+                            }
+                            photosServed.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+                close();
+            }
+        }
+
+        private List<CameraJob> takeReadyJobs() throws InterruptedException {
+            synchronized (cameraJobs) {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    long nextReady = Long.MAX_VALUE;
+                    List<CameraJob> ready = new ArrayList<>();
+                    for (CameraJob job : cameraJobs) {
+                        if (job.readyAt <= now) ready.add(job);
+                        else nextReady = Math.min(nextReady, job.readyAt);
+                    }
+                    if (!ready.isEmpty()) return ready;
+                    cameraJobs.wait(nextReady == Long.MAX_VALUE ? 100 : Math.max(1, nextReady - now));
+                    if (socket.isClosed()) return ready;
+                }
+            }
+        }
+
+        // Запись с учётом полосы, подвисаний и обрыва посреди картинки
+        private void write(byte[] bytes, boolean imagePayload) throws IOException {
+            int offset = 0;
+            long disconnectAt = disconnectAfterImageBytes;
+            while (offset < bytes.length) {
+                int n = Math.min(bytes.length - offset, 8 * 1024);
+                if (imagePayload && disconnectAt >= 0 && imageSent + n > disconnectAt) {
+                    out.write(bytes, offset, (int) Math.max(0, disconnectAt - imageSent));
+                    out.flush();
+                    close();
+                    throw new IOException("Симуляция обрыва соединения");
+                }
+                out.write(bytes, offset, n);
+                offset += n;
+                if (imagePayload) imageSent += n;
+                bytesSent.addAndGet(n);
+                throttle(n);
+            }
+        }
+
+        private void throttle(int n) throws IOException {
+            if (config.stallEveryBytes > 0) {
+                sentSinceStall += n;
+                if (sentSinceStall >= config.stallEveryBytes) {
+                    sentSinceStall = 0;
+                    out.flush();
+                    delay(config.stallMs);
+                }
+            }
+            if (config.bandwidthBytesPerSecond > 0) {
+                windowBytes += n;
+                long expectedNanos = windowBytes * 1_000_000_000L / config.bandwidthBytesPerSecond;
+                long elapsed = System.nanoTime() - windowStart;
+                if (expectedNanos > elapsed) {
+                    out.flush();
+                    delay((expectedNanos - elapsed) / 1_000_000);
+                }
+                if (elapsed > 1_000_000_000L) {
+                    windowStart = System.nanoTime();
+                    windowBytes = 0;
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class CameraJob {
+        final int cameraId;
+        final byte[] image;
+        final long readyAt;
+        int offset;
+        boolean started;
+
+        CameraJob(int cameraId, byte[] image, long readyAt) {
+            this.cameraId = cameraId;
+            this.image = image;
+            this.readyAt = readyAt;
+        }
+    }
+
+    private static class PhotoJob {
+        final int cameraId;
+        final byte[] image;
+        final long readyAt;
+        // started - только под photoJobs; cancelled читает и поток отправки посреди передачи
+        boolean started;
+        volatile boolean cancelled;
+
+        PhotoJob(int cameraId, byte[] image, long readyAt) {
+            this.cameraId = cameraId;
+            this.image = image;
+            this.readyAt = readyAt;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        disconnectAll();
+    }
+
+    // Запуск вручную, чтобы направить на него эмулятор (адрес хоста 10.0.2.2, порт из args):
+    // args: [порт] [размер картинки, КБ] [полоса, КБ/с]
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int imageKb = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        long kbps = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        byte[] image = SessionRecording.fakeJpeg(imageKb * 1024, 4000, 3000, 1);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new Config()
+                .port(port).image(image).supportsBinary(true).bandwidth(kbps * 1024))) {
+            Thread.currentThread().join();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Сжатие текстового протокола (CAPS:DEFLATE): кадры Z: разбираются так же, как исходные строки,
+// короткие команды остаются как есть, словарь общий на всё соединение
+public class MessageCompressionTest {
+
+    @Test
+    public void compressedSessionParsesLikePlain() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(200 * 1024, 4000, 3000, 1);
+        byte[] plain = mixedSession(new SessionRecording(), jpeg).toByteArray();
+        byte[] compressed = mixedSession(new SessionRecording().compressed(CompressedFrames.DEFAULT_THRESHOLD), jpeg)
+                .toByteArray();
+
+        // Мелкие сегменты режут и заголовки Z:, и сжатые байты посередине
+        CollectingListener expected = replay(plain, 997);
+        CollectingListener actual = replay(compressed, 997);
+
+        assertEquals(expected.lines, actual.lines);
+        assertArrayEquals(jpeg, expected.image());
+        assertArrayEquals(jpeg, actual.image());
+        assertTrue("compressed " + compressed.length + " plain " + plain.length, compressed.length < plain.length);
+    }
+
+    @Test
+    public void plainSizeLineFollowedByCompressedPayload() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(64 * 1024, 1600, 1200, 3);
+        String base64 = Base64.getEncoder().encodeToString(jpeg);
+        CompressedFrames.Encoder encoder = new CompressedFrames.Encoder(CompressedFrames.DEFAULT_THRESHOLD);
+        ByteArrayOutputStream session = new ByteArrayOutputStream();
+        try {
+            // Реле по правилу порога: короткий SIZE: как есть, длинные пачки строк - кадрами Z:,
+            // короткий хвост с END123 снова как есть
+            write(session, encoder, "SIZE:" + base64.length() + "\nIMAGE\n");
+            int tail = base64.length() - 40;
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < tail; i += 76) {
+                lines.append(base64, i, Math.min(tail, i + 76)).append('\n');
+                if (lines.length() >= 8 * 1024) {
+                    assertTrue(write(session, encoder, lines.toString()));
+                    lines.setLength(0);
+                }
+            }
+            if (lines.length() > 0) write(session, encoder, lines.toString());
+            write(session, encoder, "SERVER_STATUS: PEER_CONNECTED\n");
+            assertFalse(write(session, encoder, base64.substring(tail) + "\nEND123\n"));
+            write(session, encoder, "PONG\n");
+        } finally {
+            encoder.end();
+        }
+
+        CollectingListener listener = replay(session.toByteArray(), 997);
+        assertArrayEquals(jpeg, listener.image());
+        assertEquals(List.of("SERVER_STATUS: PEER_CONNECTED", "<image>", "PONG"), listener.lines);
+    }
+
+    @Test
+    public void shortMessagesStayPlainAndDictionaryIsShared() throws Exception {
+        CompressedFrames.Encoder encoder = new CompressedFrames.Encoder(CompressedFrames.DEFAULT_THRESHOLD);
+        CompressedFrames.Decoder decoder = new CompressedFrames.Decoder();
+        try {
+            byte[] ping = "PING\n".getBytes(StandardCharsets.US_ASCII);
+            assertFalse(encoder.encode(ping, 0, ping.length, false));
+            assertTrue(encoder.encode(ping, 0, ping.length, true));
+            assertArrayEquals(ping, decodeFrame(encoder, decoder));
+
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < 32; i++) list.append(i).append(" -- Camera ").append(i).append('\n');
+            byte[] message = list.toString().getBytes(StandardCharsets.UTF_8);
+
+            assertTrue(encoder.encode(message, 0, message.length, false));
+            int first = encoder.getFrameLength();
+            assertArrayEquals(message, decodeFrame(encoder, decoder));
+
+            // Повтор того же списка - ссылка на прошлый в окне, а не новое сжатие с нуля
+            assertTrue(encoder.encode(message, 0, message.length, false));
+            int second = encoder.getFrameLength();
+            assertArrayEquals(message, decodeFrame(encoder, decoder));
+            assertTrue("first " + first + " second " + second, second < first / 4);
+        } finally {
+            encoder.end();
+            decoder.end();
+        }
+    }
+
+    @Test
+    public void loopbackNegotiatesCompressionOnBothReceivePaths() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(300 * 1024, 4000, 3000, 2);
+        for (boolean channelReceiver : new boolean[]{true, false}) {
+            LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                    .image(jpeg).cameras(12).supportsCompression(true);
+            try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+                RecordingTcpListener listener = new RecordingTcpListener(false);
+                // Порог 1: команды клиента тоже уходят сжатыми
+                listener.compressionThreshold = 1;
+                TcpClient client = new TcpClient(listener, server.getHost(), server.getPort(), channelReceiver);
+                listener.client = client;
+                try {
+                    client.connect();
+                    assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+                    assertTrue(listener.compressionNegotiated);
+
+                    client.sendMessage("camList");
+                    client.sendMessage("TAKE_PHOTO_0");
+                    assertTrue("image", listener.imageDone.await(10, TimeUnit.SECONDS));
+                } finally {
+                    client.close();
+                }
+
+                assertArrayEquals(jpeg, listener.data);
+                assertEquals(12, listener.cameraLines.size());
+                assertEquals("11 -- Loopback camera 11", listener.cameraLines.get(11));
+                assertTrue("client frames " + server.getCompressedFramesReceived(), server.getCompressedFramesReceived() >= 2);
+                // Base64 случайных байт ужимается до ~3/4: по проводу ушло меньше текста картинки
+                assertTrue("sent " + server.getBytesSent(), server.getBytesSent() < jpeg.length * 4L / 3);
+            }
+        }
+    }
+
+    private static SessionRecording mixedSession(SessionRecording recording, byte[] jpeg) {
+        return recording.handshake().cameraList(16).heartbeats(3)
+                .line("SERVER_STATUS: PEER_CONNECTED")
+                .textImage(jpeg).heartbeats(2).cameraList(16);
+    }
+
+    // Как исходящий текст реле: кадром Z:, если сообщение не короче порога; true - ушло сжатым
+    private static boolean write(ByteArrayOutputStream out, CompressedFrames.Encoder encoder, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        if (encoder.encode(bytes, 0, bytes.length, false)) {
+            out.write(encoder.getFrame(), encoder.getFrameOffset(), encoder.getFrameLength());
+            return true;
+        }
+        out.write(bytes, 0, bytes.length);
+        return false;
+    }
+
+    private static byte[] decodeFrame(CompressedFrames.Encoder encoder, CompressedFrames.Decoder decoder) throws Exception {
+        byte[] frame = encoder.getFrame();
+        int at = encoder.getFrameOffset();
+        int headerEnd = at;
+        while (frame[headerEnd] != '\n') headerEnd++;
+        String[] fields = new String(frame, at, headerEnd - at, StandardCharsets.US_ASCII)
+                .substring(CompressedFrames.HEADER.length()).split(":");
+        int length = Integer.parseInt(fields[0]);
+        byte[] compressed = new byte[length];
+        System.arraycopy(frame, headerEnd + 1, compressed, 0, length);
+        assertEquals(encoder.getFrameLength(), headerEnd + 1 - at + length);
+        return decoder.decode(compressed, length, Integer.parseInt(fields[1]));
+    }
+
+    private static CollectingListener replay(byte[] session, int segment) throws Exception {
+        CollectingListener listener = new CollectingListener();
+        FrameScanner scanner = new FrameScanner(listener);
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session, segment));
+        while (scanner.receive(channel)) {
+            // до конца записи
+        }
+        return listener;
+    }
+
+    private static class CollectingListener implements FrameScanner.Listener {
+        final List<String> lines = new ArrayList<>();
+        final StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+
+        byte[] image() {
+            return Arrays.copyOf(decoder.array(), decoder.size());
+        }
+
+        @Override public void onControlLine(String line) { lines.add(line); }
+        @Override public void onTextImageStart(int expectedChars) { decoder.reset(expectedChars); }
+        @Override public void onTextImagePayload(ByteBuffer payload) { decoder.feed(payload); }
+        @Override public void onTextImageEnd() { decoder.finish(); lines.add("<image>"); }
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Разбор управляющих строк один раз (MessageParser) и раздача по типам (MessageRouter)
+public class MessageRouterTest {
+
+    @Test
+    public void classifiesProtocolLines() {
+        assertSame(ProtocolMessage.PING, MessageParser.parse("PING"));
+        assertSame(ProtocolMessage.PONG, MessageParser.parse(" PONG\r"));
+        assertSame(ProtocolMessage.PEER_CONNECTED, MessageParser.parse("SERVER_STATUS: PEER_CONNECTED"));
+        assertSame(ProtocolMessage.PEER_DISCONNECTED, MessageParser.parse("SERVER_STATUS: PEER_DISCONNECTED"));
+        assertSame(ProtocolMessage.CONNECTION_LIMIT, MessageParser.parse("SERVER_ERROR: CONNECTION_LIMIT_REACHED"));
+        assertEquals(ProtocolMessage.Type.SERVER_STATUS, MessageParser.parse("SERVER_STATUS: READY").type);
+        assertEquals(ProtocolMessage.Type.SERVER_ERROR, MessageParser.parse("SERVER_ERROR: BAD_ID").type);
+
+        ProtocolMessage ack = MessageParser.parse(ConnectionManager.BINARY_IMAGE_ACK);
+        assertEquals(ProtocolMessage.Type.CAPS_ACK, ack.type);
+        assertEquals(ConnectionManager.BINARY_IMAGE_ACK, ack.line);
+
+        ProtocolMessage resume = MessageParser.parse(ResumableImageReceiver.RESUME_FAILED + "42");
+        assertEquals(ProtocolMessage.Type.RESUME_FAILED, resume.type);
+        assertEquals(42, ((ProtocolMessage.ResumeFailed) resume).transferId);
+        // Без номера передачи - обычный текст, а не исключение в потоке приёма
+        assertEquals(ProtocolMessage.Type.TEXT, MessageParser.parse(ResumableImageReceiver.RESUME_FAILED + "x").type);
+
+        ProtocolMessage cancelled = MessageParser.parse(ConnectionManager.PHOTO_CANCELLED + "3");
+        assertEquals(ProtocolMessage.Type.PHOTO_CANCELLED, cancelled.type);
+        assertEquals(3, ((ProtocolMessage.PhotoCancelled) cancelled).cameraId);
+
+        ProtocolMessage preview = MessageParser.parse(ConnectionManager.PREVIEW_HEADER + "5");
+        assertEquals(ProtocolMessage.Type.PREVIEW, preview.type);
+        assertEquals(5, ((ProtocolMessage.Preview) preview).cameraId);
+
+        // PING внутри текста - не PING
+        assertEquals(ProtocolMessage.Type.TEXT, MessageParser.parse("PINGED").type);
+    }
+
+    @Test
+    public void parsesCameraLinesAndImageSize() {
+        ProtocolMessage message = MessageParser.parse("17 -- Склад, ворота 2  ");
+        assertEquals(ProtocolMessage.Type.CAMERA, message.type);
+        ProtocolMessage.Camera camera = (ProtocolMessage.Camera) message;
+        assertEquals(17, camera.id);
+        assertEquals("Склад, ворота 2", camera.description);
+        assertEquals("17 -- Склад, ворота 2", camera.line);
+        // Без номера это не камера
+        assertEquals(ProtocolMessage.Type.TEXT, MessageParser.parse("1a -- камера").type);
+
+        ProtocolMessage size = MessageParser.parse("SIZE: 12345");
+        assertEquals(ProtocolMessage.Type.IMAGE_SIZE, size.type);
+        assertEquals(12345, ((ProtocolMessage.ImageSize) size).chars);
+        // Как и прежде: SIZE: может прийти не в начале строки и с прилипшими символами
+        assertEquals(678, ((ProtocolMessage.ImageSize) MessageParser.parse("IMAGE SIZE:678x")).chars);
+        assertEquals(ProtocolMessage.Type.TEXT, MessageParser.parse("SIZE: unknown").type);
+    }
+
+    @Test
+    public void parsesFromByteRangeWithoutCopy() {
+        byte[] buffer = "xxPONG\nСнимок готов\n".getBytes(StandardCharsets.UTF_8);
+        assertSame(ProtocolMessage.PONG, MessageParser.parse(buffer, 2, 4));
+        int textStart = 7;
+        ProtocolMessage text = MessageParser.parse(buffer, textStart, buffer.length - 1 - textStart);
+        assertEquals(ProtocolMessage.Type.TEXT, text.type);
+        assertEquals("Снимок готов", text.line);
+    }
+
+    @Test
+    public void routesByTypeInRegistrationOrder() {
+        MessageRouter router = new MessageRouter();
+        List<String> calls = new ArrayList<>();
+        router.on(ProtocolMessage.Type.CAMERA, (ProtocolMessage.Camera camera) -> calls.add("first " + camera.id));
+        router.on(ProtocolMessage.Type.CAMERA, message -> calls.add("second " + message.line));
+        router.on(ProtocolMessage.Type.PONG, message -> calls.add("pong"));
+
+        assertTrue(router.route(MessageParser.parse("3 -- Вход")));
+        assertTrue(router.route(MessageParser.parse("PONG")));
+        // Никто не подписан - сообщение пропускается
+        assertFalse(router.route(MessageParser.parse("PING")));
+
+        assertEquals(List.of("first 3", "second 3 -- Вход", "pong"), calls);
+    }
+
+    @Test
+    public void streamLinesGiveSameEventsAsFrameScanner() throws Exception {
+        String base64 = "QUJDREVGR0g=";
+        String[] lines = {"PONG", "SIZE:" + base64.length(), "QUJDREVG", "SERVER_STATUS: PEER_CONNECTED", "R0g=", "END123", "2 -- Двор"};
+
+        RecordingListener fromStream = new RecordingListener();
+        StreamLineScanner stream = new StreamLineScanner(fromStream);
+        for (String line : lines) {
+            stream.line(line);
+        }
+
+        RecordingListener fromScanner = new RecordingListener();
+        FrameScanner scanner = new FrameScanner(fromScanner);
+        byte[] session = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        scanner.feed(session, 0, session.length);
+
+        assertEquals(List.of("PONG", "image " + base64.length(), "QUJDREVG", "PEER_CONNECTED", "R0g=", "end", "CAMERA 2"),
+                fromStream.events);
+        assertEquals(fromStream.events, fromScanner.events);
+    }
+
+    @Test
+    public void oversizedFrameHeadersAreProtocolErrors() throws Exception {
+        String huge = String.valueOf(TcpClient.MAX_FRAME_BYTES + 1L);
+        String[] headers = {
+                TcpClient.BINARY_IMAGE_HEADER + huge,
+                TcpClient.CAMERA_IMAGE_HEADER + "1:" + huge,
+                TcpClient.RESUMABLE_IMAGE_HEADER + "1:" + huge + ":32768",
+                TcpClient.LIVE_FRAME_HEADER + "1:1:" + huge,
+                CompressedFrames.HEADER + "10:" + huge,
+                "SIZE:" + (TcpClient.MAX_FRAME_BYTES / 3 * 4 + 8),
+        };
+        for (String header : headers) {
+            RecordingListener listener = new RecordingListener();
+            FrameScanner scanner = new FrameScanner(listener);
+            byte[] line = (header + "\n").getBytes(StandardCharsets.US_ASCII);
+            try {
+                scanner.feed(line, 0, line.length);
+                fail("accepted " + header);
+            } catch (IOException expected) {
+                // массив под заявленную длину не выделялся
+            }
+            assertTrue(header, listener.events.isEmpty());
+        }
+        try {
+            new StreamLineScanner(new RecordingListener()).line(headers[headers.length - 1]);
+            fail("accepted SIZE:");
+        } catch (IOException expected) {
+            // так же на потоковом пути
+        }
+    }
+
+    @Test
+    public void controlLinesAreBounded() throws Exception {
+        // Длинная, но законченная строка доходит как обычно
+        byte[] longLine = new byte[TcpClient.MAX_LINE_BYTES];
+        Arrays.fill(longLine, (byte) 'A');
+        longLine[1] = ':';
+        longLine[longLine.length - 1] = '\n';
+        RecordingListener listener = new RecordingListener();
+        new FrameScanner(listener).feed(longLine, 0, longLine.length);
+        assertEquals(List.of("TEXT"), listener.events);
+        assertEquals(TcpClient.MAX_LINE_BYTES - 1,
+                new ProtocolReader(new ByteArrayInputStream(longLine), TcpClient.MAX_LINE_BYTES).readLine().length());
+
+        // Перевода строки нет и не будет: предел - ошибка протокола, а не рост буфера
+        // (FrameScanner держит ещё и хвост в приёмном буфере, поэтому шлём с запасом)
+        byte[] endless = new byte[2 * TcpClient.MAX_LINE_BYTES];
+        Arrays.fill(endless, (byte) 'A');
+        FrameScanner scanner = new FrameScanner(new RecordingListener());
+        try {
+            for (int offset = 0; offset < endless.length; offset += 1000) {
+                scanner.feed(endless, offset, Math.min(1000, endless.length - offset));
+            }
+            fail("FrameScanner accepted an endless line");
+        } catch (IOException expected) {
+            // соединение закрывается
+        }
+        try {
+            new ProtocolReader(new ByteArrayInputStream(endless), TcpClient.MAX_LINE_BYTES).readLine();
+            fail("ProtocolReader accepted an endless line");
+        } catch (IOException expected) {
+            // так же на потоковом пути
+        }
+    }
+
+    @Test
+    public void oversizedHeaderClosesConnectionOnBothReceivePaths() throws Exception {
+        for (boolean channelReceiver : new boolean[]{true, false}) {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                RecordingTcpListener listener = new RecordingTcpListener(true);
+                TcpClient client = new TcpClient(listener, "127.0.0.1", server.getLocalPort(), channelReceiver);
+                listener.client = client;
+                try {
+                    client.connect();
+                    try (Socket relay = server.accept()) {
+                        relay.getOutputStream().write((TcpClient.BINARY_IMAGE_HEADER + "2000000000\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        relay.getOutputStream().flush();
+                        assertTrue("connection lost", listener.connectionLost.await(5, TimeUnit.SECONDS));
+                    }
+                } finally {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    private static class RecordingListener implements FrameScanner.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onControlMessage(ProtocolMessage message) {
+            events.add(message.type == ProtocolMessage.Type.CAMERA
+                    ? "CAMERA " + ((ProtocolMessage.Camera) message).id
+                    : message.type.name());
+        }
+
+        @Override public void onControlLine(String line) { fail("onControlMessage ожидался"); }
+        @Override public void onTextImageStart(int expectedChars) { events.add("image " + expectedChars); }
+        @Override public void onTextImagePayload(ByteBuffer payload) {
+            events.add(StandardCharsets.US_ASCII.decode(payload).toString());
+        }
+        @Override public void onTextImageEnd() { events.add("end"); }
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.controlcenter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assume.assumeTrue;
+
+// Минимальный JMH-подобный прогон для локальных тестов: прогрев, замеры, перцентили задержки,
+// пропускная способность и аллокации на поток. Без -Pbenchmark=quick|full бенчмарки пропускаются
+public final class MicroBenchmark {
+
+    public interface Operation {
+        // Одна операция; возвращает число обработанных байт
+        long run() throws Exception;
+    }
+
+    public static final boolean ENABLED = System.getProperty("benchmark") != null;
+    public static final boolean FULL = "full".equals(System.getProperty("benchmark"));
+    public static final int WARMUP_ITERATIONS = FULL ? 5 : 1;
+    public static final int MEASURE_ITERATIONS = FULL ? 20 : 3;
+
+    // Результат прогона; гистограмма задержек в микросекундах
+    public static class Result {
+        public final String name;
+        public final LatencyHistogram latencyMicros = new LatencyHistogram();
+        public long bytes;
+        public long nanos;
+        public long allocatedBytes = -1;
+        public long gcCount;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        public double throughputMbPerSecond() {
+            return nanos == 0 ? 0 : bytes / (nanos / 1e9) / (1024 * 1024);
+        }
+
+        public double allocationMbPerSecond() {
+            return nanos == 0 || allocatedBytes < 0 ? 0 : allocatedBytes / (nanos / 1e9) / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %9.1f MB/s  alloc %8.1f MB/s  gc %3d  latency %s",
+                    name, throughputMbPerSecond(), allocationMbPerSecond(), gcCount, latencyMicros.summary(" us"));
+        }
+    }
+
+    private MicroBenchmark() {
+    }
+
+    // Вызывается из @Before бенчмарка: в обычном прогоне тестов он помечается пропущенным
+    public static void assumeRequested() {
+        assumeTrue("бенчмарк запускается с -Pbenchmark=quick|full", ENABLED);
+    }
+
+    public static Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        Result result = new Result(name);
+        long gcBefore = gcCount();
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            result.bytes += operation.run();
+            long elapsed = System.nanoTime() - start;
+            result.nanos += elapsed;
+            result.latencyMicros.record(elapsed / 1000);
+        }
+        long allocatedAfter = allocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            result.allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+        result.gcCount = gcCount() - gcBefore;
+
+        System.out.println(result);
+        writeResult(result);
+        return result;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    // Аллокации текущего потока (только HotSpot), иначе -1
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Результаты дописываются в build/benchmarks/results.txt, чтобы сравнивать прогоны Gradle
+    private static void writeResult(Result result) {
+        String dir = System.getProperty("benchmark.outputDir");
+        if (dir == null) return;
+        File file = new File(dir, "results.txt");
+        file.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(result + System.lineSeparator());
+        } catch (IOException e) {
+            System.err.println("Не удалось записать результат бенчмарка: " + e);
+        }
+    }
+}
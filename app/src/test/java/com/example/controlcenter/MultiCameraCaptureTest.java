@@ -0,0 +1,198 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Параллельная съёмка: разбор чередующихся кадров камер, параллельное декодирование
+// и выигрыш по времени против запросов по очереди
+public class MultiCameraCaptureTest {
+
+    @Test
+    public void scanner_reassemblesInterleavedCameraFrames() throws Exception {
+        byte[][] jpegs = {
+                SessionRecording.fakeJpeg(150_000, 4000, 3000, 1),
+                SessionRecording.fakeJpeg(40_000, 1920, 1080, 2),
+                SessionRecording.fakeJpeg(90_000, 640, 480, 3),
+        };
+        byte[] session = new SessionRecording().handshake()
+                .interleavedCameraImages(jpegs, 4096)
+                .heartbeats(1)
+                .toByteArray();
+
+        List<String> controlLines = new ArrayList<>();
+        Map<Integer, byte[]> images = new ConcurrentHashMap<>();
+        CameraTransferDemultiplexer demultiplexer = new CameraTransferDemultiplexer(new CameraTransferDemultiplexer.Listener() {
+            @Override public void onCameraTransferStarted(int cameraId, int length) {}
+            @Override public void onCameraTransferProgress(int cameraId, int percent) {}
+            @Override public void onCameraTransferComplete(int cameraId, byte[] data) { images.put(cameraId, data); }
+        });
+        FrameScanner scanner = new FrameScanner(new FrameScannerAdapter() {
+            @Override public void onControlLine(String line) { controlLines.add(line); }
+            @Override public void onCameraImageStart(int cameraId, int length) { demultiplexer.start(cameraId, length); }
+            @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) { demultiplexer.append(cameraId, chunk); }
+        });
+
+        // Сегменты некратны кускам - заголовки и данные режутся в произвольных местах
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session, 1500));
+        while (scanner.receive(channel)) {
+        }
+
+        assertEquals(jpegs.length, images.size());
+        for (int camera = 0; camera < jpegs.length; camera++) {
+            assertArrayEquals("camera " + camera, jpegs[camera], images.get(camera));
+        }
+        assertEquals(0, demultiplexer.getActiveTransfers());
+        assertEquals(List.of("SERVER_STATUS: PEER_CONNECTED", "PONG"), controlLines);
+    }
+
+    @Test
+    public void imageProcessor_decodesCamerasInParallel() throws Exception {
+        int cameras = 4;
+        byte[][] jpegs = new byte[cameras][];
+        for (int i = 0; i < cameras; i++) {
+            jpegs[i] = SessionRecording.fakeJpeg(200_000 + i * 1000, 1000 + i, 800 + i, i);
+        }
+
+        CameraListener listener = new CameraListener(cameras);
+        ImageProcessor processor = new ImageProcessor(listener, new TransferMetrics(), new JpegHeaderDecoder());
+        try {
+            for (int i = 0; i < cameras; i++) {
+                processor.beginCameraImage(i, jpegs[i].length);
+            }
+            // По куску от каждой камеры по кругу, как их присылает сервер
+            int chunk = 8192;
+            for (int offset = 0; offset < jpegs[0].length + cameras * 1000; offset += chunk) {
+                for (int i = 0; i < cameras; i++) {
+                    if (offset >= jpegs[i].length) continue;
+                    int n = Math.min(chunk, jpegs[i].length - offset);
+                    processor.appendCameraChunk(i, ByteBuffer.wrap(jpegs[i], offset, n));
+                }
+            }
+
+            assertTrue("decoded", listener.done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < cameras; i++) {
+                DecodedImage image = listener.images.get(i);
+                assertNotNull("camera " + i, image);
+                assertEquals(1000 + i, image.getFullWidth());
+                assertEquals(800 + i, image.getFullHeight());
+                // Последний процент - с последнего неполного куска; 100 сообщается уже готовым кадром
+                int progress = listener.lastProgress.get(i);
+                assertTrue("progress " + progress, progress >= 90 && progress <= 99);
+            }
+            assertTrue("decode pool threads: " + listener.decodeThreads, listener.decodeThreads.size() > 1);
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelCapture_overlapsCameraLatency() throws Exception {
+        int cameras = 3;
+        long captureDelayMs = 200;
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .cameras(cameras).supportsBinary(true).supportsMultiCamera(true).captureDelay(captureDelayMs);
+        byte[][] jpegs = new byte[cameras][];
+        for (int i = 0; i < cameras; i++) {
+            jpegs[i] = SessionRecording.fakeJpeg(300_000 + i * 7, 4000, 3000, 10 + i);
+            config.cameraImage(i, jpegs[i]);
+        }
+
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            RecordingTcpListener listener = new RecordingTcpListener(true, true);
+            TcpClient client = new TcpClient(listener, server.getHost(), server.getPort());
+            listener.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+                assertTrue(listener.multiCameraNegotiated);
+
+                // Как раньше: следующая камера - только после картинки предыдущей
+                long start = System.nanoTime();
+                for (int i = 0; i < cameras; i++) {
+                    CountDownLatch done = listener.expectCameraImages(1);
+                    client.sendMessage("TAKE_PHOTO_" + i);
+                    assertTrue("sequential " + i, done.await(10, TimeUnit.SECONDS));
+                    assertArrayEquals(jpegs[i], listener.cameraImages.get(i));
+                }
+                long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+
+                // Все запросы сразу: камеры снимают одновременно, картинки идут вперемешку
+                CountDownLatch done = listener.expectCameraImages(cameras);
+                start = System.nanoTime();
+                for (int i = 0; i < cameras; i++) {
+                    client.sendMessage("TAKE_PHOTO_" + i);
+                }
+                assertTrue("parallel", done.await(10, TimeUnit.SECONDS));
+                long parallelMs = (System.nanoTime() - start) / 1_000_000;
+                for (int i = 0; i < cameras; i++) {
+                    assertArrayEquals("camera " + i, jpegs[i], listener.cameraImages.get(i));
+                }
+
+                assertTrue("sequential " + sequentialMs + " ms", sequentialMs >= cameras * captureDelayMs);
+                assertTrue(cameras + " cameras: parallel " + parallelMs + " ms, sequential " + sequentialMs + " ms",
+                        parallelMs < sequentialMs * 2 / 3);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static class CameraListener implements ImageProcessor.ImageProcessorListener {
+        final CountDownLatch done;
+        final Map<Integer, DecodedImage> images = new ConcurrentHashMap<>();
+        final Map<Integer, Integer> lastProgress = new ConcurrentHashMap<>();
+        final Map<String, Boolean> decodeThreads = new ConcurrentHashMap<>();
+
+        CameraListener(int cameras) {
+            done = new CountDownLatch(cameras);
+        }
+
+        @Override
+        public void onCameraImageDecoded(int cameraId, DecodedImage image) {
+            decodeThreads.put(Thread.currentThread().getName(), true);
+            images.put(cameraId, image);
+            // Держим поток, чтобы остальные камеры успели уйти в другие потоки пула
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+
+        @Override public void onCameraProgress(int cameraId, int percent) { lastProgress.put(cameraId, percent); }
+        @Override public void onCameraError(int cameraId, String message) { fail(message); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+        @Override public void onImageDecoded(DecodedImage image) {}
+        @Override public void onProgressUpdate(int progress) {}
+        @Override public void onImageProcessingStart(String sizeText) {}
+        @Override public void onImageProcessingComplete() {}
+        @Override public void onError(String message) {}
+    }
+
+    private static class FrameScannerAdapter implements FrameScanner.Listener {
+        @Override public void onControlLine(String line) {}
+        @Override public void onTextImageStart(int expectedChars) {}
+        @Override public void onTextImagePayload(ByteBuffer payload) {}
+        @Override public void onTextImageEnd() {}
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) {}
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+}
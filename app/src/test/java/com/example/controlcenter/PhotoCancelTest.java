@@ -0,0 +1,328 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Новый снимок заменяет прежний: сервер останавливает прежнюю передачу по CANCEL_PHOTO_,
+// пришедшие байты отбрасываются, а декодирование отменённого снимка пропускается
+public class PhotoCancelTest {
+
+    private static final int CHUNK = 32 * 1024;
+
+    @Test
+    public void newPhotoStopsStaleTransferMidway() throws Exception {
+        byte[] stale = SessionRecording.fakeJpeg(1024 * 1024, 4000, 3000, 1);
+        byte[] wanted = SessionRecording.fakeJpeg(128 * 1024, 1600, 1200, 2);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .cameraImage(0, stale).cameraImage(1, wanted)
+                .supportsBinary(true).supportsResumable(true).supportsCancel(true)
+                .resumableChunkSize(CHUNK).bandwidth(1024 * 1024);
+
+        Recorder recorder = new Recorder();
+        CountingDecoder decoder = new CountingDecoder();
+        ImageProcessor processor = new ImageProcessor(recorder, new TransferMetrics(), decoder);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Wiring wiring = new Wiring(processor);
+            TcpClient client = new TcpClient(wiring, server.getHost(), server.getPort());
+            wiring.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", wiring.handshakeDone.await(5, TimeUnit.SECONDS));
+                assertTrue(wiring.cancelNegotiated);
+
+                processor.onPhotoRequested(0);
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("stale started", recorder.progressed.await(5, TimeUnit.SECONDS));
+
+                // Как ConnectionService.requestPhoto(1, true)
+                for (PhotoRequest request : processor.cancelPhotoRequests(true)) {
+                    client.sendMessage(ConnectionManager.CANCEL_PHOTO_COMMAND + request.cameraId);
+                }
+                processor.onPhotoRequested(1);
+                client.sendMessage("TAKE_PHOTO_1");
+
+                assertTrue("decoded", recorder.decodedLatch.await(10, TimeUnit.SECONDS));
+                assertTrue("cancel reply", wiring.cancelReplies.await(5, TimeUnit.SECONDS));
+                assertTrue(waitIdle(processor));
+            } finally {
+                client.close();
+            }
+
+            assertEquals(1, recorder.decoded.size());
+            assertEquals(1600, recorder.decoded.get(0).getFullWidth());
+            assertEquals(1, decoder.calls.get());
+            assertTrue(recorder.errors.isEmpty());
+            waitUntilCompleted(recorder, 1);
+            assertEquals(1, server.getPhotosCancelled());
+            // Прежний снимок остановлен посреди: ушло заметно меньше его полного размера
+            long staleSent = server.getBytesSent() - wanted.length;
+            assertTrue("stale photo: " + staleSent / 1024 + " KB of " + stale.length / 1024 + " KB sent",
+                    staleSent < stale.length / 2);
+            assertFalse(wiring.receiver.hasPendingTransfer());
+            assertEquals(0, server.getPendingTransfers());
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void sameCameraReplaceCancelsOnlyTheStalePhoto() throws Exception {
+        byte[] wanted = SessionRecording.fakeJpeg(128 * 1024, 1600, 1200, 2);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .cameraImage(0, wanted).supportsBinary(true).supportsCancel(true);
+
+        Recorder recorder = new Recorder();
+        ImageProcessor processor = new ImageProcessor(recorder, new TransferMetrics(), new CountingDecoder());
+        ConnectionManager connectionManager = new ConnectionManager(new SilentConnectionListener(), new TransferMetrics(), null);
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Wiring wiring = new Wiring(processor);
+            TcpClient client = new TcpClient(wiring, server.getHost(), server.getPort());
+            wiring.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", wiring.handshakeDone.await(5, TimeUnit.SECONDS));
+                assertTrue(wiring.cancelNegotiated);
+
+                // Прежний снимок той же камеры сервер уже отдал целиком, до клиента он ещё не дошёл
+                processor.onPhotoRequested(0);
+                // Как ConnectionService.requestPhoto(0, true); без соединения команды копятся и уходят одной пачкой
+                for (PhotoRequest request : processor.cancelPhotoRequests(true)) {
+                    connectionManager.sendCommand(ConnectionManager.CANCEL_PHOTO_COMMAND + request.cameraId);
+                }
+                processor.onPhotoRequested(0);
+                connectionManager.sendCommand("TAKE_PHOTO_0");
+                connectionManager.getCommandWriter().attach(client::sendMessages, List.of());
+
+                assertTrue("cancel reply", wiring.cancelReplies.await(5, TimeUnit.SECONDS));
+                // Отмена дошла раньше снимка и не задела его
+                assertTrue("decoded", recorder.decodedLatch.await(10, TimeUnit.SECONDS));
+                assertTrue(waitIdle(processor));
+            } finally {
+                client.close();
+            }
+
+            assertEquals(0, server.getPhotosCancelled());
+            assertEquals(1, recorder.decoded.size());
+            assertEquals(1600, recorder.decoded.get(0).getFullWidth());
+            assertTrue(recorder.errors.isEmpty());
+        } finally {
+            connectionManager.shutdown();
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledPhotosSkipDecodeAndStayOffScreen() throws Exception {
+        byte[] first = SessionRecording.fakeJpeg(64 * 1024, 640, 480, 1);
+        byte[] second = SessionRecording.fakeJpeg(64 * 1024, 800, 600, 2);
+        byte[] third = SessionRecording.fakeJpeg(64 * 1024, 1024, 768, 3);
+        Recorder recorder = new Recorder();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountingDecoder decoder = new CountingDecoder(gate);
+        ImageProcessor processor = new ImageProcessor(recorder, new TransferMetrics(), decoder);
+        try {
+            // Первый снимок декодируется (декодер ждёт), второй принят и ждёт в очереди
+            processor.onPhotoRequested(1);
+            processor.beginBinaryImage(first.length);
+            processor.processBinaryImage(first);
+            // Декодирование асинхронное: отменяем, только когда первый снимок уже в декодере
+            assertTrue("first decode", decoder.started.await(5, TimeUnit.SECONDS));
+            assertTrue(processor.cancelPhotoRequests(true).isEmpty());
+            processor.onPhotoRequested(2);
+            processor.beginBinaryImage(second.length);
+            processor.processBinaryImage(second);
+
+            // Третий заменяет оба, пока первый ещё декодируется
+            assertTrue(processor.cancelPhotoRequests(true).isEmpty());
+            processor.onPhotoRequested(3);
+            gate.countDown();
+            processor.beginBinaryImage(third.length);
+            processor.onBinaryImageProgress(third.length / 2, third.length);
+            processor.processBinaryImage(third);
+
+            assertTrue("decoded", recorder.decodedLatch.await(5, TimeUnit.SECONDS));
+            assertTrue(waitIdle(processor));
+            // Первый успел начать декодироваться - результат не показан; второй не декодировался вовсе
+            assertEquals(2, decoder.calls.get());
+            assertEquals(1, recorder.decoded.size());
+            assertEquals(1024, recorder.decoded.get(0).getFullWidth());
+            waitUntilCompleted(recorder, 1);
+
+            // Картинка отменённого снимка, пришедшая целиком после отмены: байты отбрасываются без декодирования
+            processor.onPhotoRequested(4);
+            processor.beginBinaryImage(first.length);
+            List<PhotoRequest> pending = processor.cancelPhotoRequests(true);
+            assertEquals(1, pending.size());
+            assertEquals(4, pending.get(0).cameraId);
+            processor.onPhotoRequested(5);
+            processor.processBinaryImage(first);
+            // Ответ сервера после того, как картинка пришла, ничего не сбрасывает
+            assertFalse(processor.onPhotoCancelled(4));
+            processor.beginBinaryImage(second.length);
+            processor.processBinaryImage(second);
+            waitUntilDecoded(recorder, 2);
+            assertEquals(3, decoder.calls.get());
+            assertEquals(800, recorder.decoded.get(1).getFullWidth());
+            assertTrue(waitIdle(processor));
+            assertTrue(recorder.errors.isEmpty());
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    private static void waitUntilDecoded(Recorder recorder, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recorder.decoded.size() < count) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // Передача считается законченной чуть раньше, чем UI узнаёт о конце загрузки: ждём сами уведомления.
+    // Вызывать после waitIdle - тогда все посчитанные передачи уже закончились и лишних уведомлений не будет
+    private static void waitUntilCompleted(Recorder recorder, int count) throws InterruptedException {
+        assertTrue("timed out", recorder.completions.tryAcquire(count, 5, TimeUnit.SECONDS));
+        assertEquals(count, recorder.completed.get());
+    }
+
+    private static boolean waitIdle(ImageProcessor processor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!processor.getActiveTransfers().isIdle()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Декодер, считающий вызовы; с gate первый вызов ждёт, пока тест его не отпустит
+    private static class CountingDecoder extends JpegHeaderDecoder {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch gate;
+
+        CountingDecoder() {
+            this(new CountDownLatch(0));
+        }
+
+        CountingDecoder(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public DecodedImage decode(byte[] data, int length, int targetWidth, int targetHeight) {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.decode(data, length, targetWidth, targetHeight);
+        }
+    }
+
+    private static class Recorder implements ImageProcessor.ImageProcessorListener {
+        final List<DecodedImage> decoded = new CopyOnWriteArrayList<>();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch decodedLatch = new CountDownLatch(1);
+        final CountDownLatch progressed = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        final Semaphore completions = new Semaphore(0);
+
+        @Override
+        public void onImageDecoded(DecodedImage image) {
+            decoded.add(image);
+            decodedLatch.countDown();
+        }
+
+        @Override
+        public void onProgressUpdate(int progress) {
+            if (progress > 0) this.progressed.countDown();
+        }
+
+        @Override
+        public void onImageProcessingComplete() {
+            completed.incrementAndGet();
+            completions.release();
+        }
+
+        @Override public void onImageProcessingStart(String sizeText) {}
+        @Override public void onError(String message) { errors.add(message); }
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) {}
+        @Override public void onCameraError(int cameraId, String message) { errors.add(message); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+    }
+
+    // Приём как у ConnectionService: куски с докачкой - в ImageProcessor, PHOTO_CANCELLED сбрасывает приём
+    private static class Wiring implements TcpClient.OnMessageReceived {
+        final CountDownLatch handshakeDone = new CountDownLatch(1);
+        final CountDownLatch cancelReplies = new CountDownLatch(1);
+        final ImageProcessor processor;
+        final ResumableImageReceiver receiver;
+        volatile boolean cancelNegotiated;
+        TcpClient client;
+
+        Wiring(ImageProcessor processor) {
+            this.processor = processor;
+            this.receiver = new ResumableImageReceiver(new ResumableImageReceiver.Listener() {
+                @Override public void onTransferStarted(int length) { processor.beginBinaryImage(length); }
+                @Override public void onTransferProgress(int received, int length) { processor.onBinaryImageProgress(received, length); }
+                @Override public void onTransferComplete(byte[] data) { processor.processBinaryImage(data); }
+                @Override public void onTransferFailed(String reason) { processor.abortImageTransfer(reason); }
+            }, command -> client.sendMessage(command), new TransferMetrics());
+        }
+
+        @Override
+        public void connectionEstablished() {
+            client.sendMessage("ID:CONTROL");
+            client.sendMessage(ConnectionManager.BINARY_IMAGE_REQUEST);
+            client.sendMessage(ConnectionManager.RESUMABLE_REQUEST);
+            client.sendMessage(ConnectionManager.CANCEL_REQUEST);
+            client.sendMessage("PING");
+        }
+
+        @Override
+        public void messageReceived(ProtocolMessage message) {
+            switch (message.type) {
+                case CAPS_ACK:
+                    if (message.line.equals(ConnectionManager.CANCEL_ACK)) cancelNegotiated = true;
+                    if (message.line.equals(ConnectionManager.RESUMABLE_ACK)) receiver.onResumeAvailable();
+                    break;
+                case PHOTO_CANCELLED:
+                    if (processor.onPhotoCancelled(((ProtocolMessage.PhotoCancelled) message).cameraId)) receiver.abort();
+                    cancelReplies.countDown();
+                    break;
+                case PONG:
+                    handshakeDone.countDown();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override public void connectionLost() { receiver.onConnectionLost(); }
+        @Override public void textImageStarted(int expectedChars) { processor.beginTextImage(expectedChars); }
+        @Override public void textImagePayload(ByteBuffer payload) { processor.appendPayload(payload); }
+        @Override public void textImageFinished() { processor.finishTextImage(); }
+        @Override public void binaryImageStarted(int length) { processor.beginBinaryImage(length); }
+        @Override public void binaryImageProgress(int received, int length) { processor.onBinaryImageProgress(received, length); }
+        @Override public void binaryImageReceived(byte[] data) { processor.processBinaryImage(data); }
+        @Override public void cameraImageStarted(int cameraId, int length) {}
+        @Override public void cameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void resumableImageStarted(int transferId, int length, int chunkSize) { receiver.onImageStart(transferId, length, chunkSize); }
+        @Override public void resumableChunkStarted(int transferId, int offset, int length, long crc) { receiver.onChunkStart(transferId, offset, length, crc); }
+        @Override public void resumableChunkData(ByteBuffer data) { receiver.onChunkData(data); }
+        @Override public void liveFrameStarted(int cameraId, int sequence, int length) {}
+        @Override public void liveFrameData(ByteBuffer data) {}
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// CAPS:PREVIEW: маленькое превью показывается, пока полный кадр ещё идёт, и заменяется им;
+// время до первого изображения считается отдельно от времени до полного кадра
+public class PreviewCaptureTest {
+
+    @Test
+    public void binaryPreviewArrivesLongBeforeFullFrame() throws Exception {
+        checkPreviewBeforeFullFrame(true);
+    }
+
+    @Test
+    public void textPreviewArrivesLongBeforeFullFrame() throws Exception {
+        checkPreviewBeforeFullFrame(false);
+    }
+
+    private void checkPreviewBeforeFullFrame(boolean binary) throws Exception {
+        byte[] full = SessionRecording.fakeJpeg(1024 * 1024, 4000, 3000, 1);
+        byte[] preview = SessionRecording.fakeJpeg(12 * 1024, 400, 300, 2);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .image(full).preview(preview).supportsBinary(binary).bandwidth(2 * 1024 * 1024);
+
+        TransferMetrics metrics = new TransferMetrics();
+        Screen screen = new Screen(metrics);
+        ImageProcessor processor = new ImageProcessor(screen, metrics, new JpegHeaderDecoder());
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Wiring wiring = new Wiring(processor);
+            TcpClient client = new TcpClient(wiring, server.getHost(), server.getPort());
+            wiring.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", wiring.handshakeDone.await(5, TimeUnit.SECONDS));
+                assertTrue(wiring.previewNegotiated);
+
+                processor.onPhotoRequested(0);
+                metrics.markPhotoRequested();
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("full frame", screen.fullShown.await(10, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+
+            assertEquals(1, server.getPreviewsSent());
+            assertEquals(List.of(400, 4000), screen.shownWidths);
+            assertTrue(screen.errors.isEmpty());
+            // Превью не трогает прогресс полного кадра и не заканчивает загрузку
+            assertEquals(1, screen.processingStarts.get());
+            // Конец загрузки сообщается уже после показа кадра
+            assertTrue("complete", screen.loadingDone.await(5, TimeUnit.SECONDS));
+            assertEquals(1, screen.completed.get());
+            assertTrue(waitIdle(processor));
+
+            long firstPixel = metrics.getRequestToFirstPixel().getMax();
+            long fullFrame = metrics.getRequestToScreen().getMax();
+            assertEquals(1, metrics.getRequestToFirstPixel().getCount());
+            assertEquals(1, metrics.getRequestToScreen().getCount());
+            assertTrue((binary ? "binary" : "text") + ": first pixel " + firstPixel + " ms, full " + fullFrame + " ms",
+                    firstPixel * 4 < fullFrame);
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void withoutPreviewFirstPixelIsTheFullFrame() {
+        TransferMetrics metrics = new TransferMetrics();
+        metrics.markPhotoRequested();
+        metrics.markImageShown();
+        assertEquals(1, metrics.getRequestToFirstPixel().getCount());
+        assertEquals(1, metrics.getRequestToScreen().getCount());
+
+        // Второе превью того же снимка первое изображение не переписывает
+        metrics.markPhotoRequested();
+        metrics.markPreviewShown();
+        metrics.markPreviewShown();
+        metrics.markImageShown();
+        assertEquals(2, metrics.getRequestToFirstPixel().getCount());
+        assertEquals(2, metrics.getRequestToScreen().getCount());
+    }
+
+    @Test
+    public void replacedPhotoWithPreviewDropsItsFullFrame() throws Exception {
+        byte[] preview = SessionRecording.fakeJpeg(4 * 1024, 320, 240, 1);
+        byte[] stale = SessionRecording.fakeJpeg(64 * 1024, 3200, 2400, 2);
+        byte[] wanted = SessionRecording.fakeJpeg(64 * 1024, 1600, 1200, 3);
+        TransferMetrics metrics = new TransferMetrics();
+        Screen screen = new Screen(metrics);
+        ImageProcessor processor = new ImageProcessor(screen, metrics, new JpegHeaderDecoder());
+        try {
+            processor.onPhotoRequested(1);
+            processor.onPreviewAnnounced(1);
+            processor.beginBinaryImage(preview.length);
+            processor.processBinaryImage(preview);
+            assertTrue("preview", screen.previewShown.await(5, TimeUnit.SECONDS));
+
+            // Сервер без отмены: снимок с пришедшим превью не забывается, а отменяется -
+            // его полный кадр придёт и не должен достаться новому снимку
+            assertEquals(1, processor.cancelPhotoRequests(false).size());
+            processor.onPhotoRequested(2);
+            processor.beginBinaryImage(stale.length);
+            processor.processBinaryImage(stale);
+            processor.beginBinaryImage(wanted.length);
+            processor.processBinaryImage(wanted);
+
+            assertTrue("full frame", screen.fullShown.await(5, TimeUnit.SECONDS));
+            assertTrue(waitIdle(processor));
+            assertEquals(List.of(320, 1600), screen.shownWidths);
+            assertTrue(screen.errors.isEmpty());
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    private static boolean waitIdle(ImageProcessor processor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!processor.getActiveTransfers().isIdle()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Как CommunicationViewModel с экраном: показанное сразу отмечается в метриках
+    private static class Screen implements ImageProcessor.ImageProcessorListener {
+        final List<Integer> shownWidths = new CopyOnWriteArrayList<>();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final CountDownLatch previewShown = new CountDownLatch(1);
+        final CountDownLatch fullShown = new CountDownLatch(1);
+        final CountDownLatch loadingDone = new CountDownLatch(1);
+        final AtomicInteger processingStarts = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        private final TransferMetrics metrics;
+
+        Screen(TransferMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void onPreviewDecoded(DecodedImage preview) {
+            shownWidths.add(preview.getFullWidth());
+            metrics.markPreviewShown();
+            previewShown.countDown();
+        }
+
+        @Override
+        public void onImageDecoded(DecodedImage image) {
+            shownWidths.add(image.getFullWidth());
+            metrics.markImageShown();
+            fullShown.countDown();
+        }
+
+        @Override public void onProgressUpdate(int progress) {}
+        @Override public void onImageProcessingStart(String sizeText) { processingStarts.incrementAndGet(); }
+        @Override public void onImageProcessingComplete() { completed.incrementAndGet(); loadingDone.countDown(); }
+        @Override public void onError(String message) { errors.add(message); }
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) {}
+        @Override public void onCameraError(int cameraId, String message) { errors.add(message); }
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+    }
+
+    // Приём как у ConnectionService: PREVIEW: уходит в ImageProcessor на том же потоке, что и картинки
+    private static class Wiring implements TcpClient.OnMessageReceived {
+        final CountDownLatch handshakeDone = new CountDownLatch(1);
+        final ImageProcessor processor;
+        volatile boolean previewNegotiated;
+        TcpClient client;
+
+        Wiring(ImageProcessor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void connectionEstablished() {
+            client.sendMessage("ID:CONTROL");
+            client.sendMessage(ConnectionManager.BINARY_IMAGE_REQUEST);
+            client.sendMessage(ConnectionManager.PREVIEW_REQUEST);
+            client.sendMessage("PING");
+        }
+
+        @Override
+        public void messageReceived(ProtocolMessage message) {
+            switch (message.type) {
+                case CAPS_ACK:
+                    if (message.line.equals(ConnectionManager.PREVIEW_ACK)) previewNegotiated = true;
+                    break;
+                case PREVIEW:
+                    processor.onPreviewAnnounced(((ProtocolMessage.Preview) message).cameraId);
+                    break;
+                case PONG:
+                    handshakeDone.countDown();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override public void connectionLost() {}
+        @Override public void textImageStarted(int expectedChars) { processor.beginTextImage(expectedChars); }
+        @Override public void textImagePayload(ByteBuffer payload) { processor.appendPayload(payload); }
+        @Override public void textImageFinished() { processor.finishTextImage(); }
+        @Override public void binaryImageStarted(int length) { processor.beginBinaryImage(length); }
+        @Override public void binaryImageProgress(int received, int length) { processor.onBinaryImageProgress(received, length); }
+        @Override public void binaryImageReceived(byte[] data) { processor.processBinaryImage(data); }
+        @Override public void cameraImageStarted(int cameraId, int length) {}
+        @Override public void cameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void resumableImageStarted(int transferId, int length, int chunkSize) {}
+        @Override public void resumableChunkStarted(int transferId, int offset, int length, long crc) {}
+        @Override public void resumableChunkData(ByteBuffer data) {}
+        @Override public void liveFrameStarted(int cameraId, int sequence, int length) {}
+        @Override public void liveFrameData(ByteBuffer data) {}
+    }
+}
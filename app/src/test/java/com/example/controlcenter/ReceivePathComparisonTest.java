@@ -0,0 +1,109 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Текстовая картинка через SocketChannel + FrameScanner против прежнего потокового чтения строк:
+// пропускная способность, число сборок мусора и объём аллокаций на потоке приёма
+public class ReceivePathComparisonTest {
+
+    private static final int IMAGE_SIZE = 8 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void channelAndStreamReceiversDeliverSameBytes() throws Exception {
+        byte[] image = new byte[IMAGE_SIZE];
+        new Random(7).nextBytes(image);
+
+        try (LoopbackRelayServer server = new LoopbackRelayServer(image, false)) {
+            // Прогрев обоих путей, чтобы JIT не исказил первое измерение
+            measure(server, image, false);
+            measure(server, image, true);
+
+            Measurement stream = measure(server, image, false);
+            Measurement channel = measure(server, image, true);
+            // Ради этого и переходили на канал: без String на строку поток приёма выделяет заметно меньше
+            if (stream.allocatedBytes >= 0 && channel.allocatedBytes >= 0) {
+                assertTrue("stream receiver: " + stream + "; channel receiver: " + channel,
+                        channel.allocatedBytes < stream.allocatedBytes);
+            }
+        }
+    }
+
+    private static Measurement measure(LoopbackRelayServer server, byte[] image, boolean channelReceiver) throws Exception {
+        Measurement m = new Measurement();
+        for (int round = 0; round < ROUNDS; round++) {
+            RecordingTcpListener listener = new RecordingTcpListener(false);
+            TcpClient client = new TcpClient(listener, server.getHost(), server.getPort(), channelReceiver);
+            listener.client = client;
+            try {
+                client.connect();
+                assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+
+                long gcCountBefore = gcCount();
+                long gcTimeBefore = gcTimeMs();
+                long allocatedBefore = allocatedBytes(listener.receiveThreadId);
+                long start = System.nanoTime();
+
+                client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("image", listener.imageDone.await(30, TimeUnit.SECONDS));
+
+                m.nanos += System.nanoTime() - start;
+                m.gcCount += gcCount() - gcCountBefore;
+                m.gcTimeMs += gcTimeMs() - gcTimeBefore;
+                m.allocatedBytes += allocatedBytes(listener.receiveThreadId) - allocatedBefore;
+                assertArrayEquals(image, listener.data);
+            } finally {
+                client.close();
+            }
+        }
+        return m;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcTimeMs() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    // Аллокации конкретного потока доступны только на HotSpot; иначе -1
+    private static long allocatedBytes(long threadId) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId);
+        }
+        return -1;
+    }
+
+    private static class Measurement {
+        long nanos;
+        long gcCount;
+        long gcTimeMs;
+        long allocatedBytes;
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1e9;
+            return String.format("%.1f MB/s, %d GC (%d ms), %.1f MB allocated on receive thread",
+                    (double) IMAGE_SIZE * ROUNDS / seconds / (1024 * 1024), gcCount, gcTimeMs,
+                    allocatedBytes / (1024.0 * 1024));
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.controlcenter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Бенчмарки горячего пути приёма на JVM по записанным сессиям: разбор протокола,
+// сборка Base64 и полный конвейер ImageProcessor. Только по запросу: -Pbenchmark=quick,
+// полный (снимки до 50 МБ) - с -Pbenchmark=full
+public class ReceivePipelineBenchmark {
+
+    private static final int SEGMENT = 16 * 1024;
+    private static final int[] IMAGE_SIZES_MB = MicroBenchmark.FULL ? new int[]{1, 8, 25, 50} : new int[]{1, 8};
+    private static final int FRAME_WIDTH = 8000;
+    private static final int FRAME_HEIGHT = 6000;
+
+    @Before
+    public void onlyOnRequest() {
+        MicroBenchmark.assumeRequested();
+    }
+
+    @Test
+    public void parseMixedSession() throws Exception {
+        SessionRecording recording = new SessionRecording().handshake().cameraList(32).heartbeats(20);
+        for (int i = 0; i < 4; i++) {
+            recording.textImage(SessionRecording.fakeJpeg(1024 * 1024, FRAME_WIDTH, FRAME_HEIGHT, i)).heartbeats(5);
+        }
+        byte[] session = recording.toByteArray();
+
+        CountingListener listener = new CountingListener();
+        MicroBenchmark.run("parse session (32 cams, 4x1MB, PONGs)", () -> {
+            listener.reset();
+            replay(session, new FrameScanner(listener));
+            assertEquals(4, listener.images);
+            assertEquals(32 + 1 + 20 + 4 * 5, listener.controlLines);
+            return session.length;
+        });
+    }
+
+    @Test
+    public void reassembleTextImages() throws Exception {
+        for (int mb : IMAGE_SIZES_MB) {
+            byte[] jpeg = SessionRecording.fakeJpeg(mb * 1024 * 1024, FRAME_WIDTH, FRAME_HEIGHT, mb);
+            byte[] session = new SessionRecording().textImage(jpeg).toByteArray();
+            StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+
+            MicroBenchmark.run("reassemble " + mb + " MB (scanner+base64)", () -> {
+                replay(session, new FrameScanner(new CountingListener() {
+                    @Override
+                    public void onTextImageStart(int expectedChars) {
+                        decoder.reset(expectedChars);
+                    }
+
+                    @Override
+                    public void onTextImagePayload(ByteBuffer payload) {
+                        decoder.feed(payload);
+                    }
+
+                    @Override
+                    public void onTextImageEnd() {
+                        decoder.finish();
+                    }
+                }));
+                assertEquals(jpeg.length, decoder.size());
+                return jpeg.length;
+            });
+        }
+    }
+
+    @Test
+    public void fullPipelineScannerVsLegacyReader() throws Exception {
+        for (int mb : IMAGE_SIZES_MB) {
+            byte[] jpeg = SessionRecording.fakeJpeg(mb * 1024 * 1024, FRAME_WIDTH, FRAME_HEIGHT, mb);
+            byte[] session = new SessionRecording().textImage(jpeg).toByteArray();
+
+            PipelineListener listener = new PipelineListener();
+            ImageProcessor processor = new ImageProcessor(listener, new TransferMetrics(), new JpegHeaderDecoder());
+            FrameScanner.Listener toProcessor = new CountingListener() {
+                @Override
+                public void onTextImageStart(int expectedChars) {
+                    processor.beginTextImage(expectedChars);
+                }
+
+                @Override
+                public void onTextImagePayload(ByteBuffer payload) {
+                    processor.appendPayload(payload);
+                }
+
+                @Override
+                public void onTextImageEnd() {
+                    processor.finishTextImage();
+                }
+            };
+            try {
+                MicroBenchmark.run("pipeline " + mb + " MB (legacy reader)", () -> {
+                    listener.expect();
+                    ProtocolReader reader = new ProtocolReader(SessionRecording.segmented(session, SEGMENT));
+                    StreamLineScanner lines = new StreamLineScanner(toProcessor);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.line(line);
+                    }
+                    listener.await();
+                    return jpeg.length;
+                });
+
+                MicroBenchmark.run("pipeline " + mb + " MB (frame scanner)", () -> {
+                    listener.expect();
+                    replay(session, new FrameScanner(toProcessor));
+                    listener.await();
+                    return jpeg.length;
+                });
+            } finally {
+                processor.shutdown();
+            }
+        }
+    }
+
+    // Стоимость одной управляющей строки: разбор MessageParser и раздача MessageRouter
+    // против прежней цепочки startsWith/contains/split в TcpClient, ConnectionManager и ViewModel
+    @Test
+    public void classifyControlLines() throws Exception {
+        String[] sample = {
+                "PONG",
+                "SERVER_STATUS: PEER_CONNECTED",
+                "0 -- Камера входа",
+                "17 -- Склад, ворота 2",
+                "CAPS_ACK:BINARY_IMAGE",
+                "SERVER_STATUS: PEER_DISCONNECTED",
+                "Снимок сохранён",
+                "PING",
+        };
+        int repeat = MicroBenchmark.FULL ? 200_000 : 20_000;
+        byte[][] lines = new byte[sample.length][];
+        long bytes = 0;
+        for (int i = 0; i < sample.length; i++) {
+            lines[i] = (sample[i] + "\n").getBytes(StandardCharsets.UTF_8);
+            bytes += lines[i].length;
+        }
+        long sessionBytes = bytes * repeat;
+        long lineCount = (long) sample.length * repeat;
+
+        int[] handled = new int[1];
+        MessageRouter router = new MessageRouter();
+        for (ProtocolMessage.Type type : ProtocolMessage.Type.values()) {
+            router.on(type, message -> handled[0]++);
+        }
+        router.on(ProtocolMessage.Type.CAMERA, (ProtocolMessage.Camera camera) -> handled[0] += camera.id);
+
+        MicroBenchmark.Result routed = MicroBenchmark.run("control lines (parser+router)", () -> {
+            handled[0] = 0;
+            for (int r = 0; r < repeat; r++) {
+                for (byte[] line : lines) {
+                    // Как в FrameScanner: строка без \n прямо из буфера приёма
+                    router.route(MessageParser.parse(line, 0, line.length - 1));
+                }
+            }
+            assertEquals(lineCount + 17L * repeat, handled[0]);
+            return sessionBytes;
+        });
+
+        MicroBenchmark.Result legacy = MicroBenchmark.run("control lines (startsWith chain)", () -> {
+            handled[0] = 0;
+            for (int r = 0; r < repeat; r++) {
+                for (byte[] line : lines) {
+                    String message = new String(line, 0, line.length - 1, StandardCharsets.UTF_8);
+                    handled[0] += legacyDispatch(message);
+                }
+            }
+            assertEquals(lineCount + 17L * repeat, handled[0]);
+            return sessionBytes;
+        });
+
+        System.out.printf("ns/line: parser+router %.1f, startsWith chain %.1f%n",
+                (double) routed.nanos / (lineCount * MicroBenchmark.MEASURE_ITERATIONS),
+                (double) legacy.nanos / (lineCount * MicroBenchmark.MEASURE_ITERATIONS));
+    }
+
+    // Прежний разбор строки: каждая проверка заново по всей цепочке, trim и split на строку камеры
+    private static int legacyDispatch(String message) {
+        if (message.trim().isEmpty()) return 0;
+        int handled = 0;
+        if (message.startsWith("SERVER_STATUS: PEER_CONNECTED")) {
+            handled++;
+        } else if (message.startsWith("SERVER_STATUS: PEER_DISCONNECTED")) {
+            handled++;
+        } else if (message.startsWith("SERVER_ERROR: CONNECTION_LIMIT_REACHED")) {
+            handled++;
+        }
+        if (message.equals("PONG")) return 1;
+        if (message.startsWith(ConnectionManager.BINARY_IMAGE_ACK)
+                || message.startsWith(ConnectionManager.MULTI_CAMERA_ACK)
+                || message.startsWith(ConnectionManager.COMPRESSION_ACK)
+                || message.startsWith(ConnectionManager.RESUMABLE_ACK)
+                || message.startsWith(ResumableImageReceiver.RESUME_FAILED)) {
+            return 1;
+        }
+        String trimmed = message.trim();
+        if (trimmed.equalsIgnoreCase("PING") || trimmed.equalsIgnoreCase("PONG")) return 1;
+        if (trimmed.contains("SIZE:")) return 1;
+        if (trimmed.startsWith("SERVER_STATUS:")) return handled;
+        if (trimmed.contains(" -- ")) {
+            String[] parts = trimmed.split(" -- ");
+            String description = parts[1].trim();
+            return description.isEmpty() ? 0 : 1 + Integer.parseInt(parts[0].trim());
+        }
+        return 1;
+    }
+
+    private static void replay(byte[] session, FrameScanner scanner) throws Exception {
+        ReadableByteChannel channel = Channels.newChannel(SessionRecording.segmented(session, SEGMENT));
+        while (scanner.receive(channel)) {
+            // до конца записи
+        }
+    }
+
+    private static class CountingListener implements FrameScanner.Listener {
+        int controlLines;
+        int images;
+
+        void reset() {
+            controlLines = 0;
+            images = 0;
+        }
+
+        @Override public void onControlLine(String line) { controlLines++; }
+        @Override public void onTextImageStart(int expectedChars) {}
+        @Override public void onTextImagePayload(ByteBuffer payload) {}
+        @Override public void onTextImageEnd() { images++; }
+        @Override public void onBinaryImageStart(int length) {}
+        @Override public void onBinaryImageProgress(int received, int length) {}
+        @Override public void onBinaryImageEnd(byte[] data) { images++; }
+        @Override public void onCameraImageStart(int cameraId, int length) {}
+        @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+        @Override public void onResumableImageStart(int transferId, int length, int chunkSize) {}
+        @Override public void onResumableChunkStart(int transferId, int offset, int length, long crc) {}
+        @Override public void onResumableChunkData(ByteBuffer data) {}
+    }
+
+    private static class PipelineListener implements ImageProcessor.ImageProcessorListener {
+        private volatile CountDownLatch done;
+        private volatile DecodedImage image;
+
+        void expect() {
+            image = null;
+            done = new CountDownLatch(1);
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("decode", done.await(60, TimeUnit.SECONDS));
+            assertNotNull("decoded image", image);
+            assertEquals(FRAME_WIDTH, image.getFullWidth());
+        }
+
+        @Override public void onImageDecoded(DecodedImage decoded) { image = decoded; }
+        @Override public void onProgressUpdate(int progress) {}
+        @Override public void onImageProcessingStart(String sizeText) {}
+        @Override public void onImageProcessingComplete() { done.countDown(); }
+        @Override public void onError(String message) { done.countDown(); }
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) {}
+        @Override public void onCameraError(int cameraId, String message) {}
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+// Переподключение: задержки ReconnectPolicy и гонка подключений EndpointRacer
+public class ReconnectTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void failedAttemptsBackOffExponentiallyWithinBounds() {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(1));
+        long previousCeiling = 0;
+        for (int attempt = 1; attempt <= 12; attempt++) {
+            long delay = policy.nextDelayMs(attempt * SECOND);
+            long ceiling = Math.min(ReconnectPolicy.MAX_DELAY_MS, ReconnectPolicy.BASE_DELAY_MS << (attempt - 1));
+            assertTrue("attempt " + attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+        assertEquals(12, policy.getFailures());
+    }
+
+    @Test
+    public void dropOfWorkingConnectionRetriesAlmostImmediately() {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(2));
+        policy.nextDelayMs(0);
+        policy.nextDelayMs(SECOND);
+
+        policy.onConnected(2 * SECOND);
+        long delay = policy.nextDelayMs(2 * SECOND + ReconnectPolicy.STABLE_CONNECTION_MS * 1_000_000);
+        assertTrue("delay " + delay, delay < ReconnectPolicy.IMMEDIATE_JITTER_MS);
+        assertEquals(0, policy.getFailures());
+
+        // Соединение, которое тут же оборвалось, рабочим не считается
+        policy.onConnected(100 * SECOND);
+        delay = policy.nextDelayMs(100 * SECOND + 1_000_000);
+        assertEquals(1, policy.getFailures());
+        assertTrue("delay " + delay, delay >= ReconnectPolicy.BASE_DELAY_MS / 2);
+    }
+
+    @Test
+    public void connectionLimitGetsLongCooldown() {
+        ReconnectPolicy policy = new ReconnectPolicy(new Random(3));
+        policy.onConnected(0);
+        policy.onLimitReached();
+        long delay = policy.nextDelayMs(SECOND);
+        assertTrue("delay " + delay, delay >= ReconnectPolicy.LIMIT_COOLDOWN_MS
+                && delay < ReconnectPolicy.LIMIT_COOLDOWN_MS * 3 / 2);
+
+        // Пауза разовая: дальше обычная экспоненциальная задержка
+        delay = policy.nextDelayMs(2 * SECOND);
+        assertTrue("delay " + delay, delay < ReconnectPolicy.LIMIT_COOLDOWN_MS);
+    }
+
+    @Test
+    public void clientsDroppedTogetherSpreadOut() {
+        // Сотня клиентов, оборванных перезапуском реле: задержки не совпадают
+        Set<Long> delays = new HashSet<>();
+        for (int client = 0; client < 100; client++) {
+            ReconnectPolicy policy = new ReconnectPolicy(new Random(client));
+            policy.nextDelayMs(0);
+            policy.nextDelayMs(SECOND);
+            delays.add(policy.nextDelayMs(2 * SECOND));
+        }
+        assertTrue("distinct delays " + delays.size(), delays.size() > 50);
+    }
+
+    @Test
+    public void raceSkipsDeadRelay() throws Exception {
+        try (LoopbackRelayServer server = new LoopbackRelayServer(new LoopbackRelayServer.Config())) {
+            List<EndpointRacer.Endpoint> endpoints = Arrays.asList(
+                    new EndpointRacer.Endpoint(server.getHost(), closedPort()),
+                    new EndpointRacer.Endpoint(server.getHost(), server.getPort()));
+            long started = System.nanoTime();
+            EndpointRacer.Connection connection = EndpointRacer.connect(endpoints, true);
+            try {
+                assertEquals(endpoints.get(1), connection.endpoint);
+                assertTrue(connection.socket.isConnected());
+                assertNotNull(connection.channel);
+                assertTrue((System.nanoTime() - started) / 1_000_000 < EndpointRacer.CONNECT_TIMEOUT_MS);
+            } finally {
+                connection.socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void preferredRelayWinsWithoutOpeningOthers() throws Exception {
+        try (LoopbackRelayServer preferred = new LoopbackRelayServer(new LoopbackRelayServer.Config());
+             LoopbackRelayServer other = new LoopbackRelayServer(new LoopbackRelayServer.Config())) {
+            List<EndpointRacer.Endpoint> endpoints = Arrays.asList(
+                    new EndpointRacer.Endpoint(preferred.getHost(), preferred.getPort()),
+                    new EndpointRacer.Endpoint(other.getHost(), other.getPort()));
+            EndpointRacer.Connection connection = EndpointRacer.connect(endpoints, false);
+            try {
+                assertEquals(endpoints.get(0), connection.endpoint);
+                assertNull(connection.channel);
+                Thread.sleep(EndpointRacer.STAGGER_MS * 2);
+                assertEquals(0, other.getConnectionsAccepted());
+            } finally {
+                connection.socket.close();
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void allRelaysDeadFails() throws Exception {
+        EndpointRacer.connect(Arrays.asList(
+                new EndpointRacer.Endpoint("127.0.0.1", closedPort()),
+                new EndpointRacer.Endpoint("127.0.0.1", closedPort())), true);
+    }
+
+    @Test
+    public void endpointParsing() {
+        EndpointRacer.Endpoint endpoint = EndpointRacer.Endpoint.parse(" relay.example:8080 ");
+        assertEquals("relay.example", endpoint.host);
+        assertEquals(8080, endpoint.port);
+        assertEquals("relay.example:8080", endpoint.toString());
+    }
+
+    // Порт, на котором точно никто не слушает: подключение будет отвергнуто сразу
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
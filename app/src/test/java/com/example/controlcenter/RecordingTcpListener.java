@@ -0,0 +1,213 @@
+package com.example.controlcenter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+// Повторяет рукопожатие ConnectionManager и сборку картинки из ImageProcessor, но без Bitmap.
+// Оба пути приёма (FrameScanner и строки ProtocolReader) дают одни и те же события,
+// а также чередующиеся картинки нескольких камер, если задан resumable, картинки кусками с докачкой,
+// если задан compressionThreshold, сжатие в обе стороны, и, если задан liveView, кадры живого просмотра
+public class RecordingTcpListener implements TcpClient.OnMessageReceived, CameraTransferDemultiplexer.Listener {
+
+    public final CountDownLatch handshakeDone = new CountDownLatch(1);
+    public final CountDownLatch imageDone = new CountDownLatch(1);
+    public final CountDownLatch connectionLost = new CountDownLatch(1);
+    public final CountDownLatch limitReached = new CountDownLatch(1);
+    public final CountDownLatch peerConnected = new CountDownLatch(1);
+    public final CountDownLatch peerDisconnected = new CountDownLatch(1);
+    private final StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+    private final boolean requestBinary;
+    private final boolean requestMultiCamera;
+    private final CameraTransferDemultiplexer cameraDemultiplexer = new CameraTransferDemultiplexer(this);
+    // Собранные картинки камер; ожидание задаёт тест перед запросом через expectCameraImages()
+    public final Map<Integer, byte[]> cameraImages = new ConcurrentHashMap<>();
+    public final Map<Integer, Long> cameraCompletedAt = new ConcurrentHashMap<>();
+    private volatile CountDownLatch cameraImagesDone = new CountDownLatch(0);
+    public volatile boolean multiCameraNegotiated;
+    public TcpClient client;
+    // Приёмник докачки; живёт дольше соединения, поэтому его создаёт тест и отдаёт каждому новому слушателю
+    public ResumableImageReceiver resumable;
+    public volatile boolean resumableNegotiated;
+    public volatile boolean binaryNegotiated;
+    // Порог сжатия исходящих после CAPS_ACK:DEFLATE; 0 - сжатие не запрашивается
+    public int compressionThreshold;
+    public volatile boolean compressionNegotiated;
+    // Конвейер живого просмотра; кадры LIVE_FRAME: идут в него с потока приёма
+    public LiveViewPipeline<?> liveView;
+    public volatile boolean liveViewNegotiated;
+    // Строки ответа на camList ("0 -- имя")
+    public final List<String> cameraLines = new CopyOnWriteArrayList<>();
+    public volatile byte[] data;
+    public volatile long receiveThreadId;
+
+    public RecordingTcpListener(boolean requestBinary) {
+        this(requestBinary, false);
+    }
+
+    public RecordingTcpListener(boolean requestBinary, boolean requestMultiCamera) {
+        this.requestBinary = requestBinary;
+        this.requestMultiCamera = requestMultiCamera;
+    }
+
+    public CountDownLatch expectCameraImages(int count) {
+        cameraImages.clear();
+        cameraCompletedAt.clear();
+        cameraImagesDone = new CountDownLatch(count);
+        return cameraImagesDone;
+    }
+
+    @Override
+    public void connectionEstablished() {
+        receiveThreadId = Thread.currentThread().getId();
+        client.sendMessage("ID:CONTROL");
+        if (requestBinary) {
+            client.sendMessage(ConnectionManager.BINARY_IMAGE_REQUEST);
+        }
+        if (requestMultiCamera) {
+            client.sendMessage(ConnectionManager.MULTI_CAMERA_REQUEST);
+        }
+        if (resumable != null) {
+            client.sendMessage(ConnectionManager.RESUMABLE_REQUEST);
+        }
+        if (compressionThreshold > 0) {
+            client.sendMessage(ConnectionManager.COMPRESSION_REQUEST);
+        }
+        if (liveView != null) {
+            client.sendMessage(ConnectionManager.LIVE_VIEW_REQUEST);
+        }
+        // Сервер отвечает по порядку: к PONG ответ на CAPS уже пришёл (или его не будет)
+        client.sendMessage("PING");
+    }
+
+    @Override
+    public void messageReceived(ProtocolMessage message) {
+        switch (message.type) {
+            case CAPS_ACK:
+                capsAcknowledged(message.line);
+                break;
+            case RESUME_FAILED:
+                resumable.onResumeFailed(((ProtocolMessage.ResumeFailed) message).transferId);
+                break;
+            case PONG:
+                handshakeDone.countDown();
+                break;
+            case PEER_CONNECTED:
+                peerConnected.countDown();
+                break;
+            case PEER_DISCONNECTED:
+                peerDisconnected.countDown();
+                break;
+            case CONNECTION_LIMIT:
+                limitReached.countDown();
+                break;
+            case CAMERA:
+                cameraLines.add(message.line);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void capsAcknowledged(String ack) {
+        if (ack.equals(ConnectionManager.BINARY_IMAGE_ACK)) {
+            binaryNegotiated = true;
+        } else if (ack.equals(ConnectionManager.MULTI_CAMERA_ACK)) {
+            multiCameraNegotiated = true;
+        } else if (ack.equals(ConnectionManager.RESUMABLE_ACK)) {
+            resumableNegotiated = true;
+            resumable.onResumeAvailable();
+        } else if (ack.equals(ConnectionManager.COMPRESSION_ACK)) {
+            compressionNegotiated = true;
+            client.enableCompression(compressionThreshold);
+        } else if (ack.equals(ConnectionManager.LIVE_VIEW_ACK)) {
+            liveViewNegotiated = true;
+        }
+    }
+
+    @Override
+    public void textImageStarted(int expectedChars) {
+        decoder.reset(expectedChars);
+    }
+
+    @Override
+    public void textImagePayload(ByteBuffer payload) {
+        decoder.feed(payload);
+    }
+
+    @Override
+    public void textImageFinished() {
+        decoder.finish();
+        data = Arrays.copyOf(decoder.array(), decoder.size());
+        imageDone.countDown();
+    }
+
+    @Override
+    public void binaryImageStarted(int length) {
+    }
+
+    @Override
+    public void binaryImageProgress(int received, int length) {
+    }
+
+    @Override
+    public void binaryImageReceived(byte[] bytes) {
+        data = bytes;
+        imageDone.countDown();
+    }
+
+    @Override
+    public void cameraImageStarted(int cameraId, int length) {
+        cameraDemultiplexer.start(cameraId, length);
+    }
+
+    @Override
+    public void cameraImageChunk(int cameraId, ByteBuffer chunk) {
+        cameraDemultiplexer.append(cameraId, chunk);
+    }
+
+    @Override
+    public void resumableImageStarted(int transferId, int length, int chunkSize) {
+        resumable.onImageStart(transferId, length, chunkSize);
+    }
+
+    @Override
+    public void resumableChunkStarted(int transferId, int offset, int length, long crc) {
+        resumable.onChunkStart(transferId, offset, length, crc);
+    }
+
+    @Override
+    public void resumableChunkData(ByteBuffer chunk) {
+        resumable.onChunkData(chunk);
+    }
+
+    @Override
+    public void liveFrameStarted(int cameraId, int sequence, int length) {
+        if (liveView != null) liveView.onFrameStart(cameraId, sequence, length);
+    }
+
+    @Override
+    public void liveFrameData(ByteBuffer data) {
+        if (liveView != null) liveView.onFrameData(data);
+    }
+
+    @Override public void onCameraTransferStarted(int cameraId, int length) {}
+    @Override public void onCameraTransferProgress(int cameraId, int percent) {}
+
+    @Override
+    public void onCameraTransferComplete(int cameraId, byte[] bytes) {
+        cameraImages.put(cameraId, bytes);
+        cameraCompletedAt.put(cameraId, System.nanoTime());
+        cameraImagesDone.countDown();
+    }
+
+    @Override
+    public void connectionLost() {
+        if (resumable != null) resumable.onConnectionLost();
+        connectionLost.countDown();
+    }
+}
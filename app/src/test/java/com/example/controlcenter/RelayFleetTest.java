@@ -0,0 +1,155 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+// Режим флота: много реле на одном потоке, у каждой площадки своё рукопожатие, heartbeat
+// и переподключение, списки камер сведены по площадкам
+public class RelayFleetTest {
+
+    @Test
+    public void manySitesShareOneThreadAndMergeCameraLists() throws Exception {
+        int sites = 24;
+        List<LoopbackRelayServer> servers = new ArrayList<>();
+        AtomicReference<RelayFleet.Snapshot> latest = new AtomicReference<>(RelayFleet.Snapshot.EMPTY);
+        AtomicInteger published = new AtomicInteger();
+        RelayFleet fleet = new RelayFleet(snapshot -> {
+            published.incrementAndGet();
+            latest.set(snapshot);
+        });
+        try {
+            for (int i = 0; i < sites; i++) {
+                servers.add(new LoopbackRelayServer(new LoopbackRelayServer.Config().cameras(1 + i % 4)));
+            }
+            int threadsBefore = clientThreads();
+            fleet.start();
+            for (int i = 0; i < sites; i++) {
+                LoopbackRelayServer server = servers.get(i);
+                fleet.addSite("site-" + i, new EndpointRacer.Endpoint(server.getHost(), server.getPort()));
+            }
+            waitUntil(() -> allCamerasListed(latest.get(), sites));
+
+            RelayFleet.Snapshot snapshot = latest.get();
+            assertEquals(snapshot.format(), sites, snapshot.getConnectedCount());
+            int expectedCameras = 0;
+            for (int i = 0; i < sites; i++) {
+                RelayFleet.Site site = snapshot.get("site-" + i);
+                assertTrue(site.peerConnected);
+                assertEquals(1 + i % 4, site.cameras.size());
+                assertEquals("Loopback camera 0", site.cameras.get(0).description);
+                expectedCameras += 1 + i % 4;
+            }
+            assertEquals(expectedCameras, snapshot.getCameraCount());
+            // Сколько бы ни было площадок - один поток; снимки слиты, а не по одному на строку
+            assertEquals(1, namedThreads("RelayFleet"));
+            assertTrue("threads " + (clientThreads() - threadsBefore), clientThreads() - threadsBefore <= 1);
+            assertTrue("published " + published.get(), published.get() < sites * 4);
+        } finally {
+            fleet.close();
+            for (LoopbackRelayServer server : servers) server.close();
+        }
+        assertEquals(0, namedThreads("RelayFleet"));
+    }
+
+    @Test
+    public void lostSiteReconnectsWithoutDisturbingOthers() throws Exception {
+        AtomicReference<RelayFleet.Snapshot> latest = new AtomicReference<>(RelayFleet.Snapshot.EMPTY);
+        LoopbackRelayServer stable = new LoopbackRelayServer(new LoopbackRelayServer.Config().cameras(2));
+        LoopbackRelayServer flaky = new LoopbackRelayServer(new LoopbackRelayServer.Config().cameras(3));
+        int flakyPort = flaky.getPort();
+        RelayFleet fleet = new RelayFleet(latest::set);
+        LoopbackRelayServer restarted = null;
+        try {
+            fleet.addSite("stable", new EndpointRacer.Endpoint(stable.getHost(), stable.getPort()));
+            fleet.addSite("flaky", new EndpointRacer.Endpoint(flaky.getHost(), flakyPort));
+            fleet.addSite("dead", new EndpointRacer.Endpoint("127.0.0.1", freePort()));
+            fleet.start();
+            waitUntil(() -> cameras(latest.get(), "stable") == 2 && cameras(latest.get(), "flaky") == 3);
+            assertFalse(latest.get().get("dead").isEstablished());
+
+            flaky.close();
+            waitUntil(() -> "Потеряно".equals(latest.get().get("flaky").status));
+            RelayFleet.Snapshot during = latest.get();
+            assertTrue(during.get("stable").isEstablished());
+            assertFalse(during.get("flaky").peerConnected);
+            // Пока площадки нет, её прежний список камер остаётся виден
+            assertEquals(3, during.get("flaky").cameras.size());
+
+            LoopbackRelayServer revived = new LoopbackRelayServer(new LoopbackRelayServer.Config().cameras(3).port(flakyPort));
+            restarted = revived;
+            waitUntil(() -> latest.get().get("flaky").isEstablished() && latest.get().get("flaky").peerConnected);
+            assertEquals(2, latest.get().getConnectedCount());
+            assertEquals(1, stable.getConnectionsAccepted());
+            assertEquals(1, revived.getConnectionsAccepted());
+
+            // Команда уходит только своей площадке
+            int stableCommands = stable.getCommandsReceived();
+            int revivedCommands = revived.getCommandsReceived();
+            fleet.send("flaky", "camList");
+            waitUntil(() -> revived.getCommandsReceived() > revivedCommands);
+            assertEquals(stableCommands, stable.getCommandsReceived());
+        } finally {
+            fleet.close();
+            stable.close();
+            flaky.close();
+            if (restarted != null) restarted.close();
+        }
+    }
+
+    private static boolean allCamerasListed(RelayFleet.Snapshot snapshot, int sites) {
+        if (snapshot.size() != sites) return false;
+        for (RelayFleet.Site site : snapshot.getSites()) {
+            if (!site.isEstablished() || site.cameras.size() == 0) return false;
+        }
+        return true;
+    }
+
+    private static int cameras(RelayFleet.Snapshot snapshot, String site) {
+        RelayFleet.Site entry = snapshot.get(site);
+        return entry == null ? -1 : entry.cameras.size();
+    }
+
+    // Потоки клиентской стороны: всё, кроме потоков LoopbackRelayServer
+    private static int clientThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith("loopback")) count++;
+        }
+        return count;
+    }
+
+    private static int namedThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name) && thread.isAlive()) count++;
+        }
+        return count;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.met()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
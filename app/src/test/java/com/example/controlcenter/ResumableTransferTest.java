@@ -0,0 +1,237 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+// Передача кусками с CRC32: битые куски перезапрашиваются поштучно,
+// после обрыва приём продолжается с последнего целого куска, а не с начала
+public class ResumableTransferTest {
+
+    private static final int CHUNK = 32 * 1024;
+
+    @Test
+    public void corruptChunksAreReRequestedIndividually() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(1024 * 1024, 4000, 3000, 1);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .image(jpeg).supportsBinary(true).supportsResumable(true)
+                .resumableChunkSize(CHUNK).corruptEveryChunk(5);
+
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Session session = new Session(server);
+            try {
+                session.connect();
+                assertTrue(session.listener.resumableNegotiated);
+                session.client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("image", session.done.await(10, TimeUnit.SECONDS));
+            } finally {
+                session.close();
+            }
+
+            assertArrayEquals(jpeg, session.result.get());
+            waitForTransferDone(server);
+            assertTrue("corrupted " + server.getChunksCorrupted(), server.getChunksCorrupted() >= 5);
+            assertEquals(server.getChunksCorrupted(), session.metrics.getChunksRetransmitted());
+            assertEquals(server.getChunksCorrupted(), server.getChunksResent());
+            // Повторно ушли только битые куски, а не вся картинка
+            long overhead = server.getBytesSent() - jpeg.length;
+            assertTrue("overhead " + overhead, overhead < (server.getChunksCorrupted() + 2L) * CHUNK);
+            assertEquals(1, server.getPhotosServed());
+            assertEquals(0, server.getPendingTransfers());
+        }
+    }
+
+    @Test
+    public void transferResumesAfterInjectedDisconnects() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(1536 * 1024, 4000, 3000, 2);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .image(jpeg).supportsBinary(true).supportsResumable(true)
+                .resumableChunkSize(CHUNK).corruptEveryChunk(7)
+                .disconnectAfterImageBytes(300 * 1024);
+
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Session session = new Session(server);
+            int connections = 0;
+            try {
+                // Каждое соединение рвётся посреди картинки; новое продолжает с последнего целого куска
+                while (session.done.getCount() > 0 && connections < 20) {
+                    connections++;
+                    session.connect();
+                    if (connections == 1) session.client.sendMessage("TAKE_PHOTO_0");
+                    waitForImageOrLoss(session);
+                }
+            } finally {
+                session.close();
+            }
+
+            assertArrayEquals(jpeg, session.result.get());
+            waitForTransferDone(server);
+            assertTrue("connections " + connections, connections >= 5);
+            assertEquals(connections - 1, server.getTransfersResumed());
+            assertEquals(connections - 1, session.metrics.getTransfersResumed());
+            // С начала картинка не сошлась бы никогда (за соединение уходит 300 КБ из 1.5 МБ).
+            // Лишнее - битые куски и то, что было в пути в момент обрыва
+            long overhead = server.getBytesSent() - jpeg.length;
+            assertTrue("overhead " + overhead / 1024 + " KB over " + connections + " connections, "
+                    + server.getChunksCorrupted() + " corrupt chunks", overhead < jpeg.length);
+            assertEquals(0, server.getPendingTransfers());
+        }
+    }
+
+    @Test
+    public void resumeFailsWhenServerForgotTransfer() throws Exception {
+        byte[] jpeg = SessionRecording.fakeJpeg(512 * 1024, 4000, 3000, 3);
+        LoopbackRelayServer.Config config = new LoopbackRelayServer.Config()
+                .image(jpeg).supportsBinary(true).supportsResumable(true)
+                .resumableChunkSize(CHUNK).disconnectAfterImageBytes(100 * 1024);
+
+        try (LoopbackRelayServer server = new LoopbackRelayServer(config)) {
+            Session session = new Session(server);
+            try {
+                session.connect();
+                session.client.sendMessage("TAKE_PHOTO_0");
+                assertTrue("lost", session.listener.connectionLost.await(10, TimeUnit.SECONDS));
+                assertTrue(session.receiver.hasPendingTransfer());
+                assertEquals(3 * CHUNK, session.receiver.getResumeOffset());
+
+                server.forgetTransfers();
+                session.connect();
+                assertTrue("failed", session.failed.await(5, TimeUnit.SECONDS));
+                assertFalse(session.receiver.hasPendingTransfer());
+                assertNull(session.result.get());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    public void receiverSkipsDuplicateAndForeignChunks() {
+        byte[] image = new byte[3 * 1000 + 500];
+        for (int i = 0; i < image.length; i++) image[i] = (byte) (i * 31);
+        AtomicReference<byte[]> result = new AtomicReference<>();
+        StringBuilder sent = new StringBuilder();
+        ResumableImageReceiver receiver = new ResumableImageReceiver(new ReceiverListener(result),
+                command -> sent.append(command).append('\n'), new TransferMetrics());
+
+        receiver.onImageStart(7, image.length, 1000);
+        feedChunk(receiver, 7, image, 0, 1000);
+        // Повтор уже принятого куска с мусором не должен его испортить
+        feedChunk(receiver, 7, new byte[image.length], 0, 1000);
+        // Кусок другой передачи игнорируется
+        feedChunk(receiver, 8, image, 1000, 1000);
+        assertEquals(1000, receiver.getResumeOffset());
+
+        feedChunk(receiver, 7, image, 2000, 1000);
+        feedChunk(receiver, 7, image, 3000, 500);
+        assertNull(result.get());
+
+        // После переподключения: дыра в 1000..2000 перезапрашивается одна, остальное уже есть
+        receiver.onConnectionLost();
+        receiver.onResumeAvailable();
+        assertEquals("RESEND:7:1000\nRESUME:7:3500\n", sent.toString());
+        sent.setLength(0);
+
+        // Этот кусок приходит битым: перезапрос только его
+        byte[] broken = image.clone();
+        broken[1500] ^= 1;
+        receiver.onChunkStart(7, 1000, 1000, crc(image, 1000, 1000));
+        receiver.onChunkData(ByteBuffer.wrap(broken, 1000, 1000));
+        assertEquals("RESEND:7:1000\n", sent.toString());
+
+        feedChunk(receiver, 7, image, 1000, 1000);
+        assertArrayEquals(image, result.get());
+        assertEquals("RESEND:7:1000\nRES_DONE:7\n", sent.toString());
+        assertFalse(receiver.hasPendingTransfer());
+    }
+
+    // Кусок приходит несколькими срезами, как из FrameScanner
+    private static void feedChunk(ResumableImageReceiver receiver, int id, byte[] source, int offset, int length) {
+        receiver.onChunkStart(id, offset, length, crc(source, offset, length));
+        int half = length / 2;
+        receiver.onChunkData(ByteBuffer.wrap(source, offset, half));
+        receiver.onChunkData(ByteBuffer.wrap(source, offset + half, length - half));
+    }
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    // RES_DONE: клиент отправляет после сборки картинки - сервер получает его чуть позже
+    private static void waitForTransferDone(LoopbackRelayServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (server.getPendingTransfers() > 0) {
+            assertTrue("RES_DONE не дошёл", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void waitForImageOrLoss(Session session) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (session.done.await(20, TimeUnit.MILLISECONDS)) return;
+            if (session.listener.connectionLost.getCount() == 0) return;
+        }
+        fail("ни картинки, ни обрыва");
+    }
+
+    // Одна докачиваемая передача через несколько соединений: приёмник общий, TcpClient и слушатель - новые
+    private static class Session {
+        final LoopbackRelayServer server;
+        final TransferMetrics metrics = new TransferMetrics();
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<byte[]> result = new AtomicReference<>();
+        final AtomicReference<TcpClient> current = new AtomicReference<>();
+        final ResumableImageReceiver receiver;
+        RecordingTcpListener listener;
+        TcpClient client;
+
+        Session(LoopbackRelayServer server) {
+            this.server = server;
+            this.receiver = new ResumableImageReceiver(new ReceiverListener(result) {
+                @Override public void onTransferComplete(byte[] data) { super.onTransferComplete(data); done.countDown(); }
+                @Override public void onTransferFailed(String reason) { failed.countDown(); }
+            }, command -> {
+                TcpClient c = current.get();
+                if (c != null) c.sendMessage(command);
+            }, metrics);
+        }
+
+        void connect() throws InterruptedException {
+            close();
+            listener = new RecordingTcpListener(true);
+            listener.resumable = receiver;
+            client = new TcpClient(listener, server.getHost(), server.getPort());
+            listener.client = client;
+            current.set(client);
+            client.connect();
+            assertTrue("handshake", listener.handshakeDone.await(5, TimeUnit.SECONDS));
+        }
+
+        void close() {
+            if (client != null) client.close();
+        }
+    }
+
+    private static class ReceiverListener implements ResumableImageReceiver.Listener {
+        private final AtomicReference<byte[]> result;
+
+        ReceiverListener(AtomicReference<byte[]> result) {
+            this.result = result;
+        }
+
+        @Override public void onTransferStarted(int length) {}
+        @Override public void onTransferProgress(int received, int length) {}
+        @Override public void onTransferComplete(byte[] data) { result.set(data); }
+        @Override public void onTransferFailed(String reason) { fail(reason); }
+    }
+}
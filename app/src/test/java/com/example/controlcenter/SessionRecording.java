@@ -0,0 +1,148 @@
+package com.example.controlcenter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+// Запись входящего потока сессии (то, что реле присылает клиенту) для воспроизведения в бенчмарках.
+// Собирается синтетически или загружается из файла с сырым дампом сокета.
+// В режиме compressed() сообщения не короче порога пишутся кадрами Z:, как их шлёт реле после CAPS:DEFLATE
+public class SessionRecording {
+
+    private static final int BASE64_LINE_LENGTH = 76;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private CompressedFrames.Encoder encoder;
+    private int images = 0;
+    private long imageBytes = 0;
+
+    public static byte[] load(Path dump) throws IOException {
+        return Files.readAllBytes(dump);
+    }
+
+    // Всё, что записано дальше, сжимается общим словарём
+    public SessionRecording compressed(int threshold) {
+        encoder = new CompressedFrames.Encoder(threshold);
+        return this;
+    }
+
+    public SessionRecording handshake() {
+        return line("SERVER_STATUS: PEER_CONNECTED");
+    }
+
+    // Список одним сообщением; без сжатия это те же строки подряд
+    public SessionRecording cameraList(int cameras) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < cameras; i++) {
+            list.append(i).append(" -- Camera ").append(i).append('\n');
+        }
+        write(list.toString().getBytes(StandardCharsets.UTF_8), false);
+        return this;
+    }
+
+    public SessionRecording heartbeats(int count) {
+        for (int i = 0; i < count; i++) {
+            line("PONG");
+        }
+        return this;
+    }
+
+    // Снимок по текстовому протоколу: SIZE:, IMAGE, строки Base64, END123.
+    // Со сжатием - как в LoopbackRelayServer: короткий заголовок как есть, строки кадрами по ~60 КБ исходного текста
+    public SessionRecording textImage(byte[] jpeg) {
+        String base64 = Base64.getEncoder().encodeToString(jpeg);
+        write(("SIZE:" + base64.length() + "\nIMAGE\n").getBytes(StandardCharsets.US_ASCII), false);
+        StringBuilder chunk = new StringBuilder(64 * 1024);
+        for (int i = 0; i < base64.length(); i += BASE64_LINE_LENGTH) {
+            chunk.append(base64, i, Math.min(base64.length(), i + BASE64_LINE_LENGTH)).append('\n');
+            if (chunk.length() >= 60 * 1024) {
+                write(chunk.toString().getBytes(StandardCharsets.US_ASCII), true);
+                chunk.setLength(0);
+            }
+        }
+        chunk.append("END123\n");
+        write(chunk.toString().getBytes(StandardCharsets.US_ASCII), true);
+        images++;
+        imageBytes += jpeg.length;
+        return this;
+    }
+
+    // Снимки нескольких камер (id = индекс) вперемешку кусками по chunkSize: CAM_IMAGE:, затем CAM_CHUNK:
+    public SessionRecording interleavedCameraImages(byte[][] jpegs, int chunkSize) {
+        for (int camera = 0; camera < jpegs.length; camera++) {
+            line(TcpClient.CAMERA_IMAGE_HEADER + camera + ":" + jpegs[camera].length);
+        }
+        int[] offsets = new int[jpegs.length];
+        boolean pending = true;
+        while (pending) {
+            pending = false;
+            for (int camera = 0; camera < jpegs.length; camera++) {
+                int n = Math.min(chunkSize, jpegs[camera].length - offsets[camera]);
+                if (n <= 0) continue;
+                line(TcpClient.CAMERA_CHUNK_HEADER + camera + ":" + n);
+                out.write(jpegs[camera], offsets[camera], n);
+                offsets[camera] += n;
+                pending |= offsets[camera] < jpegs[camera].length;
+            }
+        }
+        images += jpegs.length;
+        for (byte[] jpeg : jpegs) imageBytes += jpeg.length;
+        return this;
+    }
+
+    public SessionRecording line(String text) {
+        write((text + "\n").getBytes(StandardCharsets.UTF_8), false);
+        return this;
+    }
+
+    private void write(byte[] bytes, boolean force) {
+        if (encoder != null && encoder.encode(bytes, 0, bytes.length, force)) {
+            out.write(encoder.getFrame(), encoder.getFrameOffset(), encoder.getFrameLength());
+        } else {
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    public int getImages() {
+        return images;
+    }
+
+    public long getImageBytes() {
+        return imageBytes;
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    // Поток, который отдаёт данные порциями как TCP-сегменты, а не одним куском
+    public static InputStream segmented(byte[] session, int segment) {
+        return new ByteArrayInputStream(session) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, segment));
+            }
+        };
+    }
+
+    // Псевдо-JPEG заданного размера: SOI, SOF0 с размерами кадра, шум, EOI
+    public static byte[] fakeJpeg(int size, int width, int height, long seed) {
+        byte[] data = new byte[Math.max(size, 32)];
+        new Random(seed).nextBytes(data);
+        byte[] header = {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xC0, 0x00, 0x11, 0x08,
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 0x03
+        };
+        System.arraycopy(header, 0, data, 0, header.length);
+        data[data.length - 2] = (byte) 0xFF;
+        data[data.length - 1] = (byte) 0xD9;
+        return data;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.controlcenter;
+
+import java.nio.ByteBuffer;
+
+// Слушатель ConnectionManager для тестов, которым важен только обмен командами
+class SilentConnectionListener implements ConnectionManager.ConnectionManagerListener {
+    @Override public void onConnectionStatusChanged(String status) {}
+    @Override public void onPeerStatusChanged(String status) {}
+    @Override public void onPeerConnected() {}
+    @Override public void onPeerDisconnected() {}
+    @Override public void onLimitReached() {}
+    @Override public void onTextImageStarted(int expectedChars) {}
+    @Override public void onTextImagePayload(ByteBuffer payload) {}
+    @Override public void onTextImageFinished() {}
+    @Override public void onBinaryImageStarted(int length) {}
+    @Override public void onBinaryImageProgress(int received, int length) {}
+    @Override public void onBinaryImageReceived(byte[] data) {}
+    @Override public void onCameraImageStarted(int cameraId, int length) {}
+    @Override public void onCameraImageChunk(int cameraId, ByteBuffer chunk) {}
+    @Override public void onImageTransferFailed(String reason) {}
+    @Override public void onLiveFrameStarted(int cameraId, int sequence, int length) {}
+    @Override public void onLiveFrameData(ByteBuffer data) {}
+}
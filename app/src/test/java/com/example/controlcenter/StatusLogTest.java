@@ -0,0 +1,125 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Журнал на экране: не больше capacity строк, пачка строк - один снимок за кадр,
+// ни одна строка между кадрами не теряется
+public class StatusLogTest {
+
+    @Test
+    public void linesBetweenFramesArePublishedOnceAndNotLost() {
+        ManualFrames frames = new ManualFrames();
+        List<StatusLog.Snapshot> published = new ArrayList<>();
+        StatusLog log = new StatusLog(8, frames, published::add);
+
+        log.add("a");
+        log.add("b");
+        log.add("c");
+        assertEquals(1, frames.pending.size());
+        assertTrue(published.isEmpty());
+
+        frames.runFrame();
+        assertEquals(1, published.size());
+        assertEquals(List.of("a", "b", "c"), texts(published.get(0)));
+        assertEquals(0, published.get(0).getFirstIndex());
+
+        // Без новых строк кадр не планируется
+        frames.runFrame();
+        assertEquals(1, published.size());
+
+        log.add("d");
+        frames.runFrame();
+        assertEquals(List.of("a", "b", "c", "d"), texts(log.getSnapshot()));
+        assertEquals(4, log.getSnapshot().getEndIndex());
+    }
+
+    @Test
+    public void oldestLinesAreEvictedAtCapacity() {
+        ManualFrames frames = new ManualFrames();
+        StatusLog log = new StatusLog(5, frames, snapshot -> {});
+
+        for (int i = 0; i < 1000; i++) {
+            log.add("line " + i);
+        }
+        assertEquals(1, frames.pending.size());
+        frames.runFrame();
+
+        StatusLog.Snapshot snapshot = log.getSnapshot();
+        assertEquals(5, snapshot.size());
+        assertEquals(995, snapshot.getFirstIndex());
+        assertEquals(1000, snapshot.getEndIndex());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(995 + i, snapshot.get(i).index);
+            assertEquals("line " + (995 + i), snapshot.get(i).text);
+        }
+    }
+
+    @Test
+    public void concurrentWritersKeepEveryLineInOrderOfIndex() throws Exception {
+        ManualFrames frames = new ManualFrames();
+        StatusLog log = new StatusLog(100_000, frames, snapshot -> {});
+        int threads = 8;
+        int perThread = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                int writer = t;
+                pool.execute(() -> {
+                    for (int i = 0; i < perThread; i++) log.add(writer + ":" + i);
+                    done.countDown();
+                });
+            }
+            // Кадры идут параллельно с записью, как на устройстве
+            while (!done.await(1, TimeUnit.MILLISECONDS)) frames.runFrame();
+        } finally {
+            pool.shutdownNow();
+        }
+        frames.runFrame();
+
+        StatusLog.Snapshot snapshot = log.getSnapshot();
+        assertEquals(threads * perThread, snapshot.size());
+        int[] next = new int[threads];
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEquals(i, snapshot.get(i).index);
+            String[] parts = snapshot.get(i).text.split(":");
+            int writer = Integer.parseInt(parts[0]);
+            // Строки одного потока - в порядке добавления
+            assertEquals(next[writer]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    private static List<String> texts(StatusLog.Snapshot snapshot) {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) texts.add(snapshot.get(i).text);
+        return texts;
+    }
+
+    // Кадры по команде теста
+    private static class ManualFrames implements FrameScheduler {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public synchronized void schedule(Runnable action) {
+            pending.add(action);
+        }
+
+        void runFrame() {
+            List<Runnable> due;
+            synchronized (this) {
+                due = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Runnable action : due) action.run();
+        }
+    }
+}
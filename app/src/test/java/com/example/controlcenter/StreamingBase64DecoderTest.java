@@ -0,0 +1,123 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingBase64DecoderTest {
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void chunksSplitAnywhereDecodeLikeWholeInput() {
+        // Длины дают все три варианта хвоста, 5000 байт - рост буфера сверх начального
+        for (int length : new int[]{0, 1, 2, 3, 4, 5, 31, 32, 33, 5000}) {
+            byte[] data = randomBytes(length);
+            String encoded = Base64.getEncoder().encodeToString(data);
+            for (int chunk = 1; chunk <= 7; chunk++) {
+                StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+                decoder.reset(0);
+                for (int i = 0; i < encoded.length(); i += chunk) {
+                    decoder.feed(encoded, i, Math.min(encoded.length(), i + chunk));
+                }
+                decoder.finish();
+                assertDecoded("length " + length + ", chunk " + chunk, data, decoder);
+
+                decoder.reset(0);
+                byte[] ascii = encoded.getBytes(StandardCharsets.US_ASCII);
+                for (int i = 0; i < ascii.length; i += chunk) {
+                    decoder.feed(ByteBuffer.wrap(ascii, i, Math.min(ascii.length - i, chunk)));
+                }
+                decoder.finish();
+                assertDecoded("bytes, length " + length + ", chunk " + chunk, data, decoder);
+            }
+        }
+    }
+
+    @Test
+    public void paddingEndsQuadAndMissingPaddingIsFlushedByFinish() {
+        assertEquals("A", decode("QQ=="));
+        assertEquals("AB", decode("QUI="));
+        assertEquals("ABC", decode("QUJD"));
+        // '=' пришёл отдельным фрагментом
+        assertEquals("AB", decode("QU", "I", "="));
+        assertEquals("A", decode("QQ=", "="));
+        // Сервер без паддинга: хвост дописывает finish()
+        assertEquals("A", decode("QQ"));
+        assertEquals("AB", decode("QUI"));
+        assertEquals("ABCA", decode("QUJD", "QQ"));
+    }
+
+    @Test
+    public void lineBreaksAndWhitespaceAreSkipped() {
+        byte[] data = randomBytes(1000);
+        // MIME-кодировщик режет строки по 76 символов через \r\n
+        String encoded = Base64.getMimeEncoder().encodeToString(data);
+        assertTrue(encoded.contains("\r\n"));
+
+        StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+        decoder.reset(encoded.length());
+        decoder.feed(encoded);
+        decoder.finish();
+        assertDecoded("mime", data, decoder);
+
+        assertEquals("ABC", decode(" QU\r", "\n\tJ D \r\n"));
+    }
+
+    @Test
+    public void detachHandsOffArrayAndResetStartsCleanImage() {
+        byte[] first = randomBytes(300);
+        byte[] second = randomBytes(200);
+        String firstEncoded = Base64.getEncoder().encodeToString(first);
+
+        StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+        decoder.reset(firstEncoded.length());
+        decoder.feed(firstEncoded);
+        decoder.finish();
+        byte[] detached = decoder.detach();
+        assertEquals(0, decoder.size());
+        assertArrayEquals(first, Arrays.copyOf(detached, first.length));
+
+        // Следующая картинка идёт в новый массив, отданный остаётся нетронутым
+        String secondEncoded = Base64.getEncoder().encodeToString(second);
+        decoder.reset(secondEncoded.length());
+        decoder.feed(secondEncoded);
+        decoder.finish();
+        assertNotSame(detached, decoder.array());
+        assertDecoded("after detach", second, decoder);
+        assertArrayEquals(first, Arrays.copyOf(detached, first.length));
+
+        // reset() посреди четвёрки сбрасывает перенос: оборванная картинка не портит следующую
+        decoder.feed("QUJ");
+        decoder.reset(0);
+        decoder.feed("QUI=");
+        assertEquals("AB", new String(decoder.array(), 0, decoder.size(), StandardCharsets.US_ASCII));
+    }
+
+    private static String decode(String... chunks) {
+        StreamingBase64Decoder decoder = new StreamingBase64Decoder();
+        decoder.reset(0);
+        for (String chunk : chunks) {
+            decoder.feed(chunk);
+        }
+        decoder.finish();
+        return new String(decoder.array(), 0, decoder.size(), StandardCharsets.US_ASCII);
+    }
+
+    private static void assertDecoded(String message, byte[] expected, StreamingBase64Decoder decoder) {
+        assertEquals(message, expected.length, decoder.size());
+        assertArrayEquals(message, expected, Arrays.copyOf(decoder.array(), decoder.size()));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
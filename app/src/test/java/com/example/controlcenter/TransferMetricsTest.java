@@ -0,0 +1,44 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransferMetricsTest {
+
+    @Test
+    public void histogramPercentilesStayWithinBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        // p50 = 50 лежит в корзине [32, 63]
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void photoPhasesAreRecordedInOrder() throws Exception {
+        TransferMetrics metrics = new TransferMetrics();
+        metrics.markPhotoRequested();
+        metrics.markTransferStarted();
+        Thread.sleep(5);
+        metrics.markTransferFinished(1024 * 1024);
+        metrics.recordDecode(3_000_000);
+        metrics.markImageShown();
+
+        assertEquals(1, metrics.getRequestToSize().getCount());
+        assertEquals(1, metrics.getReceive().getCount());
+        assertEquals(1, metrics.getThroughputKbps().getCount());
+        assertEquals(3, metrics.getDecode().getMax());
+        assertEquals(1, metrics.getRequestToScreen().getCount());
+        assertEquals(1024 * 1024, metrics.getBytesReceived());
+
+        // Повторный показ того же кадра не считается
+        metrics.markImageShown();
+        assertEquals(1, metrics.getRequestToScreen().getCount());
+    }
+}
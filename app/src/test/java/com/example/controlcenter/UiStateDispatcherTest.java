@@ -0,0 +1,171 @@
+package com.example.controlcenter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Состояние экрана: все изменения между кадрами - один снимок, без полусостояний;
+// прогресс от ImageProcessor приходит только при смене процента
+public class UiStateDispatcherTest {
+
+    @Test
+    public void updatesBetweenFramesArePublishedAsOneSnapshot() {
+        ManualFrames frames = new ManualFrames();
+        List<UiState> published = new ArrayList<>();
+        UiStateDispatcher dispatcher = new UiStateDispatcher(UiState.INITIAL, frames, published::add);
+
+        // Как lockInterfaceBeforeRequest, затем заголовок картинки и прогресс
+        dispatcher.update(s -> s.withPhotoRequested().withButtonsEnabled(false));
+        dispatcher.update(s -> s.withTransferStarted("Размер: ~512 КБ"));
+        for (int p = 0; p < 40; p++) {
+            int progress = p;
+            dispatcher.update(s -> s.withProgress(progress));
+        }
+        assertEquals(1, frames.pending.size());
+        assertTrue(published.isEmpty());
+
+        frames.runFrame();
+        assertEquals(1, published.size());
+        UiState state = published.get(0);
+        assertTrue(state.loading);
+        assertFalse(state.progressIndeterminate);
+        assertEquals(39, state.progress);
+        assertEquals("Размер: ~512 КБ", state.sizeText);
+        assertFalse(state.buttonsEnabled);
+
+        // Без изменений кадр не планируется
+        dispatcher.update(s -> s.withProgress(39));
+        dispatcher.update(s -> s.withConnection(s.connection));
+        assertTrue(frames.pending.isEmpty());
+
+        dispatcher.update(s -> s.withLoadingFinished(true));
+        frames.runFrame();
+        assertEquals(2, published.size());
+        assertFalse(published.get(1).loading);
+        assertTrue(published.get(1).buttonsEnabled);
+        assertSame(published.get(1), dispatcher.getState());
+    }
+
+    @Test
+    public void imageProcessorReportsOnlyVisibleProgressChanges() throws Exception {
+        ManualFrames frames = new ManualFrames();
+        List<UiState> published = new ArrayList<>();
+        UiStateDispatcher dispatcher = new UiStateDispatcher(UiState.INITIAL, frames, published::add);
+        ProgressListener listener = new ProgressListener(dispatcher);
+        ImageProcessor processor = new ImageProcessor(listener, new TransferMetrics(), new JpegHeaderDecoder());
+        try {
+            byte[] image = SessionRecording.fakeJpeg(64 * 1024, 640, 480, 1);
+            processor.beginBinaryImage(image.length);
+            // Прогресс на каждые 8 байт - как строки текстового режима
+            for (int received = 0; received < image.length; received += 8) {
+                processor.onBinaryImageProgress(received, image.length);
+                if (received % 4096 == 0) frames.runFrame();
+            }
+            frames.runFrame();
+            assertEquals(100, listener.progressCalls.get());
+            assertEquals(99, dispatcher.getState().progress);
+            // Кадров не больше, чем смен процента
+            assertTrue("published " + published.size(), published.size() <= 17);
+
+            processor.processBinaryImage(image);
+            assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+            frames.runFrame();
+            assertFalse(dispatcher.getState().loading);
+
+            // Новая картинка снова начинает с нуля
+            processor.beginBinaryImage(image.length);
+            processor.onBinaryImageProgress(0, image.length);
+            assertEquals(101, listener.progressCalls.get());
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        ManualFrames frames = new ManualFrames();
+        List<UiState> published = new ArrayList<>();
+        UiStateDispatcher dispatcher = new UiStateDispatcher(UiState.INITIAL, frames, published::add);
+        int threads = 8;
+        int perThread = 2_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    // Каждое обновление опирается на предыдущее - потерянное было бы видно по счёту
+                    for (int i = 0; i < perThread; i++) dispatcher.update(s -> s.withProgress(s.progress + 1));
+                    done.countDown();
+                });
+            }
+            while (!done.await(1, TimeUnit.MILLISECONDS)) frames.runFrame();
+        } finally {
+            pool.shutdownNow();
+        }
+        frames.runFrame();
+
+        assertEquals(threads * perThread, published.get(published.size() - 1).progress);
+        assertTrue(published.size() < threads * perThread);
+    }
+
+    private static class ProgressListener implements ImageProcessor.ImageProcessorListener {
+        final AtomicInteger progressCalls = new AtomicInteger();
+        final CountDownLatch completed = new CountDownLatch(1);
+        private final UiStateDispatcher dispatcher;
+
+        ProgressListener(UiStateDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public void onProgressUpdate(int progress) {
+            progressCalls.incrementAndGet();
+            dispatcher.update(s -> s.withProgress(progress));
+        }
+
+        @Override
+        public void onImageProcessingStart(String sizeText) {
+            dispatcher.update(s -> s.withTransferStarted(sizeText));
+        }
+
+        @Override
+        public void onImageProcessingComplete() {
+            dispatcher.update(s -> s.withLoadingFinished(true));
+            completed.countDown();
+        }
+
+        @Override public void onImageDecoded(DecodedImage image) {}
+        @Override public void onError(String message) {}
+        @Override public void onCameraProgress(int cameraId, int percent) {}
+        @Override public void onCameraImageDecoded(int cameraId, DecodedImage image) {}
+        @Override public void onCameraError(int cameraId, String message) {}
+        @Override public void onCachedImageDecoded(int cameraId, long capturedAt, DecodedImage image) {}
+    }
+
+    // Кадры по команде теста
+    private static class ManualFrames implements FrameScheduler {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public synchronized void schedule(Runnable action) {
+            pending.add(action);
+        }
+
+        void runFrame() {
+            List<Runnable> due;
+            synchronized (this) {
+                due = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Runnable action : due) action.run();
+        }
+    }
+}